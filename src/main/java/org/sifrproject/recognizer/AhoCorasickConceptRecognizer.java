@@ -0,0 +1,186 @@
+package org.sifrproject.recognizer;
+
+import org.sifrproject.recognizer.automaton.StemAutomaton;
+import org.sifrproject.recognizer.util.CharRangeSet;
+import org.sifrproject.recognizer.util.Overlaps;
+import org.sifrproject.recognizer.util.TokenizedText;
+import org.sifrproject.stemming.StemCache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import stormpot.Slot;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Concept recognizer matching the stemmed label sequences of the dictionary with an Aho-Corasick automaton, in a
+ * single left-to-right pass over the tokens of the text. Stop words are skipped and termination terms end all pending
+ * matches, as in {@link FaironConceptRecognizer}, but unlike it labels must appear in order and every match is
+ * reported, including matches nested in or overlapping longer ones. Instances can be shared by any number of threads.
+ */
+public class AhoCorasickConceptRecognizer implements ConceptRecognizer {
+
+    private static final Logger logger = LoggerFactory.getLogger(AhoCorasickConceptRecognizer.class);
+
+    private final StemAutomaton automaton;
+
+    private final CharRangeSet stopList;
+
+    private final CharRangeSet terminationList;
+
+
+    private final StemCache stemCache;
+
+    private final int stopWordAllowance;
+
+    //Per thread stemmer and indices of the last matchable tokens, enough to go back to the start of the longest label
+    private final ThreadLocal<RecognizerScratch> scratches;
+
+    private final Slot slot;
+
+    /**
+     * @param stopWordAllowance Number of stop words a match may span, as in {@link FaironConceptRecognizer}
+     */
+    public AhoCorasickConceptRecognizer(final Slot slot, final StemAutomaton automaton, final StemCache stemCache, final int stopWordAllowance) {
+        this.automaton = automaton;
+        this.slot = slot;
+        this.stemCache = stemCache;
+        this.stopWordAllowance = stopWordAllowance;
+        stopList = CharRangeSet.of(FaironConceptRecognizer.loadStopWords());
+        terminationList = CharRangeSet.of(FaironConceptRecognizer.loadTerminationTerms());
+        final int matchableTokenBufferSize = Math.max(1, automaton.maxDepth());
+        scratches = ThreadLocal.withInitial(() -> new RecognizerScratch(matchableTokenBufferSize));
+        logger.info("Concept Recognizer ready!");
+    }
+
+    public AhoCorasickConceptRecognizer(final Slot slot, final StemAutomaton automaton, final StemCache stemCache) {
+        this(slot, automaton, stemCache, FaironConceptRecognizer.DEFAULT_STOP_WORD_ALLOWANCE);
+    }
+
+    public AhoCorasickConceptRecognizer(final Slot slot, final StemAutomaton automaton) {
+        this(slot, automaton, StemCache.shared());
+    }
+
+    /**
+     * Lightweight recognizer bound to a pool slot, sharing the automaton, word lists, stem cache and per-thread scratch
+     * of an existing recognizer
+     */
+    public AhoCorasickConceptRecognizer(final Slot slot, final AhoCorasickConceptRecognizer sharedRecognizer) {
+        this.slot = slot;
+        automaton = sharedRecognizer.automaton;
+        stemCache = sharedRecognizer.stemCache;
+        stopWordAllowance = sharedRecognizer.stopWordAllowance;
+        stopList = sharedRecognizer.stopList;
+        terminationList = sharedRecognizer.terminationList;
+        scratches = sharedRecognizer.scratches;
+    }
+
+    public AhoCorasickConceptRecognizer(final StemAutomaton automaton, final StemCache stemCache, final int stopWordAllowance) {
+        this(new FaironConceptRecognizer.DummySlot(), automaton, stemCache, stopWordAllowance);
+    }
+
+    public AhoCorasickConceptRecognizer(final StemAutomaton automaton, final StemCache stemCache) {
+        this(new FaironConceptRecognizer.DummySlot(), automaton, stemCache);
+    }
+
+    public AhoCorasickConceptRecognizer(final StemAutomaton automaton) {
+        this(new FaironConceptRecognizer.DummySlot(), automaton);
+    }
+
+    public AhoCorasickConceptRecognizer(final InputStream dictionaryStream) {
+        this(loadDictionary(dictionaryStream));
+    }
+
+    private static StemAutomaton loadDictionary(final InputStream dictionaryStream) {
+        StemAutomaton automaton = null;
+        try {
+            automaton = new DictionaryCompiler().compileAutomaton(dictionaryStream);
+        } catch (final IOException e) {
+            logger.error("FATAL - Failed to load dictionary: {}", e.getLocalizedMessage());
+            System.exit(1);
+        }
+        return automaton;
+    }
+
+    @Override
+    public List<AnnotationToken> recognize(final String inputText, final boolean longestOnly) {
+        List<AnnotationToken> annotations = Collections.emptyList();
+        if ((inputText != null) && !inputText.isEmpty()) {
+            annotations = new ArrayList<>();
+            final RecognizerScratch scratch = scratches.get();
+            final int[] matchableTokens = scratch.buffer;
+            //We normalize and tokenize the text exactly as the Fairon recognizer does
+            final TokenizedText tokens = scratch.tokens;
+            final int tokenCount = tokens.tokenize(inputText, false);
+            final char[] text = tokens.text();
+
+            int state = StemAutomaton.ROOT;
+            //Number of tokens fed to the automaton since the last termination term or unknown stem
+            int matchableCount = 0;
+            for (int token = 0; token < tokenCount; token++) {
+                int tokenStart = tokens.start(token);
+                int tokenEnd = tokens.end(token);
+                while ((tokenStart < tokenEnd) && (text[tokenStart] <= ' ')) {
+                    tokenStart++;
+                }
+                while ((tokenEnd > tokenStart) && (text[tokenEnd - 1] <= ' ')) {
+                    tokenEnd--;
+                }
+                final int tokenLength = tokenEnd - tokenStart;
+                //Stop words are transparent, they neither match nor interrupt a match
+                if (stopList.contains(text, tokenStart, tokenLength)) {
+                    continue;
+                }
+                //A termination term interrupts every pending match
+                if (terminationList.contains(text, tokenStart, tokenLength)) {
+                    state = StemAutomaton.ROOT;
+                    matchableCount = 0;
+                    continue;
+                }
+
+                final int stemId = automaton.stemId(stemCache.get(text, tokenStart, tokenLength, scratch.stemFunction));
+                if (stemId == StemAutomaton.NOT_FOUND) {
+                    state = StemAutomaton.ROOT;
+                    matchableCount = 0;
+                    continue;
+                }
+                state = automaton.next(state, stemId);
+                matchableTokens[matchableCount % matchableTokens.length] = token;
+                matchableCount++;
+
+                //Every label ending at the current token is on the output chain of the current state
+                int outputState = automaton.firstOutputState(state);
+                while (outputState != StemAutomaton.NO_STATE) {
+                    final int labelLength = automaton.depth(outputState);
+                    final int firstToken = matchableTokens[(matchableCount - labelLength) % matchableTokens.length];
+                    //The tokens of the match that are not part of the label are the stop words it skipped
+                    if ((((token - firstToken) + 1) - labelLength) <= stopWordAllowance) {
+                        final int start = tokens.sourceStart(firstToken);
+                        final int end = tokens.sourceEnd(token);
+                        final String conceptText = inputText.substring(start, end);
+                        for (int output = automaton.outputStart(outputState); output < automaton.outputEnd(outputState); output++) {
+                            annotations.add(AnnotationToken.create(start + 1, end, conceptText, automaton.outputConceptId(output), labelLength));
+                        }
+                    }
+                    outputState = automaton.nextOutputState(outputState);
+                }
+            }
+        }
+        //Nested and overlapping matches are only resolved on request, in longest-only mode
+        return longestOnly ? Overlaps.keepLongest(annotations) : annotations;
+    }
+
+    @Override
+    public int lookahead() {
+        //A match ends at most the longest label and the skipped stop words after its first token
+        return Math.max(0, automaton.maxDepth() - 1) + stopWordAllowance;
+    }
+
+    @Override
+    public void release() {
+        slot.release(this);
+    }
+}
@@ -1,9 +1,72 @@
 package org.sifrproject.recognizer;
 
+import org.reactivestreams.Publisher;
+import org.sifrproject.recognizer.batch.BatchRecognition;
+import org.sifrproject.recognizer.stream.AnnotationPublisher;
+import org.sifrproject.recognizer.stream.ChunkedRecognition;
+import org.sifrproject.recognizer.stream.ReaderChunks;
 import stormpot.Poolable;
 
+import java.io.Reader;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Spliterator;
+import java.util.concurrent.ForkJoinPool;
 
+/**
+ * Recognizes dictionary concepts in text. Implementations are safe to call concurrently from several threads.
+ */
 public interface ConceptRecognizer extends Poolable {
     List<AnnotationToken> recognize(String inputText, boolean longestOnly);
+
+    /**
+     * @return The number of tokens after the first token of a match that recognizing it may look at
+     */
+    int lookahead();
+
+    /**
+     * Recognize a document read from a reader, without holding more of it than a chunk and the longest match window.
+     * The annotations are published in the order of their start offsets, as far as the subscriber requests them,
+     * and are read and recognized on the thread requesting them. A pooled recognizer must not be released before
+     * the publisher completes.
+     */
+    default Publisher<AnnotationToken> recognizeStream(final Reader reader, final boolean longestOnly) {
+        return recognizeStream(new ReaderChunks(reader), longestOnly);
+    }
+
+    /**
+     * Recognize a document given as consecutive chunks, see {@link #recognizeStream(Reader, boolean)}
+     */
+    default Publisher<AnnotationToken> recognizeStream(final Iterator<? extends CharSequence> chunks, final boolean longestOnly) {
+        return new AnnotationPublisher(() -> new ChunkedRecognition(this, chunks, longestOnly));
+    }
+
+    /**
+     * Recognize many documents in parallel on the common fork/join pool
+     *
+     * @return The annotations of each text, in the order of the texts
+     */
+    default List<List<AnnotationToken>> recognizeBatch(final List<? extends CharSequence> texts, final boolean longestOnly) {
+        return recognizeBatch(texts, longestOnly, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Recognize many documents in parallel on the workers of the given pool
+     *
+     * @return The annotations of each text, in the order of the texts
+     */
+    default List<List<AnnotationToken>> recognizeBatch(final List<? extends CharSequence> texts, final boolean longestOnly, final ForkJoinPool pool) {
+        return BatchRecognition.recognize(this, texts, longestOnly, pool);
+    }
+
+    /**
+     * Recognize documents as they are traversed, e.g. by a parallel stream:
+     * {@code StreamSupport.stream(recognizer.recognizeBatch(texts, false), true)}. The stream runs on the pool its
+     * terminal operation is called from.
+     *
+     * @return The annotations of each text, splitting and ordered as the texts
+     */
+    default Spliterator<List<AnnotationToken>> recognizeBatch(final Spliterator<? extends CharSequence> texts, final boolean longestOnly) {
+        return BatchRecognition.spliterator(this, texts, longestOnly);
+    }
 }
@@ -0,0 +1,246 @@
+package org.sifrproject.recognizer;
+
+import org.sifrproject.recognizer.automaton.StemAutomaton;
+import org.sifrproject.recognizer.automaton.StemAutomatonBuilder;
+import org.sifrproject.recognizer.index.ArrayConceptIndex;
+import org.sifrproject.recognizer.index.ConceptIndexBuilder;
+import org.sifrproject.recognizer.index.ConceptIndexSnapshot;
+import org.sifrproject.recognizer.util.CharRangeSet;
+import org.sifrproject.recognizer.util.Strings;
+import org.sifrproject.recognizer.util.TokenizedText;
+import org.sifrproject.stemming.FrenchClinicalStemmer;
+import org.sifrproject.stemming.StemCache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.tartarus.snowball.SnowballStemmer;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.Checksum;
+
+/**
+ * Compiles MGREP dictionaries into {@link org.sifrproject.recognizer.index.ConceptIndex} instances, either from the
+ * text dictionary or from a binary snapshot compiled earlier from the same sources.
+ */
+public class DictionaryCompiler {
+
+    private static final Logger logger = LoggerFactory.getLogger(DictionaryCompiler.class);
+    private static final String SNAPSHOT_EXTENSION = ".idx";
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final CharRangeSet stopList;
+
+    private final SnowballStemmer stemmer = new FrenchClinicalStemmer();
+    private final TokenizedText tokens = new TokenizedText();
+    private final StemCache stemCache;
+    private final Function<String, String> stemFunction = token -> stem(stem(token));
+
+    public DictionaryCompiler() {
+        this(StemCache.shared());
+    }
+
+    /**
+     * @param stemCache Cache of the stems of label tokens, shared with the recognizers that will use the dictionary
+     */
+    public DictionaryCompiler(final StemCache stemCache) {
+        this.stemCache = stemCache;
+        stopList = CharRangeSet.of(FaironConceptRecognizer.loadStopWords());
+    }
+
+    /**
+     * Receives the stemmed labels of a dictionary
+     */
+    @FunctionalInterface
+    public interface LabelHandler {
+        void addLabel(long conceptId, List<String> labelStems);
+    }
+
+    /**
+     * Load/index a dictionary in MGREP format
+     * Format of each line: ID\tTERM
+     *
+     * @return The compiled unigram index of the dictionary
+     * @throws IOException is thrown if the dictionary cannot be read
+     */
+    public ArrayConceptIndex compile(final InputStream dictionaryStream) throws IOException {
+        logger.info("Now loading dictionary...");
+        final ConceptIndexBuilder indexBuilder = new ConceptIndexBuilder();
+        //The builder adds each concept to the posting list of its stems and keeps track of the length in number of
+        //tokens for each concept
+        readLabels(dictionaryStream, indexBuilder::addLabel);
+        final ArrayConceptIndex index = indexBuilder.build();
+        logger.info("Indexed {} concepts over {} stems", index.conceptCount(), index.stemCount());
+        return index;
+    }
+
+    /**
+     * Compile the stemmed label sequences of a dictionary in MGREP format into a phrase automaton
+     *
+     * @throws IOException is thrown if the dictionary cannot be read
+     */
+    public StemAutomaton compileAutomaton(final InputStream dictionaryStream) throws IOException {
+        logger.info("Now compiling dictionary automaton...");
+        final StemAutomatonBuilder automatonBuilder = new StemAutomatonBuilder();
+        readLabels(dictionaryStream, automatonBuilder::addLabel);
+        final StemAutomaton automaton = automatonBuilder.build();
+        logger.info("Compiled dictionary automaton with {} states", automaton.stateCount());
+        return automaton;
+    }
+
+    /**
+     * Read a dictionary in MGREP format, normalizing, tokenizing and stemming each label
+     *
+     * @param dictionaryStream The dictionary, one ID\tTERM entry per line
+     * @param labelHandler     Receives the stems of the indexed tokens of each label, in order
+     * @throws IOException is thrown if the dictionary cannot be read
+     */
+    public void readLabels(final InputStream dictionaryStream, final LabelHandler labelHandler) throws IOException {
+        final List<String> labelStems = new ArrayList<>();
+        try (final BufferedReader reader = new BufferedReader(new InputStreamReader(dictionaryStream))) {
+            //For each line of the file
+            while (reader.ready()) {
+                final String line = reader.readLine();
+                // We split concept ids from labels
+                final String[] fields = line.split("\t");
+                final String label = fields[1];
+                final long conceptId = Long.parseLong(fields[0]);
+
+                // We normalize and tokenize the label in a single pass, punctuation separates tokens
+                final int tokenCount = tokens.tokenize(label, true);
+                final char[] text = tokens.text();
+
+                labelStems.clear();
+                //For each token
+                for (int token = 0; token < tokenCount; token++) {
+                    final int tokenStart = tokens.start(token);
+                    final int tokenLength = tokens.end(token) - tokenStart;
+                    //We skip words that belong to the stop list and words that contain non alphanumerical characters
+                    if (!stopList.contains(text, tokenStart, tokenLength) && Strings.isAlphaNum(text, tokenStart, tokenLength)) {
+                        labelStems.add(stemCache.get(text, tokenStart, tokenLength, stemFunction));
+                    }
+                }
+                labelHandler.addLabel(conceptId, labelStems);
+            }
+        }
+    }
+
+    /**
+     * Open the snapshot of a dictionary if it is up to date, otherwise compile the text dictionary and (re)write the
+     * snapshot. Failing to write the snapshot is not fatal, the compiled index is returned anyway.
+     *
+     * @param dictionaryPath Path of the MGREP text dictionary
+     * @param snapshotPath   Path of the binary snapshot
+     * @return The index of the dictionary
+     * @throws IOException is thrown if neither the snapshot nor the dictionary can be read
+     */
+    public ArrayConceptIndex loadOrCompile(final Path dictionaryPath, final Path snapshotPath) throws IOException {
+        final long sourceChecksum = sourceChecksum(dictionaryPath);
+        if (ConceptIndexSnapshot.isCurrent(snapshotPath, sourceChecksum)) {
+            logger.info("Loading index snapshot {}", snapshotPath);
+            return ConceptIndexSnapshot.read(snapshotPath);
+        }
+        if (Files.exists(snapshotPath)) {
+            logger.info("Index snapshot {} is stale, rebuilding it from {}", snapshotPath, dictionaryPath);
+        }
+        final ArrayConceptIndex index = compile(dictionaryPath);
+        try {
+            ConceptIndexSnapshot.write(index, sourceChecksum, snapshotPath);
+        } catch (final IOException e) {
+            logger.warn("Cannot write index snapshot {}: {}", snapshotPath, e.getLocalizedMessage());
+        }
+        return index;
+    }
+
+    /**
+     * Make sure the snapshot of a dictionary is up to date, compiling it if needed, without keeping the compiled index
+     *
+     * @throws IOException is thrown if the dictionary cannot be read or the snapshot cannot be written
+     */
+    public void ensureSnapshot(final Path dictionaryPath, final Path snapshotPath) throws IOException {
+        final long sourceChecksum = sourceChecksum(dictionaryPath);
+        if (!ConceptIndexSnapshot.isCurrent(snapshotPath, sourceChecksum)) {
+            logger.info("Index snapshot {} is missing or stale, compiling it from {}", snapshotPath, dictionaryPath);
+            ConceptIndexSnapshot.write(compile(dictionaryPath), sourceChecksum, snapshotPath);
+        }
+    }
+
+    /**
+     * Compile the text dictionary and write its snapshot unconditionally
+     */
+    public ArrayConceptIndex compileSnapshot(final Path dictionaryPath, final Path snapshotPath) throws IOException {
+        final long sourceChecksum = sourceChecksum(dictionaryPath);
+        final ArrayConceptIndex index = compile(dictionaryPath);
+        ConceptIndexSnapshot.write(index, sourceChecksum, snapshotPath);
+        return index;
+    }
+
+    private ArrayConceptIndex compile(final Path dictionaryPath) throws IOException {
+        try (InputStream dictionaryStream = Files.newInputStream(dictionaryPath)) {
+            return compile(dictionaryStream);
+        }
+    }
+
+    /**
+     * Checksum of everything the compiled index depends on: the dictionary, the stop list, the tokenizer and the stemmer
+     */
+    static long sourceChecksum(final Path dictionaryPath) throws IOException {
+        final Checksum checksum = new CRC32();
+        try (InputStream dictionaryStream = Files.newInputStream(dictionaryPath)) {
+            update(checksum, dictionaryStream);
+        }
+        final ClassLoader classLoader = DictionaryCompiler.class.getClassLoader();
+        final String tokenizerClass = TokenizedText.class.getName().replace('.', '/') + ".class";
+        final String stemmerClass = FrenchClinicalStemmer.class.getName().replace('.', '/') + ".class";
+        for (final String resource : new String[]{FaironConceptRecognizer.STOPWORDS_RESOURCE, tokenizerClass, stemmerClass}) {
+            try (InputStream resourceStream = classLoader.getResourceAsStream(resource)) {
+                if (resourceStream != null) {
+                    update(checksum, resourceStream);
+                }
+            }
+        }
+        return checksum.getValue();
+    }
+
+    private static void update(final Checksum checksum, final InputStream inputStream) throws IOException {
+        final byte[] buffer = new byte[BUFFER_SIZE];
+        try (InputStream checkedStream = new CheckedInputStream(inputStream, checksum)) {
+            while (checkedStream.read(buffer) >= 0) {
+                //The checked stream updates the checksum as it is read
+            }
+        }
+    }
+
+    /**
+     * @return The default location of the snapshot of a dictionary, next to it
+     */
+    public static Path defaultSnapshotPath(final Path dictionaryPath) {
+        return Paths.get(dictionaryPath + SNAPSHOT_EXTENSION);
+    }
+
+    private String stem(final String input) {
+        stemmer.setCurrent(input);
+        return (stemmer.stem()) ? stemmer.getCurrent() : "";
+    }
+
+    /**
+     * Compile mode: write the snapshot of a dictionary ahead of time
+     *
+     * @param args path_to_dictionary [path_to_snapshot]
+     */
+    public static void main(final String[] args) throws IOException {
+        if (args.length < 1) {
+            logger.error("Syntax: DictionaryCompiler path_to_dictionary [path_to_snapshot]");
+            System.exit(1);
+        }
+        final Path dictionaryPath = Paths.get(args[0]);
+        final Path snapshotPath = (args.length > 1) ? Paths.get(args[1]) : defaultSnapshotPath(dictionaryPath);
+        new DictionaryCompiler().compileSnapshot(dictionaryPath, snapshotPath);
+    }
+}
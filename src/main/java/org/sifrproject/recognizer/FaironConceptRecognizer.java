@@ -1,15 +1,14 @@
 package org.sifrproject.recognizer;
 
 
-import opennlp.tools.tokenize.SimpleTokenizer;
-import opennlp.tools.util.Span;
-import org.sifrproject.recognizer.util.Sets;
-import org.sifrproject.recognizer.util.Strings;
+import org.sifrproject.recognizer.index.ConceptIndex;
+import org.sifrproject.recognizer.util.CharRangeSet;
+import org.sifrproject.recognizer.util.Overlaps;
+import org.sifrproject.recognizer.util.TokenizedText;
 import org.sifrproject.recognizer.util.Tokens;
-import org.sifrproject.stemming.FrenchClinicalStemmer;
+import org.sifrproject.stemming.StemCache;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.tartarus.snowball.SnowballStemmer;
 import stormpot.Poolable;
 import stormpot.Slot;
 
@@ -18,41 +17,106 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.util.*;
-import java.util.stream.Collectors;
-
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Concept recognizer intersecting the posting lists of the stems of consecutive tokens in a unigram
+ * {@link ConceptIndex}. Instances are immutable apart from per-thread scratch state and can be shared by any number of
+ * threads.
+ */
 public class FaironConceptRecognizer implements ConceptRecognizer {
 
     private static final Logger logger = LoggerFactory.getLogger(FaironConceptRecognizer.class);
 
-    private final InputStream dictionaryStream;
+    static final String STOPWORDS_RESOURCE = "stopwords.fr.txt";
+    static final String TERMINATION_TERMS_RESOURCE = "termination_terms.fr.txt";
+
+    /**
+     * Default number of stop words a match may skip
+     */
+    public static final int DEFAULT_STOP_WORD_ALLOWANCE = 16;
+
+    private final ConceptIndex conceptIndex;
+
+    private final CharRangeSet stopList;
 
-    private final Map<String, Set<Long>> dictionaryUnigramIndex;
-    private final Map<Long, Integer> conceptLengthIndex;
+    private final CharRangeSet terminationList;
 
-    private final Collection<String> stopList;
+    private final StemCache stemCache;
 
-    private final Collection<String> terminationList;
+    private final int stopWordAllowance;
 
-    private final SnowballStemmer stemmer = new FrenchClinicalStemmer();
-    private final SimpleTokenizer simpleTokenizer = SimpleTokenizer.INSTANCE;
+    //Per thread stemmer, tokenized text and reusable buffer holding the concept ordinals still matching the current token sequence
+    private final ThreadLocal<RecognizerScratch> scratches;
 
     private final Slot slot;
 
-    public FaironConceptRecognizer(final Slot slot, final InputStream dictionaryStream) {
-        this.dictionaryStream = dictionaryStream;
-        dictionaryUnigramIndex = new HashMap<>();
-        conceptLengthIndex = new HashMap<>();
-        stopList = new TreeSet<>();
-        terminationList = new TreeSet<>();
+    //Pool recognizing the segments of large documents in parallel, null to recognize every document sequentially
+    private final ForkJoinPool segmentPool;
+
+    private final int segmentTokens;
+
+    /**
+     * @param stopWordAllowance Number of stop words a match may skip, which bounds together with the longest concept
+     *                          how far a match is extended from each start token
+     */
+    public FaironConceptRecognizer(final Slot slot, final ConceptIndex conceptIndex, final StemCache stemCache, final int stopWordAllowance) {
+        this.conceptIndex = conceptIndex;
         this.slot = slot;
-        loadStopWords();
-        loadTerminationTerms();
-        try {
-            loadDictionary();
-        } catch (final IOException e) {
-            logger.error("FATAL - Failed to load dictionary: {}", e.getLocalizedMessage());
-            System.exit(1);
-        }
+        this.stemCache = stemCache;
+        this.stopWordAllowance = stopWordAllowance;
+        stopList = CharRangeSet.of(loadStopWords());
+        terminationList = CharRangeSet.of(loadTerminationTerms());
+        final int maxPostingCount = conceptIndex.maxPostingCount();
+        scratches = ThreadLocal.withInitial(() -> new RecognizerScratch(maxPostingCount));
+        segmentPool = null;
+        segmentTokens = 0;
+        logger.info("Concept Recognizer ready!");
+    }
+
+    public FaironConceptRecognizer(final Slot slot, final ConceptIndex conceptIndex, final StemCache stemCache) {
+        this(slot, conceptIndex, stemCache, DEFAULT_STOP_WORD_ALLOWANCE);
+    }
+
+    public FaironConceptRecognizer(final Slot slot, final ConceptIndex conceptIndex) {
+        this(slot, conceptIndex, StemCache.shared());
+    }
+
+    /**
+     * Lightweight recognizer bound to a pool slot, sharing the index, word lists, stem cache and per-thread scratch of
+     * an existing recognizer
+     */
+    public FaironConceptRecognizer(final Slot slot, final FaironConceptRecognizer sharedRecognizer) {
+        this(slot, sharedRecognizer, sharedRecognizer.segmentPool, sharedRecognizer.segmentTokens);
+    }
+
+    private FaironConceptRecognizer(final Slot slot, final FaironConceptRecognizer sharedRecognizer, final ForkJoinPool segmentPool, final int segmentTokens) {
+        this.slot = slot;
+        conceptIndex = sharedRecognizer.conceptIndex;
+        stemCache = sharedRecognizer.stemCache;
+        stopWordAllowance = sharedRecognizer.stopWordAllowance;
+        stopList = sharedRecognizer.stopList;
+        terminationList = sharedRecognizer.terminationList;
+        scratches = sharedRecognizer.scratches;
+        this.segmentPool = segmentPool;
+        this.segmentTokens = segmentTokens;
+    }
+
+    public FaironConceptRecognizer(final Slot slot, final InputStream dictionaryStream) {
+        this(slot, loadDictionary(dictionaryStream));
+    }
+
+    public FaironConceptRecognizer(final ConceptIndex conceptIndex, final StemCache stemCache, final int stopWordAllowance) {
+        this(new DummySlot(), conceptIndex, stemCache, stopWordAllowance);
+    }
+
+    public FaironConceptRecognizer(final ConceptIndex conceptIndex, final StemCache stemCache) {
+        this(new DummySlot(), conceptIndex, stemCache);
+    }
+
+    public FaironConceptRecognizer(final ConceptIndex conceptIndex) {
+        this(new DummySlot(), conceptIndex);
     }
 
     public FaironConceptRecognizer(final InputStream dictionaryStream) {
@@ -62,11 +126,12 @@ public class FaironConceptRecognizer implements ConceptRecognizer {
     /**
      * Load stop words from resources/stopwords.fr.txt
      */
-    private void loadStopWords() {
+    static Collection<String> loadStopWords() {
         logger.info("Loading stopwords from resources");
+        final Collection<String> stopList = new TreeSet<>();
         try (final InputStream stopStream = FaironConceptRecognizer.class
                 .getClassLoader()
-                .getResourceAsStream("stopwords.fr.txt")) {
+                .getResourceAsStream(STOPWORDS_RESOURCE)) {
             if (stopStream != null) {
                 try (final BufferedReader stopReader = new BufferedReader(new InputStreamReader(stopStream))) {
                     while (stopReader.ready()) {
@@ -77,16 +142,18 @@ public class FaironConceptRecognizer implements ConceptRecognizer {
         } catch (final IOException e) {
             logger.error(e.getLocalizedMessage());
         }
+        return stopList;
     }
 
     /**
      * Loading termination terms from resources/termination_terms.fr.txt
      */
-    private void loadTerminationTerms() {
+    static Collection<String> loadTerminationTerms() {
         logger.info("Loading termination terms from resources");
+        final Collection<String> terminationList = new TreeSet<>();
         try (final InputStream terminationStream = FaironConceptRecognizer.class
                 .getClassLoader()
-                .getResourceAsStream("termination_terms.fr.txt")) {
+                .getResourceAsStream(TERMINATION_TERMS_RESOURCE)) {
             if (terminationStream != null) {
                 try (final BufferedReader terminationReader = new BufferedReader(new InputStreamReader(terminationStream))) {
                     while (terminationReader.ready()) {
@@ -97,176 +164,270 @@ public class FaironConceptRecognizer implements ConceptRecognizer {
         } catch (final IOException e) {
             logger.error(e.getLocalizedMessage());
         }
+        return terminationList;
     }
 
+    private static ConceptIndex loadDictionary(final InputStream dictionaryStream) {
+        ConceptIndex loadedIndex = null;
+        try {
+            loadedIndex = new DictionaryCompiler().compile(dictionaryStream);
+        } catch (final IOException e) {
+            logger.error("FATAL - Failed to load dictionary: {}", e.getLocalizedMessage());
+            System.exit(1);
+        }
+        return loadedIndex;
+    }
 
     /**
-     * Load/index a dictionary in MGREP format
-     * Format of each line: ID\tTERM
-     *
-     * @throws IOException is thrown if the file specified is not found
+     * @param segmentPool   Pool whose workers recognize the segments of large documents
+     * @param segmentTokens Number of start tokens per segment, documents of more than two segments are split
+     * @return A recognizer sharing everything with this one that recognizes large documents in parallel segments,
+     * with the same annotations as in sequence
      */
-    private void loadDictionary() throws IOException {
-        logger.info("Now loading dictionary...");
-        try (final BufferedReader reader = new BufferedReader(new InputStreamReader(dictionaryStream))) {
-            //For each line of the file
-            while (reader.ready()) {
-                final String line = reader.readLine();
-                // We split concept ids from labels
-                final String[] fields = line.split("\t");
-                final String label = fields[1];
-                final Long conceptId = Long.valueOf(fields[0]);
-
-                // We normalize the label (removing all puctuation)
-                final String normalizedLabel = Strings.normalizeStringAndStripPuctuation(label);
-
-                // We tokenize the label
-                final String[] tokens = simpleTokenizer.tokenize(normalizedLabel);
-
-                int conceptTokenCount = 0;
-                //For each token
-                for (final String token : tokens) {
-                    //We skip words that belong to the stop list and words that contain non alphanumerical characters
-                    if (!stopList.contains(token) && Strings.isAlphaNum(token)) {
-                        final String tokenStem = stem(stem(token));
-                        //We create the dictionary entry if it didn't exist before
-                        if (!dictionaryUnigramIndex.containsKey(tokenStem)) {
-                            dictionaryUnigramIndex.put(tokenStem, new HashSet<>());
-                        }
-                        //If it already existed, we add the concept id to the corresponding set
-                        dictionaryUnigramIndex
-                                .get(tokenStem)
-                                .add(conceptId);
-                        conceptTokenCount++;
-                    }
-                }
-                //We keep track of the length in number of tokens for each concept
-                conceptLengthIndex.put(conceptId, conceptTokenCount);
-            }
+    public FaironConceptRecognizer withParallelSegments(final ForkJoinPool segmentPool, final int segmentTokens) {
+        if (segmentTokens < 1) {
+            throw new IllegalArgumentException("Segments need at least one token: " + segmentTokens);
         }
-        logger.info("Concept Recognizer ready!");
+        return new FaironConceptRecognizer(slot, this, segmentPool, segmentTokens);
     }
 
-
     @Override
     public List<AnnotationToken> recognize(final String inputText, final boolean longestOnly) {
-        Collection<AnnotationToken> annotations = Collections.emptyList();
+        List<AnnotationToken> annotations = Collections.emptyList();
         if ((inputText != null) && !inputText.isEmpty()) {
             logger.debug("Starting recognition");
-            annotations = new ArrayList<>();
-            //We normalize the text (Remove punctuation and replace with whitespace)
-            final String normalizedInputText = Strings.normalizeString(inputText);
-
-            //We split the text into token spans (beging and end position from the start of the text)
-            final Span[] tokenSpans = simpleTokenizer.tokenizePos(normalizedInputText);
-
-            //We iterate over tokens one by one until we reach the end of the text
-            int currentTokenSpanIndex = 0;
-            while (currentTokenSpanIndex < tokenSpans.length) {
-                //We get the current token span
-                final Span currentSpan = tokenSpans[currentTokenSpanIndex];
-
-                //We extract the string of the token from the text
-                final String token = Tokens
-                        .tokenFromSpan(currentSpan, normalizedInputText)
-                        .trim();
-                //If the word is a stoplist term or a termination term we skip it
-                if (!stopList.contains(token) && !terminationList.contains(token)) {
-
-                    //We get the concept ids matching the stem of the current token
-                    //Double stemming ensures we come back to the most elementary root, ensure match between nouns and adjectives with
-                    //the same root
-                    Set<Long> concepts = getConceptsForStemFromIndex(stem(stem(token)));
-
-                    //This is the start position of the first token of a matching sequence
-                    final int conceptStart = currentSpan.getStart();
-                    // For now we have matched a single terms, so currently the end position will be that of the
-                    // current token
-                    int conceptEnd = currentSpan.getEnd();
-
-                    logger.debug("Matching from token {} in span [{},{}]", token, currentSpan.getStart(), currentSpan.getEnd());
-
-                    //We will now try to find a maximal match starting from the current token
-                    //We will iterate over subsequent words until we reach a termination term or until we can find
-                    // no concept matches for a particular token
-                    int matchCursor = 1;
-                    int stopCount = 0;
-                    while ((currentTokenSpanIndex + matchCursor) < tokenSpans.length) {
-                        // We get the next token and position span
-                        final Span nextSpan = tokenSpans[currentTokenSpanIndex + matchCursor];
-                        final String nextToken = Tokens.tokenFromSpan(nextSpan, normalizedInputText);
-
-                        //If the token is in the stop list we skip it and increment the count of skipped words
-                        //We will need to subtract this from the total number of tokens for the concept
-                        if (stopList.contains(nextToken)) {
-                            stopCount++;
-                            // If the token is a termination term, the matching process ends here
-                        } else if (terminationList.contains(nextToken)) {
-                            break;
-                            //Otherwise we try to find a match for the token's stem in the dictionary index
-                        } else {
+            final RecognizerScratch scratch = scratches.get();
+            //Segments of a large document are recognized by other workers, which read its tokens while this thread
+            //may run other recognitions: it gets its own tokenized text instead of the reusable one
+            final boolean mayRunInSegments = (segmentPool != null) && (inputText.length() > (2 * segmentTokens));
+            //We normalize and tokenize the text in a single pass, tokens are ranges of the reusable normalized text
+            //and keep their bounds in the input text
+            final TokenizedText tokens = mayRunInSegments ? new TokenizedText() : scratch.tokens;
+            final int tokenCount = tokens.tokenize(inputText, false);
+            if (mayRunInSegments && (tokenCount > (2 * segmentTokens))) {
+                annotations = recognizeInSegments(inputText, tokens);
+            } else {
+                annotations = new ArrayList<>();
+                recognizeTokens(inputText, tokens, 0, tokenCount, scratch, annotations);
+            }
+        }
+
+        //Nested and overlapping matches are only resolved on request, in longest-only mode
+        return longestOnly ? Overlaps.keepLongest(annotations) : annotations;
+    }
 
-                            //We stem the token text
-                            final String nextTokenStem = stem(stem(nextToken));
+    /**
+     * The matches starting at a token only depend on the tokens that follow it, so the start tokens of a tokenized
+     * document split into segments recognized in parallel, each worker with its own scratch buffers. Concatenating the
+     * annotations of consecutive segments gives the annotations of the whole document, in the same order.
+     */
+    private List<AnnotationToken> recognizeInSegments(final String inputText, final TokenizedText tokens) {
+        final int tokenCount = tokens.tokenCount();
+        final int segmentCount = (tokenCount + segmentTokens - 1) / segmentTokens;
+        //Each segment task sets its own element, the join of the pool publishes them
+        final List<List<AnnotationToken>> segments = new ArrayList<>(Collections.nCopies(segmentCount, null));
+        segmentPool.invoke(new SegmentRecognition(inputText, tokens, segments, 0, segmentCount));
+        final List<AnnotationToken> annotations = new ArrayList<>();
+        for (final List<AnnotationToken> segment : segments) {
+            annotations.addAll(segment);
+        }
+        return annotations;
+    }
 
-                            //We try to find matching concepts and compute the intersection with previously identified concepts
-                            final Set<Long> nextConcepts = Sets.intersection(getConceptsForStemFromIndex(nextTokenStem), concepts);
+    /**
+     * Recognize the matches starting at the tokens of the given range, which may extend past the range
+     */
+    private void recognizeTokens(final String inputText, final TokenizedText tokens, final int fromToken, final int toToken, final RecognizerScratch scratch, final Collection<AnnotationToken> annotations) {
+        final int[] candidateBuffer = scratch.buffer;
+        final int tokenCount = tokens.tokenCount();
+        final char[] text = tokens.text();
+
+        //We iterate over tokens one by one until we reach the end of the range
+        int currentTokenIndex = fromToken;
+        while (currentTokenIndex < toToken) {
+            //We delimit the current token in the normalized text, trimmed
+            int tokenStart = tokens.start(currentTokenIndex);
+            int tokenEnd = tokens.end(currentTokenIndex);
+            while ((tokenStart < tokenEnd) && (text[tokenStart] <= ' ')) {
+                tokenStart++;
+            }
+            while ((tokenEnd > tokenStart) && (text[tokenEnd - 1] <= ' ')) {
+                tokenEnd--;
+            }
+            final int tokenLength = tokenEnd - tokenStart;
+            //If the word is a stoplist term or a termination term we skip it
+            if (!stopList.contains(text, tokenStart, tokenLength) && !terminationList.contains(text, tokenStart, tokenLength)) {
+
+                //We get the concept ids matching the stem of the current token
+                //Double stemming ensures we come back to the most elementary root, ensure match between nouns and adjectives with
+                //the same root
+                //The posting list of the first stem is only copied to the buffer if nothing can be intersected
+                //with it, long lists of frequent stems are otherwise intersected directly in the index
+                final int firstStemOrdinal = conceptIndex.stemOrdinal(stemCache.get(text, tokenStart, tokenLength, scratch.stemFunction));
+                boolean candidatesPending = firstStemOrdinal != ConceptIndex.NOT_FOUND;
+                int candidateCount = 0;
+
+                //This is the start position of the first token of a matching sequence
+                final int conceptStart = tokens.sourceStart(currentTokenIndex);
+                // For now we have matched a single terms, so currently the end position will be that of the
+                // current token
+                int conceptEnd = tokens.sourceEnd(currentTokenIndex);
+
+                if (logger.isDebugEnabled()) {
+                    logger.debug("Matching from token {} in span [{},{}]", new String(text, tokenStart, tokenLength), conceptStart, conceptEnd);
+                }
 
-                            //If we fond none we stop the matching here
-                            if (nextConcepts.isEmpty()) {
+                //We will now try to find a maximal match starting from the current token
+                //We will iterate over subsequent words until we reach a termination term or until we can find
+                // no concept matches for a particular token
+                //Nothing can match from an unknown stem, and no match is longer than the longest remaining
+                //candidate: once the matched tokens outnumber it, extending further cannot produce an annotation
+                int matchCursor = 1;
+                int stopCount = 0;
+                int maxCandidateLength = candidatesPending ? conceptIndex.maxConceptLength() : 0;
+                while (((currentTokenIndex + matchCursor) < tokenCount) && ((matchCursor - stopCount) <= maxCandidateLength)) {
+                    // We get the next token
+                    final int nextTokenIndex = currentTokenIndex + matchCursor;
+                    final int nextTokenStart = tokens.start(nextTokenIndex);
+                    final int nextTokenLength = tokens.end(nextTokenIndex) - nextTokenStart;
+
+                    //If the token is in the stop list we skip it and increment the count of skipped words
+                    //We will need to subtract this from the total number of tokens for the concept
+                    if (stopList.contains(text, nextTokenStart, nextTokenLength)) {
+                        //We bound the number of skipped stop words, so that long runs of them are not rescanned
+                        //from every start token
+                        if (stopCount == stopWordAllowance) {
+                            break;
+                        }
+                        stopCount++;
+                        // If the token is a termination term, the matching process ends here
+                    } else if (terminationList.contains(text, nextTokenStart, nextTokenLength)) {
+                        break;
+                        //Otherwise we try to find a match for the token's stem in the dictionary index
+                    } else {
+
+                        //We stem the token text
+                        final String nextTokenStem = stemCache.get(text, nextTokenStart, nextTokenLength, scratch.stemFunction);
+
+                        //We try to find matching concepts and compute the intersection with previously identified
+                        //concepts, in place: the candidates are left untouched when the intersection is empty
+                        final int nextCandidateCount = intersectWithStemFromIndex(nextTokenStem, firstStemOrdinal, candidatesPending, candidateBuffer, candidateCount);
+
+                        //If we fond none we stop the matching here
+                        if (nextCandidateCount == 0) {
+                            break;
+                        } else {
+                            //If we find a match, then we update the current end position to that of the
+                            //currently matching token and update the intersected matched concept buffer
+                            //Candidates are grouped by length: those shorter than the match so far can never be
+                            //emitted and are dropped from the front of the buffer
+                            candidateCount = dropShorterCandidates(candidateBuffer, nextCandidateCount, (matchCursor + 1) - stopCount);
+                            candidatesPending = false;
+                            conceptEnd = tokens.sourceEnd(nextTokenIndex);
+                            if (candidateCount == 0) {
                                 break;
-                            } else {
-                                //If we find a match, then we update the current end position to that of the
-                                //currently matching token and update the intersected matched concept buffer
-                                concepts = nextConcepts;
-                                conceptEnd = nextSpan.getEnd();
                             }
+                            maxCandidateLength = conceptIndex.conceptLength(candidateBuffer[candidateCount - 1]);
                         }
-                        //If we arrive here the current token has matched, we keep count of the current match length
-                        matchCursor++;
                     }
+                    //If we arrive here the current token has matched, we keep count of the current match length
+                    matchCursor++;
+                }
 
-                    //Once we get out of the loop we reconstruct the matches from the concepts remaining in the set
-                    //after successive intersections, if concepts is empty there was no match and so
-                    //Tokens.conceptsToAnnotationTokens will return an empty list otherwise we get a list of
-                    //AnnotationToken objects instances that we add to the list of identified concepts
-                    annotations.addAll(Tokens.conceptsToAnnotationTokens(concepts, conceptStart, conceptEnd, inputText, matchCursor - stopCount));
+                //Once we get out of the loop we reconstruct the matches from the concepts remaining in the buffer
+                //after successive intersections whose length matches the length of the identified annotation,
+                //a range of the buffer since it is grouped by length. If no candidate is left there was no match
+                if (candidatesPending) {
+                    candidateCount = conceptIndex.copyPostings(firstStemOrdinal, candidateBuffer);
                 }
-                currentTokenSpanIndex += 1;
+                final int tokenCardinality = matchCursor - stopCount;
+                final int matchingFrom = lowerBound(candidateBuffer, candidateCount, conceptIndex.firstConceptOfLength(tokenCardinality));
+                final int matchingTo = lowerBound(candidateBuffer, candidateCount, conceptIndex.firstConceptOfLength(tokenCardinality + 1));
+                Tokens.conceptsToAnnotationTokens(conceptIndex, candidateBuffer, matchingFrom, matchingTo, conceptStart, conceptEnd, inputText, tokenCardinality, annotations);
             }
+            currentTokenIndex += 1;
         }
+    }
 
-        //Here we filter the annotations to keep only those where the concept length matches the length of the
-        //identified annotation
-        return filterToMaximumLength(annotations);
+    /**
+     * Drop, in place, the candidates shorter than the given length, which come first in the sorted buffer
+     *
+     * @return The number of candidates left
+     */
+    private int dropShorterCandidates(final int[] candidates, final int candidateCount, final int minimumLength) {
+        final int from = lowerBound(candidates, candidateCount, conceptIndex.firstConceptOfLength(minimumLength));
+        if (from > 0) {
+            System.arraycopy(candidates, from, candidates, 0, candidateCount - from);
+        }
+        return candidateCount - from;
     }
 
-    private List<AnnotationToken> filterToMaximumLength(final Collection<AnnotationToken> annotations) {
-        //For each AnnotationToken, filtering out those that do not match the length of the identified concepts
-        return annotations
-                .stream()
-                .filter(a -> a.getTokenCardinality() == conceptLengthIndex.get(a.getConceptId()))
-                .collect(Collectors.toList());
+    /**
+     * @return The position of the first candidate not lower than the given concept ordinal
+     */
+    private static int lowerBound(final int[] candidates, final int candidateCount, final int conceptOrdinal) {
+        final int position = Arrays.binarySearch(candidates, 0, candidateCount, conceptOrdinal);
+        return (position < 0) ? (-position - 1) : position;
     }
 
-    private Set<Long> getConceptsForStemFromIndex(final String stem) {
-        final Set<Long> result = dictionaryUnigramIndex.get(stem);
-        return (result == null) ? Collections.emptySet() : result;
+    private int intersectWithStemFromIndex(final String stem, final int firstStemOrdinal, final boolean candidatesPending, final int[] candidateBuffer, final int candidateCount) {
+        final int stemOrdinal = conceptIndex.stemOrdinal(stem);
+        if (stemOrdinal == ConceptIndex.NOT_FOUND) {
+            return 0;
+        }
+        return candidatesPending ?
+                conceptIndex.intersectPostings(firstStemOrdinal, stemOrdinal, candidateBuffer) :
+                conceptIndex.intersect(stemOrdinal, candidateBuffer, candidateCount, candidateBuffer);
     }
 
 
-    private String stem(final String input) {
-        stemmer.setCurrent(input);
-        return (stemmer.stem()) ? stemmer.getCurrent() : "";
+    @Override
+    public int lookahead() {
+        //A match holds at most the longest concept and the skipped stop words, the last of which may end it
+        return conceptIndex.maxConceptLength() + stopWordAllowance;
     }
 
-
     @Override
     public void release() {
         slot.release(this);
     }
 
-    private static class DummySlot implements Slot {
+    /**
+     * Recognition of a range of segments, split in halves until a single segment is left
+     */
+    private final class SegmentRecognition extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final String inputText;
+        private final TokenizedText tokens;
+        private final List<List<AnnotationToken>> segments;
+        private final int fromSegment;
+        private final int toSegment;
+
+        SegmentRecognition(final String inputText, final TokenizedText tokens, final List<List<AnnotationToken>> segments, final int fromSegment, final int toSegment) {
+            this.inputText = inputText;
+            this.tokens = tokens;
+            this.segments = segments;
+            this.fromSegment = fromSegment;
+            this.toSegment = toSegment;
+        }
+
+        @Override
+        protected void compute() {
+            if ((toSegment - fromSegment) == 1) {
+                final List<AnnotationToken> annotations = new ArrayList<>();
+                final int fromToken = fromSegment * segmentTokens;
+                recognizeTokens(inputText, tokens, fromToken, Math.min(tokens.tokenCount(), fromToken + segmentTokens), scratches.get(), annotations);
+                segments.set(fromSegment, annotations);
+            } else {
+                final int middle = (fromSegment + toSegment) >>> 1;
+                invokeAll(new SegmentRecognition(inputText, tokens, segments, fromSegment, middle),
+                        new SegmentRecognition(inputText, tokens, segments, middle, toSegment));
+            }
+        }
+    }
+
+    static class DummySlot implements Slot {
         @Override
         public void release(final Poolable poolable) {
 
@@ -0,0 +1,36 @@
+package org.sifrproject.recognizer;
+
+import org.sifrproject.recognizer.util.TokenizedText;
+import org.sifrproject.stemming.FrenchClinicalStemmer;
+import org.tartarus.snowball.SnowballStemmer;
+
+import java.util.function.Function;
+
+/**
+ * Mutable state of a recognizer, confined to one thread: the Snowball stemmer, which is not thread safe, the normalized
+ * and tokenized text and scratch buffers. Recognizers keep everything else immutable and get their scratch from a
+ * {@link ThreadLocal}, so that {@link ConceptRecognizer#recognize(String, boolean)} can be called concurrently without
+ * any lock.
+ */
+final class RecognizerScratch {
+
+    private final SnowballStemmer stemmer = new FrenchClinicalStemmer();
+
+    /**
+     * Double stemming ensures we come back to the most elementary root
+     */
+    final Function<String, String> stemFunction = token -> stem(stem(token));
+
+    final int[] buffer;
+
+    final TokenizedText tokens = new TokenizedText();
+
+    RecognizerScratch(final int bufferSize) {
+        buffer = new int[bufferSize];
+    }
+
+    private String stem(final String input) {
+        stemmer.setCurrent(input);
+        return (stemmer.stem()) ? stemmer.getCurrent() : "";
+    }
+}
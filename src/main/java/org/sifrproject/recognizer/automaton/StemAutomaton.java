@@ -0,0 +1,132 @@
+package org.sifrproject.recognizer.automaton;
+
+import java.util.Map;
+
+/**
+ * Aho-Corasick automaton over stem ids, compiled from the stemmed label sequences of a dictionary by
+ * {@link StemAutomatonBuilder}. Transitions, failure links and outputs are stored in flat arrays indexed by state.
+ */
+public final class StemAutomaton {
+
+    public static final int ROOT = 0;
+    public static final int NO_STATE = -1;
+    public static final int NOT_FOUND = -1;
+
+    private final Map<String, Integer> stemIds;
+
+    //Transitions of state s are transitionStems/transitionTargets[transitionOffsets[s], transitionOffsets[s+1][
+    private final int[] transitionOffsets;
+    private final int[] transitionStems;
+    private final int[] transitionTargets;
+    private final int[] failureLinks;
+    //Nearest state on the failure chain (excluding the state itself) that has outputs
+    private final int[] outputLinks;
+    private final int[] depths;
+    private final int[] outputOffsets;
+    private final long[] outputConceptIds;
+    private final int maxDepth;
+
+    @SuppressWarnings("ConstructorWithTooManyParameters")
+    StemAutomaton(final Map<String, Integer> stemIds, final int[] transitionOffsets, final int[] transitionStems,
+                  final int[] transitionTargets, final int[] failureLinks, final int[] outputLinks, final int[] depths,
+                  final int[] outputOffsets, final long[] outputConceptIds) {
+        this.stemIds = stemIds;
+        this.transitionOffsets = transitionOffsets;
+        this.transitionStems = transitionStems;
+        this.transitionTargets = transitionTargets;
+        this.failureLinks = failureLinks;
+        this.outputLinks = outputLinks;
+        this.depths = depths;
+        this.outputOffsets = outputOffsets;
+        this.outputConceptIds = outputConceptIds;
+
+        int deepest = 0;
+        for (final int depth : depths) {
+            deepest = Math.max(deepest, depth);
+        }
+        maxDepth = deepest;
+    }
+
+    /**
+     * @return The id of a stem or {@link #NOT_FOUND} if no label contains it
+     */
+    public int stemId(final CharSequence stem) {
+        final Integer id = stemIds.get(stem.toString());
+        return (id == null) ? NOT_FOUND : id;
+    }
+
+    /**
+     * Consume one stem, following failure links until a transition exists
+     *
+     * @return The next state, {@link #ROOT} if no label continues with this stem
+     */
+    public int next(final int state, final int stemId) {
+        if (stemId == NOT_FOUND) {
+            return ROOT;
+        }
+        int current = state;
+        int target = transition(current, stemId);
+        while ((target == NO_STATE) && (current != ROOT)) {
+            current = failureLinks[current];
+            target = transition(current, stemId);
+        }
+        return (target == NO_STATE) ? ROOT : target;
+    }
+
+    private int transition(final int state, final int stemId) {
+        int low = transitionOffsets[state];
+        int high = transitionOffsets[state + 1] - 1;
+        while (low <= high) {
+            final int middle = (low + high) >>> 1;
+            if (transitionStems[middle] < stemId) {
+                low = middle + 1;
+            } else if (transitionStems[middle] > stemId) {
+                high = middle - 1;
+            } else {
+                return transitionTargets[middle];
+            }
+        }
+        return NO_STATE;
+    }
+
+    /**
+     * @return The first state with outputs among the state and its failure chain, or {@link #NO_STATE}
+     */
+    public int firstOutputState(final int state) {
+        return (outputOffsets[state] < outputOffsets[state + 1]) ? state : outputLinks[state];
+    }
+
+    /**
+     * @return The next state with outputs on the failure chain of a state with outputs, or {@link #NO_STATE}
+     */
+    public int nextOutputState(final int outputState) {
+        return outputLinks[outputState];
+    }
+
+    /**
+     * @return The number of stems of the labels ending in a state
+     */
+    public int depth(final int state) {
+        return depths[state];
+    }
+
+    public int outputStart(final int state) {
+        return outputOffsets[state];
+    }
+
+    public int outputEnd(final int state) {
+        return outputOffsets[state + 1];
+    }
+
+    public long outputConceptId(final int output) {
+        return outputConceptIds[output];
+    }
+
+    public int maxDepth() {
+        return maxDepth;
+    }
+
+    public int stateCount() {
+        return depths.length;
+    }
+}
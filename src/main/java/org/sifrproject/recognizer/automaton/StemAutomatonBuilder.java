@@ -0,0 +1,111 @@
+package org.sifrproject.recognizer.automaton;
+
+import java.util.*;
+
+/**
+ * Builds a {@link StemAutomaton} from stemmed label sequences: labels are first inserted in a trie, failure and output
+ * links are then computed breadth first and the whole structure is frozen into flat arrays.
+ */
+public class StemAutomatonBuilder {
+
+    private final Map<String, Integer> stemIds = new HashMap<>();
+    private final List<Map<Integer, Integer>> children = new ArrayList<>();
+    private final List<Set<Long>> outputs = new ArrayList<>();
+    private final List<Integer> depths = new ArrayList<>();
+
+    public StemAutomatonBuilder() {
+        newState(0);
+    }
+
+    private int newState(final int depth) {
+        children.add(new HashMap<>());
+        outputs.add(new TreeSet<>());
+        depths.add(depth);
+        return children.size() - 1;
+    }
+
+    /**
+     * Insert the stem sequence of one label of a concept. Labels without any indexed stem are ignored.
+     */
+    public void addLabel(final long conceptId, final Collection<String> labelStems) {
+        if (labelStems.isEmpty()) {
+            return;
+        }
+        int state = StemAutomaton.ROOT;
+        for (final String stem : labelStems) {
+            Integer stemId = stemIds.get(stem);
+            if (stemId == null) {
+                stemId = stemIds.size();
+                stemIds.put(stem, stemId);
+            }
+            Integer target = children.get(state).get(stemId);
+            if (target == null) {
+                target = newState(depths.get(state) + 1);
+                children.get(state).put(stemId, target);
+            }
+            state = target;
+        }
+        outputs.get(state).add(conceptId);
+    }
+
+    public StemAutomaton build() {
+        final int stateCount = children.size();
+        final int[] failureLinks = new int[stateCount];
+        final int[] outputLinks = new int[stateCount];
+        outputLinks[StemAutomaton.ROOT] = StemAutomaton.NO_STATE;
+
+        //Breadth first traversal, so that failure links always point to states that are already linked
+        final Deque<Integer> queue = new ArrayDeque<>();
+        for (final int child : children.get(StemAutomaton.ROOT).values()) {
+            failureLinks[child] = StemAutomaton.ROOT;
+            outputLinks[child] = StemAutomaton.NO_STATE;
+            queue.add(child);
+        }
+        while (!queue.isEmpty()) {
+            final int state = queue.poll();
+            for (final Map.Entry<Integer, Integer> transition : children.get(state).entrySet()) {
+                final int stemId = transition.getKey();
+                final int child = transition.getValue();
+
+                //The failure link of a child is the longest proper suffix of its sequence that is also in the trie
+                int fallback = failureLinks[state];
+                while ((fallback != StemAutomaton.ROOT) && !children.get(fallback).containsKey(stemId)) {
+                    fallback = failureLinks[fallback];
+                }
+                final Integer fallbackTarget = children.get(fallback).get(stemId);
+                final int failure = (fallbackTarget == null) ? StemAutomaton.ROOT : fallbackTarget;
+                failureLinks[child] = failure;
+                outputLinks[child] = outputs.get(failure).isEmpty() ? outputLinks[failure] : failure;
+                queue.add(child);
+            }
+        }
+
+        //We freeze the trie into sorted transition arrays and flat output arrays
+        final int[] transitionOffsets = new int[stateCount + 1];
+        final int[] outputOffsets = new int[stateCount + 1];
+        for (int state = 0; state < stateCount; state++) {
+            transitionOffsets[state + 1] = transitionOffsets[state] + children.get(state).size();
+            outputOffsets[state + 1] = outputOffsets[state] + outputs.get(state).size();
+        }
+        final int[] transitionStems = new int[transitionOffsets[stateCount]];
+        final int[] transitionTargets = new int[transitionOffsets[stateCount]];
+        final long[] outputConceptIds = new long[outputOffsets[stateCount]];
+        final int[] stateDepths = new int[stateCount];
+        for (int state = 0; state < stateCount; state++) {
+            int transition = transitionOffsets[state];
+            for (final Map.Entry<Integer, Integer> entry : new TreeMap<>(children.get(state)).entrySet()) {
+                transitionStems[transition] = entry.getKey();
+                transitionTargets[transition] = entry.getValue();
+                transition++;
+            }
+            int output = outputOffsets[state];
+            for (final long conceptId : outputs.get(state)) {
+                outputConceptIds[output++] = conceptId;
+            }
+            stateDepths[state] = depths.get(state);
+        }
+
+        return new StemAutomaton(new HashMap<>(stemIds), transitionOffsets, transitionStems, transitionTargets,
+                failureLinks, outputLinks, stateDepths, outputOffsets, outputConceptIds);
+    }
+}
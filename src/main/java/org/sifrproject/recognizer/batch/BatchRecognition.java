@@ -0,0 +1,120 @@
+package org.sifrproject.recognizer.batch;
+
+import org.sifrproject.recognizer.AnnotationToken;
+import org.sifrproject.recognizer.ConceptRecognizer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Consumer;
+
+/**
+ * Recognition of many documents at once, spread over the workers of a fork/join pool. Recognizers are safe to call
+ * concurrently and keep their scratch state per thread, so each worker reuses its own buffers from one document to
+ * the next.
+ */
+@SuppressWarnings("all")
+public enum BatchRecognition {
+    ;
+
+    //We split the batch in several ranges per worker, so that workers done with short documents steal from the others
+    private static final int RANGES_PER_WORKER = 8;
+
+    /**
+     * @return The annotations of each text, in the order of the texts
+     */
+    public static List<List<AnnotationToken>> recognize(final ConceptRecognizer recognizer, final List<? extends CharSequence> texts, final boolean longestOnly, final ForkJoinPool pool) {
+        //Each range task sets its own elements, the join of the pool publishes them
+        final List<List<AnnotationToken>> annotations = new ArrayList<>(Collections.nCopies(texts.size(), null));
+        if (!texts.isEmpty()) {
+            final int rangeSize = Math.max(1, texts.size() / (pool.getParallelism() * RANGES_PER_WORKER));
+            pool.invoke(new RecognizeRange(recognizer, texts, longestOnly, annotations, 0, texts.size(), rangeSize));
+        }
+        return annotations;
+    }
+
+    /**
+     * @return The annotations of each text, splitting as the texts split, for parallel streams over large or lazily
+     * read batches
+     */
+    public static Spliterator<List<AnnotationToken>> spliterator(final ConceptRecognizer recognizer, final Spliterator<? extends CharSequence> texts, final boolean longestOnly) {
+        return new RecognizingSpliterator(recognizer, texts, longestOnly);
+    }
+
+    private static final class RecognizeRange extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final ConceptRecognizer recognizer;
+        private final List<? extends CharSequence> texts;
+        private final boolean longestOnly;
+        private final List<List<AnnotationToken>> annotations;
+        private final int from;
+        private final int to;
+        private final int rangeSize;
+
+        RecognizeRange(final ConceptRecognizer recognizer, final List<? extends CharSequence> texts, final boolean longestOnly, final List<List<AnnotationToken>> annotations, final int from, final int to, final int rangeSize) {
+            this.recognizer = recognizer;
+            this.texts = texts;
+            this.longestOnly = longestOnly;
+            this.annotations = annotations;
+            this.from = from;
+            this.to = to;
+            this.rangeSize = rangeSize;
+        }
+
+        @Override
+        protected void compute() {
+            if ((to - from) <= rangeSize) {
+                for (int i = from; i < to; i++) {
+                    annotations.set(i, recognizer.recognize(texts.get(i).toString(), longestOnly));
+                }
+            } else {
+                final int middle = (from + to) >>> 1;
+                invokeAll(new RecognizeRange(recognizer, texts, longestOnly, annotations, from, middle, rangeSize),
+                        new RecognizeRange(recognizer, texts, longestOnly, annotations, middle, to, rangeSize));
+            }
+        }
+    }
+
+    private static final class RecognizingSpliterator implements Spliterator<List<AnnotationToken>> {
+        private final ConceptRecognizer recognizer;
+        private final Spliterator<? extends CharSequence> texts;
+        private final boolean longestOnly;
+
+        RecognizingSpliterator(final ConceptRecognizer recognizer, final Spliterator<? extends CharSequence> texts, final boolean longestOnly) {
+            this.recognizer = recognizer;
+            this.texts = texts;
+            this.longestOnly = longestOnly;
+        }
+
+        @Override
+        public boolean tryAdvance(final Consumer<? super List<AnnotationToken>> action) {
+            return texts.tryAdvance(text -> action.accept(recognizer.recognize(text.toString(), longestOnly)));
+        }
+
+        @Override
+        public void forEachRemaining(final Consumer<? super List<AnnotationToken>> action) {
+            texts.forEachRemaining(text -> action.accept(recognizer.recognize(text.toString(), longestOnly)));
+        }
+
+        @Override
+        public Spliterator<List<AnnotationToken>> trySplit() {
+            final Spliterator<? extends CharSequence> prefix = texts.trySplit();
+            return (prefix == null) ? null : new RecognizingSpliterator(recognizer, prefix, longestOnly);
+        }
+
+        @Override
+        public long estimateSize() {
+            return texts.estimateSize();
+        }
+
+        @Override
+        public int characteristics() {
+            //Annotation lists are never null but are not sorted nor distinct like the texts may be
+            return (texts.characteristics() & (ORDERED | SIZED | SUBSIZED | IMMUTABLE | CONCURRENT)) | NONNULL;
+        }
+    }
+}
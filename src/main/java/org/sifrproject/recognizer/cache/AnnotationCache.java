@@ -0,0 +1,555 @@
+package org.sifrproject.recognizer.cache;
+
+import org.sifrproject.recognizer.AnnotationToken;
+import org.sifrproject.stemming.StemCache.EvictionPolicy;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Shared, thread-safe cache of the annotations of whole texts, bounded by a budget in bytes. Clinical documents repeat
+ * templated sections and notices word for word, whose annotations are then decoded in microseconds instead of
+ * claiming a recognizer and matching the text again.
+ * <p>
+ * Entries are content addressed: the key is the 128 bit MurmurHash3 of the text, seeded by the longest only flag, and
+ * the text itself is not kept. MurmurHash3 is not a cryptographic hash: a client able to craft colliding texts could be
+ * answered with the annotations of another text, so the cache must not be shared by untrusted clients. Annotations are
+ * stored as varints relative to each other, and their matched text, almost always the span of the input text they
+ * cover, is taken back from the text on a hit, so an entry usually takes a few bytes per annotation. As in the
+ * {@link org.sifrproject.stemming.StemCache}, the cache is split into independently locked segments that evict in LRU
+ * or segmented LRU order. By default a text is only cached the second time it is recognized within a while, so that
+ * documents seen once do not flush the repeated ones.
+ * <p>
+ * Annotations depend on the dictionary: {@link #invalidate()} must be called when it changes, which the recognizer
+ * allocators do when they are given the cache.
+ */
+public final class AnnotationCache {
+
+    public enum AdmissionPolicy {
+        //Cache the annotations of every text recognized
+        ALWAYS,
+        //Cache the annotations of a text when it is recognized again, while the segment still remembers seeing it
+        REPEATED;
+
+        /**
+         * @param name "always" or "repeated", case insensitive
+         */
+        public static AdmissionPolicy fromName(final String name) {
+            final String lowerCaseName = name.toLowerCase(Locale.ROOT);
+            if (lowerCaseName.equals("always")) {
+                return ALWAYS;
+            } else if (lowerCaseName.equals("repeated")) {
+                return REPEATED;
+            }
+            throw new IllegalArgumentException("Unknown annotation cache admission policy: " + name);
+        }
+    }
+
+    //Estimated heap taken by an entry besides its encoded annotations: key, map entry, array header and table slot
+    static final int ENTRY_OVERHEAD_BYTES = 96;
+
+    private static final long MIN_SEGMENT_BYTES = 1 << 16;
+    //Entries larger than this fraction of a segment are not cached
+    private static final int MAX_ENTRY_SEGMENT_FRACTION = 8;
+    private static final double PROTECTED_RATIO = 0.8;
+    private static final int TEXT_STORED = 1;
+    private static final int NO_CONCEPT = 2;
+    private static final int FLAG_BITS = 2;
+    private static final int VARINT_GROUP_BITS = 7;
+    private static final int VARINT_GROUP_MASK = 0x7F;
+    private static final int VARINT_CONTINUATION = 0x80;
+    private static final long LONGEST_ONLY_SEED = 0x9E3779B97F4A7C15L;
+    private static final long MURMUR_C1 = 0x87C37B91114253D5L;
+    private static final long MURMUR_C2 = 0x4CF5AD432745937FL;
+    private static final int CHARS_PER_BLOCK = 8;
+
+    private final Segment[] segments;
+    private final int segmentMask;
+    private final long byteBudget;
+    private final EvictionPolicy evictionPolicy;
+    private final AdmissionPolicy admissionPolicy;
+    private final AtomicLong generation = new AtomicLong();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder admissions = new LongAdder();
+    private final LongAdder rejections = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    /**
+     * @param byteBudget      Estimated heap the entries may take, a budget of 0 disables the cache
+     * @param evictionPolicy  The eviction policy of each segment
+     * @param admissionPolicy Which recognized texts get their annotations cached
+     */
+    public AnnotationCache(final long byteBudget, final EvictionPolicy evictionPolicy, final AdmissionPolicy admissionPolicy) {
+        this.byteBudget = Math.max(0, byteBudget);
+        this.evictionPolicy = evictionPolicy;
+        this.admissionPolicy = admissionPolicy;
+        int segmentCount = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() * 4));
+        while ((segmentCount > 1) && ((this.byteBudget / segmentCount) < MIN_SEGMENT_BYTES)) {
+            segmentCount >>= 1;
+        }
+        segmentMask = segmentCount - 1;
+        segments = new Segment[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            segments[i] = new Segment(this.byteBudget / segmentCount, evictionPolicy, admissionPolicy);
+        }
+    }
+
+    public AnnotationCache(final long byteBudget) {
+        this(byteBudget, EvictionPolicy.SEGMENTED_LRU, AdmissionPolicy.REPEATED);
+    }
+
+    /**
+     * Get the annotations of a text, recognizing it and caching its annotations on a miss. The recognizer is called
+     * outside of any lock, so two threads missing on the same text at the same time may both recognize it.
+     *
+     * @param recognizer Recognizes the text with the given longest only flag, returning null when recognition failed,
+     *                   in which case nothing is cached
+     * @return The annotations, null if the recognizer failed
+     */
+    public List<AnnotationToken> get(final String text, final boolean longestOnly, final Function<String, List<AnnotationToken>> recognizer) {
+        if (byteBudget == 0) {
+            misses.increment();
+            return recognizer.apply(text);
+        }
+        final Key key = key(text, longestOnly);
+        final Segment segment = segments[(int) key.high & segmentMask];
+        final byte[] encoded = segment.get(key);
+        if (encoded != null) {
+            hits.increment();
+            return decode(encoded, text);
+        }
+        misses.increment();
+        //Annotations recognized with a dictionary invalidated in the meantime are not cached
+        final long recognitionGeneration = generation.get();
+        final List<AnnotationToken> annotations = recognizer.apply(text);
+        if (annotations != null) {
+            if (segment.put(key, encode(annotations, text), recognitionGeneration)) {
+                admissions.increment();
+            } else {
+                rejections.increment();
+            }
+        }
+        return annotations;
+    }
+
+    /**
+     * Drop every entry, e.g. when the dictionary changes. Annotations being recognized at the same time are not
+     * cached either.
+     */
+    public void invalidate() {
+        generation.incrementAndGet();
+        for (final Segment segment : segments) {
+            segment.clear();
+        }
+        invalidations.increment();
+    }
+
+    /**
+     * MurmurHash3_x64_128 of the UTF-16 code units of the text, read as little endian bytes, the flag selecting the
+     * seed
+     */
+    static Key key(final String text, final boolean longestOnly) {
+        final long seed = longestOnly ? LONGEST_ONLY_SEED : 0;
+        long first = seed;
+        long second = seed;
+        final int length = text.length();
+        final int blocksEnd = length - (length % CHARS_PER_BLOCK);
+        for (int i = 0; i < blocksEnd; i += CHARS_PER_BLOCK) {
+            first ^= mixFirst(codeUnits(text, i, i + 4));
+            first = ((Long.rotateLeft(first, 27) + second) * 5) + 0x52DCE729;
+            second ^= mixSecond(codeUnits(text, i + 4, i + 8));
+            second = ((Long.rotateLeft(second, 31) + first) * 5) + 0x38495AB5;
+        }
+        //A missing tail half packs to 0 and then leaves the hash unchanged
+        first ^= mixFirst(codeUnits(text, blocksEnd, Math.min(length, blocksEnd + 4)));
+        second ^= mixSecond(codeUnits(text, Math.min(length, blocksEnd + 4), length));
+
+        final long bytes = 2L * length;
+        first ^= bytes;
+        second ^= bytes;
+        first += second;
+        second += first;
+        first = mix(first);
+        second = mix(second);
+        first += second;
+        second += first;
+        return new Key(first, second);
+    }
+
+    /**
+     * @return Up to 4 code units packed into a long, the first in the low bits
+     */
+    private static long codeUnits(final String text, final int start, final int end) {
+        long packed = 0;
+        for (int i = end - 1; i >= start; i--) {
+            packed = (packed << Character.SIZE) | text.charAt(i);
+        }
+        return packed;
+    }
+
+    private static long mixFirst(final long block) {
+        return Long.rotateLeft(block * MURMUR_C1, 31) * MURMUR_C2;
+    }
+
+    private static long mixSecond(final long block) {
+        return Long.rotateLeft(block * MURMUR_C2, 33) * MURMUR_C1;
+    }
+
+    private static long mix(final long hash) {
+        long mixed = hash;
+        mixed = (mixed ^ (mixed >>> 33)) * 0xFF51AFD7ED558CCDL;
+        mixed = (mixed ^ (mixed >>> 33)) * 0xC4CEB9FE1A85EC53L;
+        return mixed ^ (mixed >>> 33);
+    }
+
+    /**
+     * Each annotation is encoded as zigzag varints: the start relative to the previous start, the length of the span,
+     * the token cardinality shifted left by the {@link #TEXT_STORED} and {@link #NO_CONCEPT} flags, the concept id if
+     * there is one and, when the matched text is not the span of the input text, its UTF-8 length plus one (0 for no
+     * text) and bytes.
+     */
+    static byte[] encode(final List<AnnotationToken> annotations, final String text) {
+        final Encoder encoder = new Encoder(annotations.size() * 8);
+        int previousStart = 0;
+        for (final AnnotationToken annotation : annotations) {
+            final int start = annotation.getStart();
+            final int end = annotation.getEnd();
+            encoder.writeVarint(zigzag(start - previousStart));
+            encoder.writeVarint(zigzag(end - start));
+            final Long conceptId = annotation.getConceptId();
+            final String matchedText = annotation.getText();
+            final boolean textStored = (matchedText == null) || !matchedText.equals(span(text, start, end));
+            encoder.writeVarint(((long) annotation.getTokenCardinality() << FLAG_BITS)
+                    | (textStored ? TEXT_STORED : 0) | ((conceptId == null) ? NO_CONCEPT : 0));
+            if (conceptId != null) {
+                encoder.writeVarint(zigzag(conceptId));
+            }
+            if (textStored) {
+                if (matchedText == null) {
+                    encoder.writeVarint(0);
+                } else {
+                    final byte[] bytes = matchedText.getBytes(StandardCharsets.UTF_8);
+                    encoder.writeVarint(bytes.length + 1L);
+                    encoder.write(bytes);
+                }
+            }
+            previousStart = start;
+        }
+        return encoder.toByteArray();
+    }
+
+    static List<AnnotationToken> decode(final byte[] encoded, final String text) {
+        final List<AnnotationToken> annotations = new ArrayList<>();
+        final int[] position = new int[1];
+        int start = 0;
+        String spanText = null;
+        int spanStart = 0;
+        int spanEnd = 0;
+        while (position[0] < encoded.length) {
+            start += (int) unzigzag(readVarint(encoded, position));
+            final int end = start + (int) unzigzag(readVarint(encoded, position));
+            final long cardinalityAndFlags = readVarint(encoded, position);
+            final Long conceptId = ((cardinalityAndFlags & NO_CONCEPT) != 0) ? null : unzigzag(readVarint(encoded, position));
+            final String matchedText;
+            if ((cardinalityAndFlags & TEXT_STORED) != 0) {
+                final int length = (int) readVarint(encoded, position);
+                matchedText = (length == 0) ? null : new String(encoded, position[0], length - 1, StandardCharsets.UTF_8);
+                position[0] += Math.max(0, length - 1);
+            } else {
+                //Annotations of the same span share their text, as they did when recognized
+                if ((spanText == null) || (start != spanStart) || (end != spanEnd)) {
+                    spanText = span(text, start, end);
+                    spanStart = start;
+                    spanEnd = end;
+                }
+                matchedText = spanText;
+            }
+            annotations.add(AnnotationToken.create(start, end, matchedText, conceptId, (int) (cardinalityAndFlags >>> FLAG_BITS)));
+        }
+        return annotations;
+    }
+
+    /**
+     * @return The text covered by the span of an annotation, whose start is one based, as the recognizers set it, or
+     * null if the span is not in the text
+     */
+    private static String span(final String text, final int start, final int end) {
+        final int adjustedEnd = Math.min(end, text.length());
+        return ((start >= 1) && (start <= (adjustedEnd + 1))) ? text.substring(start - 1, adjustedEnd) : null;
+    }
+
+    private static long zigzag(final long value) {
+        return (value << 1) ^ (value >> (Long.SIZE - 1));
+    }
+
+    private static long unzigzag(final long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static long readVarint(final byte[] encoded, final int[] position) {
+        long value = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = encoded[position[0]++];
+            value |= (long) (b & VARINT_GROUP_MASK) << shift;
+            shift += VARINT_GROUP_BITS;
+        } while ((b & VARINT_CONTINUATION) != 0);
+        return value;
+    }
+
+    public long hitCount() {
+        return hits.sum();
+    }
+
+    public long missCount() {
+        return misses.sum();
+    }
+
+    /**
+     * @return The number of recognized texts whose annotations were cached
+     */
+    public long admissionCount() {
+        return admissions.sum();
+    }
+
+    /**
+     * @return The number of recognized texts whose annotations were not cached: seen for the first time, too large
+     * or recognized with an invalidated dictionary
+     */
+    public long rejectionCount() {
+        return rejections.sum();
+    }
+
+    public long evictionCount() {
+        return evictions.sum();
+    }
+
+    public long invalidationCount() {
+        return invalidations.sum();
+    }
+
+    public double hitRate() {
+        final long hitCount = hitCount();
+        final long requestCount = hitCount + missCount();
+        return (requestCount == 0) ? 0 : ((double) hitCount / requestCount);
+    }
+
+    public int size() {
+        int size = 0;
+        for (final Segment segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    /**
+     * @return The estimated heap taken by the entries
+     */
+    public long bytes() {
+        long bytes = 0;
+        for (final Segment segment : segments) {
+            bytes += segment.bytes();
+        }
+        return bytes;
+    }
+
+    public long byteBudget() {
+        return byteBudget;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "AnnotationCache{policy=%s, admission=%s, budget=%d, bytes=%d, size=%d, hits=%d, misses=%d, hitRate=%.3f, admissions=%d, rejections=%d, evictions=%d, invalidations=%d}",
+                evictionPolicy, admissionPolicy, byteBudget, bytes(), size(), hitCount(), missCount(), hitRate(), admissionCount(), rejectionCount(), evictionCount(), invalidationCount());
+    }
+
+    static final class Key {
+        private final long high;
+        private final long low;
+
+        private Key(final long high, final long low) {
+            this.high = high;
+            this.low = low;
+        }
+
+        @Override
+        public boolean equals(final Object other) {
+            return (other instanceof Key) && (((Key) other).high == high) && (((Key) other).low == low);
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) (low ^ (low >>> 32));
+        }
+    }
+
+    private static final class Encoder {
+        private byte[] buffer;
+        private int size;
+
+        private Encoder(final int capacity) {
+            buffer = new byte[Math.max(1, capacity)];
+        }
+
+        private void writeVarint(final long value) {
+            long remaining = value;
+            while ((remaining & ~VARINT_GROUP_MASK) != 0) {
+                write((int) ((remaining & VARINT_GROUP_MASK) | VARINT_CONTINUATION));
+                remaining >>>= VARINT_GROUP_BITS;
+            }
+            write((int) remaining);
+        }
+
+        private void write(final int b) {
+            ensureCapacity(1);
+            buffer[size++] = (byte) b;
+        }
+
+        private void write(final byte[] bytes) {
+            ensureCapacity(bytes.length);
+            System.arraycopy(bytes, 0, buffer, size, bytes.length);
+            size += bytes.length;
+        }
+
+        private void ensureCapacity(final int extra) {
+            if ((size + extra) > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + extra));
+            }
+        }
+
+        private byte[] toByteArray() {
+            return Arrays.copyOf(buffer, size);
+        }
+    }
+
+    /**
+     * Entries linked from the least to the most recently used in a probationary and a protected area, as in the
+     * stem cache, their estimated size being counted against the budget of the segment. With the
+     * {@link AdmissionPolicy#REPEATED} policy, a bloom filter remembers the texts recognized recently and a text is
+     * only cached once the filter has seen it. The filter is cleared once it has seen about as many texts as the
+     * segment may hold, so only recent recognitions count.
+     */
+    private final class Segment {
+        private final LinkedHashMap<Key, byte[]> probation = new LinkedHashMap<>(16, 0.75f, true);
+        private final LinkedHashMap<Key, byte[]> protectedArea = new LinkedHashMap<>(16, 0.75f, true);
+        private final long budget;
+        private final long protectedBudget;
+        private final long[] doorkeeper;
+        private final int doorkeeperLimit;
+        private long probationBytes;
+        private long protectedBytes;
+        private int doorkeeperCount;
+
+        private Segment(final long budget, final EvictionPolicy evictionPolicy, final AdmissionPolicy admissionPolicy) {
+            this.budget = budget;
+            protectedBudget = (evictionPolicy == EvictionPolicy.SEGMENTED_LRU) ? (long) (budget * PROTECTED_RATIO) : 0;
+            //About 8 bits per entry the segment can hold with a couple of annotations each
+            final int bits = (admissionPolicy == AdmissionPolicy.REPEATED) ? (int) Math.min(1 << 24, Math.max(Long.SIZE, budget / (ENTRY_OVERHEAD_BYTES / 8))) : 0;
+            doorkeeper = new long[(bits + Long.SIZE - 1) / Long.SIZE];
+            doorkeeperLimit = bits / 8;
+        }
+
+        private synchronized byte[] get(final Key key) {
+            final byte[] protectedEntry = protectedArea.get(key);
+            if ((protectedEntry != null) || (protectedBudget == 0)) {
+                return (protectedEntry != null) ? protectedEntry : probation.get(key);
+            }
+            final byte[] encoded = probation.remove(key);
+            if (encoded != null) {
+                final long cost = cost(encoded);
+                probationBytes -= cost;
+                protectedArea.put(key, encoded);
+                protectedBytes += cost;
+                final Iterator<Map.Entry<Key, byte[]>> eldest = protectedArea.entrySet().iterator();
+                while (protectedBytes > protectedBudget) {
+                    final Map.Entry<Key, byte[]> demoted = eldest.next();
+                    eldest.remove();
+                    protectedBytes -= cost(demoted.getValue());
+                    probation.put(demoted.getKey(), demoted.getValue());
+                    probationBytes += cost(demoted.getValue());
+                }
+                evict();
+            }
+            return encoded;
+        }
+
+        /**
+         * @return true if the entry was cached
+         */
+        private synchronized boolean put(final Key key, final byte[] encoded, final long recognitionGeneration) {
+            final long cost = cost(encoded);
+            if ((generation.get() != recognitionGeneration) || ((cost * MAX_ENTRY_SEGMENT_FRACTION) > budget) || !admit(key)) {
+                return false;
+            }
+            if (protectedArea.containsKey(key) || probation.containsKey(key)) {
+                return true;
+            }
+            probation.put(key, encoded);
+            probationBytes += cost;
+            evict();
+            return true;
+        }
+
+        /**
+         * @return true if the text was seen recently enough, recording it otherwise
+         */
+        private boolean admit(final Key key) {
+            if (doorkeeper.length == 0) {
+                return true;
+            }
+            final int bits = doorkeeper.length * Long.SIZE;
+            final int first = (int) Long.remainderUnsigned(key.low, bits);
+            final int second = (int) Long.remainderUnsigned(key.low >>> 32 ^ key.high, bits);
+            if (isSet(first) && isSet(second)) {
+                return true;
+            }
+            if (doorkeeperCount >= doorkeeperLimit) {
+                Arrays.fill(doorkeeper, 0);
+                doorkeeperCount = 0;
+            }
+            doorkeeper[first / Long.SIZE] |= 1L << first;
+            doorkeeper[second / Long.SIZE] |= 1L << second;
+            doorkeeperCount++;
+            return false;
+        }
+
+        private boolean isSet(final int bit) {
+            return (doorkeeper[bit / Long.SIZE] & (1L << bit)) != 0;
+        }
+
+        private void evict() {
+            final Iterator<Map.Entry<Key, byte[]>> eldest = probation.entrySet().iterator();
+            while (((probationBytes + protectedBytes) > budget) && eldest.hasNext()) {
+                final Map.Entry<Key, byte[]> evicted = eldest.next();
+                eldest.remove();
+                probationBytes -= cost(evicted.getValue());
+                evictions.increment();
+            }
+        }
+
+        private long cost(final byte[] encoded) {
+            return encoded.length + ENTRY_OVERHEAD_BYTES;
+        }
+
+        private synchronized int size() {
+            return probation.size() + protectedArea.size();
+        }
+
+        private synchronized long bytes() {
+            return probationBytes + protectedBytes;
+        }
+
+        private synchronized void clear() {
+            probation.clear();
+            protectedArea.clear();
+            probationBytes = 0;
+            protectedBytes = 0;
+        }
+    }
+}
@@ -0,0 +1,252 @@
+package org.sifrproject.recognizer.index;
+
+import org.sifrproject.recognizer.util.Sets;
+
+import java.util.Arrays;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * On-heap {@link ConceptIndex} storing the posting lists of rare stems back to back in a single {@code int[]}. The
+ * posting lists of high-frequency stems, which a handful of stems such as "syndrom" or "malad" make huge, are held as
+ * {@link RoaringPostings} instead, so that intersecting them probes or ANDs bitmaps rather than walking long arrays.
+ * Stems are resolved to their ordinal through a {@link StemLexicon}.
+ */
+public class ArrayConceptIndex implements ConceptIndex {
+
+    /**
+     * Posting lists at least this long are compressed, the size at which Roaring switches to bitmap containers
+     */
+    public static final int DEFAULT_DENSE_POSTING_COUNT = RoaringPostings.ARRAY_CONTAINER_MAX;
+
+    private final StemLexicon stemLexicon;
+    private final int[] postingOffsets;
+    private final int[] postings;
+    //Sorted ordinals of the stems with compressed posting lists, and those lists; their slice of postings is empty
+    private final int[] denseStemOrdinals;
+    private final RoaringPostings[] densePostings;
+    private final int[] conceptLengths;
+    private final long[] conceptIds;
+    private final int maxPostingCount;
+    private final int maxConceptLength;
+    //First concept ordinal of each length, the concepts being ordered by length
+    private final int[] lengthOffsets;
+
+    /**
+     * @param stemLexicon    Lexicon of the sorted stem vocabulary
+     * @param postingOffsets Start of the posting list of each stem in {@code postings}, plus a final end offset
+     * @param postings       Sorted posting lists of all stems, concatenated
+     * @param conceptLengths Number of indexed tokens of each concept ordinal, in increasing order
+     * @param conceptIds     Original concept id of each concept ordinal
+     */
+    public ArrayConceptIndex(final StemLexicon stemLexicon, final int[] postingOffsets, final int[] postings, final int[] conceptLengths, final long[] conceptIds) {
+        this(stemLexicon, postingOffsets, postings, conceptLengths, conceptIds, DEFAULT_DENSE_POSTING_COUNT);
+    }
+
+    /**
+     * @param densePostingCount Length from which a posting list is compressed
+     */
+    ArrayConceptIndex(final StemLexicon stemLexicon, final int[] postingOffsets, final int[] postings, final int[] conceptLengths, final long[] conceptIds, final int densePostingCount) {
+        this.stemLexicon = stemLexicon;
+        this.conceptLengths = conceptLengths;
+        this.conceptIds = conceptIds;
+
+        //We move the long posting lists out of the shared array into compressed containers
+        final int stemCount = stemLexicon.size();
+        int denseCount = 0;
+        int maxCount = 0;
+        for (int stemOrdinal = 0; stemOrdinal < stemCount; stemOrdinal++) {
+            final int count = postingOffsets[stemOrdinal + 1] - postingOffsets[stemOrdinal];
+            if (count >= densePostingCount) {
+                denseCount++;
+            }
+            maxCount = Math.max(maxCount, count);
+        }
+        maxPostingCount = maxCount;
+        maxConceptLength = (conceptLengths.length == 0) ? 0 : conceptLengths[conceptLengths.length - 1];
+        lengthOffsets = lengthOffsets(conceptLengths.length, maxConceptLength, ordinal -> conceptLengths[ordinal]);
+
+        if (denseCount == 0) {
+            this.postingOffsets = postingOffsets;
+            this.postings = postings;
+        } else {
+            this.postingOffsets = new int[stemCount + 1];
+            int[] sparsePostings = new int[postings.length];
+            int sparseCount = 0;
+            for (int stemOrdinal = 0; stemOrdinal < stemCount; stemOrdinal++) {
+                final int from = postingOffsets[stemOrdinal];
+                final int count = postingOffsets[stemOrdinal + 1] - from;
+                if (count < densePostingCount) {
+                    System.arraycopy(postings, from, sparsePostings, sparseCount, count);
+                    sparseCount += count;
+                }
+                this.postingOffsets[stemOrdinal + 1] = sparseCount;
+            }
+            this.postings = Arrays.copyOf(sparsePostings, sparseCount);
+        }
+
+        denseStemOrdinals = new int[denseCount];
+        densePostings = new RoaringPostings[denseCount];
+        int dense = 0;
+        for (int stemOrdinal = 0; (stemOrdinal < stemCount) && (dense < denseCount); stemOrdinal++) {
+            final int from = postingOffsets[stemOrdinal];
+            final int to = postingOffsets[stemOrdinal + 1];
+            if ((to - from) >= densePostingCount) {
+                denseStemOrdinals[dense] = stemOrdinal;
+                densePostings[dense] = RoaringPostings.of(postings, from, to);
+                dense++;
+            }
+        }
+    }
+
+    private RoaringPostings densePostings(final int stemOrdinal) {
+        if (denseStemOrdinals.length == 0) {
+            return null;
+        }
+        final int dense = Arrays.binarySearch(denseStemOrdinals, stemOrdinal);
+        return (dense < 0) ? null : densePostings[dense];
+    }
+
+    @Override
+    public int stemOrdinal(final CharSequence stem) {
+        return stemLexicon.ordinal(stem);
+    }
+
+    @Override
+    public int postingCount(final int stemOrdinal) {
+        final RoaringPostings dense = densePostings(stemOrdinal);
+        return (dense == null) ? (postingOffsets[stemOrdinal + 1] - postingOffsets[stemOrdinal]) : dense.cardinality();
+    }
+
+    @Override
+    public int copyPostings(final int stemOrdinal, final int[] target) {
+        final RoaringPostings dense = densePostings(stemOrdinal);
+        if (dense != null) {
+            return dense.copyTo(target);
+        }
+        final int count = postingOffsets[stemOrdinal + 1] - postingOffsets[stemOrdinal];
+        System.arraycopy(postings, postingOffsets[stemOrdinal], target, 0, count);
+        return count;
+    }
+
+    @Override
+    public int intersect(final int stemOrdinal, final int[] candidates, final int candidateCount, final int[] target) {
+        final RoaringPostings dense = densePostings(stemOrdinal);
+        if (dense != null) {
+            return dense.intersect(candidates, candidateCount, target);
+        }
+        final int from = postingOffsets[stemOrdinal];
+        return Sets.intersectSorted(candidates, candidateCount, postings, from, postingOffsets[stemOrdinal + 1] - from, target);
+    }
+
+    @Override
+    public int intersectPostings(final int firstStemOrdinal, final int secondStemOrdinal, final int[] target) {
+        final RoaringPostings firstDense = densePostings(firstStemOrdinal);
+        final RoaringPostings secondDense = densePostings(secondStemOrdinal);
+        if ((firstDense != null) && (secondDense != null)) {
+            return firstDense.intersect(secondDense, target);
+        }
+        //At least one list is a plain array: we copy it, or the shorter one, and intersect the other with it in place
+        final boolean copyFirst = (firstDense == null) && ((secondDense != null) || (postingCount(firstStemOrdinal) <= postingCount(secondStemOrdinal)));
+        final int copied = copyFirst ? firstStemOrdinal : secondStemOrdinal;
+        final int other = copyFirst ? secondStemOrdinal : firstStemOrdinal;
+        return intersect(other, target, copyPostings(copied, target), target);
+    }
+
+    @Override
+    public int conceptLength(final int conceptOrdinal) {
+        return conceptLengths[conceptOrdinal];
+    }
+
+    @Override
+    public long conceptId(final int conceptOrdinal) {
+        return conceptIds[conceptOrdinal];
+    }
+
+    @Override
+    public int conceptCount() {
+        return conceptIds.length;
+    }
+
+    @Override
+    public int stemCount() {
+        return stemLexicon.size();
+    }
+
+    @Override
+    public int maxPostingCount() {
+        return maxPostingCount;
+    }
+
+    @Override
+    public int maxConceptLength() {
+        return maxConceptLength;
+    }
+
+    @Override
+    public int firstConceptOfLength(final int length) {
+        return (length > maxConceptLength) ? conceptCount() : lengthOffsets[Math.max(0, length)];
+    }
+
+    /**
+     * @param lengthOf The length of each concept ordinal, which must not decrease
+     * @return The first concept ordinal of each length from 0 to {@code maxLength}
+     */
+    static int[] lengthOffsets(final int conceptCount, final int maxLength, final IntUnaryOperator lengthOf) {
+        final int[] offsets = new int[maxLength + 1];
+        int length = 0;
+        for (int conceptOrdinal = 0; conceptOrdinal < conceptCount; conceptOrdinal++) {
+            final int conceptLength = lengthOf.applyAsInt(conceptOrdinal);
+            if (conceptLength < length) {
+                throw new IllegalArgumentException("Concept ordinals are not ordered by length at ordinal " + conceptOrdinal);
+            }
+            while (length < conceptLength) {
+                offsets[++length] = conceptOrdinal;
+            }
+        }
+        return offsets;
+    }
+
+    StemLexicon getStemLexicon() {
+        return stemLexicon;
+    }
+
+    String[] getStems() {
+        return stemLexicon.stems();
+    }
+
+    /**
+     * @return The offsets of the posting lists of all stems as if none was compressed
+     */
+    int[] getPostingOffsets() {
+        final int[] offsets = new int[stemCount() + 1];
+        for (int stemOrdinal = 0; stemOrdinal < stemCount(); stemOrdinal++) {
+            offsets[stemOrdinal + 1] = offsets[stemOrdinal] + postingCount(stemOrdinal);
+        }
+        return offsets;
+    }
+
+    /**
+     * @return The posting lists of all stems, concatenated and uncompressed
+     */
+    int[] getPostings() {
+        final int[] offsets = getPostingOffsets();
+        final int[] allPostings = new int[offsets[stemCount()]];
+        final int[] buffer = new int[maxPostingCount];
+        for (int stemOrdinal = 0; stemOrdinal < stemCount(); stemOrdinal++) {
+            System.arraycopy(buffer, 0, allPostings, offsets[stemOrdinal], copyPostings(stemOrdinal, buffer));
+        }
+        return allPostings;
+    }
+
+    int denseStemCount() {
+        return denseStemOrdinals.length;
+    }
+
+    int[] getConceptLengths() {
+        return conceptLengths;
+    }
+
+    long[] getConceptIds() {
+        return conceptIds;
+    }
+}
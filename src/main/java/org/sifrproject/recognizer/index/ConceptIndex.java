@@ -0,0 +1,65 @@
+package org.sifrproject.recognizer.index;
+
+/**
+ * Immutable unigram index of a concept dictionary. Concept ids are remapped to dense ordinals in
+ * [0, conceptCount()[ and each stem points to a sorted posting list of those ordinals. Ordinals are ordered by concept
+ * length, then by concept id, so that every posting list and every intersection is grouped by concept length.
+ */
+public interface ConceptIndex {
+
+    int NOT_FOUND = -1;
+
+    /**
+     * @param stem The stem to look up
+     * @return The ordinal of the stem in the vocabulary or {@link #NOT_FOUND}
+     */
+    int stemOrdinal(CharSequence stem);
+
+    int postingCount(int stemOrdinal);
+
+    /**
+     * Copy the posting list of a stem into {@code target}, which must hold at least {@link #maxPostingCount()} values
+     *
+     * @return The number of concept ordinals written
+     */
+    int copyPostings(int stemOrdinal, int[] target);
+
+    /**
+     * Intersect the sorted candidate ordinals with the posting list of a stem. {@code target} may be the same array as
+     * {@code candidates}; in that case the candidates are left untouched when the intersection is empty.
+     *
+     * @return The number of concept ordinals written to {@code target}
+     */
+    int intersect(int stemOrdinal, int[] candidates, int candidateCount, int[] target);
+
+    /**
+     * Intersect the posting lists of two stems without copying either of them first
+     *
+     * @return The number of concept ordinals written to {@code target}
+     */
+    int intersectPostings(int firstStemOrdinal, int secondStemOrdinal, int[] target);
+
+    int conceptLength(int conceptOrdinal);
+
+    long conceptId(int conceptOrdinal);
+
+    int conceptCount();
+
+    int stemCount();
+
+    /**
+     * @return The size of the longest posting list, which bounds the size of any intersection
+     */
+    int maxPostingCount();
+
+    /**
+     * @return The largest number of tokens of a concept, which bounds the length of any match
+     */
+    int maxConceptLength();
+
+    /**
+     * @return The first concept ordinal whose length is at least the given length, or {@link #conceptCount()} if
+     * there is none
+     */
+    int firstConceptOfLength(int length);
+}
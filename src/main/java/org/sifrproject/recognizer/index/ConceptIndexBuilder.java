@@ -0,0 +1,137 @@
+package org.sifrproject.recognizer.index;
+
+import java.util.*;
+
+/**
+ * Accumulates dictionary labels and compiles them into an immutable {@link ArrayConceptIndex}. Several labels may share
+ * the same concept id: their stems are merged into the same posting lists and the concept length is that of the last
+ * label added, which is how the original map-based index behaved.
+ */
+public class ConceptIndexBuilder {
+
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final int ORDINAL_BITS = 32;
+    private static final long ORDINAL_MASK = 0xFFFFFFFFL;
+
+    private final Map<String, Integer> stemOrdinals = new HashMap<>();
+    private final List<String> stems = new ArrayList<>();
+    private final Map<Long, Integer> conceptOrdinals = new HashMap<>();
+
+    private long[] conceptIds = new long[INITIAL_CAPACITY];
+    private int[] conceptLengths = new int[INITIAL_CAPACITY];
+    private int conceptCount;
+
+    //Each entry packs a stem ordinal in the high bits and a concept ordinal in the low bits
+    private long[] entries = new long[INITIAL_CAPACITY];
+    private int entryCount;
+
+    /**
+     * Index one label of a concept
+     *
+     * @param conceptId  The concept id of the label
+     * @param labelStems The stems of the indexed tokens of the label, in order
+     */
+    public void addLabel(final long conceptId, final Collection<String> labelStems) {
+        final int conceptOrdinal = conceptOrdinal(conceptId);
+        for (final String stem : labelStems) {
+            if (entryCount == entries.length) {
+                entries = Arrays.copyOf(entries, entries.length * 2);
+            }
+            entries[entryCount++] = (((long) stemOrdinal(stem)) << ORDINAL_BITS) | conceptOrdinal;
+        }
+        conceptLengths[conceptOrdinal] = labelStems.size();
+    }
+
+    private int stemOrdinal(final String stem) {
+        Integer ordinal = stemOrdinals.get(stem);
+        if (ordinal == null) {
+            ordinal = stems.size();
+            stemOrdinals.put(stem, ordinal);
+            stems.add(stem);
+        }
+        return ordinal;
+    }
+
+    private int conceptOrdinal(final long conceptId) {
+        Integer ordinal = conceptOrdinals.get(conceptId);
+        if (ordinal == null) {
+            ordinal = conceptCount;
+            conceptOrdinals.put(conceptId, ordinal);
+            if (conceptCount == conceptIds.length) {
+                conceptIds = Arrays.copyOf(conceptIds, conceptIds.length * 2);
+                conceptLengths = Arrays.copyOf(conceptLengths, conceptLengths.length * 2);
+            }
+            conceptIds[conceptCount++] = conceptId;
+        }
+        return ordinal;
+    }
+
+    /**
+     * Compile the labels added so far. Stems are ordered lexicographically and concept ordinals follow the order of
+     * the concept lengths and then of the concept ids, so that the same dictionary always produces the same index.
+     *
+     * @return The compiled index
+     */
+    public ArrayConceptIndex build() {
+        //We sort the stem vocabulary and remember where each stem went
+        final String[] sortedStems = stems.toArray(new String[stems.size()]);
+        Arrays.sort(sortedStems);
+        final int[] stemRemap = new int[sortedStems.length];
+        for (int newOrdinal = 0; newOrdinal < sortedStems.length; newOrdinal++) {
+            stemRemap[stemOrdinals.get(sortedStems[newOrdinal])] = newOrdinal;
+        }
+
+        //We do the same for concepts, ordered by length and then by id, which groups every posting list by length
+        int maxLength = 0;
+        for (int ordinal = 0; ordinal < conceptCount; ordinal++) {
+            maxLength = Math.max(maxLength, conceptLengths[ordinal]);
+        }
+        final int[] lengthOffsets = new int[maxLength + 2];
+        for (int ordinal = 0; ordinal < conceptCount; ordinal++) {
+            lengthOffsets[conceptLengths[ordinal] + 1]++;
+        }
+        for (int length = 0; length <= maxLength; length++) {
+            lengthOffsets[length + 1] += lengthOffsets[length];
+        }
+        final long[] sortedIds = new long[conceptCount];
+        final int[] sortedLengths = new int[conceptCount];
+        final int[] nextOrdinals = Arrays.copyOf(lengthOffsets, maxLength + 1);
+        for (int ordinal = 0; ordinal < conceptCount; ordinal++) {
+            sortedIds[nextOrdinals[conceptLengths[ordinal]]++] = conceptIds[ordinal];
+        }
+        final int[] conceptRemap = new int[conceptCount];
+        for (int length = 0; length <= maxLength; length++) {
+            Arrays.sort(sortedIds, lengthOffsets[length], lengthOffsets[length + 1]);
+            for (int newOrdinal = lengthOffsets[length]; newOrdinal < lengthOffsets[length + 1]; newOrdinal++) {
+                conceptRemap[conceptOrdinals.get(sortedIds[newOrdinal])] = newOrdinal;
+                sortedLengths[newOrdinal] = length;
+            }
+        }
+
+        //Sorting the remapped entries groups them by stem with increasing concept ordinals
+        final long[] remapped = new long[entryCount];
+        for (int i = 0; i < entryCount; i++) {
+            final int stemOrdinal = stemRemap[(int) (entries[i] >>> ORDINAL_BITS)];
+            final int conceptOrdinal = conceptRemap[(int) (entries[i] & ORDINAL_MASK)];
+            remapped[i] = (((long) stemOrdinal) << ORDINAL_BITS) | conceptOrdinal;
+        }
+        Arrays.sort(remapped);
+
+        //We lay out the posting lists, dropping duplicate (stem, concept) pairs
+        final int[] postingOffsets = new int[sortedStems.length + 1];
+        int[] postings = new int[entryCount];
+        int postingCount = 0;
+        for (int i = 0; i < entryCount; i++) {
+            if ((i == 0) || (remapped[i] != remapped[i - 1])) {
+                postingOffsets[(int) (remapped[i] >>> ORDINAL_BITS) + 1]++;
+                postings[postingCount++] = (int) (remapped[i] & ORDINAL_MASK);
+            }
+        }
+        for (int stemOrdinal = 0; stemOrdinal < sortedStems.length; stemOrdinal++) {
+            postingOffsets[stemOrdinal + 1] += postingOffsets[stemOrdinal];
+        }
+        postings = Arrays.copyOf(postings, postingCount);
+
+        return new ArrayConceptIndex(StemLexicon.build(sortedStems), postingOffsets, postings, sortedLengths, sortedIds);
+    }
+}
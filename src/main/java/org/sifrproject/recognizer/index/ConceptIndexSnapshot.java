@@ -0,0 +1,165 @@
+package org.sifrproject.recognizer.index;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Binary snapshot of a compiled {@link ArrayConceptIndex}. All values are big endian:
+ * <pre>
+ * header    magic, version, source checksum (long), stem count, concept count, posting count, stem bytes length
+ * stems     int[stemCount + 1] offsets into the UTF-8 stem bytes, then the bytes, padded to 4 bytes
+ * postings  int[stemCount + 1] posting offsets, then int[postingCount] concept ordinals
+ * concepts  int[conceptCount] lengths, padded to 8 bytes, then long[conceptCount] original concept ids
+ * </pre>
+ * Version 2 orders concept ordinals by length, then by id.
+ * The source checksum identifies the dictionary and resources the snapshot was compiled from, so that stale snapshots
+ * can be detected without reading them.
+ */
+@SuppressWarnings("all")
+public enum ConceptIndexSnapshot {
+    ;
+
+    private static final Logger logger = LoggerFactory.getLogger(ConceptIndexSnapshot.class);
+
+    static final int MAGIC = 0x42504349;
+    static final int FORMAT_VERSION = 2;
+    static final int HEADER_SIZE = 32;
+
+    /**
+     * Write a snapshot of the index. The snapshot is written next to its final location and moved into place, so
+     * that a server starting concurrently never sees a partial file.
+     */
+    public static void write(final ArrayConceptIndex index, final long sourceChecksum, final Path snapshotPath) throws IOException {
+        final Path absolutePath = snapshotPath.toAbsolutePath();
+        final Path temporaryPath = Files.createTempFile(absolutePath.getParent(), absolutePath.getFileName().toString(), ".tmp");
+        try {
+            try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporaryPath)))) {
+                final String[] stems = index.getStems();
+                final int[] postings = index.getPostings();
+                final int[] stemByteOffsets = new int[stems.length + 1];
+                final byte[][] stemBytes = new byte[stems.length][];
+                for (int i = 0; i < stems.length; i++) {
+                    stemBytes[i] = stems[i].getBytes(StandardCharsets.UTF_8);
+                    stemByteOffsets[i + 1] = stemByteOffsets[i] + stemBytes[i].length;
+                }
+
+                output.writeInt(MAGIC);
+                output.writeInt(FORMAT_VERSION);
+                output.writeLong(sourceChecksum);
+                output.writeInt(stems.length);
+                output.writeInt(index.conceptCount());
+                output.writeInt(postings.length);
+                output.writeInt(stemByteOffsets[stems.length]);
+
+                writeInts(output, stemByteOffsets);
+                for (final byte[] bytes : stemBytes) {
+                    output.write(bytes);
+                }
+                pad(output, Integer.BYTES);
+                writeInts(output, index.getPostingOffsets());
+                writeInts(output, postings);
+                writeInts(output, index.getConceptLengths());
+                pad(output, Long.BYTES);
+                for (final long conceptId : index.getConceptIds()) {
+                    output.writeLong(conceptId);
+                }
+            }
+            Files.move(temporaryPath, absolutePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporaryPath);
+        }
+        logger.info("Wrote index snapshot to {}", absolutePath);
+    }
+
+    /**
+     * @return true if the file is a snapshot in the current format compiled from sources with the given checksum
+     */
+    public static boolean isCurrent(final Path snapshotPath, final long sourceChecksum) throws IOException {
+        if (!Files.isRegularFile(snapshotPath) || (Files.size(snapshotPath) < HEADER_SIZE)) {
+            return false;
+        }
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        try (FileChannel channel = FileChannel.open(snapshotPath, StandardOpenOption.READ)) {
+            int read = 0;
+            while (header.hasRemaining() && (read >= 0)) {
+                read = channel.read(header);
+            }
+        }
+        ((Buffer) header).flip();
+        return (header.getInt() == MAGIC) && (header.getInt() == FORMAT_VERSION) && (header.getLong() == sourceChecksum);
+    }
+
+    /**
+     * Read a snapshot back into an on-heap index
+     */
+    public static ArrayConceptIndex read(final Path snapshotPath) throws IOException {
+        final MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(snapshotPath, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if ((buffer.getInt() != MAGIC) || (buffer.getInt() != FORMAT_VERSION)) {
+            throw new IOException("Not an index snapshot in format version " + FORMAT_VERSION + ": " + snapshotPath);
+        }
+        buffer.getLong();
+        final int stemCount = buffer.getInt();
+        final int conceptCount = buffer.getInt();
+        final int postingCount = buffer.getInt();
+        final int stemBytesLength = buffer.getInt();
+
+        final int[] stemByteOffsets = readInts(buffer, stemCount + 1);
+        final byte[] stemBytes = new byte[stemBytesLength];
+        buffer.get(stemBytes);
+        final String[] stems = new String[stemCount];
+        for (int i = 0; i < stemCount; i++) {
+            stems[i] = new String(stemBytes, stemByteOffsets[i], stemByteOffsets[i + 1] - stemByteOffsets[i], StandardCharsets.UTF_8);
+        }
+        skipPadding(buffer, Integer.BYTES);
+
+        final int[] postingOffsets = readInts(buffer, stemCount + 1);
+        final int[] postings = readInts(buffer, postingCount);
+        final int[] conceptLengths = readInts(buffer, conceptCount);
+        skipPadding(buffer, Long.BYTES);
+        final long[] conceptIds = new long[conceptCount];
+        buffer.asLongBuffer().get(conceptIds);
+
+        return new ArrayConceptIndex(StemLexicon.build(stems), postingOffsets, postings, conceptLengths, conceptIds);
+    }
+
+    private static void writeInts(final DataOutputStream output, final int[] values) throws IOException {
+        for (final int value : values) {
+            output.writeInt(value);
+        }
+    }
+
+    private static int[] readInts(final ByteBuffer buffer, final int count) {
+        final int[] values = new int[count];
+        buffer.asIntBuffer().get(values);
+        ((Buffer) buffer).position(buffer.position() + (count * Integer.BYTES));
+        return values;
+    }
+
+    private static void pad(final DataOutputStream output, final int alignment) throws IOException {
+        while ((output.size() % alignment) != 0) {
+            output.writeByte(0);
+        }
+    }
+
+    private static void skipPadding(final ByteBuffer buffer, final int alignment) {
+        while ((buffer.position() % alignment) != 0) {
+            buffer.get();
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package org.sifrproject.recognizer.index;
+
+import org.sifrproject.recognizer.util.Sets;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * {@link ConceptIndex} served directly from a memory-mapped {@link ConceptIndexSnapshot}. Nothing is copied to the
+ * heap: the pages of the snapshot live in the OS page cache, where they are shared by every process mapping the same
+ * file, and the garbage collector never scans them. Stems are looked up by binary search over the sorted vocabulary.
+ */
+public final class MappedConceptIndex implements ConceptIndex {
+
+    private static final int TWO_BYTE_MASK = 0xE0;
+    private static final int TWO_BYTE_PREFIX = 0xC0;
+    private static final int THREE_BYTE_MASK = 0xF0;
+    private static final int THREE_BYTE_PREFIX = 0xE0;
+    private static final int CONTINUATION_MASK = 0x3F;
+    private static final int CONTINUATION_BITS = 6;
+
+    private final ByteBuffer stemBytes;
+    private final IntBuffer stemByteOffsets;
+    private final IntBuffer postingOffsets;
+    private final IntBuffer postings;
+    private final IntBuffer conceptLengths;
+    private final LongBuffer conceptIds;
+    private final int stemCount;
+    private final int conceptCount;
+    private final int maxPostingCount;
+    private final int maxConceptLength;
+    //First concept ordinal of each length, the concepts being ordered by length
+    private final int[] lengthOffsets;
+
+    private MappedConceptIndex(final ByteBuffer buffer) throws IOException {
+        if ((buffer.getInt() != ConceptIndexSnapshot.MAGIC) || (buffer.getInt() != ConceptIndexSnapshot.FORMAT_VERSION)) {
+            throw new IOException("Not an index snapshot in format version " + ConceptIndexSnapshot.FORMAT_VERSION);
+        }
+        buffer.getLong();
+        stemCount = buffer.getInt();
+        conceptCount = buffer.getInt();
+        final int postingCount = buffer.getInt();
+        final int stemBytesLength = buffer.getInt();
+
+        stemByteOffsets = slice(buffer, (stemCount + 1) * Integer.BYTES).asIntBuffer();
+        stemBytes = slice(buffer, stemBytesLength);
+        skipPadding(buffer, Integer.BYTES);
+        postingOffsets = slice(buffer, (stemCount + 1) * Integer.BYTES).asIntBuffer();
+        postings = slice(buffer, postingCount * Integer.BYTES).asIntBuffer();
+        conceptLengths = slice(buffer, conceptCount * Integer.BYTES).asIntBuffer();
+        skipPadding(buffer, Long.BYTES);
+        conceptIds = slice(buffer, conceptCount * Long.BYTES).asLongBuffer();
+
+        int maxCount = 0;
+        for (int stemOrdinal = 0; stemOrdinal < stemCount; stemOrdinal++) {
+            maxCount = Math.max(maxCount, postingCount(stemOrdinal));
+        }
+        maxPostingCount = maxCount;
+        maxConceptLength = (conceptCount == 0) ? 0 : conceptLength(conceptCount - 1);
+        lengthOffsets = ArrayConceptIndex.lengthOffsets(conceptCount, maxConceptLength, this::conceptLength);
+    }
+
+    /**
+     * Map a snapshot written by {@link ConceptIndexSnapshot#write}. The mapping stays valid after the file is replaced
+     * by a newer snapshot.
+     */
+    public static MappedConceptIndex open(final Path snapshotPath) throws IOException {
+        try (FileChannel channel = FileChannel.open(snapshotPath, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Index snapshot too large to be mapped: " + snapshotPath);
+            }
+            return new MappedConceptIndex(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    @Override
+    public int stemOrdinal(final CharSequence stem) {
+        int low = 0;
+        int high = stemCount - 1;
+        while (low <= high) {
+            final int middle = (low + high) >>> 1;
+            final int comparison = compareStem(middle, stem);
+            if (comparison < 0) {
+                low = middle + 1;
+            } else if (comparison > 0) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return NOT_FOUND;
+    }
+
+    /**
+     * Compare the UTF-8 bytes of a stem of the vocabulary with a key, in {@link String#compareTo} order, decoding the
+     * bytes on the fly.
+     */
+    private int compareStem(final int stemOrdinal, final CharSequence key) {
+        int position = stemByteOffsets.get(stemOrdinal);
+        final int end = stemByteOffsets.get(stemOrdinal + 1);
+        int keyIndex = 0;
+        while ((position < end) && (keyIndex < key.length())) {
+            final int first = stemBytes.get(position) & 0xFF;
+            final int codePoint;
+            if (first < 0x80) {
+                codePoint = first;
+                position += 1;
+            } else if ((first & TWO_BYTE_MASK) == TWO_BYTE_PREFIX) {
+                codePoint = ((first & 0x1F) << CONTINUATION_BITS) | continuation(position + 1);
+                position += 2;
+            } else if ((first & THREE_BYTE_MASK) == THREE_BYTE_PREFIX) {
+                codePoint = ((first & 0x0F) << (2 * CONTINUATION_BITS)) | (continuation(position + 1) << CONTINUATION_BITS) | continuation(position + 2);
+                position += 3;
+            } else {
+                codePoint = ((first & 0x07) << (3 * CONTINUATION_BITS)) | (continuation(position + 1) << (2 * CONTINUATION_BITS))
+                        | (continuation(position + 2) << CONTINUATION_BITS) | continuation(position + 3);
+                position += 4;
+            }
+
+            if (Character.isBmpCodePoint(codePoint)) {
+                final int comparison = Character.compare((char) codePoint, key.charAt(keyIndex++));
+                if (comparison != 0) {
+                    return comparison;
+                }
+            } else {
+                //Supplementary characters are compared as their surrogate pair, like String does
+                int comparison = Character.compare(Character.highSurrogate(codePoint), key.charAt(keyIndex++));
+                if ((comparison == 0) && (keyIndex < key.length())) {
+                    comparison = Character.compare(Character.lowSurrogate(codePoint), key.charAt(keyIndex++));
+                } else if (comparison == 0) {
+                    return 1;
+                }
+                if (comparison != 0) {
+                    return comparison;
+                }
+            }
+        }
+        if (position < end) {
+            return 1;
+        }
+        return (keyIndex < key.length()) ? -1 : 0;
+    }
+
+    private int continuation(final int position) {
+        return stemBytes.get(position) & CONTINUATION_MASK;
+    }
+
+    @Override
+    public int postingCount(final int stemOrdinal) {
+        return postingOffsets.get(stemOrdinal + 1) - postingOffsets.get(stemOrdinal);
+    }
+
+    @Override
+    public int copyPostings(final int stemOrdinal, final int[] target) {
+        final int from = postingOffsets.get(stemOrdinal);
+        final int count = postingCount(stemOrdinal);
+        for (int i = 0; i < count; i++) {
+            target[i] = postings.get(from + i);
+        }
+        return count;
+    }
+
+    @Override
+    public int intersect(final int stemOrdinal, final int[] candidates, final int candidateCount, final int[] target) {
+        return Sets.intersectSorted(candidates, candidateCount, postings, postingOffsets.get(stemOrdinal), postingCount(stemOrdinal), target);
+    }
+
+    @Override
+    public int intersectPostings(final int firstStemOrdinal, final int secondStemOrdinal, final int[] target) {
+        //The snapshot only holds sorted arrays: we copy the shorter list and gallop through the longer one
+        final boolean firstIsShorter = postingCount(firstStemOrdinal) <= postingCount(secondStemOrdinal);
+        final int shorter = firstIsShorter ? firstStemOrdinal : secondStemOrdinal;
+        final int longer = firstIsShorter ? secondStemOrdinal : firstStemOrdinal;
+        return intersect(longer, target, copyPostings(shorter, target), target);
+    }
+
+    @Override
+    public int conceptLength(final int conceptOrdinal) {
+        return conceptLengths.get(conceptOrdinal);
+    }
+
+    @Override
+    public long conceptId(final int conceptOrdinal) {
+        return conceptIds.get(conceptOrdinal);
+    }
+
+    @Override
+    public int conceptCount() {
+        return conceptCount;
+    }
+
+    @Override
+    public int stemCount() {
+        return stemCount;
+    }
+
+    @Override
+    public int maxPostingCount() {
+        return maxPostingCount;
+    }
+
+    @Override
+    public int maxConceptLength() {
+        return maxConceptLength;
+    }
+
+    @Override
+    public int firstConceptOfLength(final int length) {
+        return (length > maxConceptLength) ? conceptCount() : lengthOffsets[Math.max(0, length)];
+    }
+
+    private static ByteBuffer slice(final ByteBuffer buffer, final int length) {
+        final ByteBuffer slice = buffer.slice();
+        ((Buffer) slice).limit(length);
+        ((Buffer) buffer).position(buffer.position() + length);
+        return slice;
+    }
+
+    private static void skipPadding(final ByteBuffer buffer, final int alignment) {
+        while ((buffer.position() % alignment) != 0) {
+            buffer.get();
+        }
+    }
+}
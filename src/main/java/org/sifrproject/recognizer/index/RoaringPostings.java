@@ -0,0 +1,209 @@
+package org.sifrproject.recognizer.index;
+
+import java.util.Arrays;
+
+/**
+ * Compressed posting list of a high-frequency stem, laid out like a Roaring bitmap: concept ordinals are split in
+ * chunks of 2^16 by their high bits and the low bits of each non-empty chunk are held either in a sorted
+ * {@code char[]} (array container) or, once the chunk holds more than {@link #ARRAY_CONTAINER_MAX} values, in a
+ * {@code long[1024]} bitmap (bitmap container). Intersections are specialised for each pair of container types.
+ */
+final class RoaringPostings {
+
+    static final int ARRAY_CONTAINER_MAX = 4096;
+
+    private static final int CHUNK_SHIFT = 16;
+    private static final int LOW_MASK = 0xFFFF;
+    private static final int BITMAP_WORDS = 1024;
+    private static final int WORD_SHIFT = 6;
+
+    //High bits of each non-empty chunk, increasing, and the container of the chunk: a char[] or a long[]
+    private final char[] keys;
+    private final Object[] containers;
+    private final int cardinality;
+
+    private RoaringPostings(final char[] keys, final Object[] containers, final int cardinality) {
+        this.keys = keys;
+        this.containers = containers;
+        this.cardinality = cardinality;
+    }
+
+    /**
+     * @param values Strictly increasing non-negative concept ordinals
+     */
+    static RoaringPostings of(final int[] values, final int from, final int to) {
+        int chunkCount = 0;
+        for (int i = from; i < to; i++) {
+            if ((i == from) || ((values[i] >>> CHUNK_SHIFT) != (values[i - 1] >>> CHUNK_SHIFT))) {
+                chunkCount++;
+            }
+        }
+        final char[] keys = new char[chunkCount];
+        final Object[] containers = new Object[chunkCount];
+        int chunk = 0;
+        int chunkStart = from;
+        while (chunkStart < to) {
+            final int key = values[chunkStart] >>> CHUNK_SHIFT;
+            int chunkEnd = chunkStart;
+            while ((chunkEnd < to) && ((values[chunkEnd] >>> CHUNK_SHIFT) == key)) {
+                chunkEnd++;
+            }
+            keys[chunk] = (char) key;
+            if ((chunkEnd - chunkStart) > ARRAY_CONTAINER_MAX) {
+                final long[] bitmap = new long[BITMAP_WORDS];
+                for (int i = chunkStart; i < chunkEnd; i++) {
+                    final int low = values[i] & LOW_MASK;
+                    bitmap[low >>> WORD_SHIFT] |= 1L << low;
+                }
+                containers[chunk] = bitmap;
+            } else {
+                final char[] array = new char[chunkEnd - chunkStart];
+                for (int i = chunkStart; i < chunkEnd; i++) {
+                    array[i - chunkStart] = (char) (values[i] & LOW_MASK);
+                }
+                containers[chunk] = array;
+            }
+            chunk++;
+            chunkStart = chunkEnd;
+        }
+        return new RoaringPostings(keys, containers, to - from);
+    }
+
+    int cardinality() {
+        return cardinality;
+    }
+
+    /**
+     * @return The number of ordinals written to {@code target}, in increasing order
+     */
+    int copyTo(final int[] target) {
+        int count = 0;
+        for (int chunk = 0; chunk < keys.length; chunk++) {
+            final int high = keys[chunk] << CHUNK_SHIFT;
+            final Object container = containers[chunk];
+            if (container instanceof long[]) {
+                count = appendBits(high, (long[]) container, target, count);
+            } else {
+                for (final char low : (char[]) container) {
+                    target[count++] = high | low;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Intersect sorted candidates with the posting list by probing the container of each candidate. {@code target}
+     * may be {@code candidates}: values are only ever written at or before the position they are read from, and
+     * nothing is written when the intersection is empty.
+     */
+    int intersect(final int[] candidates, final int candidateCount, final int[] target) {
+        int count = 0;
+        int chunk = 0;
+        for (int i = 0; (i < candidateCount) && (chunk < keys.length); i++) {
+            final int candidate = candidates[i];
+            final int key = candidate >>> CHUNK_SHIFT;
+            while ((chunk < keys.length) && (keys[chunk] < key)) {
+                chunk++;
+            }
+            if ((chunk < keys.length) && (keys[chunk] == key) && containerContains(containers[chunk], candidate & LOW_MASK)) {
+                target[count++] = candidate;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Intersect two compressed posting lists chunk by chunk
+     *
+     * @return The number of ordinals written to {@code target}, in increasing order
+     */
+    int intersect(final RoaringPostings other, final int[] target) {
+        int count = 0;
+        int chunk = 0;
+        int otherChunk = 0;
+        while ((chunk < keys.length) && (otherChunk < other.keys.length)) {
+            if (keys[chunk] < other.keys[otherChunk]) {
+                chunk++;
+            } else if (keys[chunk] > other.keys[otherChunk]) {
+                otherChunk++;
+            } else {
+                count = intersectContainers(keys[chunk] << CHUNK_SHIFT, containers[chunk], other.containers[otherChunk], target, count);
+                chunk++;
+                otherChunk++;
+            }
+        }
+        return count;
+    }
+
+    private static int intersectContainers(final int high, final Object first, final Object second, final int[] target, final int count) {
+        if (first instanceof long[]) {
+            if (second instanceof long[]) {
+                //bitmap AND bitmap: word by word
+                final long[] firstBitmap = (long[]) first;
+                final long[] secondBitmap = (long[]) second;
+                int written = count;
+                for (int word = 0; word < BITMAP_WORDS; word++) {
+                    long bits = firstBitmap[word] & secondBitmap[word];
+                    while (bits != 0) {
+                        target[written++] = high | (word << WORD_SHIFT) | Long.numberOfTrailingZeros(bits);
+                        bits &= bits - 1;
+                    }
+                }
+                return written;
+            }
+            return intersectArrayWithBitmap(high, (char[]) second, (long[]) first, target, count);
+        }
+        if (second instanceof long[]) {
+            return intersectArrayWithBitmap(high, (char[]) first, (long[]) second, target, count);
+        }
+        //array AND array: merge
+        final char[] firstArray = (char[]) first;
+        final char[] secondArray = (char[]) second;
+        int written = count;
+        int i = 0;
+        int j = 0;
+        while ((i < firstArray.length) && (j < secondArray.length)) {
+            if (firstArray[i] < secondArray[j]) {
+                i++;
+            } else if (firstArray[i] > secondArray[j]) {
+                j++;
+            } else {
+                target[written++] = high | firstArray[i];
+                i++;
+                j++;
+            }
+        }
+        return written;
+    }
+
+    private static int intersectArrayWithBitmap(final int high, final char[] array, final long[] bitmap, final int[] target, final int count) {
+        int written = count;
+        for (final char low : array) {
+            if (bitmapContains(bitmap, low)) {
+                target[written++] = high | low;
+            }
+        }
+        return written;
+    }
+
+    private static boolean containerContains(final Object container, final int low) {
+        return (container instanceof long[]) ? bitmapContains((long[]) container, low) : (Arrays.binarySearch((char[]) container, (char) low) >= 0);
+    }
+
+    private static boolean bitmapContains(final long[] bitmap, final int low) {
+        return (bitmap[low >>> WORD_SHIFT] & (1L << low)) != 0;
+    }
+
+    private static int appendBits(final int high, final long[] bitmap, final int[] target, final int count) {
+        int written = count;
+        for (int word = 0; word < BITMAP_WORDS; word++) {
+            long bits = bitmap[word];
+            while (bits != 0) {
+                target[written++] = high | (word << WORD_SHIFT) | Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
+            }
+        }
+        return written;
+    }
+}
@@ -0,0 +1,278 @@
+package org.sifrproject.recognizer.index;
+
+import java.util.*;
+
+/**
+ * Minimal acyclic finite-state transducer mapping each stem of a sorted vocabulary to its ordinal in that vocabulary.
+ * Stems share both prefixes and suffixes in the automaton, and the ordinal is the sum of the outputs of the arcs
+ * followed, so the lexicon holds no {@link String} and no hash table entry per stem.
+ * <p>
+ * The automaton is built incrementally from the sorted vocabulary (Daciuk et al., 2000), so that only the path of the
+ * last stem added is ever left unminimized, then frozen into flat arrays.
+ */
+public final class StemLexicon {
+
+    public static final int NOT_FOUND = -1;
+
+    private static final int ROOT = 0;
+
+    //Arcs of state s are arcLabels/arcTargets/arcOutputs[arcOffsets[s], arcOffsets[s+1][, sorted by label
+    private final int[] arcOffsets;
+    private final char[] arcLabels;
+    private final int[] arcTargets;
+    private final int[] arcOutputs;
+    private final boolean[] finalStates;
+    private final int size;
+
+    private StemLexicon(final int[] arcOffsets, final char[] arcLabels, final int[] arcTargets, final int[] arcOutputs,
+                        final boolean[] finalStates, final int size) {
+        this.arcOffsets = arcOffsets;
+        this.arcLabels = arcLabels;
+        this.arcTargets = arcTargets;
+        this.arcOutputs = arcOutputs;
+        this.finalStates = finalStates;
+        this.size = size;
+    }
+
+    /**
+     * @param sortedStems Stems in strictly increasing {@link String#compareTo} order
+     * @return The lexicon of the stems
+     */
+    public static StemLexicon build(final String[] sortedStems) {
+        final Builder builder = new Builder();
+        for (final String stem : sortedStems) {
+            builder.add(stem);
+        }
+        return builder.finish();
+    }
+
+    /**
+     * @return The ordinal of the stem in the sorted vocabulary or {@link #NOT_FOUND}
+     */
+    public int ordinal(final CharSequence stem) {
+        int state = ROOT;
+        int ordinal = 0;
+        for (int i = 0; i < stem.length(); i++) {
+            final int arc = findArc(state, stem.charAt(i));
+            if (arc < 0) {
+                return NOT_FOUND;
+            }
+            ordinal += arcOutputs[arc];
+            state = arcTargets[arc];
+        }
+        return finalStates[state] ? ordinal : NOT_FOUND;
+    }
+
+    private int findArc(final int state, final char label) {
+        int low = arcOffsets[state];
+        int high = arcOffsets[state + 1] - 1;
+        while (low <= high) {
+            final int middle = (low + high) >>> 1;
+            if (arcLabels[middle] < label) {
+                low = middle + 1;
+            } else if (arcLabels[middle] > label) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return The number of stems in the lexicon
+     */
+    public int size() {
+        return size;
+    }
+
+    public int stateCount() {
+        return finalStates.length;
+    }
+
+    public int arcCount() {
+        return arcLabels.length;
+    }
+
+    /**
+     * Enumerate the vocabulary back, in order
+     */
+    public String[] stems() {
+        final String[] stems = new String[size];
+        collect(ROOT, new StringBuilder(), stems, 0);
+        return stems;
+    }
+
+    private int collect(final int state, final StringBuilder prefix, final String[] stems, final int next) {
+        int position = next;
+        if (finalStates[state]) {
+            stems[position++] = prefix.toString();
+        }
+        for (int arc = arcOffsets[state]; arc < arcOffsets[state + 1]; arc++) {
+            prefix.append(arcLabels[arc]);
+            position = collect(arcTargets[arc], prefix, stems, position);
+            prefix.setLength(prefix.length() - 1);
+        }
+        return position;
+    }
+
+    /**
+     * Mutable automaton state used while building. Once registered a state is never modified again, so registered
+     * states can be compared by their finality and their arcs, the targets of which are compared by identity.
+     */
+    private static final class Node {
+        private boolean isFinal;
+        private char[] labels = new char[0];
+        private Node[] targets = new Node[0];
+
+        private void addArc(final char label, final Node target) {
+            labels = Arrays.copyOf(labels, labels.length + 1);
+            targets = Arrays.copyOf(targets, targets.length + 1);
+            labels[labels.length - 1] = label;
+            targets[targets.length - 1] = target;
+        }
+
+        private Node lastChild() {
+            return (targets.length == 0) ? null : targets[targets.length - 1];
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (!(o instanceof Node)) {
+                return false;
+            }
+            final Node other = (Node) o;
+            if ((isFinal != other.isFinal) || !Arrays.equals(labels, other.labels)) {
+                return false;
+            }
+            for (int i = 0; i < targets.length; i++) {
+                if (targets[i] != other.targets[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = isFinal ? 1 : 0;
+            for (int i = 0; i < labels.length; i++) {
+                hash = (31 * hash) + labels[i];
+                hash = (31 * hash) + System.identityHashCode(targets[i]);
+            }
+            return hash;
+        }
+    }
+
+    private static final class Builder {
+        private final Node root = new Node();
+        private final Map<Node, Node> register = new HashMap<>();
+        private String previous = "";
+        private int size;
+
+        private void add(final String stem) {
+            if ((size > 0) && (stem.compareTo(previous) <= 0)) {
+                throw new IllegalArgumentException("Stems must be added in strictly increasing order: " + stem);
+            }
+            //We walk the prefix shared with the previous stem, which is still unminimized
+            int prefixLength = 0;
+            Node state = root;
+            while ((prefixLength < stem.length()) && (prefixLength < previous.length())
+                    && (stem.charAt(prefixLength) == previous.charAt(prefixLength))) {
+                state = state.lastChild();
+                prefixLength++;
+            }
+            //The rest of the previous stem can no longer change: we minimize it...
+            if (state.lastChild() != null) {
+                replaceOrRegister(state);
+            }
+            //...and append the suffix of the new stem
+            for (int i = prefixLength; i < stem.length(); i++) {
+                final Node target = new Node();
+                state.addArc(stem.charAt(i), target);
+                state = target;
+            }
+            state.isFinal = true;
+            previous = stem;
+            size++;
+        }
+
+        private void replaceOrRegister(final Node state) {
+            final Node child = state.lastChild();
+            if (child.lastChild() != null) {
+                replaceOrRegister(child);
+            }
+            final Node registered = register.get(child);
+            if (registered == null) {
+                register.put(child, child);
+            } else {
+                state.targets[state.targets.length - 1] = registered;
+            }
+        }
+
+        private StemLexicon finish() {
+            if (root.lastChild() != null) {
+                replaceOrRegister(root);
+            }
+            register.clear();
+
+            //We number the unique states breadth first and count the stems accepted from each of them
+            final Map<Node, Integer> ids = new IdentityHashMap<>();
+            final List<Node> states = new ArrayList<>();
+            ids.put(root, ROOT);
+            states.add(root);
+            int arcCount = 0;
+            for (int i = 0; i < states.size(); i++) {
+                for (final Node target : states.get(i).targets) {
+                    if (!ids.containsKey(target)) {
+                        ids.put(target, states.size());
+                        states.add(target);
+                    }
+                }
+                arcCount += states.get(i).targets.length;
+            }
+            final int[] acceptedCounts = new int[states.size()];
+            Arrays.fill(acceptedCounts, -1);
+            countAccepted(root, ids, acceptedCounts);
+
+            final int[] arcOffsets = new int[states.size() + 1];
+            final char[] arcLabels = new char[arcCount];
+            final int[] arcTargets = new int[arcCount];
+            final int[] arcOutputs = new int[arcCount];
+            final boolean[] finalStates = new boolean[states.size()];
+            int arc = 0;
+            for (int i = 0; i < states.size(); i++) {
+                final Node state = states.get(i);
+                finalStates[i] = state.isFinal;
+                arcOffsets[i] = arc;
+                //Following an arc skips the stem ending here and all the stems reachable through the previous arcs
+                int skipped = state.isFinal ? 1 : 0;
+                for (int j = 0; j < state.labels.length; j++) {
+                    final int target = ids.get(state.targets[j]);
+                    arcLabels[arc] = state.labels[j];
+                    arcTargets[arc] = target;
+                    arcOutputs[arc] = skipped;
+                    skipped += acceptedCounts[target];
+                    arc++;
+                }
+            }
+            arcOffsets[states.size()] = arc;
+            return new StemLexicon(arcOffsets, arcLabels, arcTargets, arcOutputs, finalStates, size);
+        }
+
+        /**
+         * Depth first, memoized: the depth of the recursion is bounded by the length of the longest stem
+         */
+        private static int countAccepted(final Node state, final Map<Node, Integer> ids, final int[] acceptedCounts) {
+            final int id = ids.get(state);
+            if (acceptedCounts[id] < 0) {
+                int count = state.isFinal ? 1 : 0;
+                for (final Node target : state.targets) {
+                    count += countAccepted(target, ids, acceptedCounts);
+                }
+                acceptedCounts[id] = count;
+            }
+            return acceptedCounts[id];
+        }
+    }
+}
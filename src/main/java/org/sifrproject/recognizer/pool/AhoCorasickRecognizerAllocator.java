@@ -0,0 +1,62 @@
+package org.sifrproject.recognizer.pool;
+
+import org.sifrproject.recognizer.AhoCorasickConceptRecognizer;
+import org.sifrproject.recognizer.ConceptRecognizer;
+import org.sifrproject.recognizer.FaironConceptRecognizer;
+import org.sifrproject.recognizer.automaton.StemAutomaton;
+import org.sifrproject.recognizer.cache.AnnotationCache;
+import org.sifrproject.stemming.StemCache;
+import stormpot.Allocator;
+import stormpot.Slot;
+
+/**
+ * Allocates lightweight Aho-Corasick recognizers that all share one compiled automaton. After
+ * {@link #refresh(StemAutomaton)}, recognizers allocated to replace expired ones use the new automaton, and the
+ * annotation cache, if any, is invalidated.
+ */
+@SuppressWarnings("PublicMethodNotExposedInInterface")
+public class AhoCorasickRecognizerAllocator implements Allocator<ConceptRecognizer> {
+
+    private final StemCache stemCache;
+    private final int stopWordAllowance;
+    private final RefreshInvalidation refreshInvalidation;
+    private volatile AhoCorasickConceptRecognizer sharedRecognizer;
+
+    public AhoCorasickRecognizerAllocator(final StemAutomaton automaton, final StemCache stemCache) {
+        this(automaton, stemCache, FaironConceptRecognizer.DEFAULT_STOP_WORD_ALLOWANCE);
+    }
+
+    public AhoCorasickRecognizerAllocator(final StemAutomaton automaton, final StemCache stemCache, final int stopWordAllowance) {
+        this(automaton, stemCache, stopWordAllowance, null);
+    }
+
+    /**
+     * @param annotationCache Cache of the annotations recognized by the pooled recognizers, invalidated when the
+     *                        automaton changes, or null
+     */
+    public AhoCorasickRecognizerAllocator(final StemAutomaton automaton, final StemCache stemCache, final int stopWordAllowance,
+                                          final AnnotationCache annotationCache) {
+        this.stemCache = stemCache;
+        this.stopWordAllowance = stopWordAllowance;
+        refreshInvalidation = new RefreshInvalidation(annotationCache);
+        sharedRecognizer = new AhoCorasickConceptRecognizer(automaton, stemCache, stopWordAllowance);
+    }
+
+    /**
+     * Switch the automaton of the recognizers allocated from now on
+     */
+    public void refresh(final StemAutomaton automaton) {
+        final AhoCorasickConceptRecognizer refreshedRecognizer = new AhoCorasickConceptRecognizer(automaton, stemCache, stopWordAllowance);
+        refreshInvalidation.refresh(() -> sharedRecognizer = refreshedRecognizer);
+    }
+
+    @Override
+    public ConceptRecognizer allocate(final Slot slot) {
+        return refreshInvalidation.allocate(() -> new AhoCorasickConceptRecognizer(slot, sharedRecognizer));
+    }
+
+    @Override
+    public void deallocate(final ConceptRecognizer conceptRecognizer) {
+        refreshInvalidation.deallocate(conceptRecognizer);
+    }
+}
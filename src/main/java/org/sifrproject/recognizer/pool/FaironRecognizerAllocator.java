@@ -2,29 +2,76 @@ package org.sifrproject.recognizer.pool;
 
 import org.sifrproject.recognizer.ConceptRecognizer;
 import org.sifrproject.recognizer.FaironConceptRecognizer;
+import org.sifrproject.recognizer.cache.AnnotationCache;
+import org.sifrproject.recognizer.index.ConceptIndex;
+import org.sifrproject.stemming.StemCache;
 import stormpot.Allocator;
 import stormpot.Slot;
 
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.nio.file.Path;
+import java.util.concurrent.ForkJoinPool;
 
+/**
+ * Allocates lightweight Fairon recognizers that all share one loaded index. After {@link #refresh(ConceptIndex)},
+ * recognizers allocated to replace expired ones use the new index, and the annotation cache, if any, is invalidated.
+ */
 @SuppressWarnings("PublicMethodNotExposedInInterface")
 public class FaironRecognizerAllocator implements Allocator<ConceptRecognizer> {
 
-    private final Path dictionaryPath;
+    private final StemCache stemCache;
+    private final int stopWordAllowance;
+    private final int segmentTokens;
+    private final RefreshInvalidation refreshInvalidation;
+    private volatile FaironConceptRecognizer sharedRecognizer;
 
-    public FaironRecognizerAllocator(final Path dictionaryPath) {
-        this.dictionaryPath = dictionaryPath;
+    public FaironRecognizerAllocator(final ConceptIndex conceptIndex, final StemCache stemCache) {
+        this(conceptIndex, stemCache, FaironConceptRecognizer.DEFAULT_STOP_WORD_ALLOWANCE);
+    }
+
+    public FaironRecognizerAllocator(final ConceptIndex conceptIndex, final StemCache stemCache, final int stopWordAllowance) {
+        this(conceptIndex, stemCache, stopWordAllowance, 0);
+    }
+
+    /**
+     * @param segmentTokens Number of start tokens per segment when large documents are recognized in parallel
+     *                      segments on the common fork/join pool, 0 to recognize every document sequentially
+     */
+    public FaironRecognizerAllocator(final ConceptIndex conceptIndex, final StemCache stemCache, final int stopWordAllowance, final int segmentTokens) {
+        this(conceptIndex, stemCache, stopWordAllowance, segmentTokens, null);
+    }
+
+    /**
+     * @param annotationCache Cache of the annotations recognized by the pooled recognizers, invalidated when the index
+     *                        changes, or null
+     */
+    public FaironRecognizerAllocator(final ConceptIndex conceptIndex, final StemCache stemCache, final int stopWordAllowance, final int segmentTokens,
+                                     final AnnotationCache annotationCache) {
+        this.stemCache = stemCache;
+        this.stopWordAllowance = stopWordAllowance;
+        this.segmentTokens = segmentTokens;
+        refreshInvalidation = new RefreshInvalidation(annotationCache);
+        sharedRecognizer = createSharedRecognizer(conceptIndex);
+    }
+
+    /**
+     * Switch the index of the recognizers allocated from now on
+     */
+    public void refresh(final ConceptIndex conceptIndex) {
+        final FaironConceptRecognizer refreshedRecognizer = createSharedRecognizer(conceptIndex);
+        refreshInvalidation.refresh(() -> sharedRecognizer = refreshedRecognizer);
+    }
+
+    private FaironConceptRecognizer createSharedRecognizer(final ConceptIndex conceptIndex) {
+        final FaironConceptRecognizer recognizer = new FaironConceptRecognizer(conceptIndex, stemCache, stopWordAllowance);
+        return (segmentTokens > 0) ? recognizer.withParallelSegments(ForkJoinPool.commonPool(), segmentTokens) : recognizer;
     }
 
     @Override
-    public ConceptRecognizer allocate(final Slot slot) throws FileNotFoundException {
-        return new FaironConceptRecognizer(slot,new FileInputStream(dictionaryPath.toFile()));
+    public ConceptRecognizer allocate(final Slot slot) {
+        return refreshInvalidation.allocate(() -> new FaironConceptRecognizer(slot, sharedRecognizer));
     }
 
     @Override
     public void deallocate(final ConceptRecognizer conceptRecognizer) {
-
+        refreshInvalidation.deallocate(conceptRecognizer);
     }
 }
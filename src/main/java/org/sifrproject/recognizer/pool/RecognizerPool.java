@@ -0,0 +1,145 @@
+package org.sifrproject.recognizer.pool;
+
+import org.sifrproject.recognizer.ConceptRecognizer;
+import org.sifrproject.recognizer.cache.AnnotationCache;
+import stormpot.*;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded pool of recognizers, bounding the number of recognitions running at the same time. Claims wait for a free
+ * recognizer at most for the claim timeout, after which the pool counts as exhausted. Recognizers can be given a
+ * lifetime, after which they are reallocated, which is how they pick up a refreshed index or automaton. The pool may
+ * also carry the cache of the annotations its recognizers produce, which callers look up before claiming a recognizer.
+ * <p>
+ * Claim latencies are recorded in a histogram with power of two buckets, which is enough to follow percentiles
+ * without locking or allocating on the claim path.
+ */
+public final class RecognizerPool {
+
+    private static final int LATENCY_BUCKETS = Long.SIZE;
+    private static final double EXPIRY_SPREAD = 1.25;
+
+    private final BlazePool<ConceptRecognizer> pool;
+    private final Timeout claimTimeout;
+    private final AnnotationCache annotationCache;
+
+    private final LongAdder claims = new LongAdder();
+    private final LongAdder exhaustions = new LongAdder();
+    private final LongAdder claimLatencyNanos = new LongAdder();
+    private final LongAdder[] claimLatencyHistogram = new LongAdder[LATENCY_BUCKETS];
+
+    /**
+     * @param allocator          Allocates recognizers sharing one index, e.g. {@link FaironRecognizerAllocator}
+     * @param size               Number of recognizers in the pool
+     * @param claimTimeoutMillis How long a claim waits for a recognizer before giving up
+     * @param expiryMillis       Lifetime of a recognizer, spread a little to avoid reallocating them all at once, or 0
+     *                           for recognizers that never expire
+     */
+    public RecognizerPool(final Allocator<ConceptRecognizer> allocator, final int size, final long claimTimeoutMillis, final long expiryMillis) {
+        this(allocator, size, claimTimeoutMillis, expiryMillis, null);
+    }
+
+    /**
+     * @param annotationCache Cache of the annotations of the recognized texts, which should also be given to the
+     *                        allocator so that it is invalidated when the dictionary changes, or null
+     */
+    public RecognizerPool(final Allocator<ConceptRecognizer> allocator, final int size, final long claimTimeoutMillis, final long expiryMillis,
+                          final AnnotationCache annotationCache) {
+        this.annotationCache = annotationCache;
+        final Expiration<ConceptRecognizer> expiration = (expiryMillis > 0) ?
+                new TimeSpreadExpiration<>(expiryMillis, (long) (expiryMillis * EXPIRY_SPREAD) + 1, TimeUnit.MILLISECONDS) :
+                info -> false;
+        final Config<ConceptRecognizer> config = new Config<ConceptRecognizer>()
+                .setAllocator(allocator)
+                .setSize(size)
+                .setExpiration(expiration);
+        pool = new BlazePool<>(config);
+        claimTimeout = new Timeout(claimTimeoutMillis, TimeUnit.MILLISECONDS);
+        for (int bucket = 0; bucket < LATENCY_BUCKETS; bucket++) {
+            claimLatencyHistogram[bucket] = new LongAdder();
+        }
+    }
+
+    /**
+     * Claim a recognizer, which must be given back with {@link ConceptRecognizer#release()}
+     *
+     * @return The claimed recognizer, or null if none became available before the claim timeout
+     */
+    public ConceptRecognizer claim() throws InterruptedException {
+        final long start = System.nanoTime();
+        final ConceptRecognizer recognizer = pool.claim(claimTimeout);
+        final long latency = System.nanoTime() - start;
+        claims.increment();
+        claimLatencyNanos.add(latency);
+        claimLatencyHistogram[LATENCY_BUCKETS - 1 - Long.numberOfLeadingZeros(Math.max(1, latency))].increment();
+        if (recognizer == null) {
+            exhaustions.increment();
+        }
+        return recognizer;
+    }
+
+    public long claimCount() {
+        return claims.sum();
+    }
+
+    /**
+     * @return The number of claims that timed out because all the recognizers were in use
+     */
+    public long exhaustionCount() {
+        return exhaustions.sum();
+    }
+
+    public double meanClaimLatencyMicros() {
+        final long count = claimCount();
+        return (count == 0) ? 0 : ((claimLatencyNanos.sum() / (double) count) / 1000);
+    }
+
+    /**
+     * @param percentile Between 0 and 1
+     * @return The upper bound of the histogram bucket holding the percentile of claim latencies
+     */
+    public double claimLatencyPercentileMicros(final double percentile) {
+        final long[] counts = new long[LATENCY_BUCKETS];
+        long total = 0;
+        for (int bucket = 0; bucket < LATENCY_BUCKETS; bucket++) {
+            counts[bucket] = claimLatencyHistogram[bucket].sum();
+            total += counts[bucket];
+        }
+        long cumulated = 0;
+        for (int bucket = 0; bucket < LATENCY_BUCKETS; bucket++) {
+            cumulated += counts[bucket];
+            if ((cumulated > 0) && (cumulated >= (percentile * total))) {
+                return Math.scalb(1.0, bucket + 1) / 1000;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @return The cache of the annotations of the recognized texts, null if there is none
+     */
+    public AnnotationCache annotationCache() {
+        return annotationCache;
+    }
+
+    public int size() {
+        return pool.getTargetSize();
+    }
+
+    public long allocationCount() {
+        return pool.getAllocationCount();
+    }
+
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "RecognizerPool{size=%d, allocations=%d, claims=%d, exhaustions=%d, meanClaimLatency=%.1fus, p99ClaimLatency<=%.1fus}",
+                size(), allocationCount(), claimCount(), exhaustionCount(), meanClaimLatencyMicros(), claimLatencyPercentileMicros(0.99));
+    }
+}
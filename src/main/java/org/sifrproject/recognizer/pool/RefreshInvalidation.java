@@ -0,0 +1,57 @@
+package org.sifrproject.recognizer.pool;
+
+import org.sifrproject.recognizer.ConceptRecognizer;
+import org.sifrproject.recognizer.cache.AnnotationCache;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.function.Supplier;
+
+/**
+ * Keeps the annotation cache of an allocator in line with its dictionary. The cache is invalidated when the allocator
+ * is refreshed, and again each time a recognizer allocated before is deallocated: until they expire, such recognizers
+ * keep recognizing with the previous dictionary, and what they cache in the meantime must not outlive them.
+ */
+final class RefreshInvalidation {
+
+    private final AnnotationCache annotationCache;
+    private final Set<ConceptRecognizer> current = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final Set<ConceptRecognizer> stale = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    /**
+     * @param annotationCache The cache to invalidate, null if there is none
+     */
+    RefreshInvalidation(final AnnotationCache annotationCache) {
+        this.annotationCache = annotationCache;
+    }
+
+    synchronized ConceptRecognizer allocate(final Supplier<ConceptRecognizer> allocation) {
+        final ConceptRecognizer recognizer = allocation.get();
+        if (annotationCache != null) {
+            current.add(recognizer);
+        }
+        return recognizer;
+    }
+
+    /**
+     * Switch the dictionary and invalidate the cache
+     */
+    synchronized void refresh(final Runnable dictionarySwitch) {
+        dictionarySwitch.run();
+        if (annotationCache != null) {
+            stale.addAll(current);
+            current.clear();
+            annotationCache.invalidate();
+        }
+    }
+
+    synchronized void deallocate(final ConceptRecognizer recognizer) {
+        if (annotationCache != null) {
+            current.remove(recognizer);
+            if (stale.remove(recognizer)) {
+                annotationCache.invalidate();
+            }
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package org.sifrproject.recognizer.stream;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import org.sifrproject.recognizer.AnnotationToken;
+
+import java.util.Iterator;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Publishes the annotations of a lazily started recognition to a single subscriber, never more than it requested.
+ * Annotations are pulled from the recognition on the thread calling {@link Subscription#request(long)}; requests
+ * made from within {@link Subscriber#onNext(Object)} only add to the demand of the running delivery loop, so the
+ * stack does not grow with the number of annotations.
+ * <p>
+ * The interfaces are those of Reactive Streams, which match {@code java.util.concurrent.Flow} and convert to it with
+ * {@code org.reactivestreams.FlowAdapters} on Java 9 and later.
+ */
+public final class AnnotationPublisher implements Publisher<AnnotationToken> {
+
+    private final Supplier<? extends Iterator<AnnotationToken>> recognition;
+    private final AtomicBoolean subscribed = new AtomicBoolean();
+
+    public AnnotationPublisher(final Supplier<? extends Iterator<AnnotationToken>> recognition) {
+        this.recognition = recognition;
+    }
+
+    @Override
+    public void subscribe(final Subscriber<? super AnnotationToken> subscriber) {
+        Objects.requireNonNull(subscriber, "subscriber");
+        if (subscribed.compareAndSet(false, true)) {
+            subscriber.onSubscribe(new RecognitionSubscription(subscriber, recognition));
+        } else {
+            subscriber.onSubscribe(new RecognitionSubscription(subscriber, null));
+            subscriber.onError(new IllegalStateException("A recognition stream has a single subscriber"));
+        }
+    }
+
+    private static final class RecognitionSubscription implements Subscription {
+        private final Subscriber<? super AnnotationToken> subscriber;
+        private final Supplier<? extends Iterator<AnnotationToken>> recognition;
+        private final AtomicLong requested = new AtomicLong();
+        //Number of pending calls to drain, only the call that raises it from 0 delivers
+        private final AtomicInteger pendingDrains = new AtomicInteger();
+        private Iterator<AnnotationToken> annotations;
+        private volatile boolean done;
+
+        RecognitionSubscription(final Subscriber<? super AnnotationToken> subscriber, final Supplier<? extends Iterator<AnnotationToken>> recognition) {
+            this.subscriber = subscriber;
+            this.recognition = recognition;
+            done = recognition == null;
+        }
+
+        @Override
+        public void request(final long count) {
+            if (done) {
+                return;
+            }
+            if (count <= 0) {
+                done = true;
+                subscriber.onError(new IllegalArgumentException("Non-positive request: " + count));
+                return;
+            }
+            //We cap the demand at Long.MAX_VALUE, which stands for an unbounded demand
+            requested.accumulateAndGet(count, (current, added) -> ((current + added) < 0) ? Long.MAX_VALUE : (current + added));
+            if (pendingDrains.getAndIncrement() == 0) {
+                drain();
+            }
+        }
+
+        @Override
+        public void cancel() {
+            done = true;
+        }
+
+        private void drain() {
+            int missed = 1;
+            do {
+                final long demand = requested.get();
+                long delivered = 0;
+                while ((delivered != demand) && !done) {
+                    final AnnotationToken annotation;
+                    try {
+                        if (annotations == null) {
+                            annotations = recognition.get();
+                        }
+                        if (!annotations.hasNext()) {
+                            done = true;
+                            subscriber.onComplete();
+                            return;
+                        }
+                        annotation = annotations.next();
+                    } catch (final RuntimeException e) {
+                        done = true;
+                        subscriber.onError(e);
+                        return;
+                    }
+                    subscriber.onNext(annotation);
+                    delivered++;
+                }
+                if (done) {
+                    return;
+                }
+                if (demand != Long.MAX_VALUE) {
+                    requested.addAndGet(-delivered);
+                }
+                missed = pendingDrains.addAndGet(-missed);
+            } while (missed != 0);
+        }
+    }
+}
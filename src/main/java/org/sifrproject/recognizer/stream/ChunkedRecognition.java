@@ -0,0 +1,121 @@
+package org.sifrproject.recognizer.stream;
+
+import org.sifrproject.recognizer.AnnotationToken;
+import org.sifrproject.recognizer.ConceptRecognizer;
+import org.sifrproject.recognizer.util.TokenizedText;
+
+import java.util.*;
+
+/**
+ * Recognition of a document read as a sequence of chunks, producing the annotations in the order of their start
+ * offsets, with offsets relative to the whole document.
+ * <p>
+ * Chunks are appended to a window of text. The matches starting at a token are decided by at most
+ * {@link ConceptRecognizer#lookahead()} following tokens, so once the window holds that many complete tokens after a
+ * start token, the annotations starting there are final. The window is recognized, the final annotations are
+ * published and the text before the first start token that is not final yet is dropped; the rest is carried over to
+ * the next chunk, where its partial matches are recognized again. Separators before the first token are dropped
+ * even when no annotation is final yet. The window therefore never holds much more than a chunk and the longest match
+ * window, whatever the size of the document.
+ * <p>
+ * In longest-only mode the annotations go through a {@link LongestMatchWindow}, which keeps them until every
+ * annotation that could overlap them has been seen.
+ */
+public final class ChunkedRecognition implements Iterator<AnnotationToken> {
+
+    private final ConceptRecognizer recognizer;
+    private final Iterator<? extends CharSequence> chunks;
+    private final LongestMatchWindow longestMatches;
+
+    private final StringBuilder window = new StringBuilder();
+    private final TokenizedText tokens = new TokenizedText();
+    private final Deque<AnnotationToken> ready = new ArrayDeque<>();
+    private final List<AnnotationToken> finalAnnotations = new ArrayList<>();
+    //Offset of the window in the document
+    private long windowOffset;
+    private int peakWindowLength;
+    private boolean exhausted;
+
+    /**
+     * @param recognizer  The recognizer, which must stay available until the recognition is over
+     * @param chunks      The consecutive chunks of the document; a chunk may end anywhere, even inside a word
+     * @param longestOnly Whether overlapping annotations are resolved as by {@link ConceptRecognizer#recognize}
+     */
+    public ChunkedRecognition(final ConceptRecognizer recognizer, final Iterator<? extends CharSequence> chunks, final boolean longestOnly) {
+        this.recognizer = recognizer;
+        this.chunks = chunks;
+        longestMatches = longestOnly ? new LongestMatchWindow() : null;
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (ready.isEmpty() && !exhausted) {
+            if (chunks.hasNext()) {
+                window.append(chunks.next());
+                peakWindowLength = Math.max(peakWindowLength, window.length());
+                recognizeWindow(false);
+            } else {
+                exhausted = true;
+                recognizeWindow(true);
+            }
+        }
+        return !ready.isEmpty();
+    }
+
+    @Override
+    public AnnotationToken next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return ready.poll();
+    }
+
+    /**
+     * @param last Whether the window holds the end of the document, in which case all its annotations are final
+     */
+    private void recognizeWindow(final boolean last) {
+        final int tokenCount = tokens.tokenize(window, false);
+        //The last token may continue in the next chunk, the start tokens that may look at it are not final
+        final int finalTokens = last ? tokenCount : (tokenCount - 1 - recognizer.lookahead());
+        if (finalTokens > 0) {
+            final int cut = (finalTokens < tokenCount) ? tokens.sourceStart(finalTokens) : window.length();
+            finalAnnotations.clear();
+            for (final AnnotationToken annotation : recognizer.recognize(window.toString(), false)) {
+                if ((annotation.getStart() - 1) < cut) {
+                    finalAnnotations.add(AnnotationToken.create(
+                            Math.toIntExact(annotation.getStart() + windowOffset), Math.toIntExact(annotation.getEnd() + windowOffset),
+                            annotation.getText(), annotation.getConceptId(), annotation.getTokenCardinality()));
+                }
+            }
+            //Engines may report annotations by end offset, the stream is ordered by start offset
+            finalAnnotations.sort(Comparator.comparingInt(AnnotationToken::getStart));
+            if (longestMatches == null) {
+                ready.addAll(finalAnnotations);
+            } else {
+                for (final AnnotationToken annotation : finalAnnotations) {
+                    longestMatches.add(annotation, ready::add);
+                }
+            }
+            window.delete(0, cut);
+            windowOffset += cut;
+        } else if (!last) {
+            //No start token is final yet, but the separators before the first one cannot be part of any match
+            final int cut = (tokenCount == 0) ? window.length() : tokens.sourceStart(0);
+            window.delete(0, cut);
+            windowOffset += cut;
+        }
+        if (last) {
+            window.setLength(0);
+            if (longestMatches != null) {
+                longestMatches.flush(ready::add);
+            }
+        }
+    }
+
+    /**
+     * @return The largest number of chars the window held so far
+     */
+    int peakWindowLength() {
+        return peakWindowLength;
+    }
+}
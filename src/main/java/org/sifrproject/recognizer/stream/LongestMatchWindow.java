@@ -0,0 +1,70 @@
+package org.sifrproject.recognizer.stream;
+
+import org.sifrproject.recognizer.AnnotationToken;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Streaming counterpart of {@link org.sifrproject.recognizer.util.Overlaps#keepLongest(List)} for annotations arriving
+ * in the order of their start offsets. An annotation is decided once an annotation starting after its end arrives,
+ * since every annotation overlapping it has been seen by then. The window only holds the undecided annotations and
+ * the decided ones that still overlap them.
+ */
+final class LongestMatchWindow {
+
+    //Ordered by start offset, the undecided annotations from firstUndecided on
+    private final List<AnnotationToken> window = new ArrayList<>();
+    private int firstUndecided;
+
+    void add(final AnnotationToken annotation, final Consumer<AnnotationToken> output) {
+        decide(annotation.getStart(), output);
+        window.add(annotation);
+    }
+
+    /**
+     * Decide every annotation left, at the end of the document
+     */
+    void flush(final Consumer<AnnotationToken> output) {
+        decide(Integer.MAX_VALUE, output);
+        window.clear();
+        firstUndecided = 0;
+    }
+
+    /**
+     * Decide, in order, the annotations ending before the given start offset and forget those nothing undecided
+     * overlaps any more
+     */
+    private void decide(final int nextStart, final Consumer<AnnotationToken> output) {
+        while ((firstUndecided < window.size()) && (window.get(firstUndecided).getEnd() < nextStart)) {
+            final AnnotationToken annotation = window.get(firstUndecided);
+            if (!hasLongerOverlap(annotation)) {
+                output.accept(annotation);
+            }
+            firstUndecided++;
+        }
+        final int horizon = (firstUndecided < window.size()) ? window.get(firstUndecided).getStart() : nextStart;
+        int forgotten = 0;
+        while ((forgotten < firstUndecided) && (window.get(forgotten).getEnd() < horizon)) {
+            forgotten++;
+        }
+        if (forgotten > 0) {
+            window.subList(0, forgotten).clear();
+            firstUndecided -= forgotten;
+        }
+    }
+
+    private boolean hasLongerOverlap(final AnnotationToken annotation) {
+        final int length = annotation.getEnd() - annotation.getStart();
+        for (final AnnotationToken other : window) {
+            if (other.getStart() > annotation.getEnd()) {
+                break;
+            }
+            if ((other.getEnd() >= annotation.getStart()) && ((other.getEnd() - other.getStart()) > length)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,59 @@
+package org.sifrproject.recognizer.stream;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.CharBuffer;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * The consecutive chunks of text read from a reader, each chunk reusing the same buffer. Reading failures are
+ * rethrown as {@link UncheckedIOException}. The reader is not closed.
+ */
+public final class ReaderChunks implements Iterator<CharSequence> {
+
+    public static final int DEFAULT_CHUNK_SIZE = 8192;
+
+    private final Reader reader;
+    private final char[] buffer;
+    private int length;
+    private boolean pending;
+
+    public ReaderChunks(final Reader reader) {
+        this(reader, DEFAULT_CHUNK_SIZE);
+    }
+
+    public ReaderChunks(final Reader reader, final int chunkSize) {
+        this.reader = reader;
+        buffer = new char[chunkSize];
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (!pending && (length >= 0)) {
+            try {
+                //We skip empty reads, a reader may return 0 chars without reaching its end
+                do {
+                    length = reader.read(buffer, 0, buffer.length);
+                } while (length == 0);
+            } catch (final IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            pending = length > 0;
+        }
+        return pending;
+    }
+
+    /**
+     * @return The next chunk, only valid until the following call
+     */
+    @Override
+    public CharSequence next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        pending = false;
+        return CharBuffer.wrap(buffer, 0, length);
+    }
+}
@@ -0,0 +1,89 @@
+package org.sifrproject.recognizer.util;
+
+import java.util.Collection;
+
+/**
+ * Immutable open-addressing hash set of words that can be probed with a range of a {@code char[]}, so that the tokens
+ * of a text can be looked up without building a {@link String} for each of them.
+ */
+public final class CharRangeSet {
+
+    private final String[] slots;
+    private final int[] hashes;
+    private final int mask;
+    private final int size;
+
+    private CharRangeSet(final String[] slots, final int[] hashes, final int size) {
+        this.slots = slots;
+        this.hashes = hashes;
+        mask = slots.length - 1;
+        this.size = size;
+    }
+
+    public static CharRangeSet of(final Collection<String> words) {
+        //At most half full, so that probe sequences stay short
+        final int capacity = Integer.highestOneBit(Math.max(1, words.size()) * 4);
+        final String[] slots = new String[capacity];
+        final int[] hashes = new int[capacity];
+        int size = 0;
+        for (final String word : words) {
+            final int hash = word.hashCode();
+            int slot = spread(hash) & (capacity - 1);
+            while ((slots[slot] != null) && !slots[slot].equals(word)) {
+                slot = (slot + 1) & (capacity - 1);
+            }
+            if (slots[slot] == null) {
+                slots[slot] = word;
+                hashes[slot] = hash;
+                size++;
+            }
+        }
+        return new CharRangeSet(slots, hashes, size);
+    }
+
+    /**
+     * @return true if the set holds the word made of {@code chars[offset, offset + length[}
+     */
+    public boolean contains(final char[] chars, final int offset, final int length) {
+        final int hash = hash(chars, offset, length);
+        int slot = spread(hash) & mask;
+        while (slots[slot] != null) {
+            if ((hashes[slot] == hash) && regionEquals(slots[slot], chars, offset, length)) {
+                return true;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return false;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return The {@link String#hashCode()} of the word made of {@code chars[offset, offset + length[}
+     */
+    public static int hash(final char[] chars, final int offset, final int length) {
+        int hash = 0;
+        for (int i = offset; i < (offset + length); i++) {
+            hash = (31 * hash) + chars[i];
+        }
+        return hash;
+    }
+
+    public static boolean regionEquals(final String word, final char[] chars, final int offset, final int length) {
+        if (word.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (word.charAt(i) != chars[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int spread(final int hash) {
+        return hash ^ (hash >>> 16);
+    }
+}
@@ -0,0 +1,132 @@
+package org.sifrproject.recognizer.util;
+
+import org.sifrproject.recognizer.AnnotationToken;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Resolution of overlapping annotations for longest-only recognition
+ */
+@SuppressWarnings("all")
+public enum Overlaps {
+    ;
+
+    /**
+     * Keep the annotations that no strictly longer annotation overlaps. Annotations of the same span, e.g. the
+     * concepts sharing a label, are kept or dropped together and the order of the annotations is preserved.
+     * <p>
+     * Annotations are swept by start offset: the longer annotations overlapping the current one either start at or
+     * before it and are still open, which a max-heap of open annotations by length tells, or start inside it, which a
+     * sparse table of range maximum lengths over the start order tells. This runs in O(n log n).
+     */
+    public static List<AnnotationToken> keepLongest(final List<AnnotationToken> annotations) {
+        final int count = annotations.size();
+        if (count < 2) {
+            return annotations;
+        }
+
+        //We sort the annotations by start offset, packing the start and the index in a long to sort primitives
+        final long[] byStart = new long[count];
+        for (int i = 0; i < count; i++) {
+            byStart[i] = (((long) start(annotations.get(i))) << Integer.SIZE) | i;
+        }
+        Arrays.sort(byStart);
+        final int[] starts = new int[count];
+        final int[] lengths = new int[count];
+        for (int i = 0; i < count; i++) {
+            final AnnotationToken annotation = annotations.get((int) byStart[i]);
+            starts[i] = start(annotation);
+            lengths[i] = end(annotation) - starts[i];
+        }
+        final int[][] maxLengths = sparseTable(lengths);
+
+        final boolean[] dropped = new boolean[count];
+        //Open annotations, the longest first, holding sorted positions
+        final PriorityQueue<Integer> open = new PriorityQueue<>((first, second) -> Integer.compare(lengths[second], lengths[first]));
+        int next = 0;
+        for (int i = 0; i < count; i++) {
+            //Everything starting at or before the current annotation is open...
+            while ((next < count) && (starts[next] <= starts[i])) {
+                open.add(next++);
+            }
+            //...until it ends before the current annotation starts
+            while (!open.isEmpty() && (end(starts, lengths, open.peek()) <= starts[i])) {
+                open.poll();
+            }
+            final int end = starts[i] + lengths[i];
+            boolean longerOverlap = !open.isEmpty() && (lengths[open.peek()] > lengths[i]);
+            if (!longerOverlap) {
+                final int lastInside = lastStartBefore(starts, end);
+                longerOverlap = (lastInside >= next) && (rangeMax(maxLengths, next, lastInside) > lengths[i]);
+            }
+            dropped[(int) byStart[i]] = longerOverlap;
+        }
+
+        final List<AnnotationToken> longest = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            if (!dropped[i]) {
+                longest.add(annotations.get(i));
+            }
+        }
+        return longest;
+    }
+
+    /**
+     * Annotations hold 1-based inclusive offsets, we work on 0-based half open ones
+     */
+    private static int start(final AnnotationToken annotation) {
+        return annotation.getStart() - 1;
+    }
+
+    private static int end(final AnnotationToken annotation) {
+        return annotation.getEnd();
+    }
+
+    private static int end(final int[] starts, final int[] lengths, final int position) {
+        return starts[position] + lengths[position];
+    }
+
+    /**
+     * @return The last sorted position whose start is before the offset
+     */
+    private static int lastStartBefore(final int[] starts, final int offset) {
+        int low = 0;
+        int high = starts.length - 1;
+        while (low <= high) {
+            final int middle = (low + high) >>> 1;
+            if (starts[middle] < offset) {
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return high;
+    }
+
+    /**
+     * @return Row k holds the maximum of each window of 2^k values
+     */
+    private static int[][] sparseTable(final int[] values) {
+        final int levels = Integer.SIZE - Integer.numberOfLeadingZeros(values.length);
+        final int[][] table = new int[levels][];
+        table[0] = values;
+        for (int level = 1; level < levels; level++) {
+            final int[] previous = table[level - 1];
+            final int half = 1 << (level - 1);
+            final int[] row = new int[values.length - (1 << level) + 1];
+            for (int i = 0; i < row.length; i++) {
+                row[i] = Math.max(previous[i], previous[i + half]);
+            }
+            table[level] = row;
+        }
+        return table;
+    }
+
+    private static int rangeMax(final int[][] table, final int from, final int to) {
+        final int level = Integer.SIZE - 1 - Integer.numberOfLeadingZeros((to - from) + 1);
+        return Math.max(table[level][from], table[level][(to - (1 << level)) + 1]);
+    }
+}
@@ -1,5 +1,6 @@
 package org.sifrproject.recognizer.util;
 
+import java.nio.IntBuffer;
 import java.util.Collection;
 import java.util.Set;
 import java.util.stream.Collectors;
@@ -7,6 +8,9 @@ import java.util.stream.Collectors;
 @SuppressWarnings("all")
 public enum Sets {
 ;
+    //Above this size ratio we gallop through the longer list instead of merging
+    private static final int GALLOP_RATIO = 8;
+
     public static Set<Long> intersection(final Collection<Long> setA, final Set<Long> setB) {
         return setA
                 .stream()
@@ -15,4 +19,146 @@ public enum Sets {
 
     }
 
+    /**
+     * Intersect sorted candidates with a sorted slice of {@code postings} without allocating. {@code target} may be
+     * {@code candidates}: values are only written at or before the position they were read from.
+     *
+     * @return The number of values written to {@code target}
+     */
+    public static int intersectSorted(final int[] candidates, final int candidateCount,
+                                      final int[] postings, final int postingsFrom, final int postingCount,
+                                      final int[] target) {
+        final int postingsTo = postingsFrom + postingCount;
+        int count = 0;
+        if ((candidateCount == 0) || (postingCount == 0)) {
+            return 0;
+        } else if ((candidateCount * GALLOP_RATIO) < postingCount) {
+            //Few candidates, long posting list
+            int position = postingsFrom;
+            for (int i = 0; (i < candidateCount) && (position < postingsTo); i++) {
+                position = gallop(postings, position, postingsTo, candidates[i]);
+                if ((position < postingsTo) && (postings[position] == candidates[i])) {
+                    target[count++] = candidates[i];
+                }
+            }
+        } else if ((postingCount * GALLOP_RATIO) < candidateCount) {
+            //Many candidates, short posting list
+            int position = 0;
+            for (int i = postingsFrom; (i < postingsTo) && (position < candidateCount); i++) {
+                position = gallop(candidates, position, candidateCount, postings[i]);
+                if ((position < candidateCount) && (candidates[position] == postings[i])) {
+                    target[count++] = postings[i];
+                }
+            }
+        } else {
+            int i = 0;
+            int j = postingsFrom;
+            while ((i < candidateCount) && (j < postingsTo)) {
+                if (candidates[i] < postings[j]) {
+                    i++;
+                } else if (candidates[i] > postings[j]) {
+                    j++;
+                } else {
+                    target[count++] = candidates[i];
+                    i++;
+                    j++;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Same as {@link #intersectSorted(int[], int, int[], int, int, int[])} for posting lists that are not on the heap
+     */
+    public static int intersectSorted(final int[] candidates, final int candidateCount,
+                                      final IntBuffer postings, final int postingsFrom, final int postingCount,
+                                      final int[] target) {
+        final int postingsTo = postingsFrom + postingCount;
+        int count = 0;
+        if ((candidateCount == 0) || (postingCount == 0)) {
+            return 0;
+        } else if ((candidateCount * GALLOP_RATIO) < postingCount) {
+            int position = postingsFrom;
+            for (int i = 0; (i < candidateCount) && (position < postingsTo); i++) {
+                position = gallop(postings, position, postingsTo, candidates[i]);
+                if ((position < postingsTo) && (postings.get(position) == candidates[i])) {
+                    target[count++] = candidates[i];
+                }
+            }
+        } else if ((postingCount * GALLOP_RATIO) < candidateCount) {
+            int position = 0;
+            for (int i = postingsFrom; (i < postingsTo) && (position < candidateCount); i++) {
+                final int posting = postings.get(i);
+                position = gallop(candidates, position, candidateCount, posting);
+                if ((position < candidateCount) && (candidates[position] == posting)) {
+                    target[count++] = posting;
+                }
+            }
+        } else {
+            int i = 0;
+            int j = postingsFrom;
+            while ((i < candidateCount) && (j < postingsTo)) {
+                final int posting = postings.get(j);
+                if (candidates[i] < posting) {
+                    i++;
+                } else if (candidates[i] > posting) {
+                    j++;
+                } else {
+                    target[count++] = candidates[i];
+                    i++;
+                    j++;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return The first position in [from, to[ whose value is greater than or equal to key, or {@code to}
+     */
+    private static int gallop(final int[] values, final int from, final int to, final int key) {
+        //Exponential search for a window containing the key...
+        int low = from;
+        int step = 1;
+        int high = from;
+        while ((high < to) && (values[high] < key)) {
+            low = high + 1;
+            high = from + step;
+            step <<= 1;
+        }
+        high = Math.min(high, to);
+        //...then binary search inside that window
+        while (low < high) {
+            final int middle = (low + high) >>> 1;
+            if (values[middle] < key) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private static int gallop(final IntBuffer values, final int from, final int to, final int key) {
+        int low = from;
+        int step = 1;
+        int high = from;
+        while ((high < to) && (values.get(high) < key)) {
+            low = high + 1;
+            high = from + step;
+            step <<= 1;
+        }
+        high = Math.min(high, to);
+        while (low < high) {
+            final int middle = (low + high) >>> 1;
+            if (values.get(middle) < key) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
 }
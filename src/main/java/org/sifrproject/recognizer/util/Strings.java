@@ -37,4 +37,29 @@ public enum Strings {
     public static boolean isAlphaNum(final CharSequence input){
         return ALPHANUM.matcher(input).matches();
     }
+
+    /**
+     * Same as {@link #isAlphaNum(CharSequence)} for the characters {@code chars[offset, offset + length[}
+     */
+    public static boolean isAlphaNum(final char[] chars, final int offset, final int length) {
+        int position = offset;
+        while (position < (offset + length)) {
+            final int codePoint = Character.codePointAt(chars, position, offset + length);
+            switch (Character.getType(codePoint)) {
+                case Character.UPPERCASE_LETTER:
+                case Character.LOWERCASE_LETTER:
+                case Character.TITLECASE_LETTER:
+                case Character.MODIFIER_LETTER:
+                case Character.OTHER_LETTER:
+                case Character.DECIMAL_DIGIT_NUMBER:
+                case Character.LETTER_NUMBER:
+                case Character.OTHER_NUMBER:
+                    break;
+                default:
+                    return false;
+            }
+            position += Character.charCount(codePoint);
+        }
+        return true;
+    }
 }
@@ -0,0 +1,234 @@
+package org.sifrproject.recognizer.util;
+
+import java.util.Arrays;
+
+/**
+ * Reusable result of a single pass over a text that normalizes and tokenizes it at once. Each character is lowercased,
+ * combining diacritical marks are removed and token boundaries are found with the rules of OpenNLP's
+ * {@code SimpleTokenizer}: whitespace separates tokens, and runs of letters, of digits or of one repeated other
+ * character each make a token. The normalized characters are written to a reusable buffer and the bounds of each
+ * token to a reusable int array, both in the normalized text and in the source text, so that matches map back to the
+ * exact characters of the source even where removed marks shift the normalized text.
+ * <p>
+ * This replaces the regex based {@link Strings#normalizeString(CharSequence)} followed by
+ * {@code SimpleTokenizer.tokenizePos}: characters below {@link #TABLE_SIZE}, which cover the Latin scripts and the
+ * combining diacritical marks, are normalized and classified with precomputed tables, the others with
+ * {@link Character}. Lowercasing maps each code point to one code point, the contextual and locale specific rules of
+ * {@link String#toLowerCase()} are not applied. Instances are not thread safe.
+ */
+public final class TokenizedText {
+
+    /**
+     * Characters up to the end of the combining diacritical marks block are looked up in the precomputed tables
+     */
+    static final int TABLE_SIZE = 0x0370;
+
+    private static final int INITIAL_CAPACITY = 4096;
+    private static final int BOUNDS_PER_TOKEN = 4;
+
+    private static final byte WHITESPACE = 0;
+    private static final byte ALPHABETIC = 1;
+    private static final byte NUMERIC = 2;
+    private static final byte OTHER = 3;
+    private static final byte PUNCTUATION = 4;
+    private static final byte MARK = 5;
+
+    private static final char[] LOWER_CASE_TABLE = new char[TABLE_SIZE];
+    private static final byte[] CLASS_TABLE = new byte[TABLE_SIZE];
+
+    static {
+        for (char c = 0; c < TABLE_SIZE; c++) {
+            LOWER_CASE_TABLE[c] = (char) Character.toLowerCase((int) c);
+            CLASS_TABLE[c] = isMark(c) ? MARK : classify(LOWER_CASE_TABLE[c]);
+        }
+    }
+
+    private char[] text = new char[INITIAL_CAPACITY];
+    private int length;
+    private int[] bounds = new int[INITIAL_CAPACITY];
+    private int tokenCount;
+
+    /**
+     * Normalize and tokenize a text, replacing the previous one
+     *
+     * @param input                  The source text
+     * @param punctuationAsSeparator If true, punctuation separates tokens like whitespace instead of making tokens
+     * @return The number of tokens
+     */
+    public int tokenize(final CharSequence input, final boolean punctuationAsSeparator) {
+        final int inputLength = input.length();
+        if (text.length < inputLength) {
+            text = new char[Math.max(inputLength, text.length * 2)];
+        }
+        length = 0;
+        tokenCount = 0;
+
+        byte state = WHITESPACE;
+        char previous = 0;
+        int sourceIndex = 0;
+        while (sourceIndex < inputLength) {
+            final char c = input.charAt(sourceIndex);
+            if (c < TABLE_SIZE) {
+                //Fast path, a table lookup gives both the normalized character and its class
+                final byte charClass = CLASS_TABLE[c];
+                if (charClass != MARK) {
+                    final char normalized = LOWER_CASE_TABLE[c];
+                    if ((charClass == PUNCTUATION) && punctuationAsSeparator) {
+                        state = append(' ', WHITESPACE, state, previous, sourceIndex);
+                        previous = ' ';
+                    } else {
+                        state = append(normalized, charClass, state, previous, sourceIndex);
+                        previous = normalized;
+                    }
+                }
+                sourceIndex++;
+            } else {
+                final int codePoint = Character.codePointAt(input, sourceIndex);
+                final int charCount = Character.charCount(codePoint);
+                if (!isMark(codePoint)) {
+                    if (punctuationAsSeparator && isPunctuation(codePoint)) {
+                        state = append(' ', WHITESPACE, state, previous, sourceIndex);
+                        previous = ' ';
+                    } else {
+                        final int lowerCase = Character.toLowerCase(codePoint);
+                        if (Character.isBmpCodePoint(lowerCase)) {
+                            final char normalized = (char) lowerCase;
+                            state = append(normalized, classify(normalized), state, previous, sourceIndex);
+                            previous = normalized;
+                        } else {
+                            //Like the tokenizer we classify each half of a surrogate pair on its own
+                            final char high = Character.highSurrogate(lowerCase);
+                            final char low = Character.lowSurrogate(lowerCase);
+                            state = append(high, classify(high), state, previous, sourceIndex);
+                            state = append(low, classify(low), state, high, sourceIndex + charCount - 1);
+                            previous = low;
+                        }
+                    }
+                }
+                sourceIndex += charCount;
+            }
+        }
+        if (state != WHITESPACE) {
+            endToken(inputLength);
+        }
+        return tokenCount;
+    }
+
+    /**
+     * Append a normalized character, ending and starting tokens where its class requires it
+     *
+     * @return The class of the character, the new state of the tokenizer
+     */
+    private byte append(final char normalized, final byte charClass, final byte state, final char previous, final int sourceIndex) {
+        final byte tokenClass = (charClass == PUNCTUATION) ? OTHER : charClass;
+        if (state == WHITESPACE) {
+            if (tokenClass != WHITESPACE) {
+                startToken(sourceIndex);
+            }
+        } else if ((tokenClass != state) || ((tokenClass == OTHER) && (normalized != previous))) {
+            endToken(sourceIndex);
+            if (tokenClass != WHITESPACE) {
+                startToken(sourceIndex);
+            }
+        }
+        text[length++] = normalized;
+        return tokenClass;
+    }
+
+    private void startToken(final int sourceIndex) {
+        if (bounds.length < ((tokenCount + 1) * BOUNDS_PER_TOKEN)) {
+            bounds = Arrays.copyOf(bounds, bounds.length * 2);
+        }
+        final int offset = tokenCount * BOUNDS_PER_TOKEN;
+        bounds[offset] = length;
+        bounds[offset + 2] = sourceIndex;
+    }
+
+    private void endToken(final int sourceIndex) {
+        final int offset = tokenCount * BOUNDS_PER_TOKEN;
+        bounds[offset + 1] = length;
+        bounds[offset + 3] = sourceIndex;
+        tokenCount++;
+    }
+
+    private static byte classify(final char c) {
+        if (Character.isWhitespace(c) || (Character.getType(c) == Character.SPACE_SEPARATOR)) {
+            return WHITESPACE;
+        } else if (Character.isLetter(c)) {
+            return ALPHABETIC;
+        } else if (Character.isDigit(c)) {
+            return NUMERIC;
+        }
+        return isPunctuation(c) ? PUNCTUATION : OTHER;
+    }
+
+    private static boolean isMark(final int codePoint) {
+        final int type = Character.getType(codePoint);
+        return (type == Character.NON_SPACING_MARK) || (type == Character.ENCLOSING_MARK) || (type == Character.COMBINING_SPACING_MARK);
+    }
+
+    private static boolean isPunctuation(final int codePoint) {
+        switch (Character.getType(codePoint)) {
+            case Character.CONNECTOR_PUNCTUATION:
+            case Character.DASH_PUNCTUATION:
+            case Character.START_PUNCTUATION:
+            case Character.END_PUNCTUATION:
+            case Character.INITIAL_QUOTE_PUNCTUATION:
+            case Character.FINAL_QUOTE_PUNCTUATION:
+            case Character.OTHER_PUNCTUATION:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * @return The normalized text, valid up to {@link #length()}
+     */
+    public char[] text() {
+        return text;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    public int tokenCount() {
+        return tokenCount;
+    }
+
+    /**
+     * @return The start of a token in the normalized text
+     */
+    public int start(final int token) {
+        return bounds[token * BOUNDS_PER_TOKEN];
+    }
+
+    /**
+     * @return The end, exclusive, of a token in the normalized text
+     */
+    public int end(final int token) {
+        return bounds[(token * BOUNDS_PER_TOKEN) + 1];
+    }
+
+    /**
+     * @return The start of a token in the source text
+     */
+    public int sourceStart(final int token) {
+        return bounds[(token * BOUNDS_PER_TOKEN) + 2];
+    }
+
+    /**
+     * @return The end, exclusive, of a token in the source text, past the marks removed from its end
+     */
+    public int sourceEnd(final int token) {
+        return bounds[(token * BOUNDS_PER_TOKEN) + 3];
+    }
+
+    /**
+     * @return The normalized text of a token
+     */
+    public String token(final int token) {
+        return new String(text, start(token), end(token) - start(token));
+    }
+}
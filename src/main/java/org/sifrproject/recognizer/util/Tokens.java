@@ -2,6 +2,7 @@ package org.sifrproject.recognizer.util;
 
 import opennlp.tools.util.Span;
 import org.sifrproject.recognizer.AnnotationToken;
+import org.sifrproject.recognizer.index.ConceptIndex;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -31,4 +32,15 @@ public enum Tokens {
         return annotations;
     }
 
+    public static void conceptsToAnnotationTokens(final ConceptIndex conceptIndex, final int[] conceptOrdinals, final int from, final int to, final int start, final int end, final String text, final int tokenCardinality, final Collection<AnnotationToken> annotations) {
+        if (from < to) {
+            final int adjustedEnd = Math.min(end, text.length());
+            final String conceptText = text.substring(start, adjustedEnd);
+            logger.trace("\tMatched \"{}\" in span [{},{}[", conceptText, start + 1, end);
+            for (int i = from; i < to; i++) {
+                annotations.add(AnnotationToken.create(start + 1, end, conceptText, conceptIndex.conceptId(conceptOrdinals[i]), tokenCardinality));
+            }
+        }
+    }
+
 }
@@ -0,0 +1,188 @@
+package org.sifrproject.server;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Admission control of recognitions: at most {@code maxInFlight} of them run at once and at most {@code maxQueued}
+ * wait for their turn. Requests beyond that are rejected at once instead of piling up, and so are requests that
+ * waited longer than the queue timeout, or all requests while the heap is too full after garbage collection. The
+ * server answers rejected requests with a busy reply, which keeps the latency of admitted requests bounded under
+ * overload.
+ */
+final class AdmissionController {
+
+    enum Rejection {
+        QUEUE_FULL, QUEUE_TIMEOUT, HEAP_OCCUPANCY
+    }
+
+    private final int maxInFlight;
+    private final int maxQueued;
+    private final long queueTimeoutNanos;
+    private final double maxHeapOccupancy;
+
+    private final Semaphore inFlight;
+    private final AtomicInteger queued = new AtomicInteger();
+    private final List<MemoryPoolMXBean> heapPools = new ArrayList<>();
+    private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+
+    private final LongAdder admissions = new LongAdder();
+    private final LongAdder[] rejections = new LongAdder[Rejection.values().length];
+
+    /**
+     * @param maxInFlight        Number of recognitions running at once
+     * @param maxQueued          Number of requests waiting for a running recognition to end
+     * @param queueTimeoutMillis How long a request may wait, 0 to wait as long as it takes
+     * @param maxHeapOccupancy   Fraction of the maximum heap size in use after the last garbage collection above
+     *                           which requests are rejected, 1 or more to never look at the heap
+     */
+    AdmissionController(final int maxInFlight, final int maxQueued, final long queueTimeoutMillis, final double maxHeapOccupancy) {
+        this.maxInFlight = maxInFlight;
+        this.maxQueued = maxQueued;
+        queueTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(queueTimeoutMillis);
+        this.maxHeapOccupancy = maxHeapOccupancy;
+        //Waiting requests are admitted in order
+        inFlight = new Semaphore(maxInFlight, true);
+        for (final MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if ((pool.getType() == MemoryType.HEAP) && pool.isCollectionUsageThresholdSupported()) {
+                heapPools.add(pool);
+            }
+        }
+        for (int i = 0; i < rejections.length; i++) {
+            rejections[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Wait for a recognition slot, which must be given back with {@link #release()}
+     *
+     * @return Null if the request is admitted, otherwise why it is rejected
+     */
+    Rejection acquire() throws InterruptedException {
+        Rejection rejection = overloaded();
+        if ((rejection == null) && !inFlight.tryAcquire()) {
+            if (queued.incrementAndGet() > maxQueued) {
+                rejection = Rejection.QUEUE_FULL;
+            } else if (queueTimeoutNanos > 0) {
+                if (!inFlight.tryAcquire(queueTimeoutNanos, TimeUnit.NANOSECONDS)) {
+                    rejection = Rejection.QUEUE_TIMEOUT;
+                }
+            } else {
+                inFlight.acquire();
+            }
+            queued.decrementAndGet();
+        }
+        return count(rejection);
+    }
+
+    void release() {
+        inFlight.release();
+    }
+
+    /**
+     * Admission of a request queued elsewhere, e.g. by an executor, at the time it is about to run
+     *
+     * @param queuedSinceNanos When the request was queued, from {@link System#nanoTime()}
+     * @return Null if the request may run, otherwise why it is rejected
+     */
+    Rejection admitQueued(final long queuedSinceNanos) {
+        Rejection rejection = overloaded();
+        if ((rejection == null) && (queueTimeoutNanos > 0) && ((System.nanoTime() - queuedSinceNanos) > queueTimeoutNanos)) {
+            rejection = Rejection.QUEUE_TIMEOUT;
+        }
+        return count(rejection);
+    }
+
+    /**
+     * Create the workers recognizing the requests admitted with {@link #admitQueued(long)}: as many threads as
+     * recognitions run at once, and a queue as long as the number of requests that may wait, beyond which the
+     * executor rejects the requests
+     */
+    ThreadPoolExecutor newExecutor() {
+        return new ThreadPoolExecutor(maxInFlight, maxInFlight, 0L, TimeUnit.MILLISECONDS,
+                (maxQueued > 0) ? new ArrayBlockingQueue<>(maxQueued) : new SynchronousQueue<>());
+    }
+
+    /**
+     * Count a request rejected because its queue is full, e.g. by an executor
+     */
+    void rejectQueueFull() {
+        count(Rejection.QUEUE_FULL);
+    }
+
+    /**
+     * @return Whether the heap is too full to take any request, null otherwise
+     */
+    Rejection overloaded() {
+        return ((maxHeapOccupancy < 1) && (heapOccupancy() > maxHeapOccupancy)) ? Rejection.HEAP_OCCUPANCY : null;
+    }
+
+    /**
+     * @return The fraction of the maximum heap size in use after the last garbage collection of each heap pool, which
+     * unlike the current use does not count the garbage not collected yet
+     */
+    double heapOccupancy() {
+        long used = 0;
+        for (final MemoryPoolMXBean pool : heapPools) {
+            final MemoryUsage collectionUsage = pool.getCollectionUsage();
+            if (collectionUsage != null) {
+                used += collectionUsage.getUsed();
+            }
+        }
+        final MemoryUsage heapUsage = memory.getHeapMemoryUsage();
+        final long max = (heapUsage.getMax() < 0) ? heapUsage.getCommitted() : heapUsage.getMax();
+        return (max <= 0) ? 0 : (used / (double) max);
+    }
+
+    int maxInFlight() {
+        return maxInFlight;
+    }
+
+    int maxQueued() {
+        return maxQueued;
+    }
+
+    /**
+     * @return The number of requests waiting for a running recognition to end
+     */
+    int queuedCount() {
+        return queued.get();
+    }
+
+    long admissionCount() {
+        return admissions.sum();
+    }
+
+    long rejectionCount(final Rejection rejection) {
+        return rejections[rejection.ordinal()].sum();
+    }
+
+    private Rejection count(final Rejection rejection) {
+        if (rejection == null) {
+            admissions.increment();
+        } else {
+            rejections[rejection.ordinal()].increment();
+        }
+        return rejection;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "AdmissionController{maxInFlight=%d, maxQueued=%d, queued=%d, admissions=%d, queueFull=%d, queueTimeouts=%d, heapOccupancy=%d}",
+                maxInFlight, maxQueued, queuedCount(), admissionCount(), rejectionCount(Rejection.QUEUE_FULL), rejectionCount(Rejection.QUEUE_TIMEOUT),
+                rejectionCount(Rejection.HEAP_OCCUPANCY));
+    }
+}
@@ -0,0 +1,181 @@
+package org.sifrproject.server;
+
+import org.sifrproject.recognizer.AnnotationToken;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compact binary protocol, which a client selects by sending the {@link #UPGRADE} line, ended by a line feed, as its
+ * first command after the mgrep greeting. The server acknowledges with the same line, after which both sides exchange
+ * length-prefixed frames instead of lines. A server that does not know the protocol answers the line with an mgrep
+ * reply instead, so that clients can fall back to the text protocol.
+ * <p>
+ * All integers are unsigned varints: 7 bits per byte, least significant group first, the high bit set on every byte
+ * but the last. A frame is the length of its payload followed by the payload.
+ * <ul>
+ * <li>Request payload: a flags byte ({@link #LONGEST_ONLY}, {@link #WITH_TEXT}) and the text to annotate in UTF-8.
+ * An empty payload ends the session.</li>
+ * <li>Reply payload: a status byte ({@link #STATUS_OK} or {@link #STATUS_BUSY}), then for each annotation the concept
+ * id, the start offset and the length (end minus start) as in the mgrep reply, and if the request asked for it the
+ * length in bytes of the matched text followed by the text in UTF-8.</li>
+ * </ul>
+ * Every request gets a reply, even when it has no text.
+ */
+@SuppressWarnings("all")
+enum BinaryProtocol {
+    ;
+
+    static final String UPGRADE = "binary 1";
+
+    static final int LONGEST_ONLY = 1;
+    static final int WITH_TEXT = 2;
+    static final int STATUS_OK = 0;
+    static final int STATUS_BUSY = 1;
+
+    //Far more than any document worth sending in one request, while keeping a bogus length from exhausting the heap
+    static final int MAX_FRAME_LENGTH = 1 << 24;
+    //Frame buffers start this small and double as the payload arrives, a length alone must not take memory
+    static final int INITIAL_FRAME_CAPACITY = 256;
+
+    static final int VARINT_GROUP_BITS = 7;
+    static final int VARINT_GROUP_MASK = 0x7F;
+    static final int VARINT_CONTINUATION = 0x80;
+    static final int MAX_LENGTH_VARINT_BYTES = 5;
+    private static final int MAX_ANNOTATION_BYTES = 30;
+
+    static boolean upgrades(final String command) {
+        return UPGRADE.equals(command);
+    }
+
+    /**
+     * @return The acknowledgement of the upgrade, as written by {@link java.io.PrintWriter#println(String)}
+     */
+    static byte[] acknowledgement() {
+        return (UPGRADE + System.lineSeparator()).getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Read a request frame
+     *
+     * @return The request, or null if the session ends
+     * @throws IOException If the input ends within a frame or the frame is too long
+     */
+    static Command readRequest(final InputStream input) throws IOException {
+        final int first = input.read();
+        if (first < 0) {
+            return null;
+        }
+        final int length = readLength(first, input);
+        if (length == 0) {
+            return null;
+        }
+        byte[] payload = new byte[Math.min(length, INITIAL_FRAME_CAPACITY)];
+        int read = 0;
+        while (read < length) {
+            if (read == payload.length) {
+                payload = Arrays.copyOf(payload, (int) Math.min(length, payload.length * 2L));
+            }
+            final int count = input.read(payload, read, payload.length - read);
+            if (count < 0) {
+                throw new EOFException("Truncated request frame");
+            }
+            read += count;
+        }
+        return request(payload, 0, length);
+    }
+
+    /**
+     * @return The request held by a frame payload
+     */
+    static Command request(final byte[] payload, final int offset, final int length) {
+        final int flags = payload[offset];
+        return Command.binary(new String(payload, offset + 1, length - 1, StandardCharsets.UTF_8),
+                (flags & LONGEST_ONLY) != 0, (flags & WITH_TEXT) != 0);
+    }
+
+    private static int readLength(final int first, final InputStream input) throws IOException {
+        long length = 0;
+        int b = first;
+        int shift = 0;
+        int bytes = 1;
+        while ((b & VARINT_CONTINUATION) != 0) {
+            length |= (long) (b & VARINT_GROUP_MASK) << shift;
+            shift += VARINT_GROUP_BITS;
+            b = input.read();
+            bytes++;
+            if (b < 0) {
+                throw new EOFException("Truncated frame length");
+            }
+            if (bytes > MAX_LENGTH_VARINT_BYTES) {
+                throw new IOException("Malformed frame length");
+            }
+        }
+        length |= (long) b << shift;
+        if (length > MAX_FRAME_LENGTH) {
+            throw new IOException("Frame of " + length + " bytes exceeds the limit of " + MAX_FRAME_LENGTH);
+        }
+        return (int) length;
+    }
+
+    /**
+     * @return The reply frame listing the annotations
+     */
+    static byte[] reply(final List<AnnotationToken> annotations, final boolean withText) {
+        final ByteArrayOutputStream payload = new ByteArrayOutputStream(1 + (annotations.size() * MAX_ANNOTATION_BYTES));
+        payload.write(STATUS_OK);
+        for (final AnnotationToken annotation : annotations) {
+            writeVarint(payload, annotation.getConceptId());
+            writeVarint(payload, annotation.getStart());
+            writeVarint(payload, annotation.getEnd() - annotation.getStart());
+            if (withText) {
+                final byte[] text = annotation.getText().getBytes(StandardCharsets.UTF_8);
+                writeVarint(payload, text.length);
+                payload.write(text, 0, text.length);
+            }
+        }
+        return frame(payload);
+    }
+
+    /**
+     * @return The reply frame to a request rejected by admission control
+     */
+    static byte[] busyReply() {
+        final ByteArrayOutputStream payload = new ByteArrayOutputStream(1);
+        payload.write(STATUS_BUSY);
+        return frame(payload);
+    }
+
+    /**
+     * @return The request frame, as a client sends it
+     */
+    static byte[] requestFrame(final String text, final boolean longestOnly, final boolean withText) {
+        final byte[] utf8 = text.getBytes(StandardCharsets.UTF_8);
+        final ByteArrayOutputStream payload = new ByteArrayOutputStream(utf8.length + 1);
+        payload.write((longestOnly ? LONGEST_ONLY : 0) | (withText ? WITH_TEXT : 0));
+        payload.write(utf8, 0, utf8.length);
+        return frame(payload);
+    }
+
+    private static byte[] frame(final ByteArrayOutputStream payload) {
+        final ByteArrayOutputStream frame = new ByteArrayOutputStream(payload.size() + MAX_LENGTH_VARINT_BYTES);
+        writeVarint(frame, payload.size());
+        frame.write(payload.toByteArray(), 0, payload.size());
+        return frame.toByteArray();
+    }
+
+    //Concept ids are never negative, if one was it would take the 10 bytes of a 64 bit varint
+    static void writeVarint(final ByteArrayOutputStream output, final long value) {
+        long remaining = value;
+        while ((remaining & ~VARINT_GROUP_MASK) != 0) {
+            output.write((int) ((remaining & VARINT_GROUP_MASK) | VARINT_CONTINUATION));
+            remaining >>>= VARINT_GROUP_BITS;
+        }
+        output.write((int) remaining);
+    }
+}
@@ -2,15 +2,24 @@ package org.sifrproject.server;
 
 import org.apache.commons.daemon.DaemonContext;
 import org.sifrproject.recognizer.ConceptRecognizer;
+import org.sifrproject.recognizer.DictionaryCompiler;
 import org.sifrproject.recognizer.FaironConceptRecognizer;
-import org.sifrproject.recognizer.SynchronizedConceptRecognizer;
+import org.sifrproject.recognizer.cache.AnnotationCache;
+import org.sifrproject.recognizer.index.ConceptIndex;
+import org.sifrproject.recognizer.index.MappedConceptIndex;
+import org.sifrproject.recognizer.pool.AhoCorasickRecognizerAllocator;
+import org.sifrproject.recognizer.pool.FaironRecognizerAllocator;
+import org.sifrproject.recognizer.pool.RecognizerPool;
+import org.sifrproject.stemming.StemCache;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import stormpot.Allocator;
 
 import java.io.*;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketTimeoutException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Properties;
@@ -19,8 +28,6 @@ import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
-import static java.lang.Thread.yield;
-
 /**
  * Hello world!
  */
@@ -34,33 +41,88 @@ public final class ClinicalRecognizerServer implements StartStopJoinRunnable {
     public static final String DICTIONARY_DEFAULT_NAME = "dictionary.txt";
     private static final String DEFAULT_CONFIG_PATH = Paths.get(File.separator+"etc","bpclinrec","config.xml").toAbsolutePath().toString();
     private static final long KEEP_ALIVE_TIME = 600L;
+    private static final String INDEX_BACKEND_HEAP = "heap";
+    private static final String INDEX_BACKEND_MAPPED = "mapped";
+    private static final String ENGINE_FAIRON = "fairon";
+    private static final String ENGINE_AHO_CORASICK = "aho-corasick";
+    private static final long DEFAULT_CLAIM_TIMEOUT_MILLIS = 1000L;
+    private static final String CONNECTION_MODE_BLOCKING = "blocking";
+    private static final String CONNECTION_MODE_NIO = "nio";
+    private static final String CONNECTION_MODE_VIRTUAL = "virtual";
+    private static final int DEFAULT_IO_THREADS = 2;
+    private static final int DEFAULT_QUEUED_PER_RECOGNITION = 8;
+    private static final int DEFAULT_PIPELINE_WINDOW = 16;
+    private static final long DEFAULT_MAX_BATCH_BYTES = 64L << 20;
 
     private final int port;
     private final Thread thread = new Thread(this);
-    private final ConceptRecognizer conceptRecognizer;
+    private final RecognizerPool recognizerPool;
+    private final StemCache stemCache;
+
+    /**
+     * Cache of the annotations of the recognized texts, null if disabled
+     */
+    private final AnnotationCache annotationCache;
 
     /**
      * Pool of worker threads of unbounded size. A new thread will be created
      * for each concurrent connection, and old threads will be shut down if they
-     * remain unused for about 1 minute.
+     * remain unused for about 1 minute. In the virtual connection mode, each
+     * connection gets a new virtual thread instead.
      */
     private final ExecutorService workers;
 
+    /**
+     * Rejects with a busy reply the recognitions that waited too long or come while the heap is too full, and those
+     * the recognition workers cannot queue
+     */
+    private final AdmissionController admissionController;
+
+    /**
+     * Workers recognizing the commands of every connection mode and the documents of HTTP batches: their threads and
+     * their queue are the single bound of the recognitions running and waiting at once. When connections run on
+     * virtual threads, CPU bound matching thereby stays off the carrier threads.
+     */
+    private final ExecutorService recognitionWorkers;
+
+    /**
+     * Number of commands of a connection, or documents of an HTTP batch, recognized at once
+     */
+    private final int pipelineWindow;
+
     /**
      * Server socket on which to accept incoming client connections.
      */
     private ServerSocket listenSocket;
 
+    /**
+     * Selector based server handling the connections instead, in the nio connection mode
+     */
+    private NioRecognizerServer nioServer;
+
+    /**
+     * Batch annotation endpoint, when an HTTP port is configured
+     */
+    private HttpRecognizerServer httpServer;
+
     /**
      * Flag to keep this server running.
      */
     private volatile boolean keepRunning = true;
 
 
-    private ClinicalRecognizerServer(final int port, final InputStream dictionaryStream) {
+    private ClinicalRecognizerServer(final int port, final Path dictionaryPath, final Path snapshotPath) {
         this.port = port;
-        conceptRecognizer = new SynchronizedConceptRecognizer(new FaironConceptRecognizer(dictionaryStream));
-
+        stemCache = StemCache.shared();
+        annotationCache = null;
+        recognizerPool = new RecognizerPool(createAllocator(dictionaryPath, snapshotPath, INDEX_BACKEND_HEAP, ENGINE_FAIRON, stemCache,
+                FaironConceptRecognizer.DEFAULT_STOP_WORD_ALLOWANCE, 0, null),
+                Runtime.getRuntime().availableProcessors(), DEFAULT_CLAIM_TIMEOUT_MILLIS, 0);
+
+        final int cores = Runtime.getRuntime().availableProcessors();
+        admissionController = new AdmissionController(cores, cores * DEFAULT_QUEUED_PER_RECOGNITION, 0, 1);
+        pipelineWindow = DEFAULT_PIPELINE_WINDOW;
+        recognitionWorkers = admissionController.newExecutor();
         workers = new ThreadPoolExecutor(0, Integer.MAX_VALUE,
                 KEEP_ALIVE_TIME, TimeUnit.SECONDS,
                 new SynchronousQueue<>());
@@ -81,31 +143,133 @@ public final class ClinicalRecognizerServer implements StartStopJoinRunnable {
         properties.loadFromXML(new FileInputStream(DEFAULT_CONFIG_PATH));
 
         final int port = Integer.valueOf(properties.getProperty("port","55555"));
-        final String dictionaryPath = properties.getProperty("dictionary.path", DICTIONARY_DEFAULT_NAME);
+        final Path dictionaryPath = Paths.get(properties.getProperty("dictionary.path", DICTIONARY_DEFAULT_NAME));
+        final String snapshotPath = properties.getProperty("dictionary.snapshot.path");
+        final String indexBackend = properties.getProperty("index.backend", INDEX_BACKEND_HEAP);
+        final String engine = properties.getProperty("recognizer.engine", ENGINE_FAIRON);
+        final int stemCacheCapacity = Integer.valueOf(properties.getProperty("stem.cache.capacity", String.valueOf(StemCache.DEFAULT_CAPACITY)));
+        final String stemCachePolicy = properties.getProperty("stem.cache.policy", "slru");
+        final long annotationCacheBytes = Long.valueOf(properties.getProperty("annotation.cache.bytes", "0"));
+        final String annotationCachePolicy = properties.getProperty("annotation.cache.policy", "slru");
+        final String annotationCacheAdmission = properties.getProperty("annotation.cache.admission", "repeated");
+        final int poolSize = Integer.valueOf(properties.getProperty("recognizer.pool.size", String.valueOf(Runtime.getRuntime().availableProcessors())));
+        final long claimTimeoutMillis = Long.valueOf(properties.getProperty("recognizer.pool.claim.timeout.ms", String.valueOf(DEFAULT_CLAIM_TIMEOUT_MILLIS)));
+        final long expirySeconds = Long.valueOf(properties.getProperty("recognizer.pool.expiry.seconds", "0"));
+        final int stopWordAllowance = Integer.valueOf(properties.getProperty("recognizer.stopword.allowance", String.valueOf(FaironConceptRecognizer.DEFAULT_STOP_WORD_ALLOWANCE)));
+        final int segmentTokens = Integer.valueOf(properties.getProperty("recognizer.segment.tokens", "0"));
+        final String connectionMode = properties.getProperty("server.connection.mode", CONNECTION_MODE_BLOCKING);
+        final int ioThreads = Integer.valueOf(properties.getProperty("server.io.threads", String.valueOf(DEFAULT_IO_THREADS)));
+        //Virtual threads run on as many carrier threads as cores, which recognitions should not all take
+        final int defaultInFlight = connectionMode.equals(CONNECTION_MODE_VIRTUAL) ? Math.min(poolSize, Runtime.getRuntime().availableProcessors()) : poolSize;
+        final int maxInFlight = Integer.valueOf(properties.getProperty("server.admission.inflight", String.valueOf(defaultInFlight)));
+        final int maxQueued = Integer.valueOf(properties.getProperty("server.admission.queue.size", String.valueOf(maxInFlight * DEFAULT_QUEUED_PER_RECOGNITION)));
+        final long queueTimeoutMillis = Long.valueOf(properties.getProperty("server.admission.queue.timeout.ms", "0"));
+        final double maxHeapOccupancy = Double.valueOf(properties.getProperty("server.admission.heap.occupancy", "1"));
+        final int pipelineWindow = Integer.valueOf(properties.getProperty("server.pipeline.window", String.valueOf(DEFAULT_PIPELINE_WINDOW)));
+        final String httpPort = properties.getProperty("server.http.port");
+        final long maxBatchBytes = Long.valueOf(properties.getProperty("server.http.max.batch.bytes", String.valueOf(DEFAULT_MAX_BATCH_BYTES)));
 
         this.port = port;
-        conceptRecognizer = new SynchronizedConceptRecognizer(new FaironConceptRecognizer(new FileInputStream(dictionaryPath)));
-
-        workers = new ThreadPoolExecutor(0, Integer.MAX_VALUE,
-                KEEP_ALIVE_TIME, TimeUnit.SECONDS,
-                new SynchronousQueue<>());
+        stemCache = new StemCache(stemCacheCapacity, StemCache.EvictionPolicy.fromName(stemCachePolicy));
+        annotationCache = (annotationCacheBytes > 0) ? new AnnotationCache(annotationCacheBytes,
+                StemCache.EvictionPolicy.fromName(annotationCachePolicy), AnnotationCache.AdmissionPolicy.fromName(annotationCacheAdmission)) : null;
+        recognizerPool = new RecognizerPool(createAllocator(dictionaryPath,
+                (snapshotPath == null) ? DictionaryCompiler.defaultSnapshotPath(dictionaryPath) : Paths.get(snapshotPath),
+                indexBackend, engine, stemCache, stopWordAllowance, segmentTokens, annotationCache), poolSize, claimTimeoutMillis,
+                TimeUnit.SECONDS.toMillis(expirySeconds), annotationCache);
+        admissionController = new AdmissionController(maxInFlight, maxQueued, queueTimeoutMillis, maxHeapOccupancy);
+        this.pipelineWindow = pipelineWindow;
+        recognitionWorkers = admissionController.newExecutor();
+
+        if (connectionMode.equals(CONNECTION_MODE_VIRTUAL)) {
+            if (!VirtualThreads.available()) {
+                logger.error("FATAL - The virtual connection mode requires Java 21 or later, running {}", System.getProperty("java.version"));
+                System.exit(1);
+            }
+            logger.info("Handling connections on virtual threads");
+            workers = VirtualThreads.newThreadPerTaskExecutor();
+        } else {
+            workers = new ThreadPoolExecutor(0, Integer.MAX_VALUE,
+                    KEEP_ALIVE_TIME, TimeUnit.SECONDS,
+                    new SynchronousQueue<>());
+        }
 
         try {
-            listenSocket = new ServerSocket(port);
+            if (connectionMode.equals(CONNECTION_MODE_NIO)) {
+                //I/O threads multiplex the connections and recognition runs on as many workers as admitted recognitions
+                logger.info("Using the nio connection mode with {} I/O threads", ioThreads);
+                nioServer = new NioRecognizerServer(port, recognizerPool, ioThreads, admissionController, recognitionWorkers, pipelineWindow);
+            } else {
+                listenSocket = new ServerSocket(port);
+            }
+            if (httpPort != null) {
+                //Exchanges block while their batch streams, they run on the connection threads
+                httpServer = new HttpRecognizerServer(Integer.parseInt(httpPort), recognizerPool, admissionController, recognitionWorkers,
+                        pipelineWindow, maxBatchBytes, workers);
+            }
         } catch (final IOException e) {
             logger.error(AN_EXCEPTION_OCCURRED_WHILE_CREATING_THE_LISTEN_SOCKET, e.getMessage());
             System.exit(1);
         }
     }
 
+    /**
+     * Create the allocator of the recognition engine selected in the configuration: the Fairon unigram index matcher
+     * or the Aho-Corasick phrase automaton, which is always compiled from the text dictionary. The index or automaton
+     * is loaded once and shared by all the pooled recognizers, the annotation cache being invalidated if it changes.
+     */
+    private static Allocator<ConceptRecognizer> createAllocator(final Path dictionaryPath, final Path snapshotPath, final String indexBackend,
+                                                                final String engine, final StemCache stemCache, final int stopWordAllowance,
+                                                                final int segmentTokens, final AnnotationCache annotationCache) {
+        if (engine.equals(ENGINE_AHO_CORASICK)) {
+            logger.info("Using the Aho-Corasick recognition engine");
+            try (InputStream dictionaryStream = Files.newInputStream(dictionaryPath)) {
+                return new AhoCorasickRecognizerAllocator(new DictionaryCompiler(stemCache).compileAutomaton(dictionaryStream), stemCache, stopWordAllowance,
+                        annotationCache);
+            } catch (final IOException e) {
+                logger.error("FATAL - Failed to load dictionary: {}", e.getLocalizedMessage());
+                System.exit(1);
+            }
+        }
+        return new FaironRecognizerAllocator(loadIndex(dictionaryPath, snapshotPath, indexBackend, stemCache), stemCache, stopWordAllowance, segmentTokens,
+                annotationCache);
+    }
+
+    /**
+     * Open the up to date snapshot of the dictionary, or compile the dictionary and snapshot it for the next start.
+     * With the mapped backend the index is served from the memory-mapped snapshot instead of being copied to the heap.
+     */
+    private static ConceptIndex loadIndex(final Path dictionaryPath, final Path snapshotPath, final String indexBackend, final StemCache stemCache) {
+        ConceptIndex conceptIndex = null;
+        try {
+            final DictionaryCompiler dictionaryCompiler = new DictionaryCompiler(stemCache);
+            if (indexBackend.equals(INDEX_BACKEND_MAPPED)) {
+                dictionaryCompiler.ensureSnapshot(dictionaryPath, snapshotPath);
+                logger.info("Mapping index snapshot {}", snapshotPath);
+                conceptIndex = MappedConceptIndex.open(snapshotPath);
+            } else {
+                conceptIndex = dictionaryCompiler.loadOrCompile(dictionaryPath, snapshotPath);
+            }
+        } catch (final IOException e) {
+            logger.error("FATAL - Failed to load dictionary: {}", e.getLocalizedMessage());
+            System.exit(1);
+        }
+        return conceptIndex;
+    }
+
     private static void usage() {
-        logger.error("Syntax: ClinicalRecognitionServer host port path_to_dictionary");
+        logger.error("Syntax: ClinicalRecognitionServer port path_to_dictionary [path_to_snapshot]");
+        logger.error("        ClinicalRecognitionServer compile path_to_dictionary [path_to_snapshot]");
         System.exit(1);
     }
 
     @SuppressWarnings("CallToThreadYield")
     @Override
     public void run() {
+        if (nioServer != null) {
+            nioServer.run();
+            return;
+        }
         logger.debug("Accepting incoming connections on port {}", port);
 
         // Accept an incoming connection, handle it, then close and repeat.
@@ -115,7 +279,7 @@ public final class ClinicalRecognizerServer implements StartStopJoinRunnable {
                     // Accept the next incoming connection
                     final Socket clientSocket = listenSocket.accept();
 
-                    final Runnable handler = new RecognizerClientHandler(clientSocket, conceptRecognizer);
+                    final Runnable handler = new RecognizerClientHandler(clientSocket, recognizerPool, admissionController, recognitionWorkers, pipelineWindow);
                     workers.execute(handler);
 
                 } catch (final SocketTimeoutException te) {
@@ -124,7 +288,7 @@ public final class ClinicalRecognizerServer implements StartStopJoinRunnable {
                     logger.error("Exception occurred while handling client request: {}", ioe.getMessage());
                     // Yield to other threads if an exception occurs (prevent CPU
                     // spin)
-                    yield();
+                    Thread.yield();
                 }
             }
 
@@ -145,7 +309,21 @@ public final class ClinicalRecognizerServer implements StartStopJoinRunnable {
     public void stop() {
         logger.info("Shutting down the server.");
         keepRunning = false;
+        if (nioServer != null) {
+            nioServer.stop();
+        }
+        if (httpServer != null) {
+            httpServer.stop();
+        }
         workers.shutdownNow();
+        recognitionWorkers.shutdownNow();
+        recognizerPool.shutdown();
+        logger.info("Recognizer pool statistics: {}", recognizerPool);
+        logger.info("Admission statistics: {}", admissionController);
+        logger.info("Stem cache statistics: {}", stemCache);
+        if (annotationCache != null) {
+            logger.info("Annotation cache statistics: {}", annotationCache);
+        }
 
     }
 
@@ -155,6 +333,9 @@ public final class ClinicalRecognizerServer implements StartStopJoinRunnable {
 
     @Override
     public void start() {
+        if (httpServer != null) {
+            httpServer.start();
+        }
         thread.start();
     }
 
@@ -173,11 +354,20 @@ public final class ClinicalRecognizerServer implements StartStopJoinRunnable {
     }
 
     @SuppressWarnings("LocalVariableOfConcreteClass")
-    public static void main(final String[] args) throws FileNotFoundException {
+    public static void main(final String[] args) throws IOException {
 
         if (args.length < 2) {
             usage();
         }
+        final Path dictionaryPath = Paths.get(args[1]);
+        final Path snapshotPath = (args.length > 2) ? Paths.get(args[2]) : DictionaryCompiler.defaultSnapshotPath(dictionaryPath);
+
+        //Compile mode, we only write the snapshot of the dictionary
+        if (args[0].equals("compile")) {
+            new DictionaryCompiler().compileSnapshot(dictionaryPath, snapshotPath);
+            return;
+        }
+
         int port = -1;
         try {
             port = Integer.parseInt(args[0]);
@@ -192,10 +382,8 @@ public final class ClinicalRecognizerServer implements StartStopJoinRunnable {
             logger.error("Port value must be in (0, 65535].");
             System.exit(1);
         }
-        final Path dictionaryPath = Paths.get(args[1]);
-
 
-        final StartStopJoinRunnable server = new ClinicalRecognizerServer(port, new FileInputStream(dictionaryPath.toFile()));
+        final StartStopJoinRunnable server = new ClinicalRecognizerServer(port, dictionaryPath, snapshotPath);
         server.start();
     }
 }
@@ -0,0 +1,72 @@
+package org.sifrproject.server;
+
+import org.sifrproject.recognizer.AnnotationToken;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+/**
+ * A recognition request of a client session, in the mgrep text protocol or in the {@link BinaryProtocol}, which knows
+ * how to encode its reply in the protocol it came in
+ */
+final class Command {
+
+    private final String text;
+    private final boolean longestOnly;
+    private final boolean withText;
+    private final boolean binary;
+
+    private Command(final String text, final boolean longestOnly, final boolean withText, final boolean binary) {
+        this.text = text;
+        this.longestOnly = longestOnly;
+        this.withText = withText;
+        this.binary = binary;
+    }
+
+    /**
+     * @param command A line of the mgrep protocol that does not end the session
+     */
+    static Command mgrep(final String command) {
+        return new Command(MgrepProtocol.text(command), MgrepProtocol.longestOnly(command), true, false);
+    }
+
+    static Command binary(final String text, final boolean longestOnly, final boolean withText) {
+        return new Command(text, longestOnly, withText, true);
+    }
+
+    String text() {
+        return text;
+    }
+
+    boolean longestOnly() {
+        return longestOnly;
+    }
+
+    /**
+     * @return Whether the command gets a reply: mgrep commands without text do not
+     */
+    boolean expectsReply() {
+        return binary || !text.isEmpty();
+    }
+
+    byte[] reply(final List<AnnotationToken> annotations) {
+        return binary ? BinaryProtocol.reply(annotations, withText) : MgrepProtocol.reply(annotations);
+    }
+
+    /**
+     * Write the reply and flush it
+     */
+    void writeReply(final List<AnnotationToken> annotations, final OutputStream output) throws IOException {
+        if (binary) {
+            output.write(BinaryProtocol.reply(annotations, withText));
+            output.flush();
+        } else {
+            MgrepProtocol.writeReply(annotations, output);
+        }
+    }
+
+    byte[] busyReply() {
+        return binary ? BinaryProtocol.busyReply() : MgrepProtocol.busyReply();
+    }
+}
@@ -0,0 +1,98 @@
+package org.sifrproject.server;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+/**
+ * Buffered input of a client session, which reads mgrep lines as {@link java.io.BufferedReader#readLine()} does but
+ * from bytes, so that the binary frames following the upgrade line are read from the same buffer
+ */
+final class CommandInput {
+
+    private static final int INITIAL_LINE_CAPACITY = 256;
+
+    private final BufferedInputStream input;
+    private byte[] line = new byte[INITIAL_LINE_CAPACITY];
+    //A carriage return ends a line, and so does a carriage return followed by a line feed
+    private boolean skipLineFeed;
+
+    CommandInput(final InputStream input) {
+        this.input = new BufferedInputStream(input);
+    }
+
+    /**
+     * @return The next line without its terminator, decoded with the default charset, or null at the end of the input
+     */
+    String readLine() throws IOException {
+        int lineLength = 0;
+        int b = read();
+        if (b < 0) {
+            return null;
+        }
+        while ((b >= 0) && (b != '\n') && (b != '\r')) {
+            if (lineLength == line.length) {
+                final byte[] longerLine = new byte[line.length * 2];
+                System.arraycopy(line, 0, longerLine, 0, lineLength);
+                line = longerLine;
+            }
+            line[lineLength++] = (byte) b;
+            b = input.read();
+        }
+        skipLineFeed = b == '\r';
+        //Line terminators are ASCII, so lines can be cut before decoding them
+        final String command = new String(line, 0, lineLength, Charset.defaultCharset());
+        if (line.length > INITIAL_LINE_CAPACITY) {
+            line = new byte[INITIAL_LINE_CAPACITY];
+        }
+        return command;
+    }
+
+    /**
+     * @return The next request of the binary protocol, or null if the session ends
+     */
+    Command readFrame() throws IOException {
+        //The upgrade line may end with a carriage return and a line feed, the frames start after them
+        if (skipLineFeed) {
+            skipLineFeed = false;
+            input.mark(1);
+            if (input.read() != '\n') {
+                input.reset();
+            }
+        }
+        return BinaryProtocol.readRequest(input);
+    }
+
+    /**
+     * @return Whether input is available, so that reading a line or a frame is unlikely to block
+     */
+    boolean ready() throws IOException {
+        skipLineFeed();
+        return input.available() > 0;
+    }
+
+    private int read() throws IOException {
+        int b = input.read();
+        if (skipLineFeed) {
+            skipLineFeed = false;
+            if (b == '\n') {
+                b = input.read();
+            }
+        }
+        return b;
+    }
+
+    /**
+     * Skip the line feed of a line ended by a carriage return, if it was received already
+     */
+    private void skipLineFeed() throws IOException {
+        if (skipLineFeed && (input.available() > 0)) {
+            skipLineFeed = false;
+            input.mark(1);
+            if (input.read() != '\n') {
+                input.reset();
+            }
+        }
+    }
+}
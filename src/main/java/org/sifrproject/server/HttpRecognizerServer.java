@@ -0,0 +1,334 @@
+package org.sifrproject.server;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.sifrproject.recognizer.AnnotationToken;
+import org.sifrproject.recognizer.pool.RecognizerPool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Batch annotation over HTTP, with the HTTP server of the JDK. A POST to {@link #CONTEXT} holds one document per
+ * line as newline-delimited JSON, e.g. {@code {"id": "doc-1", "text": "..."}}, where the id is an optional string or
+ * number echoed in the result and an optional {@code longestOnly} boolean overrides the {@code longestOnly} query
+ * parameter. The documents are recognized in parallel, up to the pipeline window at a time, by the workers shared
+ * with the socket connections and under the same admission control. The response streams, with chunked transfer
+ * encoding, one JSON line per document as soon as it is recognized, so in completion order:
+ * {@code {"index": 0, "id": "doc-1", "annotations": [{"conceptId": 1002, "start": 12, "end": 30, "text": "..."}]}},
+ * the index being the position of the document in the batch, not counting blank lines. A document that cannot be read
+ * or is rejected by admission control gets an {@code error} member instead of the annotations. Requests and responses
+ * are gzip compressed when the client says so with the Content-Encoding and Accept-Encoding headers.
+ * <p>
+ * The whole request is read before the response starts, so that a client that only reads the response once it has
+ * sent the batch cannot block the server. Batches larger than the maximum batch size once decompressed are answered
+ * with a 413 status instead.
+ */
+final class HttpRecognizerServer {
+
+    private static final Logger logger = LoggerFactory.getLogger(HttpRecognizerServer.class);
+
+    static final String CONTEXT = "/annotate";
+
+    private static final String CONTENT_TYPE = "application/x-ndjson; charset=utf-8";
+    private static final String GZIP = "gzip";
+    private static final int STATUS_OK = 200;
+    private static final int STATUS_METHOD_NOT_ALLOWED = 405;
+    private static final int STATUS_PAYLOAD_TOO_LARGE = 413;
+    private static final int STOP_DELAY_SECONDS = 1;
+    private static final int BUFFER_SIZE = 8192;
+    private static final String ERROR_BUSY = "busy";
+
+    private final HttpServer server;
+    private final RecognizerPool recognizerPool;
+    private final AdmissionController admissionController;
+    private final ExecutorService recognitionWorkers;
+    private final int window;
+    private final long maxBatchBytes;
+
+    /**
+     * @param port               Port to listen on, 0 for any free port
+     * @param recognitionWorkers Workers recognizing the documents, as created by {@link AdmissionController#newExecutor()}
+     * @param window             Number of documents of a batch recognized at once
+     * @param maxBatchBytes      Maximum size of a batch in bytes, counted after decompression
+     * @param exchanges          Executor of the exchanges, which block until their batch is over
+     */
+    HttpRecognizerServer(final int port, final RecognizerPool recognizerPool, final AdmissionController admissionController,
+                         final ExecutorService recognitionWorkers, final int window, final long maxBatchBytes,
+                         final Executor exchanges) throws IOException {
+        this.recognizerPool = recognizerPool;
+        this.admissionController = admissionController;
+        this.recognitionWorkers = recognitionWorkers;
+        this.window = Math.max(1, window);
+        this.maxBatchBytes = maxBatchBytes;
+        server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.createContext(CONTEXT, this::handle);
+        server.setExecutor(exchanges);
+    }
+
+    int localPort() {
+        return server.getAddress().getPort();
+    }
+
+    void start() {
+        server.start();
+        logger.info("Accepting annotation batches on http://localhost:{}{}", localPort(), CONTEXT);
+    }
+
+    void stop() {
+        server.stop(STOP_DELAY_SECONDS);
+    }
+
+    private void handle(final HttpExchange exchange) throws IOException {
+        try {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                exchange.getResponseHeaders().set("Allow", "POST");
+                exchange.sendResponseHeaders(STATUS_METHOD_NOT_ALLOWED, -1);
+                return;
+            }
+            final boolean longestOnly = Boolean.parseBoolean(queryParameter(exchange, "longestOnly"));
+            final List<String> documents = readDocuments(exchange);
+            if (documents == null) {
+                logger.debug("Rejected an annotation batch larger than {} bytes", maxBatchBytes);
+                exchange.sendResponseHeaders(STATUS_PAYLOAD_TOO_LARGE, -1);
+                return;
+            }
+
+            final Headers responseHeaders = exchange.getResponseHeaders();
+            responseHeaders.set("Content-Type", CONTENT_TYPE);
+            final boolean gzip = accepts(exchange.getRequestHeaders(), "Accept-Encoding", GZIP);
+            if (gzip) {
+                responseHeaders.set("Content-Encoding", GZIP);
+                responseHeaders.set("Vary", "Accept-Encoding");
+            }
+            //A length of 0 streams the response in chunks
+            exchange.sendResponseHeaders(STATUS_OK, 0);
+            try (OutputStream body = gzip ? new GZIPOutputStream(exchange.getResponseBody(), BUFFER_SIZE, true) : exchange.getResponseBody();
+                 Writer output = new BufferedWriter(new OutputStreamWriter(body, StandardCharsets.UTF_8), BUFFER_SIZE)) {
+                annotate(documents, longestOnly, output);
+            }
+        } catch (final InterruptedException e) {
+            logger.debug("Interrupted while annotating a batch: {}", e.getLocalizedMessage());
+            Thread.currentThread().interrupt();
+        } catch (final IOException e) {
+            logger.error("Cannot answer annotation batch: {}", e.getLocalizedMessage());
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * @return The non blank lines of the batch, null if it is larger than the maximum batch size
+     */
+    private List<String> readDocuments(final HttpExchange exchange) throws IOException {
+        //We count the decompressed bytes, a small gzip body may inflate to a huge batch
+        final BoundedInputStream body = new BoundedInputStream(accepts(exchange.getRequestHeaders(), "Content-Encoding", GZIP) ?
+                new GZIPInputStream(exchange.getRequestBody(), BUFFER_SIZE) : exchange.getRequestBody(), maxBatchBytes);
+        final List<String> documents = new ArrayList<>();
+        try (BufferedReader input = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8))) {
+            String line = input.readLine();
+            while (line != null) {
+                if (!line.trim().isEmpty()) {
+                    documents.add(line);
+                }
+                line = input.readLine();
+            }
+        }
+        return body.exceeded() ? null : documents;
+    }
+
+    /**
+     * Recognize the documents, at most a window of them at a time, and write each result and flush it as soon as it
+     * is ready
+     */
+    private void annotate(final List<String> documents, final boolean longestOnly, final Writer output) throws IOException, InterruptedException {
+        final CompletionService<String> results = new ExecutorCompletionService<>(recognitionWorkers);
+        int next = 0;
+        int pending = 0;
+        while ((next < documents.size()) || (pending > 0)) {
+            while ((next < documents.size()) && (pending < window)) {
+                final int index = next++;
+                final String document = documents.get(index);
+                final long queuedSince = System.nanoTime();
+                try {
+                    results.submit(() -> (admissionController.admitQueued(queuedSince) == null) ?
+                            annotate(index, document, longestOnly) : error(index, idOf(document), ERROR_BUSY));
+                    pending++;
+                } catch (final RejectedExecutionException e) {
+                    //The queue is full, or the server is shutting down
+                    admissionController.rejectQueueFull();
+                    output.write(error(index, idOf(document), ERROR_BUSY));
+                }
+            }
+            if (pending > 0) {
+                try {
+                    output.write(results.take().get());
+                } catch (final ExecutionException e) {
+                    //Recognition failures are already answered with empty annotations
+                    throw new IllegalStateException("Cannot encode result", e.getCause());
+                }
+                pending--;
+            }
+            output.flush();
+        }
+    }
+
+    /**
+     * @return The result line of a document
+     */
+    private String annotate(final int index, final String document, final boolean defaultLongestOnly) {
+        String id = null;
+        final String text;
+        final boolean longestOnly;
+        try {
+            final Map<String, String> members = Json.parseObject(document);
+            id = idOf(members);
+            final String textValue = members.get("text");
+            if (textValue == null) {
+                return error(index, id, "Missing text");
+            }
+            text = Json.parseString(textValue);
+            final String longestOnlyValue = members.get("longestOnly");
+            longestOnly = (longestOnlyValue == null) ? defaultLongestOnly : Boolean.parseBoolean(longestOnlyValue);
+        } catch (final IllegalArgumentException e) {
+            return error(index, id, e.getMessage());
+        }
+        final List<AnnotationToken> annotations = MgrepProtocol.annotate(recognizerPool, text, longestOnly);
+        final StringBuilder result = start(index, id).append(",\"annotations\":[");
+        for (int i = 0; i < annotations.size(); i++) {
+            final AnnotationToken annotation = annotations.get(i);
+            if (i > 0) {
+                result.append(',');
+            }
+            result.append("{\"conceptId\":").append(annotation.getConceptId())
+                    .append(",\"start\":").append(annotation.getStart())
+                    .append(",\"end\":").append(annotation.getEnd())
+                    .append(",\"text\":");
+            Json.appendString(result, annotation.getText()).append('}');
+        }
+        return result.append("]}\n").toString();
+    }
+
+    private static String error(final int index, final String id, final String message) {
+        final StringBuilder result = start(index, id).append(",\"error\":");
+        return Json.appendString(result, message).append("}\n").toString();
+    }
+
+    private static StringBuilder start(final int index, final String id) {
+        final StringBuilder result = new StringBuilder().append("{\"index\":").append(index);
+        if (id != null) {
+            result.append(",\"id\":").append(id);
+        }
+        return result;
+    }
+
+    private static String idOf(final String document) {
+        try {
+            return idOf(Json.parseObject(document));
+        } catch (final IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return The id of the document as JSON text, null if it has none or it is neither a string nor a number
+     */
+    private static String idOf(final Map<String, String> members) {
+        final String id = members.get("id");
+        return ((id != null) && (id.startsWith("\"") || Json.isNumber(id))) ? id : null;
+    }
+
+    private static String queryParameter(final HttpExchange exchange, final String name) {
+        final String query = exchange.getRequestURI().getQuery();
+        if (query != null) {
+            for (final String parameter : query.split("&")) {
+                final int equals = parameter.indexOf('=');
+                if ((equals > 0) && parameter.substring(0, equals).equals(name)) {
+                    return parameter.substring(equals + 1);
+                }
+            }
+        }
+        return null;
+    }
+
+    private static boolean accepts(final Headers headers, final String header, final String encoding) {
+        final List<String> values = headers.get(header);
+        if (values != null) {
+            for (final String value : values) {
+                for (final String token : value.split(",")) {
+                    //We ignore quality values
+                    final int parameters = token.indexOf(';');
+                    if (((parameters < 0) ? token : token.substring(0, parameters)).trim().equalsIgnoreCase(encoding)) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Stream ending after one byte more than its limit, so that the reader can tell whether the limit was exceeded
+     */
+    private static final class BoundedInputStream extends FilterInputStream {
+
+        private final long limit;
+        private long count;
+
+        BoundedInputStream(final InputStream input, final long limit) {
+            super(input);
+            this.limit = limit;
+        }
+
+        boolean exceeded() {
+            return count > limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (exceeded()) {
+                return -1;
+            }
+            final int read = super.read();
+            if (read >= 0) {
+                count++;
+            }
+            return read;
+        }
+
+        @Override
+        public int read(final byte[] buffer, final int offset, final int length) throws IOException {
+            if (exceeded()) {
+                return -1;
+            }
+            final int read = super.read(buffer, offset, (int) Math.min(length, allowed()));
+            if (read > 0) {
+                count += read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(final long length) throws IOException {
+            final long skipped = exceeded() ? 0 : super.skip(Math.min(length, allowed()));
+            count += skipped;
+            return skipped;
+        }
+
+        /**
+         * @return The number of bytes left to read up to one past the limit, without overflowing
+         */
+        private long allowed() {
+            final long remaining = limit - count;
+            return (remaining == Long.MAX_VALUE) ? remaining : (remaining + 1);
+        }
+    }
+}
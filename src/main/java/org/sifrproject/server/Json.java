@@ -0,0 +1,196 @@
+package org.sifrproject.server;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * The little JSON the HTTP endpoint needs, without a dependency: reading the members of a one-line object, whose
+ * values are kept as JSON text so that they can be echoed as they came, and writing strings.
+ */
+@SuppressWarnings("all")
+enum Json {
+    ;
+
+    private static final int HEX_RADIX = 16;
+    private static final int UNICODE_ESCAPE_LENGTH = 4;
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+    private static final Pattern NUMBER = Pattern.compile("-?(0|[1-9][0-9]*)(\\.[0-9]+)?([eE][+-]?[0-9]+)?");
+
+    /**
+     * @return The members of the object, each value as JSON text
+     * @throws IllegalArgumentException If the text is not a JSON object
+     */
+    static Map<String, String> parseObject(final String text) {
+        final Map<String, String> members = new LinkedHashMap<>();
+        int position = skipWhitespace(text, 0);
+        expect(text, position, '{');
+        position = skipWhitespace(text, position + 1);
+        if ((position < text.length()) && (text.charAt(position) == '}')) {
+            position++;
+        } else {
+            boolean more = true;
+            while (more) {
+                expect(text, position, '"');
+                final int keyEnd = skipString(text, position);
+                final String key = parseString(text.substring(position, keyEnd));
+                position = skipWhitespace(text, keyEnd);
+                expect(text, position, ':');
+                final int valueStart = skipWhitespace(text, position + 1);
+                final int valueEnd = skipValue(text, valueStart);
+                members.put(key, text.substring(valueStart, valueEnd));
+                position = skipWhitespace(text, valueEnd);
+                more = (position < text.length()) && (text.charAt(position) == ',');
+                if (more) {
+                    position = skipWhitespace(text, position + 1);
+                } else {
+                    expect(text, position, '}');
+                    position++;
+                }
+            }
+        }
+        if (skipWhitespace(text, position) != text.length()) {
+            throw new IllegalArgumentException("Unexpected text after the object at offset " + position);
+        }
+        return members;
+    }
+
+    /**
+     * @return The string held by a JSON string literal
+     * @throws IllegalArgumentException If the value is not a string literal
+     */
+    static String parseString(final String value) {
+        if ((value.length() < 2) || (value.charAt(0) != '"') || (skipString(value, 0) != value.length())) {
+            throw new IllegalArgumentException("Not a string: " + value);
+        }
+        final StringBuilder string = new StringBuilder(value.length());
+        for (int i = 1; i < (value.length() - 1); i++) {
+            final char c = value.charAt(i);
+            if (c == '\\') {
+                final char escaped = value.charAt(++i);
+                switch (escaped) {
+                    case 'b':
+                        string.append('\b');
+                        break;
+                    case 'f':
+                        string.append('\f');
+                        break;
+                    case 'n':
+                        string.append('\n');
+                        break;
+                    case 'r':
+                        string.append('\r');
+                        break;
+                    case 't':
+                        string.append('\t');
+                        break;
+                    case 'u':
+                        if ((i + UNICODE_ESCAPE_LENGTH) >= (value.length() - 1)) {
+                            throw new IllegalArgumentException("Truncated unicode escape: " + value);
+                        }
+                        string.append((char) Integer.parseInt(value.substring(i + 1, i + 1 + UNICODE_ESCAPE_LENGTH), HEX_RADIX));
+                        i += UNICODE_ESCAPE_LENGTH;
+                        break;
+                    default:
+                        string.append(escaped);
+                }
+            } else {
+                string.append(c);
+            }
+        }
+        return string.toString();
+    }
+
+    static boolean isNumber(final String value) {
+        return NUMBER.matcher(value).matches();
+    }
+
+    /**
+     * Append a string as a JSON string literal
+     */
+    static StringBuilder appendString(final StringBuilder json, final String string) {
+        json.append('"');
+        for (int i = 0; i < string.length(); i++) {
+            final char c = string.charAt(i);
+            if ((c == '"') || (c == '\\')) {
+                json.append('\\').append(c);
+            } else if (c < ' ') {
+                json.append("\\u00").append(HEX_DIGITS[c >> 4]).append(HEX_DIGITS[c & 0xF]);
+            } else {
+                json.append(c);
+            }
+        }
+        return json.append('"');
+    }
+
+    private static int skipValue(final String text, final int start) {
+        if (start >= text.length()) {
+            throw new IllegalArgumentException("Missing value at the end of the line");
+        }
+        final char first = text.charAt(start);
+        if (first == '"') {
+            return skipString(text, start);
+        }
+        if ((first == '{') || (first == '[')) {
+            //We only look for the end of nested values, whose strings may hold brackets
+            int depth = 0;
+            int position = start;
+            do {
+                final char c = text.charAt(position);
+                if (c == '"') {
+                    position = skipString(text, position);
+                    continue;
+                }
+                if ((c == '{') || (c == '[')) {
+                    depth++;
+                } else if ((c == '}') || (c == ']')) {
+                    depth--;
+                }
+                position++;
+            } while ((depth > 0) && (position < text.length()));
+            if (depth > 0) {
+                throw new IllegalArgumentException("Unterminated value at offset " + start);
+            }
+            return position;
+        }
+        //Numbers, true, false and null
+        int position = start;
+        while ((position < text.length()) && (",}] \t\r\n".indexOf(text.charAt(position)) < 0)) {
+            position++;
+        }
+        final String literal = text.substring(start, position);
+        if (!isNumber(literal) && !literal.equals("true") && !literal.equals("false") && !literal.equals("null")) {
+            throw new IllegalArgumentException("Invalid value at offset " + start + ": " + literal);
+        }
+        return position;
+    }
+
+    /**
+     * @return The offset after the string literal starting at the offset
+     */
+    private static int skipString(final String text, final int start) {
+        int position = start + 1;
+        while (position < text.length()) {
+            final char c = text.charAt(position);
+            if (c == '"') {
+                return position + 1;
+            }
+            position += (c == '\\') ? 2 : 1;
+        }
+        throw new IllegalArgumentException("Unterminated string at offset " + start);
+    }
+
+    private static int skipWhitespace(final String text, final int start) {
+        int position = start;
+        while ((position < text.length()) && Character.isWhitespace(text.charAt(position))) {
+            position++;
+        }
+        return position;
+    }
+
+    private static void expect(final String text, final int position, final char expected) {
+        if ((position >= text.length()) || (text.charAt(position) != expected)) {
+            throw new IllegalArgumentException("Expected '" + expected + "' at offset " + position);
+        }
+    }
+}
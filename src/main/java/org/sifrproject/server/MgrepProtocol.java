@@ -0,0 +1,125 @@
+package org.sifrproject.server;
+
+import org.sifrproject.recognizer.AnnotationToken;
+import org.sifrproject.recognizer.ConceptRecognizer;
+import org.sifrproject.recognizer.cache.AnnotationCache;
+import org.sifrproject.recognizer.pool.RecognizerPool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The mgrep line protocol, shared by the connection modes of the server so that they reply byte for byte the same.
+ * <p>
+ * The server greets with "mgrep" and the protocol version "4". Each command then holds the longest match only and
+ * whole word only flags (Y or N), a space and the text to annotate; the reply lists one annotation per line and ends
+ * with an empty line. A command without text gets no reply and an empty line ends the session. When the server is
+ * overloaded, the reply is a single {@link #BUSY} line, which the client may retry later.
+ */
+@SuppressWarnings("all")
+enum MgrepProtocol {
+    ;
+
+    private static final Logger logger = LoggerFactory.getLogger(MgrepProtocol.class);
+
+    static final String NAME = "mgrep";
+    static final String VERSION = "4";
+    static final String BUSY = "BUSY";
+
+    private static final int COMMAND_PREFIX_LENGTH = 3;
+    private static final char LONGEST_ONLY = 'Y';
+
+    //Encoders reuse their buffer, each thread writing replies has one
+    private static final ThreadLocal<MgrepReplyEncoder> replyEncoders = ThreadLocal.withInitial(MgrepReplyEncoder::new);
+
+    /**
+     * @return The greeting as written by {@link java.io.PrintWriter#println(String)}
+     */
+    static byte[] handshake() {
+        final String lineSeparator = System.lineSeparator();
+        return (NAME + lineSeparator + VERSION + lineSeparator).getBytes(StandardCharsets.UTF_8);
+    }
+
+    static boolean endsSession(final String command) {
+        return (command == null) || command.isEmpty();
+    }
+
+    static boolean longestOnly(final String command) {
+        return command.charAt(0) == LONGEST_ONLY;
+    }
+
+    /**
+     * @return The text of the command, empty if there is nothing to annotate
+     */
+    static String text(final String command) {
+        //We always match whole words, whatever the second flag
+        return (command.length() > COMMAND_PREFIX_LENGTH) ? command.substring(COMMAND_PREFIX_LENGTH) : "";
+    }
+
+    /**
+     * Annotate a text from the annotation cache of the pool, or with a recognizer claimed from the pool
+     *
+     * @return The annotations, empty if no recognizer was available within the claim timeout or if recognition failed,
+     * so that the client remains in sync
+     */
+    static List<AnnotationToken> annotate(final RecognizerPool recognizerPool, final String text, final boolean longestOnly) {
+        final AnnotationCache annotationCache = recognizerPool.annotationCache();
+        final List<AnnotationToken> annotations = (annotationCache == null) ? recognize(recognizerPool, text, longestOnly) :
+                annotationCache.get(text, longestOnly, uncachedText -> recognize(recognizerPool, uncachedText, longestOnly));
+        return (annotations == null) ? Collections.emptyList() : annotations;
+    }
+
+    /**
+     * @return The annotations, null if no recognizer was available within the claim timeout or if recognition failed,
+     * so that they are not cached
+     */
+    private static List<AnnotationToken> recognize(final RecognizerPool recognizerPool, final String text, final boolean longestOnly) {
+        List<AnnotationToken> annotations = null;
+        ConceptRecognizer conceptRecognizer = null;
+        try {
+            conceptRecognizer = recognizerPool.claim();
+            if (conceptRecognizer == null) {
+                logger.warn("No recognizer available within the claim timeout: {}", recognizerPool);
+            } else {
+                annotations = conceptRecognizer.recognize(text, longestOnly);
+            }
+        } catch (final InterruptedException e) {
+            logger.error("Cannot get concept recognizer instance: {}", e.getLocalizedMessage());
+            Thread.currentThread().interrupt();
+        } catch (final RuntimeException e) {
+            logger.error("Cannot annotate text with a pooled recognizer: {}", e.getLocalizedMessage());
+        } finally {
+            if (conceptRecognizer != null) {
+                conceptRecognizer.release();
+            }
+        }
+        return annotations;
+    }
+
+    /**
+     * @return The reply to a command rejected by admission control
+     */
+    static byte[] busyReply() {
+        final String lineSeparator = System.lineSeparator();
+        return (BUSY + lineSeparator + lineSeparator).getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return The reply to a command, as written by {@link java.io.PrintWriter#println(Object)} in UTF-8
+     */
+    static byte[] reply(final List<AnnotationToken> annotations) {
+        return replyEncoders.get().encode(annotations).toByteArray();
+    }
+
+    /**
+     * Write the reply to a command and flush it, without allocating anything
+     */
+    static void writeReply(final List<AnnotationToken> annotations, final OutputStream output) throws IOException {
+        replyEncoders.get().encode(annotations).writeTo(output);
+    }
+}
@@ -0,0 +1,167 @@
+package org.sifrproject.server;
+
+import org.sifrproject.recognizer.AnnotationToken;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.text.DecimalFormatSymbols;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.RandomAccess;
+
+/**
+ * Encoder of mgrep replies into a reusable byte buffer. The bytes are those of each {@link AnnotationToken#toString()}
+ * written by {@link java.io.PrintWriter#println(Object)} in UTF-8, followed by an empty line, but digits and text are
+ * written straight into the buffer instead of going through {@link String#format} and a writer, so that encoding a
+ * reply allocates nothing once the buffer has grown to the size of the replies. Numbers use the zero digit of the
+ * default format locale, as {@code String.format("%d")} does. An encoder must not be shared between threads.
+ */
+public final class MgrepReplyEncoder {
+
+    private static final int INITIAL_CAPACITY = 4096;
+    //A buffer grown for a huge reply is not kept for the next ones
+    private static final int MAX_RETAINED_CAPACITY = 1 << 20;
+    private static final int MAX_LONG_DIGITS = 20;
+    private static final int UTF8_MAX_BYTES_PER_CHAR = 3;
+    private static final byte[] NULL = "null".getBytes(StandardCharsets.UTF_8);
+
+    private final byte[][] digits = new byte[10][];
+    private final byte[] lineSeparator = System.lineSeparator().getBytes(StandardCharsets.UTF_8);
+    private final byte[] number = new byte[MAX_LONG_DIGITS];
+    private byte[] buffer = new byte[INITIAL_CAPACITY];
+    private int size;
+
+    public MgrepReplyEncoder() {
+        final char zero = DecimalFormatSymbols.getInstance(Locale.getDefault(Locale.Category.FORMAT)).getZeroDigit();
+        for (int digit = 0; digit < digits.length; digit++) {
+            digits[digit] = String.valueOf((char) (zero + digit)).getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Encode a reply, replacing the previous one
+     */
+    public MgrepReplyEncoder encode(final List<AnnotationToken> annotations) {
+        if (buffer.length > MAX_RETAINED_CAPACITY) {
+            buffer = new byte[INITIAL_CAPACITY];
+        }
+        size = 0;
+        //The lists of the recognizers are array backed, indexing them creates no iterator
+        if (annotations instanceof RandomAccess) {
+            for (int i = 0; i < annotations.size(); i++) {
+                writeAnnotation(annotations.get(i));
+            }
+        } else {
+            for (final AnnotationToken annotation : annotations) {
+                writeAnnotation(annotation);
+            }
+        }
+        write(lineSeparator);
+        return this;
+    }
+
+    /**
+     * Write the reply encoded last and flush the output once
+     */
+    public void writeTo(final OutputStream output) throws IOException {
+        output.write(buffer, 0, size);
+        output.flush();
+    }
+
+    /**
+     * @return A copy of the reply encoded last, for a reply written by another thread
+     */
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buffer, size);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private void writeAnnotation(final AnnotationToken annotation) {
+        final Long conceptId = annotation.getConceptId();
+        if (conceptId == null) {
+            write(NULL);
+        } else {
+            writeNumber(conceptId);
+        }
+        writeByte('\t');
+        writeNumber(annotation.getStart());
+        writeByte('\t');
+        writeNumber(annotation.getEnd());
+        writeByte('\t');
+        writeText(annotation.getText());
+        write(lineSeparator);
+    }
+
+    private void writeNumber(final long value) {
+        //We accumulate negative digits, which also covers Long.MIN_VALUE
+        long remaining = (value < 0) ? value : -value;
+        int start = number.length;
+        do {
+            number[--start] = (byte) -(remaining % 10);
+            remaining /= 10;
+        } while (remaining != 0);
+        if (value < 0) {
+            writeByte('-');
+        }
+        for (int i = start; i < number.length; i++) {
+            write(digits[number[i]]);
+        }
+    }
+
+    /**
+     * Write the text in UTF-8, unpaired surrogates becoming '?' as with {@link String#getBytes}
+     */
+    private void writeText(final String text) {
+        if (text == null) {
+            write(NULL);
+            return;
+        }
+        final int length = text.length();
+        ensureCapacity(length * UTF8_MAX_BYTES_PER_CHAR);
+        for (int i = 0; i < length; i++) {
+            final char c = text.charAt(i);
+            if (c < 0x80) {
+                buffer[size++] = (byte) c;
+            } else if (c < 0x800) {
+                buffer[size++] = (byte) (0xC0 | (c >> 6));
+                buffer[size++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                if (Character.isHighSurrogate(c) && ((i + 1) < length) && Character.isLowSurrogate(text.charAt(i + 1))) {
+                    final int codePoint = Character.toCodePoint(c, text.charAt(++i));
+                    buffer[size++] = (byte) (0xF0 | (codePoint >> 18));
+                    buffer[size++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                    buffer[size++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                    buffer[size++] = (byte) (0x80 | (codePoint & 0x3F));
+                } else {
+                    buffer[size++] = '?';
+                }
+            } else {
+                buffer[size++] = (byte) (0xE0 | (c >> 12));
+                buffer[size++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                buffer[size++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+    }
+
+    private void write(final byte[] bytes) {
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, buffer, size, bytes.length);
+        size += bytes.length;
+    }
+
+    private void writeByte(final char c) {
+        ensureCapacity(1);
+        buffer[size++] = (byte) c;
+    }
+
+    private void ensureCapacity(final int extra) {
+        if ((size + extra) > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + extra));
+        }
+    }
+}
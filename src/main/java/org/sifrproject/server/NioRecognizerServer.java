@@ -0,0 +1,484 @@
+package org.sifrproject.server;
+
+import org.sifrproject.recognizer.pool.RecognizerPool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Selector based connection mode of the server. The thread running the server accepts connections and hands them
+ * to a few I/O threads, which read and write them without blocking through pooled direct buffers. Commands are
+ * recognized by a fixed pool of workers, up to the pipeline window at a time per connection, and their replies are
+ * written in the order of the commands, so that they are the same, byte for byte, as those of
+ * {@link RecognizerClientHandler}. An idle connection only costs its socket and a few objects, not a thread.
+ * <p>
+ * The workers, shared with the other front ends of the server, are as many as the recognitions admitted to run at
+ * once, and their queue holds as many commands as may wait: commands that do not fit, or that waited too long, get a
+ * busy reply.
+ * <p>
+ * Connections switch to the {@link BinaryProtocol} as in the blocking mode, the frames are then read incrementally
+ * like lines.
+ */
+final class NioRecognizerServer {
+
+    private static final Logger logger = LoggerFactory.getLogger(NioRecognizerServer.class);
+
+    private static final int BUFFER_SIZE = 16384;
+    private static final long SELECT_TIMEOUT_MILLIS = 1000L;
+    //Commands read ahead of the one being recognized, after which the connection is not read until they are
+    private static final int MAX_PENDING_COMMANDS = 64;
+    private static final int INITIAL_LINE_CAPACITY = 256;
+
+    private final RecognizerPool recognizerPool;
+    private final ServerSocketChannel serverChannel;
+    private final Selector acceptSelector;
+    private final IoLoop[] ioLoops;
+    private final ExecutorService workers;
+    private final AdmissionController admissionController;
+    private final int pipelineWindow;
+    private final ByteBufferPool bufferPool;
+    private final byte[] handshake = MgrepProtocol.handshake();
+
+    private volatile boolean keepRunning = true;
+
+    /**
+     * @param port                Port to listen on, 0 for any free port
+     * @param ioThreads           Number of threads reading and writing the connections
+     * @param admissionController Bounds the commands recognized and waiting at once
+     * @param workers             Workers recognizing the commands, as created by {@link AdmissionController#newExecutor()},
+     *                            which their owner shuts down after stopping the server
+     * @param pipelineWindow      Number of commands of a connection recognized at once
+     */
+    NioRecognizerServer(final int port, final RecognizerPool recognizerPool, final int ioThreads, final AdmissionController admissionController,
+                        final ExecutorService workers, final int pipelineWindow) throws IOException {
+        this.recognizerPool = recognizerPool;
+        this.admissionController = admissionController;
+        this.pipelineWindow = Math.max(1, pipelineWindow);
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port));
+        serverChannel.configureBlocking(false);
+        acceptSelector = Selector.open();
+        serverChannel.register(acceptSelector, SelectionKey.OP_ACCEPT);
+        ioLoops = new IoLoop[ioThreads];
+        for (int i = 0; i < ioThreads; i++) {
+            ioLoops[i] = new IoLoop(Selector.open());
+        }
+        this.workers = workers;
+        //Each I/O thread borrows at most one buffer at a time
+        bufferPool = new ByteBufferPool(BUFFER_SIZE, ioThreads);
+    }
+
+    int localPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    /**
+     * Accept connections until {@link #stop()}
+     */
+    void run() {
+        final Thread[] ioThreads = new Thread[ioLoops.length];
+        for (int i = 0; i < ioLoops.length; i++) {
+            ioThreads[i] = new Thread(ioLoops[i], "mgrep-io-" + i);
+            ioThreads[i].start();
+        }
+        logger.debug("Accepting incoming connections on port {}", localPort());
+        int nextLoop = 0;
+        try {
+            while (keepRunning) {
+                acceptSelector.select(SELECT_TIMEOUT_MILLIS);
+                acceptSelector.selectedKeys().clear();
+                SocketChannel channel = serverChannel.accept();
+                while (channel != null) {
+                    channel.configureBlocking(false);
+                    ioLoops[nextLoop].register(channel);
+                    nextLoop = (nextLoop + 1) % ioLoops.length;
+                    channel = serverChannel.accept();
+                }
+            }
+        } catch (final IOException e) {
+            logger.error("Exception occurred while accepting connections: {}", e.getMessage());
+        }
+        try {
+            // Make sure to release the port, otherwise it may remain bound for several minutes
+            serverChannel.close();
+            acceptSelector.close();
+        } catch (final IOException e) {
+            // Ignored
+        }
+        for (final Thread ioThread : ioThreads) {
+            try {
+                ioThread.join();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        logger.debug("Stopped accepting incoming connections.");
+    }
+
+    void stop() {
+        keepRunning = false;
+        acceptSelector.wakeup();
+        for (final IoLoop ioLoop : ioLoops) {
+            ioLoop.selector.wakeup();
+        }
+    }
+
+    /**
+     * Thread multiplexing the reads and writes of its connections. Connections are only touched by their I/O thread:
+     * other threads hand it tasks.
+     */
+    private final class IoLoop implements Runnable {
+        private final Selector selector;
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+        IoLoop(final Selector selector) {
+            this.selector = selector;
+        }
+
+        void register(final SocketChannel channel) {
+            execute(() -> {
+                try {
+                    new Connection(this, channel);
+                } catch (final IOException e) {
+                    logger.error("Cannot register client connection: {}", e.getLocalizedMessage());
+                    closeQuietly(channel);
+                }
+            });
+        }
+
+        void execute(final Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (keepRunning) {
+                    selector.select(SELECT_TIMEOUT_MILLIS);
+                    Runnable task = tasks.poll();
+                    while (task != null) {
+                        task.run();
+                        task = tasks.poll();
+                    }
+                    final Iterator<SelectionKey> selectedKeys = selector.selectedKeys().iterator();
+                    while (selectedKeys.hasNext()) {
+                        final SelectionKey key = selectedKeys.next();
+                        selectedKeys.remove();
+                        ((Connection) key.attachment()).handle(key);
+                    }
+                }
+            } catch (final IOException | ClosedSelectorException e) {
+                logger.error("I/O thread failure: {}", e.getMessage());
+            }
+            for (final SelectionKey key : selector.keys()) {
+                closeQuietly(key.channel());
+            }
+            closeQuietly(selector);
+        }
+    }
+
+    /**
+     * Reply of a command being recognized, kept in the order of the commands until the replies before it are written
+     */
+    private static final class PendingReply {
+        private byte[] reply;
+    }
+
+    /**
+     * State of an mgrep session: the line or frame being read, the commands read ahead, the commands being recognized
+     * and the replies not written yet
+     */
+    private final class Connection {
+        private final IoLoop loop;
+        private final SocketChannel channel;
+        private final SelectionKey key;
+
+        private byte[] line = new byte[INITIAL_LINE_CAPACITY];
+        private int lineLength;
+        //A carriage return ends a line, and so does a carriage return followed by a line feed
+        private boolean skipLineFeed;
+        private boolean firstLine = true;
+        private boolean binary;
+        //Length of the frame being read, -1 while its varint length is being read
+        private int frameLength = -1;
+        private long frameLengthValue;
+        private int frameLengthShift;
+        private final Deque<Command> commands = new ArrayDeque<>();
+        private final Deque<PendingReply> recognitions = new ArrayDeque<>();
+        private final Deque<ByteBuffer> replies = new ArrayDeque<>();
+        //No more commands are read after an empty line or the end of the input
+        private boolean ended;
+        private boolean closed;
+
+        Connection(final IoLoop loop, final SocketChannel channel) throws IOException {
+            this.loop = loop;
+            this.channel = channel;
+            key = channel.register(loop.selector, 0, this);
+            replies.add(ByteBuffer.wrap(handshake));
+            update();
+        }
+
+        void handle(final SelectionKey selectedKey) {
+            try {
+                if (selectedKey.isReadable()) {
+                    read();
+                }
+                update();
+            } catch (final IOException | CancelledKeyException e) {
+                logger.debug("Client connection failure: {}", e.getLocalizedMessage());
+                close();
+            }
+        }
+
+        private void read() throws IOException {
+            final ByteBuffer buffer = bufferPool.acquire();
+            try {
+                final int read = channel.read(buffer);
+                if (read < 0) {
+                    //As with BufferedReader.readLine, the last line may miss its line terminator
+                    if ((lineLength > 0) && !binary) {
+                        endLine();
+                    }
+                    ended = true;
+                } else {
+                    buffer.flip();
+                    while (buffer.hasRemaining() && !ended) {
+                        final byte b = buffer.get();
+                        if (skipLineFeed && (b == '\n')) {
+                            skipLineFeed = false;
+                        } else if (binary) {
+                            skipLineFeed = false;
+                            readFrame(b);
+                        } else if ((b == '\n') || (b == '\r')) {
+                            skipLineFeed = b == '\r';
+                            endLine();
+                        } else {
+                            skipLineFeed = false;
+                            if (lineLength == line.length) {
+                                final byte[] longerLine = new byte[line.length * 2];
+                                System.arraycopy(line, 0, longerLine, 0, lineLength);
+                                line = longerLine;
+                            }
+                            line[lineLength++] = b;
+                        }
+                    }
+                }
+            } finally {
+                bufferPool.release(buffer);
+            }
+        }
+
+        private void endLine() {
+            //Line terminators are ASCII, so lines can be cut before decoding them as the blocking handler does
+            final String command = new String(line, 0, lineLength, Charset.defaultCharset());
+            lineLength = 0;
+            if (line.length > INITIAL_LINE_CAPACITY) {
+                line = new byte[INITIAL_LINE_CAPACITY];
+            }
+            if (firstLine && BinaryProtocol.upgrades(command)) {
+                binary = true;
+                replies.add(ByteBuffer.wrap(BinaryProtocol.acknowledgement()));
+            } else if (MgrepProtocol.endsSession(command)) {
+                ended = true;
+            } else {
+                commands.add(Command.mgrep(command));
+            }
+            firstLine = false;
+        }
+
+        /**
+         * Read a byte of a frame of the binary protocol, as {@link BinaryProtocol#readRequest} does
+         */
+        private void readFrame(final byte b) throws IOException {
+            if (frameLength < 0) {
+                frameLengthValue |= (long) (b & BinaryProtocol.VARINT_GROUP_MASK) << frameLengthShift;
+                frameLengthShift += BinaryProtocol.VARINT_GROUP_BITS;
+                if ((b & BinaryProtocol.VARINT_CONTINUATION) == 0) {
+                    if (frameLengthValue > BinaryProtocol.MAX_FRAME_LENGTH) {
+                        throw new IOException("Frame of " + frameLengthValue + " bytes exceeds the limit of " + BinaryProtocol.MAX_FRAME_LENGTH);
+                    }
+                    frameLength = (int) frameLengthValue;
+                    frameLengthValue = 0;
+                    frameLengthShift = 0;
+                    if (frameLength == 0) {
+                        ended = true;
+                    }
+                } else if (frameLengthShift >= (BinaryProtocol.MAX_LENGTH_VARINT_BYTES * BinaryProtocol.VARINT_GROUP_BITS)) {
+                    throw new IOException("Malformed frame length");
+                }
+            } else {
+                if (lineLength == line.length) {
+                    //The buffer grows with the bytes received, not with the length announced
+                    final byte[] longerFrame = new byte[(int) Math.min(frameLength, line.length * 2L)];
+                    System.arraycopy(line, 0, longerFrame, 0, lineLength);
+                    line = longerFrame;
+                }
+                line[lineLength++] = b;
+                if (lineLength == frameLength) {
+                    commands.add(BinaryProtocol.request(line, 0, frameLength));
+                    lineLength = 0;
+                    frameLength = -1;
+                    if (line.length > INITIAL_LINE_CAPACITY) {
+                        line = new byte[INITIAL_LINE_CAPACITY];
+                    }
+                }
+            }
+        }
+
+        /**
+         * Start recognizing the next command, write what can be written and wait for what is left to do, or close
+         * the connection once the session is over
+         */
+        private void update() throws IOException {
+            dispatch();
+            write();
+            if (ended && commands.isEmpty() && recognitions.isEmpty() && replies.isEmpty()) {
+                close();
+            } else if (!closed) {
+                int interest = 0;
+                if (!ended && (commands.size() < MAX_PENDING_COMMANDS)) {
+                    interest |= SelectionKey.OP_READ;
+                }
+                if (!replies.isEmpty()) {
+                    interest |= SelectionKey.OP_WRITE;
+                }
+                key.interestOps(interest);
+            }
+        }
+
+        private void dispatch() {
+            while ((recognitions.size() < pipelineWindow) && !closed && !commands.isEmpty()) {
+                final Command command = commands.poll();
+                if (command.expectsReply()) {
+                    final long queuedSince = System.nanoTime();
+                    final PendingReply pendingReply = new PendingReply();
+                    recognitions.add(pendingReply);
+                    try {
+                        workers.execute(() -> {
+                            final byte[] reply = answer(command, queuedSince);
+                            loop.execute(() -> replied(pendingReply, reply));
+                        });
+                    } catch (final RejectedExecutionException e) {
+                        if (workers.isShutdown()) {
+                            close();
+                        } else {
+                            //The queue is full
+                            admissionController.rejectQueueFull();
+                            pendingReply.reply = command.busyReply();
+                            releaseReplies();
+                        }
+                    }
+                }
+            }
+        }
+
+        /**
+         * @return The reply to a command, on a worker
+         */
+        private byte[] answer(final Command command, final long queuedSince) {
+            try {
+                return (admissionController.admitQueued(queuedSince) == null) ?
+                        command.reply(MgrepProtocol.annotate(recognizerPool, command.text(), command.longestOnly())) :
+                        command.busyReply();
+            } catch (final RuntimeException e) {
+                //Every command must be answered, or the replies after it would never be written
+                logger.error("Cannot answer command: {}", e.getLocalizedMessage());
+                return command.reply(Collections.emptyList());
+            }
+        }
+
+        private void replied(final PendingReply pendingReply, final byte[] reply) {
+            if (!closed) {
+                pendingReply.reply = reply;
+                releaseReplies();
+                try {
+                    update();
+                } catch (final IOException | CancelledKeyException e) {
+                    logger.debug("Client connection failure: {}", e.getLocalizedMessage());
+                    close();
+                }
+            }
+        }
+
+        /**
+         * Queue for writing the replies of the commands recognized, up to the first one still being recognized
+         */
+        private void releaseReplies() {
+            while (!recognitions.isEmpty() && (recognitions.peek().reply != null)) {
+                replies.add(ByteBuffer.wrap(recognitions.poll().reply));
+            }
+        }
+
+        /**
+         * Write as many pending bytes as the socket takes, several replies at a time
+         */
+        private void write() throws IOException {
+            if (closed || replies.isEmpty()) {
+                return;
+            }
+            final ByteBuffer buffer = bufferPool.acquire();
+            try {
+                boolean socketFull = false;
+                while (!replies.isEmpty() && !socketFull) {
+                    buffer.clear();
+                    for (final ByteBuffer reply : replies) {
+                        if (!buffer.hasRemaining()) {
+                            break;
+                        }
+                        final ByteBuffer part = reply.duplicate();
+                        if (part.remaining() > buffer.remaining()) {
+                            part.limit(part.position() + buffer.remaining());
+                        }
+                        buffer.put(part);
+                    }
+                    buffer.flip();
+                    final int filled = buffer.remaining();
+                    int written = channel.write(buffer);
+                    socketFull = written < filled;
+                    while (written > 0) {
+                        final ByteBuffer reply = replies.peek();
+                        final int consumed = Math.min(written, reply.remaining());
+                        reply.position(reply.position() + consumed);
+                        written -= consumed;
+                        if (!reply.hasRemaining()) {
+                            replies.poll();
+                        }
+                    }
+                }
+            } finally {
+                bufferPool.release(buffer);
+            }
+        }
+
+        private void close() {
+            if (!closed) {
+                closed = true;
+                key.cancel();
+                closeQuietly(channel);
+            }
+        }
+    }
+
+    private static void closeQuietly(final Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (final IOException e) {
+            logger.error("Cannot close client socket connection: {}", e.getLocalizedMessage());
+        }
+    }
+}
@@ -1,48 +1,83 @@
 package org.sifrproject.server;
 
 import org.sifrproject.recognizer.AnnotationToken;
-import org.sifrproject.recognizer.ConceptRecognizer;
+import org.sifrproject.recognizer.pool.RecognizerPool;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
 import java.net.Socket;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 
+/**
+ * Blocking handler of an mgrep session. Without a pipeline, each command is recognized on the thread of the
+ * connection and answered before the next one is read. With a pipeline window, the commands the client already sent
+ * are read ahead, up to the window, and recognized in parallel by shared workers, while the thread of the connection
+ * writes their replies in the order of the commands, so that clients see the same replies either way.
+ * <p>
+ * A client sending the {@link BinaryProtocol#UPGRADE} line as its first command switches the session to the binary
+ * protocol.
+ */
 public class RecognizerClientHandler implements Runnable {
+
     private final Logger logger = LoggerFactory.getLogger(RecognizerClientHandler.class);
     private final Socket clientSocket;
-    private final ConceptRecognizer conceptRecognizer;
-//    private final Timeout poolTimeout = new Timeout(1, TimeUnit.SECONDS);
+    private final RecognizerPool recognizerPool;
+    private final AdmissionController admissionController;
+    private final ExecutorService pipelineWorkers;
+    private final int pipelineWindow;
+    private boolean binary;
+
+    RecognizerClientHandler(final Socket clientSocket, final RecognizerPool recognizerPool, final AdmissionController admissionController) {
+        this(clientSocket, recognizerPool, admissionController, null, 1);
+    }
 
-    RecognizerClientHandler(final Socket clientSocket, final ConceptRecognizer conceptRecognizer) {
+    /**
+     * @param pipelineWorkers Workers recognizing the commands, as created by {@link AdmissionController#newExecutor()}
+     *                        and shared with the other connections and front ends so that they bound the recognitions
+     *                        of all of them, or null to recognize the commands one by one on the thread of the
+     *                        connection, once admitted by the admission controller
+     * @param pipelineWindow  Number of commands of the connection recognized at once, 1 to wait for the reply to each
+     *                        command before reading the next one
+     */
+    RecognizerClientHandler(final Socket clientSocket, final RecognizerPool recognizerPool, final AdmissionController admissionController,
+                            final ExecutorService pipelineWorkers, final int pipelineWindow) {
         this.clientSocket = clientSocket;
-        this.conceptRecognizer = conceptRecognizer;
+        this.recognizerPool = recognizerPool;
+        this.admissionController = admissionController;
+        this.pipelineWorkers = pipelineWorkers;
+        this.pipelineWindow = (pipelineWorkers == null) ? 1 : Math.max(1, pipelineWindow);
     }
 
 
     @Override
     public void run() {
-        try (BufferedReader userInput = new BufferedReader(new InputStreamReader(
-                clientSocket.getInputStream()))) {
-            try (PrintWriter outputWriter = new PrintWriter(new OutputStreamWriter(clientSocket.getOutputStream(), "UTF8"))) {
+        try (InputStream socketInput = clientSocket.getInputStream()) {
+            final CommandInput userInput = new CommandInput(socketInput);
+            try (OutputStream output = new BufferedOutputStream(clientSocket.getOutputStream())) {
                 //Initializing protocol
-                outputWriter.println("mgrep");
-                outputWriter.println("4");
-                outputWriter.flush();
+                output.write(MgrepProtocol.handshake());
+                output.flush();
 
-                String command = "init";
-                while ((command != null) && !command.isEmpty()) {
-                    if(!command.equals("init")) {
-                        final String text = command.substring(3);
-                        if (!text.isEmpty()) {
-                            annotateAndWrite(text, outputWriter);
+                Command command = readFirstCommand(userInput, output);
+                if (pipelineWorkers != null) {
+                    runPipeline(command, userInput, output);
+                } else {
+                    while (command != null) {
+                        if (command.expectsReply()) {
+                            annotateAndWrite(command, output);
                         }
+                        command = readCommand(userInput);
                     }
-                    command = userInput.readLine();
                 }
-            } catch (final UnsupportedEncodingException e) {
-                logger.error("Encoding error: {}", e.getLocalizedMessage());
             } catch (final IOException e) {
                 logger.error("Cannot send reply to client: {}", e.getLocalizedMessage());
             }
@@ -56,27 +91,118 @@ public class RecognizerClientHandler implements Runnable {
         }
     }
 
-    private void annotateAndWrite(final String text, final PrintWriter outputWriter){
-//        try {
-//            final ConceptRecognizer conceptRecognizer = recognizerPool.claim(poolTimeout);
-//            try {
+    /**
+     * @return The first command, after switching to the binary protocol if the client asks for it, or null if the
+     * session ends
+     */
+    private Command readFirstCommand(final CommandInput userInput, final OutputStream output) throws IOException {
+        final String line = userInput.readLine();
+        if (BinaryProtocol.upgrades(line)) {
+            binary = true;
+            output.write(BinaryProtocol.acknowledgement());
+            output.flush();
+            return userInput.readFrame();
+        }
+        return MgrepProtocol.endsSession(line) ? null : Command.mgrep(line);
+    }
+
+    /**
+     * @return The next command, or null if the session ends
+     */
+    private Command readCommand(final CommandInput userInput) throws IOException {
+        if (binary) {
+            return userInput.readFrame();
+        }
+        final String line = userInput.readLine();
+        return MgrepProtocol.endsSession(line) ? null : Command.mgrep(line);
+    }
 
-                final List<AnnotationToken> annotations = conceptRecognizer.recognize(text,false);
-                for (final AnnotationToken token : annotations) {
-                    outputWriter.println(token);
+    /**
+     * Read ahead the commands already sent while the window is not full and write the replies in order as they
+     * complete. The thread only blocks reading when no reply is pending, so that a client waiting for a reply before
+     * sending its next command is answered as without a pipeline, and it flushes before blocking on anything.
+     */
+    private void runPipeline(final Command firstCommand, final CommandInput userInput, final OutputStream output) throws IOException {
+        final Deque<Future<byte[]>> pendingReplies = new ArrayDeque<>(pipelineWindow);
+        Command command = firstCommand;
+        boolean ended = command == null;
+        try {
+            while (!ended || !pendingReplies.isEmpty()) {
+                boolean written = false;
+                while (!pendingReplies.isEmpty() && pendingReplies.peek().isDone()) {
+                    output.write(reply(pendingReplies.poll()));
+                    written = true;
                 }
-                outputWriter.println();
-                outputWriter.flush();
-//            } catch (final RuntimeException e) {
-//                logger.error("Cannot obtain recognizer from pool: {}", e.getLocalizedMessage());
-//            } finally {
-//                if (conceptRecognizer != null) {
-//                    conceptRecognizer.release();
-//                }
-//            }
-//        } catch (final InterruptedException e) {
-//            logger.error("Cannot get concept recognizer instance: {}", e.getLocalizedMessage());
-//        }
+                if (written) {
+                    output.flush();
+                }
+                if (command != null) {
+                    if (command.expectsReply()) {
+                        pendingReplies.add(submit(command));
+                    }
+                    command = null;
+                } else if (!ended && (pendingReplies.isEmpty() || ((pendingReplies.size() < pipelineWindow) && userInput.ready()))) {
+                    command = readCommand(userInput);
+                    ended = command == null;
+                } else if (!pendingReplies.isEmpty()) {
+                    output.write(reply(pendingReplies.poll()));
+                    output.flush();
+                }
+            }
+        } catch (final InterruptedException e) {
+            logger.debug("Interrupted while waiting for a reply: {}", e.getLocalizedMessage());
+            Thread.currentThread().interrupt();
+        }
     }
 
+    private Future<byte[]> submit(final Command command) {
+        final long queuedSince = System.nanoTime();
+        try {
+            return pipelineWorkers.submit(() -> (admissionController.admitQueued(queuedSince) == null) ?
+                    command.reply(MgrepProtocol.annotate(recognizerPool, command.text(), command.longestOnly())) :
+                    command.busyReply());
+        } catch (final RejectedExecutionException e) {
+            //The queue is full, or the server is shutting down
+            admissionController.rejectQueueFull();
+            return CompletableFuture.completedFuture(command.busyReply());
+        }
+    }
+
+    private byte[] reply(final Future<byte[]> pendingReply) throws InterruptedException {
+        try {
+            return pendingReply.get();
+        } catch (final ExecutionException e) {
+            //Annotation failures are already answered with an empty reply, only the encoding may fail here
+            throw new IllegalStateException("Cannot encode reply", e.getCause());
+        }
+    }
+
+    /**
+     * Annotate the text of the command and write the reply, busy if admission control rejected the request
+     */
+    private void annotateAndWrite(final Command command, final OutputStream output) throws IOException {
+        final AdmissionController.Rejection rejection;
+        try {
+            rejection = admissionController.acquire();
+        } catch (final InterruptedException e) {
+            logger.error("Interrupted while waiting to annotate: {}", e.getLocalizedMessage());
+            Thread.currentThread().interrupt();
+            command.writeReply(Collections.emptyList(), output);
+            return;
+        }
+        if (rejection != null) {
+            logger.debug("Request rejected: {}", rejection);
+            output.write(command.busyReply());
+            output.flush();
+            return;
+        }
+        final List<AnnotationToken> annotations;
+        try {
+            annotations = MgrepProtocol.annotate(recognizerPool, command.text(), command.longestOnly());
+        } finally {
+            admissionController.release();
+        }
+        //A slow client does not hold the recognition slot
+        command.writeReply(annotations, output);
+    }
 }
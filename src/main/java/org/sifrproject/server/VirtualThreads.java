@@ -0,0 +1,50 @@
+package org.sifrproject.server;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Access to the virtual threads of Java 21 and later from code built for Java 8: the executor starting a virtual
+ * thread per task is looked up at run time.
+ */
+@SuppressWarnings("all")
+enum VirtualThreads {
+    ;
+
+    private static final MethodHandle NEW_THREAD_PER_TASK_EXECUTOR = findThreadPerTaskExecutor();
+
+    private static MethodHandle findThreadPerTaskExecutor() {
+        try {
+            return MethodHandles.publicLookup().findStatic(Executors.class, "newVirtualThreadPerTaskExecutor", MethodType.methodType(ExecutorService.class));
+        } catch (final NoSuchMethodException | IllegalAccessException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return Whether the running JVM has virtual threads
+     */
+    static boolean available() {
+        return NEW_THREAD_PER_TASK_EXECUTOR != null;
+    }
+
+    /**
+     * @return An executor running each task on a new virtual thread
+     * @throws UnsupportedOperationException Before Java 21
+     */
+    static ExecutorService newThreadPerTaskExecutor() {
+        if (!available()) {
+            throw new UnsupportedOperationException("Virtual threads require Java 21 or later, running " + System.getProperty("java.version"));
+        }
+        try {
+            return (ExecutorService) NEW_THREAD_PER_TASK_EXECUTOR.invokeExact();
+        } catch (final RuntimeException | Error e) {
+            throw e;
+        } catch (final Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,324 @@
+package org.sifrproject.stemming;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Shared, thread-safe and size-bounded cache from the normalized surface form of a token to its final stem. Clinical
+ * text reuses a small vocabulary, so most tokens are stemmed only once instead of running the Snowball program twice
+ * for each occurrence.
+ * <p>
+ * The cache is split into independently locked segments selected by the hash of the surface form. Each segment evicts
+ * either in plain LRU order or, with {@link EvictionPolicy#SEGMENTED_LRU}, keeps the entries hit at least twice in a
+ * protected LRU area so that a scan of rare words (e.g. a long list of drug names) cannot flush the frequent ones.
+ */
+public final class StemCache {
+
+    public static final int DEFAULT_CAPACITY = 1 << 16;
+
+    private static final int MIN_SEGMENT_CAPACITY = 16;
+    private static final double PROTECTED_RATIO = 0.8;
+
+    private static final StemCache SHARED = new StemCache(DEFAULT_CAPACITY, EvictionPolicy.SEGMENTED_LRU);
+
+    public enum EvictionPolicy {
+        LRU,
+        SEGMENTED_LRU;
+
+        /**
+         * @param name "lru" or "slru", case insensitive
+         */
+        public static EvictionPolicy fromName(final String name) {
+            final String lowerCaseName = name.toLowerCase(Locale.ROOT);
+            if (lowerCaseName.equals("lru")) {
+                return LRU;
+            } else if (lowerCaseName.equals("slru") || lowerCaseName.equals("segmented_lru")) {
+                return SEGMENTED_LRU;
+            }
+            throw new IllegalArgumentException("Unknown stem cache eviction policy: " + name);
+        }
+    }
+
+    private final Segment[] segments;
+    private final int segmentMask;
+    private final int capacity;
+    private final EvictionPolicy evictionPolicy;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * @param capacity       Maximum number of cached stems, a capacity of 0 disables the cache
+     * @param evictionPolicy The eviction policy of each segment
+     */
+    public StemCache(final int capacity, final EvictionPolicy evictionPolicy) {
+        this.capacity = capacity;
+        this.evictionPolicy = evictionPolicy;
+        //Enough segments to make contention unlikely, but not so many that each of them becomes too small to be useful
+        int segmentCount = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() * 4));
+        while ((segmentCount > 1) && ((capacity / segmentCount) < MIN_SEGMENT_CAPACITY)) {
+            segmentCount >>= 1;
+        }
+        segmentMask = segmentCount - 1;
+        segments = new Segment[segmentCount];
+        final int segmentCapacity = (capacity + segmentCount - 1) / segmentCount;
+        for (int i = 0; i < segmentCount; i++) {
+            segments[i] = new Segment(segmentCapacity, evictionPolicy);
+        }
+    }
+
+    /**
+     * @return The cache shared by default by the dictionary compiler and the recognizers
+     */
+    public static StemCache shared() {
+        return SHARED;
+    }
+
+    /**
+     * Get the stem of a surface form, computing and caching it on a miss. The stem function is called outside of any
+     * lock, so two threads missing on the same surface form at the same time may both compute its stem.
+     *
+     * @param surfaceForm  The normalized surface form of a token
+     * @param stemFunction Computes the final stem of a surface form, only ever called by the calling thread
+     * @return The final stem
+     */
+    public String get(final String surfaceForm, final Function<String, String> stemFunction) {
+        return get(surfaceForm.toCharArray(), 0, surfaceForm.length(), surfaceForm, stemFunction);
+    }
+
+    /**
+     * Get the stem of the surface form made of {@code chars[offset, offset + length[}. Nothing is allocated on a hit;
+     * on a miss the surface form is copied to a {@link String} that is given to the stem function and cached.
+     */
+    public String get(final char[] chars, final int offset, final int length, final Function<String, String> stemFunction) {
+        return get(chars, offset, length, null, stemFunction);
+    }
+
+    private String get(final char[] chars, final int offset, final int length, final String surfaceForm, final Function<String, String> stemFunction) {
+        final int hash = hash(chars, offset, length);
+        if (capacity == 0) {
+            misses.increment();
+            return stemFunction.apply((surfaceForm == null) ? new String(chars, offset, length) : surfaceForm);
+        }
+        final Segment segment = segments[spread(hash) & segmentMask];
+        String stem = segment.get(chars, offset, length, hash);
+        if (stem == null) {
+            misses.increment();
+            final String key = (surfaceForm == null) ? new String(chars, offset, length) : surfaceForm;
+            stem = stemFunction.apply(key);
+            segment.put(key, stem, hash);
+        } else {
+            hits.increment();
+        }
+        return stem;
+    }
+
+    /**
+     * @return The {@link String#hashCode()} of the surface form
+     */
+    private static int hash(final char[] chars, final int offset, final int length) {
+        int hash = 0;
+        for (int i = offset; i < (offset + length); i++) {
+            hash = (31 * hash) + chars[i];
+        }
+        return hash;
+    }
+
+    private static int spread(final int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    public long hitCount() {
+        return hits.sum();
+    }
+
+    public long missCount() {
+        return misses.sum();
+    }
+
+    public double hitRate() {
+        final long hitCount = hitCount();
+        final long requestCount = hitCount + missCount();
+        return (requestCount == 0) ? 0 : ((double) hitCount / requestCount);
+    }
+
+    public int size() {
+        int size = 0;
+        for (final Segment segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public void clear() {
+        for (final Segment segment : segments) {
+            segment.clear();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "StemCache{policy=%s, capacity=%d, size=%d, hits=%d, misses=%d, hitRate=%.3f}",
+                evictionPolicy, capacity, size(), hitCount(), missCount(), hitRate());
+    }
+
+    private static final class Entry {
+        private final String surfaceForm;
+        private final String stem;
+        private final int hash;
+        //Next entry in the same bucket
+        private Entry chained;
+        //Neighbours in the recency list of the area of the entry
+        private Entry older;
+        private Entry newer;
+        private boolean isProtected;
+
+        private Entry(final String surfaceForm, final String stem, final int hash) {
+            this.surfaceForm = surfaceForm;
+            this.stem = stem;
+            this.hash = hash;
+        }
+
+        private boolean matches(final char[] chars, final int offset, final int length, final int otherHash) {
+            if ((hash != otherHash) || (surfaceForm.length() != length)) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (surfaceForm.charAt(i) != chars[offset + i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Chained hash table whose entries are also linked, from the least to the most recently used, in a probationary
+     * and a protected area. With plain LRU the protected area stays empty; with SLRU a hit in the probationary area
+     * promotes the entry to the protected area, the least recently used protected entry going back to the
+     * probationary area when the protected area is full. Entries are evicted from the probationary area.
+     */
+    private static final class Segment {
+        private final Entry[] buckets;
+        private final Entry probation = newArea();
+        private final Entry protectedArea = newArea();
+        private final int probationCapacity;
+        private final int protectedCapacity;
+        private int probationSize;
+        private int protectedSize;
+
+        private Segment(final int capacity, final EvictionPolicy evictionPolicy) {
+            protectedCapacity = (evictionPolicy == EvictionPolicy.SEGMENTED_LRU) ? (int) (capacity * PROTECTED_RATIO) : 0;
+            probationCapacity = Math.max(1, capacity - protectedCapacity);
+            buckets = new Entry[Integer.highestOneBit(Math.max(1, capacity) * 2)];
+        }
+
+        /**
+         * @return A sentinel, the head of an empty circular list
+         */
+        private static Entry newArea() {
+            final Entry sentinel = new Entry(null, null, 0);
+            sentinel.older = sentinel;
+            sentinel.newer = sentinel;
+            return sentinel;
+        }
+
+        private synchronized String get(final char[] chars, final int offset, final int length, final int hash) {
+            Entry entry = buckets[spread(hash) & (buckets.length - 1)];
+            while ((entry != null) && !entry.matches(chars, offset, length, hash)) {
+                entry = entry.chained;
+            }
+            if (entry == null) {
+                return null;
+            }
+            unlink(entry);
+            if (entry.isProtected || (protectedCapacity == 0)) {
+                append(entry.isProtected ? protectedArea : probation, entry);
+            } else {
+                probationSize--;
+                entry.isProtected = true;
+                append(protectedArea, entry);
+                protectedSize++;
+                if (protectedSize > protectedCapacity) {
+                    final Entry demoted = protectedArea.newer;
+                    unlink(demoted);
+                    protectedSize--;
+                    demoted.isProtected = false;
+                    addToProbation(demoted);
+                }
+            }
+            return entry.stem;
+        }
+
+        private synchronized void put(final String surfaceForm, final String stem, final int hash) {
+            final int bucket = spread(hash) & (buckets.length - 1);
+            for (Entry entry = buckets[bucket]; entry != null; entry = entry.chained) {
+                if ((entry.hash == hash) && entry.surfaceForm.equals(surfaceForm)) {
+                    return;
+                }
+            }
+            final Entry entry = new Entry(surfaceForm, stem, hash);
+            entry.chained = buckets[bucket];
+            buckets[bucket] = entry;
+            addToProbation(entry);
+        }
+
+        private void addToProbation(final Entry entry) {
+            append(probation, entry);
+            probationSize++;
+            if (probationSize > probationCapacity) {
+                final Entry evicted = probation.newer;
+                unlink(evicted);
+                probationSize--;
+                removeFromBucket(evicted);
+            }
+        }
+
+        private void removeFromBucket(final Entry evicted) {
+            final int bucket = spread(evicted.hash) & (buckets.length - 1);
+            if (buckets[bucket] == evicted) {
+                buckets[bucket] = evicted.chained;
+            } else {
+                Entry previous = buckets[bucket];
+                while (previous.chained != evicted) {
+                    previous = previous.chained;
+                }
+                previous.chained = evicted.chained;
+            }
+        }
+
+        private static void unlink(final Entry entry) {
+            entry.older.newer = entry.newer;
+            entry.newer.older = entry.older;
+        }
+
+        /**
+         * Insert the entry as the most recently used of an area
+         */
+        private static void append(final Entry area, final Entry entry) {
+            entry.older = area.older;
+            entry.newer = area;
+            area.older.newer = entry;
+            area.older = entry;
+        }
+
+        private synchronized int size() {
+            return probationSize + protectedSize;
+        }
+
+        private synchronized void clear() {
+            Arrays.fill(buckets, null);
+            for (final Entry area : new Entry[]{probation, protectedArea}) {
+                area.older = area;
+                area.newer = area;
+            }
+            probationSize = 0;
+            protectedSize = 0;
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package org.sifrproject.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.sifrproject.recognizer.AnnotationToken;
+import org.sifrproject.recognizer.ConceptRecognizer;
+import org.sifrproject.recognizer.FaironConceptRecognizer;
+import org.sifrproject.recognizer.cache.AnnotationCache;
+import org.sifrproject.server.ClinicalRecognizerServer;
+import org.sifrproject.stemming.StemCache;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Annotations of the lines of the reference corpus recognized by a {@link FaironConceptRecognizer} against the same
+ * annotations decoded from a warm {@link AnnotationCache}, which is what a repeated text costs.
+ * <p>
+ * Run with: {@code mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=org.openjdk.jmh.Main -Dexec.args=AnnotationCacheBenchmark}
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AnnotationCacheBenchmark {
+
+    private static final String REFERENCE_CORPUS = "reference_corpus.fr.txt";
+    private static final long BYTE_BUDGET = 1 << 24;
+
+    private ConceptRecognizer recognizer;
+    private AnnotationCache annotationCache;
+    private List<String> texts;
+    private int next;
+
+    @Setup
+    public void setUp() throws IOException {
+        recognizer = new FaironConceptRecognizer(
+                AnnotationCacheBenchmark.class.getClassLoader().getResourceAsStream(ClinicalRecognizerServer.DICTIONARY_DEFAULT_NAME));
+        annotationCache = new AnnotationCache(BYTE_BUDGET, StemCache.EvictionPolicy.SEGMENTED_LRU, AnnotationCache.AdmissionPolicy.ALWAYS);
+        texts = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                AnnotationCacheBenchmark.class.getClassLoader().getResourceAsStream(REFERENCE_CORPUS), StandardCharsets.UTF_8))) {
+            String line = reader.readLine();
+            while (line != null) {
+                texts.add(line);
+                annotationCache.get(line, false, text -> recognizer.recognize(text, false));
+                line = reader.readLine();
+            }
+        }
+    }
+
+    @Benchmark
+    public List<AnnotationToken> recognize() {
+        return recognizer.recognize(nextText(), false);
+    }
+
+    @Benchmark
+    public List<AnnotationToken> cacheHit() {
+        return annotationCache.get(nextText(), false, text -> recognizer.recognize(text, false));
+    }
+
+    private String nextText() {
+        next = (next + 1) % texts.size();
+        return texts.get(next);
+    }
+}
@@ -0,0 +1,87 @@
+package org.sifrproject.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.sifrproject.recognizer.AnnotationToken;
+import org.sifrproject.recognizer.ConceptRecognizer;
+import org.sifrproject.recognizer.FaironConceptRecognizer;
+import org.sifrproject.server.ClinicalRecognizerServer;
+import org.sifrproject.server.MgrepReplyEncoder;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding of mgrep replies by the {@link MgrepReplyEncoder} against the path it replaced, each annotation formatted
+ * by {@link AnnotationToken#toString()} and written through a {@link PrintWriter} over an {@link OutputStreamWriter},
+ * flushed once per reply. The replies are the annotations of the lines of the reference corpus, the bytes are thrown
+ * away so that only encoding is measured. Run with {@code -prof gc} to compare allocation rates.
+ * <p>
+ * Run with: {@code mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=org.openjdk.jmh.Main -Dexec.args=MgrepReplyBenchmark}
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MgrepReplyBenchmark {
+
+    private static final String REFERENCE_CORPUS = "reference_corpus.fr.txt";
+
+    private List<List<AnnotationToken>> replies;
+    private OutputStream sink;
+    private PrintWriter outputWriter;
+    private MgrepReplyEncoder encoder;
+    private int next;
+
+    @Setup
+    public void setUp() throws IOException {
+        final ConceptRecognizer recognizer = new FaironConceptRecognizer(
+                MgrepReplyBenchmark.class.getClassLoader().getResourceAsStream(ClinicalRecognizerServer.DICTIONARY_DEFAULT_NAME));
+        replies = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                MgrepReplyBenchmark.class.getClassLoader().getResourceAsStream(REFERENCE_CORPUS), StandardCharsets.UTF_8))) {
+            String line = reader.readLine();
+            while (line != null) {
+                final List<AnnotationToken> annotations = recognizer.recognize(line, false);
+                if (!annotations.isEmpty()) {
+                    replies.add(annotations);
+                }
+                line = reader.readLine();
+            }
+        }
+        sink = new OutputStream() {
+            @Override
+            public void write(final int b) {
+            }
+
+            @Override
+            public void write(final byte[] b, final int off, final int len) {
+            }
+        };
+        outputWriter = new PrintWriter(new OutputStreamWriter(sink, StandardCharsets.UTF_8));
+        encoder = new MgrepReplyEncoder();
+    }
+
+    @Benchmark
+    public void printWriter() {
+        for (final AnnotationToken token : nextReply()) {
+            outputWriter.println(token);
+        }
+        outputWriter.println();
+        outputWriter.flush();
+    }
+
+    @Benchmark
+    public void encoder() throws IOException {
+        encoder.encode(nextReply()).writeTo(sink);
+    }
+
+    private List<AnnotationToken> nextReply() {
+        next = (next + 1) % replies.size();
+        return replies.get(next);
+    }
+}
@@ -0,0 +1,98 @@
+package org.sifrproject.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.sifrproject.recognizer.DictionaryCompiler;
+import org.sifrproject.recognizer.index.StemLexicon;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stem lookup latency of the {@link StemLexicon} transducer against the {@link HashMap} it replaced. The vocabulary is
+ * that of the dictionary given with {@code -p dictionaryPath=...}, or a synthetic one by default.
+ * <p>
+ * Run with: {@code mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=org.openjdk.jmh.Main -Dexec.args=StemLexiconBenchmark}
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StemLexiconBenchmark {
+
+    private static final Logger logger = LoggerFactory.getLogger(StemLexiconBenchmark.class);
+    private static final long SEED = 42L;
+    private static final int SYNTHETIC_VOCABULARY_SIZE = 300000;
+    private static final int QUERY_COUNT = 4096;
+    private static final String[] ROOTS = {"cardi", "pneum", "hepat", "nephr", "neur", "gastr", "derm", "oste", "arthr", "my", "hem", "lymph"};
+    private static final String[] SUFFIXES = {"", "it", "olog", "opath", "ectom", "algi", "om", "osclerot", "ograph", "ostom"};
+
+    @Param("")
+    public String dictionaryPath;
+
+    private Map<String, Integer> hashMap;
+    private StemLexicon stemLexicon;
+    private String[] queries;
+    private int next;
+
+    @Setup
+    public void setUp() throws IOException {
+        final String[] stems = dictionaryPath.isEmpty() ? syntheticVocabulary() : dictionaryVocabulary();
+        hashMap = new HashMap<>();
+        for (int i = 0; i < stems.length; i++) {
+            hashMap.put(stems[i], i);
+        }
+        stemLexicon = StemLexicon.build(stems);
+        logger.info("{} stems, {} states, {} arcs", stemLexicon.size(), stemLexicon.stateCount(), stemLexicon.arcCount());
+
+        //Nine hits for one miss, as in clinical text where most tokens are dictionary words
+        final Random random = new Random(SEED);
+        queries = new String[QUERY_COUNT];
+        for (int i = 0; i < QUERY_COUNT; i++) {
+            final String stem = stems[random.nextInt(stems.length)];
+            queries[i] = ((i % 10) == 0) ? (stem + "x") : new String(stem.toCharArray());
+        }
+    }
+
+    @Benchmark
+    public int hashMapLookup() {
+        final Integer ordinal = hashMap.get(nextQuery());
+        return (ordinal == null) ? -1 : ordinal;
+    }
+
+    @Benchmark
+    public int stemLexiconLookup() {
+        return stemLexicon.ordinal(nextQuery());
+    }
+
+    private String nextQuery() {
+        next = (next + 1) & (QUERY_COUNT - 1);
+        return queries[next];
+    }
+
+    private String[] dictionaryVocabulary() throws IOException {
+        final Set<String> vocabulary = new TreeSet<>();
+        try (InputStream dictionaryStream = Files.newInputStream(Paths.get(dictionaryPath))) {
+            new DictionaryCompiler().readLabels(dictionaryStream, (conceptId, labelStems) -> vocabulary.addAll(labelStems));
+        }
+        return vocabulary.toArray(new String[vocabulary.size()]);
+    }
+
+    private static String[] syntheticVocabulary() {
+        final Random random = new Random(SEED);
+        final Set<String> vocabulary = new TreeSet<>();
+        while (vocabulary.size() < SYNTHETIC_VOCABULARY_SIZE) {
+            vocabulary.add(ROOTS[random.nextInt(ROOTS.length)] + ROOTS[random.nextInt(ROOTS.length)]
+                    + (char) ('a' + random.nextInt(26)) + (char) ('a' + random.nextInt(26))
+                    + SUFFIXES[random.nextInt(SUFFIXES.length)]);
+        }
+        return vocabulary.toArray(new String[vocabulary.size()]);
+    }
+}
@@ -0,0 +1,105 @@
+package org.sifrproject.recognizer;
+
+import junit.framework.TestCase;
+import org.sifrproject.server.ClinicalRecognizerServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Parity test of the Aho-Corasick engine against the Fairon engine on a reference corpus. The disagreements between
+ * the two engines are logged, and the known kinds of disagreement are checked on a few lines of the corpus.
+ */
+@SuppressWarnings("PublicMethodNotExposedInInterface")
+public class AhoCorasickConceptRecognizerTest extends TestCase {
+
+    private static final Logger logger = LoggerFactory.getLogger(AhoCorasickConceptRecognizerTest.class);
+    private static final String REFERENCE_CORPUS = "reference_corpus.fr.txt";
+
+    private final ConceptRecognizer faironRecognizer;
+    private final ConceptRecognizer automatonRecognizer;
+
+    public AhoCorasickConceptRecognizerTest() {
+        faironRecognizer = new FaironConceptRecognizer(AhoCorasickConceptRecognizerTest.class.getClassLoader().getResourceAsStream(ClinicalRecognizerServer.DICTIONARY_DEFAULT_NAME));
+        automatonRecognizer = new AhoCorasickConceptRecognizer(AhoCorasickConceptRecognizerTest.class.getClassLoader().getResourceAsStream(ClinicalRecognizerServer.DICTIONARY_DEFAULT_NAME));
+    }
+
+    public void testRecognize_parityWithFairon() throws IOException {
+        final List<String> corpus = loadCorpus();
+        int agreements = 0;
+        for (int line = 0; line < corpus.size(); line++) {
+            final Set<String> fairon = describe(faironRecognizer.recognize(corpus.get(line), false));
+            final Set<String> automaton = describe(automatonRecognizer.recognize(corpus.get(line), false));
+            final Set<String> onlyFairon = new TreeSet<>(fairon);
+            onlyFairon.removeAll(automaton);
+            final Set<String> onlyAutomaton = new TreeSet<>(automaton);
+            onlyAutomaton.removeAll(fairon);
+            fairon.retainAll(automaton);
+            agreements += fairon.size();
+            logger.info("Line {}: {} common, only Fairon {}, only Aho-Corasick {}", line, fairon.size(), onlyFairon, onlyAutomaton);
+        }
+        assertTrue(agreements > 0);
+    }
+
+    public void testRecognize_orderedLabelsAgree() {
+        //Ordered labels with interleaved stop words are found by both engines
+        final String text = "traiter la sclérose en plaques , troubles de la marche";
+        final Set<String> fairon = describe(faironRecognizer.recognize(text, false));
+        final Set<String> automaton = describe(automatonRecognizer.recognize(text, false));
+        assertTrue(automaton.containsAll(fairon));
+        assertTrue(automaton.contains("1002\t12\t30"));
+        assertTrue(automaton.contains("1004\t34\t54"));
+    }
+
+    public void testRecognize_nestedMatchesOnlyFromAutomaton() {
+        //Fairon only keeps the maximal extension from each start token, the automaton reports nested labels too
+        final String text = "insuffisance rénale aiguë";
+        final Set<String> fairon = describe(faironRecognizer.recognize(text, false));
+        final Set<String> automaton = describe(automatonRecognizer.recognize(text, false));
+        assertFalse(fairon.contains("1022\t1\t19"));
+        assertTrue(automaton.contains("1022\t1\t19"));
+        assertTrue(automaton.containsAll(fairon));
+    }
+
+    public void testRecognize_unorderedMatchesOnlyFromFairon() {
+        //Fairon matches the bag of stems of a label, the automaton requires them in order
+        final String text = "plaques en sclérose";
+        assertTrue(describe(faironRecognizer.recognize(text, false)).contains("1002\t1\t19"));
+        assertFalse(describe(automatonRecognizer.recognize(text, false)).contains("1002\t1\t19"));
+    }
+
+    public void testRecognize_terminationTermsInterruptMatches() {
+        final String text = "insuffisance et rénale";
+        assertFalse(describe(automatonRecognizer.recognize(text, false)).contains("1022\t1\t22"));
+        assertFalse(describe(faironRecognizer.recognize(text, false)).contains("1022\t1\t22"));
+    }
+
+    private static Set<String> describe(final Iterable<AnnotationToken> annotations) {
+        final Set<String> descriptions = new TreeSet<>();
+        for (final AnnotationToken annotation : annotations) {
+            descriptions.add(String.format("%d\t%d\t%d", annotation.getConceptId(), annotation.getStart(), annotation.getEnd()));
+        }
+        return descriptions;
+    }
+
+    static List<String> loadCorpus() throws IOException {
+        final List<String> corpus = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                AhoCorasickConceptRecognizerTest.class.getClassLoader().getResourceAsStream(REFERENCE_CORPUS), StandardCharsets.UTF_8))) {
+            String line = reader.readLine();
+            while (line != null) {
+                corpus.add(line);
+                line = reader.readLine();
+            }
+        }
+        return corpus;
+    }
+}
@@ -0,0 +1,63 @@
+package org.sifrproject.recognizer;
+
+import junit.framework.TestCase;
+import org.sifrproject.server.ClinicalRecognizerServer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Stress test of recognizers shared by several threads without any lock: every thread must get exactly the output of
+ * a single-threaded run over the same texts.
+ */
+@SuppressWarnings("PublicMethodNotExposedInInterface")
+public class ConcurrentRecognitionTest extends TestCase {
+
+    private static final int THREADS = 8;
+    private static final int ROUNDS = 200;
+
+    public void testRecognize_faironConcurrentMatchesSequential() throws IOException, InterruptedException, ExecutionException {
+        assertConcurrentMatchesSequential(new FaironConceptRecognizer(ConcurrentRecognitionTest.class.getClassLoader().getResourceAsStream(ClinicalRecognizerServer.DICTIONARY_DEFAULT_NAME)));
+    }
+
+    public void testRecognize_ahoCorasickConcurrentMatchesSequential() throws IOException, InterruptedException, ExecutionException {
+        assertConcurrentMatchesSequential(new AhoCorasickConceptRecognizer(ConcurrentRecognitionTest.class.getClassLoader().getResourceAsStream(ClinicalRecognizerServer.DICTIONARY_DEFAULT_NAME)));
+    }
+
+    private static void assertConcurrentMatchesSequential(final ConceptRecognizer recognizer) throws IOException, InterruptedException, ExecutionException {
+        final List<String> corpus = AhoCorasickConceptRecognizerTest.loadCorpus();
+        final List<String> expected = new ArrayList<>();
+        for (final String text : corpus) {
+            expected.add(recognizer.recognize(text, false).toString());
+        }
+
+        final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            final CountDownLatch start = new CountDownLatch(1);
+            final List<Future<String>> mismatches = new ArrayList<>();
+            for (int thread = 0; thread < THREADS; thread++) {
+                final int offset = thread;
+                mismatches.add(executor.submit(() -> {
+                    start.await();
+                    //Each thread walks the corpus from a different line so that different texts run at the same time
+                    for (int round = 0; round < ROUNDS; round++) {
+                        final int line = (round + offset) % corpus.size();
+                        final String actual = recognizer.recognize(corpus.get(line), false).toString();
+                        if (!actual.equals(expected.get(line))) {
+                            return "line " + line + ": " + actual;
+                        }
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (final Future<String> mismatch : mismatches) {
+                assertNull(mismatch.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
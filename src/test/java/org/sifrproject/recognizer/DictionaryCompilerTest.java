@@ -0,0 +1,91 @@
+package org.sifrproject.recognizer;
+
+import junit.framework.TestCase;
+import org.sifrproject.recognizer.index.ArrayConceptIndex;
+import org.sifrproject.recognizer.index.ConceptIndex;
+import org.sifrproject.recognizer.index.ConceptIndexSnapshot;
+import org.sifrproject.recognizer.index.MappedConceptIndex;
+import org.sifrproject.server.ClinicalRecognizerServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+@SuppressWarnings("PublicMethodNotExposedInInterface")
+public class DictionaryCompilerTest extends TestCase {
+
+    private static final String TEXT = "Le patient présente une insuffisance rénale aiguë et une sclérose en plaques progressive";
+
+    private Path directory;
+    private Path dictionaryPath;
+    private Path snapshotPath;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        directory = Files.createTempDirectory("bpclinrec");
+        dictionaryPath = directory.resolve(ClinicalRecognizerServer.DICTIONARY_DEFAULT_NAME);
+        try (InputStream dictionaryStream = DictionaryCompilerTest.class.getClassLoader().getResourceAsStream(ClinicalRecognizerServer.DICTIONARY_DEFAULT_NAME)) {
+            Files.copy(dictionaryStream, dictionaryPath);
+        }
+        snapshotPath = DictionaryCompiler.defaultSnapshotPath(dictionaryPath);
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        Files.deleteIfExists(snapshotPath);
+        Files.deleteIfExists(dictionaryPath);
+        Files.deleteIfExists(directory);
+        super.tearDown();
+    }
+
+    public void testLoadOrCompile_snapshotMatchesTextDictionary() throws IOException {
+        final DictionaryCompiler compiler = new DictionaryCompiler();
+        final ConceptIndex compiled = compiler.loadOrCompile(dictionaryPath, snapshotPath);
+        assertTrue(Files.exists(snapshotPath));
+
+        final ConceptIndex loaded = compiler.loadOrCompile(dictionaryPath, snapshotPath);
+        assertEquals(compiled.conceptCount(), loaded.conceptCount());
+        assertEquals(compiled.stemCount(), loaded.stemCount());
+        assertEquals(describe(new FaironConceptRecognizer(compiled)), describe(new FaironConceptRecognizer(loaded)));
+    }
+
+    public void testLoadOrCompile_staleSnapshotIsRebuilt() throws IOException {
+        final DictionaryCompiler compiler = new DictionaryCompiler();
+        compiler.loadOrCompile(dictionaryPath, snapshotPath);
+        final long checksum = DictionaryCompiler.sourceChecksum(dictionaryPath);
+        assertTrue(ConceptIndexSnapshot.isCurrent(snapshotPath, checksum));
+
+        Files.write(dictionaryPath, "2001\tPlaques\n".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+        final long updatedChecksum = DictionaryCompiler.sourceChecksum(dictionaryPath);
+        assertFalse(ConceptIndexSnapshot.isCurrent(snapshotPath, updatedChecksum));
+
+        final ConceptIndex rebuilt = compiler.loadOrCompile(dictionaryPath, snapshotPath);
+        //The new single token concept comes last among the concepts of length 1
+        assertEquals(2001L, rebuilt.conceptId(rebuilt.firstConceptOfLength(2) - 1));
+        assertTrue(ConceptIndexSnapshot.isCurrent(snapshotPath, updatedChecksum));
+    }
+
+    public void testMappedIndex_matchesHeapIndex() throws IOException {
+        final DictionaryCompiler compiler = new DictionaryCompiler();
+        compiler.ensureSnapshot(dictionaryPath, snapshotPath);
+        final ArrayConceptIndex heapIndex = ConceptIndexSnapshot.read(snapshotPath);
+        final ConceptIndex mappedIndex = MappedConceptIndex.open(snapshotPath);
+
+        assertEquals(heapIndex.maxPostingCount(), mappedIndex.maxPostingCount());
+        assertEquals(describe(new FaironConceptRecognizer(heapIndex)), describe(new FaironConceptRecognizer(mappedIndex)));
+    }
+
+    private static List<String> describe(final ConceptRecognizer conceptRecognizer) {
+        final List<String> annotations = new ArrayList<>();
+        for (final AnnotationToken annotationToken : conceptRecognizer.recognize(TEXT, false)) {
+            annotations.add(annotationToken.toString());
+        }
+        return annotations;
+    }
+}
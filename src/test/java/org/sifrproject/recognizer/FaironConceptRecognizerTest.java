@@ -1,11 +1,15 @@
 package org.sifrproject.recognizer;
 
 import junit.framework.TestCase;
+import org.sifrproject.recognizer.index.ConceptIndex;
 import org.sifrproject.server.ClinicalRecognizerServer;
+import org.sifrproject.stemming.StemCache;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 @SuppressWarnings("PublicMethodNotExposedInInterface")
 public class FaironConceptRecognizerTest extends TestCase {
@@ -15,6 +19,11 @@ public class FaironConceptRecognizerTest extends TestCase {
     private static final String TEXT_2 = "   QU ’ EST-CE QUE TYSABRI ET DANS QUEL CAS EST-IL UTILISE   TYSABRI est utilisé pour traiter la sclérose en plaques ( SEP ).   Les symptômes de SEP peuvent varier d ’ un patient à l ’ autre et il est possible que vous ne présentiez aucun des symptômes décrits ici , notamment : troubles de la marche , engourdissement du visage , des bras ou des jambes";
     private static final int CAS_START = 41;
     private static final int CAS_END = 43;
+    private static final String STOP_WORDS_TEXT = "insuffisance de la de la rénale";
+    private static final long STOP_WORDS_CONCEPT = 1022L;
+    private static final int ADVERSARIAL_REPEATS = 2000;
+    private static final int LARGE_DOCUMENT_REPEATS = 200;
+    private static final int[] SEGMENT_TOKENS = {1, 5, 64, 1000};
 
     private final ConceptRecognizer conceptRecognizer;
 
@@ -49,4 +58,68 @@ public class FaironConceptRecognizerTest extends TestCase {
             }
         }
     }
-}
\ No newline at end of file
+
+    public void testRecognize_boundsSkippedStopWords() throws IOException {
+        final ConceptIndex conceptIndex = compileDictionary();
+        final ConceptRecognizer defaultRecognizer = new FaironConceptRecognizer(conceptIndex, new StemCache(0, StemCache.EvictionPolicy.LRU));
+        final ConceptRecognizer strictRecognizer = new FaironConceptRecognizer(conceptIndex, new StemCache(0, StemCache.EvictionPolicy.LRU), 2);
+        assertTrue(containsConcept(defaultRecognizer.recognize(STOP_WORDS_TEXT, false), STOP_WORDS_CONCEPT));
+        assertFalse(containsConcept(strictRecognizer.recognize(STOP_WORDS_TEXT, false), STOP_WORDS_CONCEPT));
+    }
+
+    public void testRecognize_parallelSegmentsSameAsSequential() throws IOException {
+        final FaironConceptRecognizer recognizer = new FaironConceptRecognizer(compileDictionary(), new StemCache(StemCache.DEFAULT_CAPACITY, StemCache.EvictionPolicy.LRU));
+        final StringBuilder document = new StringBuilder();
+        for (int i = 0; i < LARGE_DOCUMENT_REPEATS; i++) {
+            document.append(TEXT_2).append(' ').append(STOP_WORDS_TEXT).append(' ');
+        }
+        final ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            for (final boolean longestOnly : new boolean[]{false, true}) {
+                final String sequential = recognizer.recognize(document.toString(), longestOnly).toString();
+                for (final int segmentTokens : SEGMENT_TOKENS) {
+                    final ConceptRecognizer segmented = recognizer.withParallelSegments(pool, segmentTokens);
+                    assertEquals(sequential, segmented.recognize(document.toString(), longestOnly).toString());
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    public void testRecognize_adversarialInputStaysLinear() throws IOException {
+        final ConceptIndex conceptIndex = compileDictionary();
+        //Repeating stems shared by many concepts, with or without stop words, used to extend the match from every
+        //start token to the end of the text. We count stem lookups, each of them followed by an intersection
+        for (final String repeated : new String[]{"sclérose ", "sclérose de la ", "maladie de "}) {
+            final long shortTextLookups = countStemLookups(conceptIndex, repeated, ADVERSARIAL_REPEATS);
+            final long longTextLookups = countStemLookups(conceptIndex, repeated, ADVERSARIAL_REPEATS * 4);
+            assertTrue(repeated + shortTextLookups + " " + longTextLookups, longTextLookups <= (shortTextLookups * 5));
+            assertTrue(repeated + shortTextLookups, shortTextLookups <= ((long) ADVERSARIAL_REPEATS * (conceptIndex.maxConceptLength() + 2)));
+        }
+    }
+
+    private static long countStemLookups(final ConceptIndex conceptIndex, final String repeated, final int repeats) {
+        final StemCache stemCache = new StemCache(StemCache.DEFAULT_CAPACITY, StemCache.EvictionPolicy.LRU);
+        final ConceptRecognizer recognizer = new FaironConceptRecognizer(conceptIndex, stemCache);
+        final StringBuilder text = new StringBuilder();
+        for (int i = 0; i < repeats; i++) {
+            text.append(repeated);
+        }
+        recognizer.recognize(text.toString(), false);
+        return stemCache.hitCount() + stemCache.missCount();
+    }
+
+    private static ConceptIndex compileDictionary() throws IOException {
+        return new DictionaryCompiler().compile(FaironConceptRecognizerTest.class.getClassLoader().getResourceAsStream(ClinicalRecognizerServer.DICTIONARY_DEFAULT_NAME));
+    }
+
+    private static boolean containsConcept(final List<AnnotationToken> annotations, final long conceptId) {
+        for (final AnnotationToken annotation : annotations) {
+            if (annotation.getConceptId() == conceptId) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
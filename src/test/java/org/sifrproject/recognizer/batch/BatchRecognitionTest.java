@@ -0,0 +1,91 @@
+package org.sifrproject.recognizer.batch;
+
+import junit.framework.TestCase;
+import org.sifrproject.recognizer.AnnotationToken;
+import org.sifrproject.recognizer.ConceptRecognizer;
+import org.sifrproject.recognizer.FaironConceptRecognizer;
+import org.sifrproject.server.ClinicalRecognizerServer;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
+
+@SuppressWarnings("PublicMethodNotExposedInInterface")
+public class BatchRecognitionTest extends TestCase {
+
+    private static final String REFERENCE_CORPUS = "reference_corpus.fr.txt";
+    private static final int BATCH_SIZE = 5000;
+    private static final int WORKERS = 4;
+
+    private final ConceptRecognizer recognizer;
+    private final List<String> batch = new ArrayList<>();
+
+    public BatchRecognitionTest() throws IOException {
+        recognizer = new FaironConceptRecognizer(BatchRecognitionTest.class.getClassLoader().getResourceAsStream(ClinicalRecognizerServer.DICTIONARY_DEFAULT_NAME));
+        final List<String> corpus = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(BatchRecognitionTest.class.getClassLoader().getResourceAsStream(REFERENCE_CORPUS), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                corpus.add(line);
+            }
+        }
+        corpus.add("");
+        //Documents of uneven length, each tagged so that a misplaced result shows
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            batch.add(i + " " + corpus.get(i % corpus.size()));
+        }
+    }
+
+    public void testRecognizeBatch_sameAsSequentialInInputOrder() {
+        final ForkJoinPool pool = new ForkJoinPool(WORKERS);
+        try {
+            for (final boolean longestOnly : new boolean[]{false, true}) {
+                assertEquals(sequential(longestOnly), describe(recognizer.recognizeBatch(batch, longestOnly, pool)));
+            }
+        } finally {
+            pool.shutdown();
+        }
+        assertEquals(Collections.emptyList(), recognizer.recognizeBatch(Collections.<String>emptyList(), false));
+    }
+
+    public void testRecognizeBatch_spliteratorKeepsOrderInParallelStream() throws ExecutionException, InterruptedException {
+        final ForkJoinPool pool = new ForkJoinPool(WORKERS);
+        try {
+            final List<List<AnnotationToken>> annotations = pool.submit(() ->
+                    StreamSupport.stream(recognizer.recognizeBatch(batch.spliterator(), false), true)
+                            .collect(Collectors.toList())).get();
+            assertEquals(sequential(false), describe(annotations));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private List<String> sequential(final boolean longestOnly) {
+        final List<List<AnnotationToken>> annotations = new ArrayList<>();
+        for (final String text : batch) {
+            annotations.add(recognizer.recognize(text, longestOnly));
+        }
+        return describe(annotations);
+    }
+
+    private static List<String> describe(final List<List<AnnotationToken>> annotations) {
+        final List<String> descriptions = new ArrayList<>();
+        for (final List<AnnotationToken> documentAnnotations : annotations) {
+            final StringBuilder description = new StringBuilder();
+            for (final AnnotationToken annotation : documentAnnotations) {
+                description.append(annotation.getStart()).append('-').append(annotation.getEnd()).append(':')
+                        .append(annotation.getConceptId()).append(':').append(annotation.getText()).append(' ');
+            }
+            descriptions.add(description.toString());
+        }
+        return descriptions;
+    }
+}
@@ -0,0 +1,169 @@
+package org.sifrproject.recognizer.cache;
+
+import junit.framework.TestCase;
+import org.sifrproject.recognizer.AnnotationToken;
+import org.sifrproject.recognizer.ConceptRecognizer;
+import org.sifrproject.recognizer.FaironConceptRecognizer;
+import org.sifrproject.recognizer.cache.AnnotationCache.AdmissionPolicy;
+import org.sifrproject.server.ClinicalRecognizerServer;
+import org.sifrproject.stemming.StemCache.EvictionPolicy;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@SuppressWarnings("PublicMethodNotExposedInInterface")
+public class AnnotationCacheTest extends TestCase {
+
+    private static final String REFERENCE_CORPUS = "reference_corpus.fr.txt";
+    private static final long BUDGET = 1 << 20;
+    private static final long SMALL_BUDGET = 1 << 16;
+    private static final int SCANNED_TEXTS = 5000;
+    private static final int THUE_MORSE_LENGTH = 1 << 12;
+    private static final String TEXT = "traiter la sclérose en plaques ( SEP ) et une insuffisance rénale aiguë";
+
+    private final ConceptRecognizer recognizer;
+    private final List<String> corpus = new ArrayList<>();
+
+    public AnnotationCacheTest() throws IOException {
+        recognizer = new FaironConceptRecognizer(AnnotationCacheTest.class.getClassLoader().getResourceAsStream(ClinicalRecognizerServer.DICTIONARY_DEFAULT_NAME));
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                AnnotationCacheTest.class.getClassLoader().getResourceAsStream(REFERENCE_CORPUS), StandardCharsets.UTF_8))) {
+            String line = reader.readLine();
+            while (line != null) {
+                corpus.add(line);
+                line = reader.readLine();
+            }
+        }
+    }
+
+    public void testGet_hitsGiveRecognizedAnnotations() {
+        final AnnotationCache annotationCache = new AnnotationCache(BUDGET * 16, EvictionPolicy.SEGMENTED_LRU, AdmissionPolicy.ALWAYS);
+        for (final boolean longestOnly : new boolean[]{false, true}) {
+            for (final String text : corpus) {
+                final List<AnnotationToken> expected = recognizer.recognize(text, longestOnly);
+                assertEquals(describe(expected), describe(annotationCache.get(text, longestOnly, uncachedText -> recognizer.recognize(uncachedText, longestOnly))));
+                assertEquals(describe(expected), describe(annotationCache.get(text, longestOnly, uncachedText -> {
+                    throw new AssertionError("Cached text recognized again: " + uncachedText);
+                })));
+            }
+        }
+        assertEquals(annotationCache.missCount(), annotationCache.hitCount());
+        assertEquals(0.5, annotationCache.hitRate(), 0);
+        assertEquals(0, annotationCache.evictionCount());
+    }
+
+    public void testEncode_keepsAnnotationsOfAnyShape() {
+        final String text = "sclérose en plaques 😷";
+        final List<AnnotationToken> annotations = Arrays.asList(
+                AnnotationToken.create(1, 19, "sclérose en plaques", 42L, 3),
+                AnnotationToken.create(1, 19, "sclérose en plaques", 43L, 3),
+                AnnotationToken.create(13, 19, "not the span 😷", Long.MIN_VALUE, 1),
+                AnnotationToken.create(0, 200, null, null, 0),
+                AnnotationToken.create(21, 22, "😷", Long.MAX_VALUE, Integer.MAX_VALUE),
+                AnnotationToken.create(5, 3, "", -7L, 2));
+        final byte[] encoded = AnnotationCache.encode(annotations, text);
+        final List<AnnotationToken> decoded = AnnotationCache.decode(encoded, text);
+        assertEquals(describe(annotations), describe(decoded));
+        //Annotations of the same span share their text
+        assertSame(decoded.get(0).getText(), decoded.get(1).getText());
+        assertTrue(AnnotationCache.decode(AnnotationCache.encode(Collections.emptyList(), text), text).isEmpty());
+    }
+
+    public void testKey_distinguishesThueMorseComplements() {
+        //A Thue-Morse string and its complement collide under polynomial hashes modulo 2^64
+        final StringBuilder thueMorse = new StringBuilder();
+        final StringBuilder complement = new StringBuilder();
+        for (int i = 0; i < THUE_MORSE_LENGTH; i++) {
+            final boolean odd = (Integer.bitCount(i) % 2) == 1;
+            thueMorse.append(odd ? 'b' : 'a');
+            complement.append(odd ? 'a' : 'b');
+        }
+        assertFalse(AnnotationCache.key(thueMorse.toString(), false).equals(AnnotationCache.key(complement.toString(), false)));
+        assertFalse(AnnotationCache.key(thueMorse.toString(), false).equals(AnnotationCache.key(thueMorse.toString(), true)));
+        assertEquals(AnnotationCache.key(thueMorse.toString(), true), AnnotationCache.key(thueMorse.toString(), true));
+        final Set<AnnotationCache.Key> keys = new HashSet<>();
+        for (final String text : new LinkedHashSet<>(corpus)) {
+            assertTrue(text, keys.add(AnnotationCache.key(text, false)));
+        }
+    }
+
+    public void testAdmission_cachesRepeatedTexts() {
+        final AnnotationCache annotationCache = new AnnotationCache(BUDGET);
+        final AtomicInteger recognitions = new AtomicInteger();
+        for (int i = 0; i < 3; i++) {
+            annotationCache.get(TEXT, false, text -> {
+                recognitions.incrementAndGet();
+                return recognizer.recognize(text, false);
+            });
+        }
+        //Seen once, recognized and cached the second time, then read from the cache
+        assertEquals(2, recognitions.get());
+        assertEquals(1, annotationCache.rejectionCount());
+        assertEquals(1, annotationCache.admissionCount());
+        assertEquals(1, annotationCache.hitCount());
+        //The flag is part of the key
+        annotationCache.get(TEXT, true, text -> {
+            recognitions.incrementAndGet();
+            return recognizer.recognize(text, true);
+        });
+        assertEquals(3, recognitions.get());
+        //Failed recognitions are not cached
+        for (int i = 0; i < 3; i++) {
+            assertNull(annotationCache.get("troubles de la marche", false, text -> null));
+        }
+        assertEquals(1, annotationCache.size());
+    }
+
+    public void testBudget_evictsLeastRecentlyUsed() {
+        final AnnotationCache annotationCache = new AnnotationCache(SMALL_BUDGET, EvictionPolicy.SEGMENTED_LRU, AdmissionPolicy.ALWAYS);
+        final List<AnnotationToken> annotations = recognizer.recognize(TEXT, false);
+        for (int i = 0; i < SCANNED_TEXTS; i++) {
+            annotationCache.get("document " + i, false, text -> annotations);
+            annotationCache.get(TEXT, false, text -> annotations);
+            assertTrue(annotationCache.toString(), annotationCache.bytes() <= SMALL_BUDGET);
+        }
+        assertTrue(annotationCache.evictionCount() > 0);
+        //The frequent text stays in the protected area while the others are scanned through
+        assertEquals(SCANNED_TEXTS + 1, annotationCache.missCount());
+    }
+
+    public void testInvalidate_dropsEntriesAndRecognitionsInProgress() {
+        final AnnotationCache annotationCache = new AnnotationCache(BUDGET, EvictionPolicy.LRU, AdmissionPolicy.ALWAYS);
+        annotationCache.get(TEXT, false, text -> recognizer.recognize(text, false));
+        assertEquals(1, annotationCache.size());
+        annotationCache.get("troubles de la marche", false, text -> {
+            //The dictionary changes while the text is recognized with the previous one
+            annotationCache.invalidate();
+            return recognizer.recognize(text, false);
+        });
+        assertEquals(0, annotationCache.size());
+        assertEquals(0, annotationCache.bytes());
+        assertEquals(1, annotationCache.rejectionCount());
+        assertEquals(1, annotationCache.invalidationCount());
+    }
+
+    public void testDisabled_recognizesEveryTime() {
+        final AnnotationCache annotationCache = new AnnotationCache(0);
+        final AtomicInteger recognitions = new AtomicInteger();
+        for (int i = 0; i < 3; i++) {
+            annotationCache.get(TEXT, false, text -> {
+                recognitions.incrementAndGet();
+                return recognizer.recognize(text, false);
+            });
+        }
+        assertEquals(3, recognitions.get());
+        assertEquals(0, annotationCache.size());
+    }
+
+    private static String describe(final List<AnnotationToken> annotations) {
+        final StringBuilder description = new StringBuilder();
+        for (final AnnotationToken annotation : annotations) {
+            description.append(annotation).append('\t').append(annotation.getTokenCardinality()).append('\n');
+        }
+        return description.toString();
+    }
+}
@@ -0,0 +1,85 @@
+package org.sifrproject.recognizer.index;
+
+import junit.framework.TestCase;
+import org.sifrproject.recognizer.util.Sets;
+
+import java.util.*;
+
+@SuppressWarnings("PublicMethodNotExposedInInterface")
+public class ConceptIndexBuilderTest extends TestCase {
+
+    private static final long SEED = 42L;
+    private static final int ROUNDS = 200;
+
+    public void testBuild_mergesLabelsOfSameConcept() {
+        final ConceptIndexBuilder builder = new ConceptIndexBuilder();
+        builder.addLabel(30L, Arrays.asList("troubl", "march"));
+        builder.addLabel(10L, Collections.singletonList("march"));
+        builder.addLabel(30L, Arrays.asList("march", "instabl"));
+        final ConceptIndex index = builder.build();
+
+        assertEquals(2, index.conceptCount());
+        assertEquals(3, index.stemCount());
+        //Concept ordinals follow concept lengths, then concept ids
+        assertEquals(10L, index.conceptId(0));
+        assertEquals(30L, index.conceptId(1));
+        //The length is that of the last label of the concept
+        assertEquals(2, index.conceptLength(1));
+
+        final int[] postings = new int[index.maxPostingCount()];
+        assertEquals(2, index.copyPostings(index.stemOrdinal("march"), postings));
+        assertEquals(0, postings[0]);
+        assertEquals(1, postings[1]);
+        assertEquals(1, index.postingCount(index.stemOrdinal("instabl")));
+        assertEquals(ConceptIndex.NOT_FOUND, index.stemOrdinal("coeur"));
+    }
+
+    public void testBuild_groupsConceptsByLength() {
+        final ConceptIndexBuilder builder = new ConceptIndexBuilder();
+        builder.addLabel(1L, Arrays.asList("sclero", "plaqu", "progress"));
+        builder.addLabel(2L, Arrays.asList("sclero", "plaqu"));
+        builder.addLabel(3L, Collections.singletonList("sclero"));
+        builder.addLabel(4L, Arrays.asList("sclero", "later"));
+        final ConceptIndex index = builder.build();
+
+        assertEquals(Arrays.asList(3L, 2L, 4L, 1L), Arrays.asList(index.conceptId(0), index.conceptId(1), index.conceptId(2), index.conceptId(3)));
+        assertEquals(3, index.maxConceptLength());
+        assertEquals(0, index.firstConceptOfLength(0));
+        assertEquals(0, index.firstConceptOfLength(1));
+        assertEquals(1, index.firstConceptOfLength(2));
+        assertEquals(3, index.firstConceptOfLength(3));
+        assertEquals(4, index.firstConceptOfLength(4));
+    }
+
+    public void testIntersectSorted_matchesSetIntersection() {
+        final Random random = new Random(SEED);
+        for (int round = 0; round < ROUNDS; round++) {
+            final int[] candidates = randomSortedArray(random, random.nextInt(50));
+            final int[] postings = randomSortedArray(random, random.nextInt(2000));
+
+            final Set<Integer> expected = new TreeSet<>();
+            for (final int candidate : candidates) {
+                if (Arrays.binarySearch(postings, candidate) >= 0) {
+                    expected.add(candidate);
+                }
+            }
+
+            //Intersect both ways round, in place, to go through the merge and galloping branches
+            final int[] forward = Arrays.copyOf(candidates, candidates.length);
+            final int forwardCount = Sets.intersectSorted(forward, forward.length, postings, 0, postings.length, forward);
+            assertEquals(expected.toString(), Arrays.toString(Arrays.copyOf(forward, forwardCount)));
+
+            final int[] backward = Arrays.copyOf(postings, postings.length);
+            final int backwardCount = Sets.intersectSorted(backward, backward.length, candidates, 0, candidates.length, backward);
+            assertEquals(expected.toString(), Arrays.toString(Arrays.copyOf(backward, backwardCount)));
+        }
+    }
+
+    private static int[] randomSortedArray(final Random random, final int size) {
+        final Set<Integer> values = new TreeSet<>();
+        while (values.size() < size) {
+            values.add(random.nextInt(4000));
+        }
+        return values.stream().mapToInt(Integer::intValue).toArray();
+    }
+}
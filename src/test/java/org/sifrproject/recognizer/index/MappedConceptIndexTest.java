@@ -0,0 +1,59 @@
+package org.sifrproject.recognizer.index;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+@SuppressWarnings("PublicMethodNotExposedInInterface")
+public class MappedConceptIndexTest extends TestCase {
+
+    private static final String[][] LABELS = {
+            {"désamorçag", "cardio", "circulatoir"},
+            {"scléros", "plaqu"},
+            {"scléros"},
+            {"𝒜", "plaqu"},
+            {"œdem", "cardio"}
+    };
+
+    public void testOpen_servesSameIndexAsHeap() throws IOException {
+        final ConceptIndexBuilder builder = new ConceptIndexBuilder();
+        for (int i = 0; i < LABELS.length; i++) {
+            builder.addLabel(100L - i, Arrays.asList(LABELS[i]));
+        }
+        final ArrayConceptIndex heapIndex = builder.build();
+
+        final Path snapshotPath = Files.createTempFile("bpclinrec", ".idx");
+        try {
+            ConceptIndexSnapshot.write(heapIndex, 0L, snapshotPath);
+            final ConceptIndex mappedIndex = MappedConceptIndex.open(snapshotPath);
+
+            assertEquals(heapIndex.stemCount(), mappedIndex.stemCount());
+            assertEquals(heapIndex.conceptCount(), mappedIndex.conceptCount());
+            assertEquals(heapIndex.maxPostingCount(), mappedIndex.maxPostingCount());
+            for (final String stem : heapIndex.getStems()) {
+                final int stemOrdinal = heapIndex.stemOrdinal(stem);
+                assertEquals(stem, stemOrdinal, mappedIndex.stemOrdinal(stem));
+                assertEquals(ConceptIndex.NOT_FOUND, mappedIndex.stemOrdinal(stem + "x"));
+                assertEquals(ConceptIndex.NOT_FOUND, mappedIndex.stemOrdinal(stem.substring(0, stem.length() - 1)));
+
+                final int[] heapPostings = new int[heapIndex.maxPostingCount()];
+                final int[] mappedPostings = new int[mappedIndex.maxPostingCount()];
+                assertEquals(heapIndex.copyPostings(stemOrdinal, heapPostings), mappedIndex.copyPostings(stemOrdinal, mappedPostings));
+                assertTrue(Arrays.equals(heapPostings, mappedPostings));
+            }
+            for (int conceptOrdinal = 0; conceptOrdinal < heapIndex.conceptCount(); conceptOrdinal++) {
+                assertEquals(heapIndex.conceptId(conceptOrdinal), mappedIndex.conceptId(conceptOrdinal));
+                assertEquals(heapIndex.conceptLength(conceptOrdinal), mappedIndex.conceptLength(conceptOrdinal));
+            }
+
+            final int[] candidates = {0, 1, 2, 3, 4};
+            final int count = mappedIndex.intersect(mappedIndex.stemOrdinal("plaqu"), candidates, candidates.length, candidates);
+            assertEquals(2, count);
+        } finally {
+            Files.deleteIfExists(snapshotPath);
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package org.sifrproject.recognizer.index;
+
+import junit.framework.TestCase;
+
+import java.util.*;
+
+@SuppressWarnings("PublicMethodNotExposedInInterface")
+public class RoaringPostingsTest extends TestCase {
+
+    private static final long SEED = 42L;
+    private static final int ROUNDS = 50;
+    private static final int CHUNK_SIZE = 1 << 16;
+    private static final int CHUNKS = 4;
+
+    public void testCopyTo_restoresValues() {
+        final Random random = new Random(SEED);
+        for (int round = 0; round < ROUNDS; round++) {
+            final int[] values = randomPostings(random);
+            final int[] copy = new int[values.length];
+            final RoaringPostings postings = RoaringPostings.of(values, 0, values.length);
+            assertEquals(values.length, postings.cardinality());
+            assertEquals(values.length, postings.copyTo(copy));
+            assertTrue(Arrays.equals(values, copy));
+        }
+    }
+
+    public void testIntersect_matchesSetIntersectionForAllContainerPairs() {
+        final Random random = new Random(SEED);
+        for (int round = 0; round < ROUNDS; round++) {
+            final int[] first = randomPostings(random);
+            final int[] second = randomPostings(random);
+            final String expected = intersection(first, second).toString();
+            final RoaringPostings firstPostings = RoaringPostings.of(first, 0, first.length);
+            final RoaringPostings secondPostings = RoaringPostings.of(second, 0, second.length);
+
+            final int[] target = new int[Math.max(first.length, second.length)];
+            final int count = firstPostings.intersect(secondPostings, target);
+            assertEquals(expected, Arrays.toString(Arrays.copyOf(target, count)));
+
+            //Probing in place, as the recognizer does with its candidate buffer
+            final int[] candidates = Arrays.copyOf(first, first.length);
+            final int probedCount = secondPostings.intersect(candidates, candidates.length, candidates);
+            assertEquals(expected, Arrays.toString(Arrays.copyOf(candidates, probedCount)));
+        }
+    }
+
+    public void testIntersectPostings_sameWithAndWithoutCompression() {
+        final Random random = new Random(SEED);
+        final ConceptIndexBuilder builder = new ConceptIndexBuilder();
+        final String[] stems = {"malad", "syndrom", "troubl", "cardiaqu", "march"};
+        for (long conceptId = 0; conceptId < 20000; conceptId++) {
+            final List<String> label = new ArrayList<>();
+            for (int i = 0; i < stems.length; i++) {
+                //Stems get rarer and rarer so that every pair of representations is intersected
+                if (random.nextInt(1 << (i * 2)) == 0) {
+                    label.add(stems[i]);
+                }
+            }
+            builder.addLabel(conceptId, label);
+        }
+        final ArrayConceptIndex built = builder.build();
+        final ArrayConceptIndex plain = new ArrayConceptIndex(built.getStemLexicon(), built.getPostingOffsets(), built.getPostings(),
+                built.getConceptLengths(), built.getConceptIds(), Integer.MAX_VALUE);
+        final ArrayConceptIndex compressed = new ArrayConceptIndex(built.getStemLexicon(), built.getPostingOffsets(), built.getPostings(),
+                built.getConceptLengths(), built.getConceptIds(), 1);
+        final ArrayConceptIndex hybrid = new ArrayConceptIndex(built.getStemLexicon(), built.getPostingOffsets(), built.getPostings(),
+                built.getConceptLengths(), built.getConceptIds(), 2000);
+        assertEquals(0, plain.denseStemCount());
+        assertEquals(stems.length, compressed.denseStemCount());
+        assertTrue(Arrays.equals(plain.getPostings(), hybrid.getPostings()));
+        assertTrue(Arrays.equals(plain.getPostingOffsets(), hybrid.getPostingOffsets()));
+
+        final int[] expected = new int[plain.maxPostingCount()];
+        final int[] actual = new int[plain.maxPostingCount()];
+        for (final String first : stems) {
+            for (final String second : stems) {
+                final int expectedCount = plain.intersectPostings(plain.stemOrdinal(first), plain.stemOrdinal(second), expected);
+                for (final ArrayConceptIndex index : Arrays.asList(compressed, hybrid)) {
+                    final int count = index.intersectPostings(index.stemOrdinal(first), index.stemOrdinal(second), actual);
+                    assertEquals(first + " " + second, Arrays.toString(Arrays.copyOf(expected, expectedCount)), Arrays.toString(Arrays.copyOf(actual, count)));
+                }
+            }
+        }
+    }
+
+    /**
+     * Each chunk is empty, sparse (array container) or dense (bitmap container)
+     */
+    private static int[] randomPostings(final Random random) {
+        final Set<Integer> values = new TreeSet<>();
+        for (int chunk = 0; chunk < CHUNKS; chunk++) {
+            final int size;
+            switch (random.nextInt(3)) {
+                case 0:
+                    size = 0;
+                    break;
+                case 1:
+                    size = random.nextInt(RoaringPostings.ARRAY_CONTAINER_MAX);
+                    break;
+                default:
+                    size = RoaringPostings.ARRAY_CONTAINER_MAX + random.nextInt(CHUNK_SIZE / 2);
+                    break;
+            }
+            final Set<Integer> chunkValues = new HashSet<>();
+            while (chunkValues.size() < size) {
+                chunkValues.add((chunk * CHUNK_SIZE) + random.nextInt(CHUNK_SIZE));
+            }
+            values.addAll(chunkValues);
+        }
+        return values.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    private static List<Integer> intersection(final int[] first, final int[] second) {
+        final List<Integer> values = new ArrayList<>();
+        for (final int value : first) {
+            if (Arrays.binarySearch(second, value) >= 0) {
+                values.add(value);
+            }
+        }
+        return values;
+    }
+}
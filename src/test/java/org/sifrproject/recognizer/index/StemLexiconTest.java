@@ -0,0 +1,61 @@
+package org.sifrproject.recognizer.index;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.TreeSet;
+
+@SuppressWarnings("PublicMethodNotExposedInInterface")
+public class StemLexiconTest extends TestCase {
+
+    private static final long SEED = 7L;
+    private static final int VOCABULARY_SIZE = 20000;
+    private static final String[] ROOTS = {"cardi", "card", "pneumo", "pneum", "hepat", "nephr", "neur", "gastr", "derm", "my"};
+    private static final String[] SUFFIXES = {"", "it", "ite", "olog", "opath", "ectom", "algi", "om", "osclérot", "é"};
+
+    public void testOrdinal_mapsStemsToTheirRank() {
+        final String[] stems = randomVocabulary();
+        final StemLexicon lexicon = StemLexicon.build(stems);
+
+        assertEquals(stems.length, lexicon.size());
+        for (int i = 0; i < stems.length; i++) {
+            assertEquals(stems[i], i, lexicon.ordinal(stems[i]));
+        }
+        assertTrue(Arrays.equals(stems, lexicon.stems()));
+        //Shared suffixes make the automaton much smaller than the trie of the vocabulary
+        assertTrue(lexicon.stateCount() < stems.length);
+    }
+
+    public void testOrdinal_unknownStems() {
+        final StemLexicon lexicon = StemLexicon.build(new String[]{"cardi", "cardiolog", "coeur"});
+        assertEquals(StemLexicon.NOT_FOUND, lexicon.ordinal(""));
+        assertEquals(StemLexicon.NOT_FOUND, lexicon.ordinal("card"));
+        assertEquals(StemLexicon.NOT_FOUND, lexicon.ordinal("cardio"));
+        assertEquals(StemLexicon.NOT_FOUND, lexicon.ordinal("coeurs"));
+        assertEquals(1, lexicon.ordinal("cardiolog"));
+        assertEquals(0, StemLexicon.build(new String[0]).size());
+    }
+
+    public void testBuild_rejectsUnsortedStems() {
+        try {
+            StemLexicon.build(new String[]{"coeur", "cardi"});
+            fail();
+        } catch (final IllegalArgumentException e) {
+            //expected
+        }
+    }
+
+    private static String[] randomVocabulary() {
+        final Random random = new Random(SEED);
+        final TreeSet<String> vocabulary = new TreeSet<>();
+        while (vocabulary.size() < VOCABULARY_SIZE) {
+            final StringBuilder stem = new StringBuilder(ROOTS[random.nextInt(ROOTS.length)]);
+            stem.append(ROOTS[random.nextInt(ROOTS.length)]);
+            stem.append((char) ('a' + random.nextInt(26)));
+            stem.append(SUFFIXES[random.nextInt(SUFFIXES.length)]);
+            vocabulary.add(stem.toString());
+        }
+        return vocabulary.toArray(new String[vocabulary.size()]);
+    }
+}
@@ -0,0 +1,125 @@
+package org.sifrproject.recognizer.pool;
+
+import junit.framework.TestCase;
+import org.sifrproject.recognizer.ConceptRecognizer;
+import org.sifrproject.recognizer.DictionaryCompiler;
+import org.sifrproject.recognizer.FaironConceptRecognizer;
+import org.sifrproject.recognizer.cache.AnnotationCache;
+import org.sifrproject.recognizer.index.ConceptIndex;
+import org.sifrproject.recognizer.index.ConceptIndexBuilder;
+import org.sifrproject.server.ClinicalRecognizerServer;
+import org.sifrproject.stemming.StemCache;
+import org.sifrproject.stemming.StemCache.EvictionPolicy;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+@SuppressWarnings("PublicMethodNotExposedInInterface")
+public class RecognizerPoolTest extends TestCase {
+
+    private static final String TEXT = "traiter la sclérose en plaques , troubles de la marche";
+    private static final int POOL_SIZE = 2;
+    private static final long CLAIM_TIMEOUT_MILLIS = 50L;
+    private static final long EXPIRY_MILLIS = 500L;
+
+    private final ConceptIndex conceptIndex;
+
+    public RecognizerPoolTest() throws IOException {
+        conceptIndex = new DictionaryCompiler().compile(RecognizerPoolTest.class.getClassLoader().getResourceAsStream(ClinicalRecognizerServer.DICTIONARY_DEFAULT_NAME));
+    }
+
+    public void testClaim_sharesOneIndex() throws InterruptedException {
+        final RecognizerPool pool = new RecognizerPool(new FaironRecognizerAllocator(conceptIndex, StemCache.shared()), POOL_SIZE, CLAIM_TIMEOUT_MILLIS, 0);
+        try {
+            final String expected = new FaironConceptRecognizer(conceptIndex).recognize(TEXT, false).toString();
+            for (int i = 0; i < 10; i++) {
+                final ConceptRecognizer recognizer = pool.claim();
+                assertNotNull(recognizer);
+                try {
+                    assertEquals(expected, recognizer.recognize(TEXT, false).toString());
+                } finally {
+                    recognizer.release();
+                }
+            }
+            //Released recognizers are reused rather than reallocated; the pool allocates in the background, so it may
+            //not have filled up yet
+            assertTrue(pool.allocationCount() <= POOL_SIZE);
+            assertEquals(10, pool.claimCount());
+            assertTrue(pool.claimLatencyPercentileMicros(0.5) > 0);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    public void testClaim_countsExhaustion() throws InterruptedException {
+        final RecognizerPool pool = new RecognizerPool(new FaironRecognizerAllocator(conceptIndex, StemCache.shared()), POOL_SIZE, CLAIM_TIMEOUT_MILLIS, 0);
+        try {
+            final ConceptRecognizer first = pool.claim();
+            final ConceptRecognizer second = pool.claim();
+            assertNull(pool.claim());
+            assertEquals(1, pool.exhaustionCount());
+            first.release();
+            second.release();
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    public void testRefresh_expiredRecognizersUseNewIndex() throws InterruptedException {
+        final FaironRecognizerAllocator allocator = new FaironRecognizerAllocator(conceptIndex, StemCache.shared());
+        final RecognizerPool pool = new RecognizerPool(allocator, 1, CLAIM_TIMEOUT_MILLIS * 10, 1);
+        try {
+            final ConceptIndexBuilder builder = new ConceptIndexBuilder();
+            builder.addLabel(42L, Arrays.asList("troubl", "march"));
+            allocator.refresh(builder.build());
+            //Recognizers live for about a millisecond: after that the pool reallocates them from the new index
+            Thread.sleep(10);
+            ConceptRecognizer recognizer = pool.claim();
+            recognizer.release();
+            Thread.sleep(10);
+            recognizer = pool.claim();
+            try {
+                assertEquals(Long.valueOf(42L), recognizer.recognize("troubles de la marche", false).get(0).getConceptId());
+            } finally {
+                recognizer.release();
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    public void testRefresh_invalidatesAnnotationCache() throws InterruptedException {
+        final AnnotationCache annotationCache = new AnnotationCache(1 << 20, EvictionPolicy.LRU, AnnotationCache.AdmissionPolicy.ALWAYS);
+        final FaironRecognizerAllocator allocator = new FaironRecognizerAllocator(conceptIndex, StemCache.shared(),
+                FaironConceptRecognizer.DEFAULT_STOP_WORD_ALLOWANCE, 0, annotationCache);
+        final RecognizerPool pool = new RecognizerPool(allocator, 1, CLAIM_TIMEOUT_MILLIS * 10, EXPIRY_MILLIS, annotationCache);
+        try {
+            assertSame(annotationCache, pool.annotationCache());
+            recognizeThroughCache(pool, TEXT);
+            assertEquals(1, annotationCache.size());
+            final ConceptIndexBuilder builder = new ConceptIndexBuilder();
+            builder.addLabel(42L, Arrays.asList("troubl", "march"));
+            allocator.refresh(builder.build());
+            assertEquals(0, annotationCache.size());
+            assertEquals(1, annotationCache.invalidationCount());
+            //The recognizer of the previous index may cache again until it expires, which invalidates the cache again
+            recognizeThroughCache(pool, "troubles de la marche");
+            assertEquals(1, annotationCache.size());
+            Thread.sleep(EXPIRY_MILLIS * 2);
+            pool.claim().release();
+            assertEquals(2, annotationCache.invalidationCount());
+            assertEquals(0, annotationCache.size());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static void recognizeThroughCache(final RecognizerPool pool, final String text) throws InterruptedException {
+        final ConceptRecognizer recognizer = pool.claim();
+        try {
+            pool.annotationCache().get(text, false, uncachedText -> recognizer.recognize(uncachedText, false));
+        } finally {
+            recognizer.release();
+        }
+    }
+}
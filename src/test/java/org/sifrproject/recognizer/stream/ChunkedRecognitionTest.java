@@ -0,0 +1,177 @@
+package org.sifrproject.recognizer.stream;
+
+import junit.framework.TestCase;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import org.sifrproject.recognizer.AhoCorasickConceptRecognizer;
+import org.sifrproject.recognizer.AnnotationToken;
+import org.sifrproject.recognizer.ConceptRecognizer;
+import org.sifrproject.recognizer.FaironConceptRecognizer;
+import org.sifrproject.server.ClinicalRecognizerServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Scanner;
+
+/**
+ * Streaming recognition must find what recognizing the whole document finds, wherever the chunks end
+ */
+@SuppressWarnings("PublicMethodNotExposedInInterface")
+public class ChunkedRecognitionTest extends TestCase {
+
+    private static final String REFERENCE_CORPUS = "reference_corpus.fr.txt";
+    private static final int CORPUS_REPEATS = 20;
+    private static final int[] CHUNK_SIZES = {1, 3, 17, 256, Integer.MAX_VALUE};
+    private static final int BOUNDED_CHUNK_SIZE = 64;
+    private static final int SEPARATOR_CHUNK_SIZE = 8192;
+    private static final int SEPARATOR_CHUNKS = 500;
+
+    private final ConceptRecognizer faironRecognizer;
+    private final ConceptRecognizer automatonRecognizer;
+    private final String document;
+
+    public ChunkedRecognitionTest() throws IOException {
+        faironRecognizer = new FaironConceptRecognizer(resource(ClinicalRecognizerServer.DICTIONARY_DEFAULT_NAME));
+        automatonRecognizer = new AhoCorasickConceptRecognizer(resource(ClinicalRecognizerServer.DICTIONARY_DEFAULT_NAME));
+        final StringBuilder corpus = new StringBuilder();
+        try (Scanner scanner = new Scanner(resource(REFERENCE_CORPUS), StandardCharsets.UTF_8.name())) {
+            final String text = scanner.useDelimiter("\\A").next();
+            for (int i = 0; i < CORPUS_REPEATS; i++) {
+                corpus.append(text);
+            }
+        }
+        document = corpus.toString();
+    }
+
+    public void testRecognize_sameAnnotationsAsWholeDocument() {
+        for (final ConceptRecognizer recognizer : new ConceptRecognizer[]{faironRecognizer, automatonRecognizer}) {
+            for (final boolean longestOnly : new boolean[]{false, true}) {
+                final List<String> expected = describe(byStart(recognizer.recognize(document, longestOnly)));
+                assertFalse(expected.isEmpty());
+                for (final int chunkSize : CHUNK_SIZES) {
+                    final ChunkedRecognition recognition = new ChunkedRecognition(recognizer, chunks(document, chunkSize), longestOnly);
+                    final List<AnnotationToken> annotations = new ArrayList<>();
+                    recognition.forEachRemaining(annotations::add);
+                    assertEquals(recognizer.getClass().getSimpleName() + " chunks of " + chunkSize + ", longest only " + longestOnly,
+                            expected, describe(annotations));
+                }
+            }
+        }
+    }
+
+    public void testRecognize_windowBoundedByChunkAndMatchWindow() {
+        final ChunkedRecognition recognition = new ChunkedRecognition(faironRecognizer, chunks(document, BOUNDED_CHUNK_SIZE), false);
+        recognition.forEachRemaining(annotation -> { });
+        assertTrue(recognition.peakWindowLength() < (document.length() / CORPUS_REPEATS));
+    }
+
+    public void testRecognize_windowBoundedOnSeparators() {
+        final char[] separators = new char[SEPARATOR_CHUNK_SIZE];
+        Arrays.fill(separators, ' ');
+        separators[SEPARATOR_CHUNK_SIZE / 2] = '\n';
+        final List<CharSequence> chunks = new ArrayList<>();
+        for (int i = 0; i < SEPARATOR_CHUNKS; i++) {
+            chunks.add(new String(separators));
+        }
+        chunks.add("sclérose en plaques");
+        final StringBuilder text = new StringBuilder();
+        chunks.forEach(text::append);
+        final ChunkedRecognition recognition = new ChunkedRecognition(faironRecognizer, chunks.iterator(), false);
+        final List<AnnotationToken> annotations = new ArrayList<>();
+        recognition.forEachRemaining(annotations::add);
+        assertEquals(describe(byStart(faironRecognizer.recognize(text.toString(), false))), describe(annotations));
+        assertFalse(annotations.isEmpty());
+        assertTrue(String.valueOf(recognition.peakWindowLength()), recognition.peakWindowLength() <= (SEPARATOR_CHUNK_SIZE * 2));
+    }
+
+    public void testRecognizeStream_deliversNoMoreThanRequested() {
+        final int total = faironRecognizer.recognize(document, false).size();
+        final RecordingSubscriber partial = new RecordingSubscriber(2, false);
+        faironRecognizer.recognizeStream(new StringReader(document), false).subscribe(partial);
+        assertEquals(2, partial.received.size());
+        assertFalse(partial.completed);
+
+        //Requesting one annotation at a time from onNext delivers everything without growing the stack
+        final RecordingSubscriber oneByOne = new RecordingSubscriber(1, true);
+        final Publisher<AnnotationToken> publisher = faironRecognizer.recognizeStream(new ReaderChunks(new StringReader(document), 5), false);
+        publisher.subscribe(oneByOne);
+        assertEquals(total, oneByOne.received.size());
+        assertTrue(oneByOne.completed);
+
+        final RecordingSubscriber second = new RecordingSubscriber(1, false);
+        publisher.subscribe(second);
+        assertTrue(second.error instanceof IllegalStateException);
+    }
+
+    private static Iterator<CharSequence> chunks(final String text, final int chunkSize) {
+        final List<CharSequence> chunks = new ArrayList<>();
+        for (int start = 0; start < text.length(); start += Math.min(chunkSize, text.length() - start)) {
+            chunks.add(text.substring(start, start + Math.min(chunkSize, text.length() - start)));
+        }
+        return chunks.iterator();
+    }
+
+    private static List<AnnotationToken> byStart(final List<AnnotationToken> annotations) {
+        final List<AnnotationToken> sorted = new ArrayList<>(annotations);
+        sorted.sort(Comparator.comparingInt(AnnotationToken::getStart));
+        return sorted;
+    }
+
+    private static List<String> describe(final List<AnnotationToken> annotations) {
+        final List<String> descriptions = new ArrayList<>();
+        for (final AnnotationToken annotation : annotations) {
+            descriptions.add(annotation.getStart() + "-" + annotation.getEnd() + ":" + annotation.getConceptId() + ":" + annotation.getText());
+        }
+        return descriptions;
+    }
+
+    private static InputStream resource(final String name) {
+        return ChunkedRecognitionTest.class.getClassLoader().getResourceAsStream(name);
+    }
+
+    private static final class RecordingSubscriber implements Subscriber<AnnotationToken> {
+        private final long initialRequest;
+        private final boolean requestOnNext;
+        private final List<AnnotationToken> received = new ArrayList<>();
+        private Subscription subscription;
+        private boolean completed;
+        private Throwable error;
+
+        RecordingSubscriber(final long initialRequest, final boolean requestOnNext) {
+            this.initialRequest = initialRequest;
+            this.requestOnNext = requestOnNext;
+        }
+
+        @Override
+        public void onSubscribe(final Subscription subscription) {
+            this.subscription = subscription;
+            subscription.request(initialRequest);
+        }
+
+        @Override
+        public void onNext(final AnnotationToken annotation) {
+            received.add(annotation);
+            if (requestOnNext) {
+                subscription.request(1);
+            }
+        }
+
+        @Override
+        public void onError(final Throwable throwable) {
+            error = throwable;
+        }
+
+        @Override
+        public void onComplete() {
+            completed = true;
+        }
+    }
+}
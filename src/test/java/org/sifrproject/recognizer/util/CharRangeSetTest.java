@@ -0,0 +1,24 @@
+package org.sifrproject.recognizer.util;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+
+@SuppressWarnings("PublicMethodNotExposedInInterface")
+public class CharRangeSetTest extends TestCase {
+
+    public void testContains_matchesRangesOfText() {
+        final CharRangeSet stopWords = CharRangeSet.of(Arrays.asList("de", "la", "des", "à", "de"));
+        assertEquals(4, stopWords.size());
+
+        final char[] text = "troubles de la marche à droite".toCharArray();
+        assertTrue(stopWords.contains(text, 9, 2));
+        assertTrue(stopWords.contains(text, 12, 2));
+        assertTrue(stopWords.contains(text, 22, 1));
+        assertFalse(stopWords.contains(text, 0, 8));
+        //Prefixes and longer ranges of a word are not the word
+        assertFalse(stopWords.contains(text, 9, 1));
+        assertFalse(stopWords.contains(text, 9, 3));
+        assertFalse(stopWords.contains(text, 0, 0));
+    }
+}
@@ -0,0 +1,69 @@
+package org.sifrproject.recognizer.util;
+
+import junit.framework.TestCase;
+import org.sifrproject.recognizer.AnnotationToken;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+@SuppressWarnings("PublicMethodNotExposedInInterface")
+public class OverlapsTest extends TestCase {
+
+    private static final int RANDOM_ROUNDS = 500;
+
+    public void testKeepLongest_dropsNestedAndShorterOverlappingMatches() {
+        final String text = "sclerose en plaques progressive";
+        final AnnotationToken sclerose = annotation(text, 1, 8, 1L);
+        final AnnotationToken scleroseEnPlaques = annotation(text, 1, 19, 2L);
+        final AnnotationToken scleroseEnPlaquesSynonym = annotation(text, 1, 19, 3L);
+        final AnnotationToken plaques = annotation(text, 13, 19, 4L);
+        final AnnotationToken plaquesProgressive = annotation(text, 13, 31, 5L);
+        final AnnotationToken progressive = annotation(text, 21, 31, 6L);
+
+        final List<AnnotationToken> longest = Overlaps.keepLongest(Arrays.asList(
+                sclerose, plaquesProgressive, scleroseEnPlaques, plaques, progressive, scleroseEnPlaquesSynonym));
+        //Concepts sharing a span are kept together and equally long overlapping matches are both kept, in their
+        //original order
+        assertEquals(Arrays.asList(plaquesProgressive, scleroseEnPlaques, scleroseEnPlaquesSynonym), longest);
+    }
+
+    public void testKeepLongest_keepsDisjointAndEquallyLongMatches() {
+        final String text = "troubles marche instable";
+        final AnnotationToken troublesMarche = annotation(text, 1, 15, 1L);
+        final AnnotationToken marcheInstable = annotation(text, 10, 24, 2L);
+        final AnnotationToken troubles = annotation(text, 1, 8, 3L);
+        final List<AnnotationToken> annotations = Arrays.asList(troublesMarche, marcheInstable, troubles);
+        assertEquals(Arrays.asList(troublesMarche, marcheInstable), Overlaps.keepLongest(annotations));
+    }
+
+    public void testKeepLongest_matchesQuadraticDefinition() {
+        final Random random = new Random(42);
+        final String text = new String(new char[100]);
+        for (int round = 0; round < RANDOM_ROUNDS; round++) {
+            final List<AnnotationToken> annotations = new ArrayList<>();
+            final int count = random.nextInt(30);
+            for (int i = 0; i < count; i++) {
+                final int start = 1 + random.nextInt(90);
+                annotations.add(annotation(text, start, start + random.nextInt(10), (long) i));
+            }
+            final List<AnnotationToken> expected = new ArrayList<>();
+            for (final AnnotationToken annotation : annotations) {
+                boolean longerOverlap = false;
+                for (final AnnotationToken other : annotations) {
+                    longerOverlap |= (other.getStart() <= annotation.getEnd()) && (annotation.getStart() <= other.getEnd())
+                            && ((other.getEnd() - other.getStart()) > (annotation.getEnd() - annotation.getStart()));
+                }
+                if (!longerOverlap) {
+                    expected.add(annotation);
+                }
+            }
+            assertEquals(expected, Overlaps.keepLongest(annotations));
+        }
+    }
+
+    private static AnnotationToken annotation(final String text, final int start, final int end, final Long conceptId) {
+        return AnnotationToken.create(start, end, text.substring(start - 1, end), conceptId, 1);
+    }
+}
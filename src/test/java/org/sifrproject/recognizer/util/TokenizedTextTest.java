@@ -0,0 +1,82 @@
+package org.sifrproject.recognizer.util;
+
+import junit.framework.TestCase;
+import opennlp.tools.tokenize.SimpleTokenizer;
+import opennlp.tools.util.Span;
+
+import java.util.Random;
+
+@SuppressWarnings("PublicMethodNotExposedInInterface")
+public class TokenizedTextTest extends TestCase {
+
+    private static final String[] TEXTS = {
+            "Désamorçage cardio-circulatoire",
+            "   QU ’ EST-CE QUE TYSABRI ET DANS QUEL CAS EST-IL UTILISE   TYSABRI est utilisé pour traiter la sclérose en plaques ( SEP ).",
+            "Le patient présente une insuffisance rénale aiguë, syndrome de détresse respiratoire...",
+            "HbA1c à 7,5 %  -- dose : 2×500mg/j (ÉLEVÉE) !!?"
+    };
+
+    //Letters, accented letters, digits, whitespace, punctuation and symbols, some of them repeated to form runs
+    private static final String ALPHABET = "aAbBeEéÉèÈçÇœŒßøØ0129 \t\n  --..,;:!?()[]'’\"«»/+*&%$#|~²½€×Δδ";
+
+    private static final int RANDOM_TEXTS = 2000;
+
+    public void testTokenize_matchesRegexNormalizationAndSimpleTokenizer() {
+        final TokenizedText tokenizedText = new TokenizedText();
+        for (final String text : TEXTS) {
+            assertSameAsReference(tokenizedText, text);
+        }
+        final Random random = new Random(42);
+        for (int i = 0; i < RANDOM_TEXTS; i++) {
+            final StringBuilder text = new StringBuilder();
+            final int length = random.nextInt(40);
+            for (int c = 0; c < length; c++) {
+                text.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+            }
+            assertSameAsReference(tokenizedText, text.toString());
+        }
+    }
+
+    public void testTokenize_punctuationAsSeparatorMatchesDictionaryNormalization() {
+        final TokenizedText tokenizedText = new TokenizedText();
+        for (final String text : TEXTS) {
+            final String[] reference = SimpleTokenizer.INSTANCE.tokenize(Strings.normalizeStringAndStripPuctuation(text));
+            assertEquals(text, reference.length, tokenizedText.tokenize(text, true));
+            for (int token = 0; token < reference.length; token++) {
+                assertEquals(text, reference[token], tokenizedText.token(token));
+            }
+        }
+    }
+
+    public void testTokenize_mapsTokensToSourceAcrossRemovedMarks() {
+        final TokenizedText tokenizedText = new TokenizedText();
+        //Decomposed accents: e followed by a combining acute accent
+        final String text = "Scle\u0301rose e\u0301tendue";
+        assertEquals(2, tokenizedText.tokenize(text, false));
+        assertEquals("sclerose", tokenizedText.token(0));
+        assertEquals("etendue", tokenizedText.token(1));
+        assertEquals("Scle\u0301rose", text.substring(tokenizedText.sourceStart(0), tokenizedText.sourceEnd(0)));
+        assertEquals("e\u0301tendue", text.substring(tokenizedText.sourceStart(1), tokenizedText.sourceEnd(1)));
+    }
+
+    public void testIsAlphaNum_matchesRegex() {
+        for (final String token : new String[]{"abc", "é9", "²", "½", "a-b", "’", "", "Δx", "a b"}) {
+            final char[] chars = ("#" + token + "#").toCharArray();
+            assertEquals(token, Strings.isAlphaNum(token), Strings.isAlphaNum(chars, 1, token.length()));
+        }
+    }
+
+    private static void assertSameAsReference(final TokenizedText tokenizedText, final String text) {
+        final String normalized = Strings.normalizeString(text);
+        final Span[] spans = SimpleTokenizer.INSTANCE.tokenizePos(normalized);
+        assertEquals(text, spans.length, tokenizedText.tokenize(text, false));
+        assertEquals(text, normalized, new String(tokenizedText.text(), 0, tokenizedText.length()));
+        for (int token = 0; token < spans.length; token++) {
+            assertEquals(text, spans[token].getStart(), tokenizedText.start(token));
+            assertEquals(text, spans[token].getEnd(), tokenizedText.end(token));
+            //Without marks to remove, the normalized text is aligned with the source
+            assertEquals(text, spans[token].getStart(), tokenizedText.sourceStart(token));
+            assertEquals(text, spans[token].getEnd(), tokenizedText.sourceEnd(token));
+        }
+    }
+}
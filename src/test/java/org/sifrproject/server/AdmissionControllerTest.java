@@ -0,0 +1,54 @@
+package org.sifrproject.server;
+
+import junit.framework.TestCase;
+
+import java.util.concurrent.*;
+
+@SuppressWarnings("PublicMethodNotExposedInInterface")
+public class AdmissionControllerTest extends TestCase {
+
+    private static final long QUEUE_TIMEOUT_MILLIS = 50L;
+
+    public void testAcquire_boundsInFlightAndQueuedRequests() throws InterruptedException, ExecutionException, TimeoutException {
+        final AdmissionController admissionController = new AdmissionController(2, 1, 0, 1);
+        assertNull(admissionController.acquire());
+        assertNull(admissionController.acquire());
+
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final Future<AdmissionController.Rejection> queued = executor.submit(admissionController::acquire);
+            while (admissionController.queuedCount() == 0) {
+                Thread.yield();
+            }
+            //The queued request waits for a running one to end, a request beyond the queue is rejected at once
+            assertEquals(AdmissionController.Rejection.QUEUE_FULL, admissionController.acquire());
+            assertFalse(queued.isDone());
+            admissionController.release();
+            assertNull(queued.get(1, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(3, admissionController.admissionCount());
+    }
+
+    public void testAcquire_rejectsRequestsWaitingTooLong() throws InterruptedException {
+        final AdmissionController admissionController = new AdmissionController(1, 1, QUEUE_TIMEOUT_MILLIS, 1);
+        assertNull(admissionController.acquire());
+        final long start = System.nanoTime();
+        assertEquals(AdmissionController.Rejection.QUEUE_TIMEOUT, admissionController.acquire());
+        assertTrue((System.nanoTime() - start) >= TimeUnit.MILLISECONDS.toNanos(QUEUE_TIMEOUT_MILLIS));
+
+        assertNull(admissionController.admitQueued(System.nanoTime()));
+        assertEquals(AdmissionController.Rejection.QUEUE_TIMEOUT,
+                admissionController.admitQueued(System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(QUEUE_TIMEOUT_MILLIS * 2)));
+    }
+
+    public void testAcquire_shedsOnHeapOccupancy() throws InterruptedException {
+        System.gc();
+        final double heapOccupancy = new AdmissionController(1, 1, 0, 1).heapOccupancy();
+        assertTrue(heapOccupancy > 0);
+        assertTrue(heapOccupancy < 1);
+        assertNull(new AdmissionController(1, 1, 0, 1).acquire());
+        assertEquals(AdmissionController.Rejection.HEAP_OCCUPANCY, new AdmissionController(1, 1, 0, heapOccupancy / 2).acquire());
+    }
+}
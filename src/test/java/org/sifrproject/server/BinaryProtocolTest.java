@@ -0,0 +1,147 @@
+package org.sifrproject.server;
+
+import junit.framework.TestCase;
+import org.sifrproject.recognizer.AnnotationToken;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+@SuppressWarnings("PublicMethodNotExposedInInterface")
+public class BinaryProtocolTest extends TestCase {
+
+    private static final String TEXT = "sclérose en plaques et maladie rénale chronique";
+
+    public void testReadRequest_roundTripsRequestFrames() throws IOException {
+        //A text longer than 127 bytes takes a two byte length
+        final StringBuilder longText = new StringBuilder();
+        while (longText.length() < 300) {
+            longText.append(TEXT).append(' ');
+        }
+        final InputStream input = new ByteArrayInputStream(concat(
+                BinaryProtocol.requestFrame(TEXT, true, false),
+                BinaryProtocol.requestFrame(longText.toString(), false, true),
+                BinaryProtocol.requestFrame("", false, false),
+                new byte[]{0}));
+
+        Command command = BinaryProtocol.readRequest(input);
+        assertEquals(TEXT, command.text());
+        assertTrue(command.longestOnly());
+        command = BinaryProtocol.readRequest(input);
+        assertEquals(longText.toString(), command.text());
+        assertFalse(command.longestOnly());
+        //Binary requests are always answered, even without text
+        command = BinaryProtocol.readRequest(input);
+        assertEquals("", command.text());
+        assertTrue(command.expectsReply());
+        //An empty frame ends the session, and so does the end of the input
+        assertNull(BinaryProtocol.readRequest(input));
+        assertNull(BinaryProtocol.readRequest(input));
+    }
+
+    public void testReadRequest_rejectsTruncatedAndOversizedFrames() {
+        final byte[] frame = BinaryProtocol.requestFrame(TEXT, false, false);
+        try {
+            BinaryProtocol.readRequest(new ByteArrayInputStream(Arrays.copyOf(frame, frame.length - 1)));
+            fail("Truncated frame accepted");
+        } catch (final IOException e) {
+            //Expected
+        }
+        try {
+            BinaryProtocol.readRequest(new ByteArrayInputStream(new byte[]{(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x0F}));
+            fail("Oversized frame accepted");
+        } catch (final IOException e) {
+            //Expected
+        }
+    }
+
+    public void testReply_encodesAnnotationsWithOrWithoutText() {
+        final List<AnnotationToken> annotations = Arrays.asList(
+                AnnotationToken.create(1, 19, "sclérose en plaques", 4242L, 3),
+                AnnotationToken.create(24, 47, "maladie rénale chronique", 12345678901L, 3));
+
+        final List<AnnotationToken> withText = decode(BinaryProtocol.reply(annotations, true), true);
+        assertEquals(annotations.size(), withText.size());
+        for (int i = 0; i < annotations.size(); i++) {
+            assertEquals(annotations.get(i).toString(), withText.get(i).toString());
+        }
+        final byte[] withoutText = BinaryProtocol.reply(annotations, false);
+        final List<AnnotationToken> decoded = decode(withoutText, false);
+        assertEquals(annotations.get(1).getConceptId(), decoded.get(1).getConceptId());
+        assertEquals(annotations.get(1).getEnd(), decoded.get(1).getEnd());
+        assertTrue(withoutText.length < (MgrepProtocol.reply(annotations).length / 4));
+
+        assertTrue(Arrays.equals(new byte[]{1, BinaryProtocol.STATUS_BUSY}, BinaryProtocol.busyReply()));
+        assertTrue(Arrays.equals(new byte[]{1, BinaryProtocol.STATUS_OK}, BinaryProtocol.reply(new ArrayList<>(), true)));
+    }
+
+    /**
+     * Decode an OK reply frame, as a client would
+     */
+    static List<AnnotationToken> decode(final byte[] frame, final boolean withText) {
+        final int[] position = {0};
+        final int end = (int) readVarint(frame, position) + position[0];
+        assertEquals(frame.length, end);
+        assertEquals(BinaryProtocol.STATUS_OK, frame[position[0]++]);
+        final List<AnnotationToken> annotations = new ArrayList<>();
+        while (position[0] < end) {
+            final long conceptId = readVarint(frame, position);
+            final int start = (int) readVarint(frame, position);
+            final int annotationEnd = start + (int) readVarint(frame, position);
+            String text = null;
+            if (withText) {
+                final int length = (int) readVarint(frame, position);
+                text = new String(frame, position[0], length, StandardCharsets.UTF_8);
+                position[0] += length;
+            }
+            annotations.add(AnnotationToken.create(start, annotationEnd, text, conceptId, 0));
+        }
+        return annotations;
+    }
+
+    /**
+     * Split the bytes from an offset on into frames, which must fill them
+     */
+    static List<byte[]> frames(final byte[] bytes, final int offset) {
+        final List<byte[]> frames = new ArrayList<>();
+        final int[] position = {offset};
+        while (position[0] < bytes.length) {
+            final int frameStart = position[0];
+            final int length = (int) readVarint(bytes, position);
+            frames.add(Arrays.copyOfRange(bytes, frameStart, position[0] + length));
+            position[0] += length;
+        }
+        assertEquals(bytes.length, position[0]);
+        return frames;
+    }
+
+    private static long readVarint(final byte[] bytes, final int[] position) {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = bytes[position[0]++];
+            value |= (long) (b & BinaryProtocol.VARINT_GROUP_MASK) << shift;
+            shift += BinaryProtocol.VARINT_GROUP_BITS;
+        } while ((b & BinaryProtocol.VARINT_CONTINUATION) != 0);
+        return value;
+    }
+
+    private static byte[] concat(final byte[]... parts) {
+        int length = 0;
+        for (final byte[] part : parts) {
+            length += part.length;
+        }
+        final byte[] bytes = new byte[length];
+        int offset = 0;
+        for (final byte[] part : parts) {
+            System.arraycopy(part, 0, bytes, offset, part.length);
+            offset += part.length;
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,165 @@
+package org.sifrproject.server;
+
+import org.sifrproject.recognizer.DictionaryCompiler;
+import org.sifrproject.recognizer.pool.FaironRecognizerAllocator;
+import org.sifrproject.recognizer.pool.RecognizerPool;
+import org.sifrproject.stemming.StemCache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.*;
+
+/**
+ * Load test of the thread per connection modes: many clients each send commands over a connection of their own, one
+ * at a time, to a server handling connections on platform threads, then on virtual threads when the JVM has them.
+ * Throughput and latency percentiles are logged for both. Not run by the test phase: run its main method on the test
+ * classpath with the number of clients, the number of requests per client and optionally a dictionary as arguments.
+ * The virtual mode needs a Java 21 runtime, e.g. a build with the jdk21 profile.
+ */
+@SuppressWarnings({"UseOfSystemOutOrSystemErr", "CallToPrintStackTrace"})
+public final class ConnectionModeLoadBenchmark {
+
+    private static final Logger logger = LoggerFactory.getLogger(ConnectionModeLoadBenchmark.class);
+
+    private static final int DEFAULT_CLIENTS = 500;
+    private static final int DEFAULT_REQUESTS = 200;
+    private static final String REFERENCE_CORPUS = "reference_corpus.fr.txt";
+
+    private ConnectionModeLoadBenchmark() {
+    }
+
+    public static void main(final String[] args) throws IOException, InterruptedException {
+        final int clients = (args.length > 0) ? Integer.parseInt(args[0]) : DEFAULT_CLIENTS;
+        final int requests = (args.length > 1) ? Integer.parseInt(args[1]) : DEFAULT_REQUESTS;
+        final StemCache stemCache = new StemCache(StemCache.DEFAULT_CAPACITY, StemCache.EvictionPolicy.SEGMENTED_LRU);
+        try (InputStream dictionary = (args.length > 2) ? Files.newInputStream(Paths.get(args[2])) :
+                ConnectionModeLoadBenchmark.class.getClassLoader().getResourceAsStream(ClinicalRecognizerServer.DICTIONARY_DEFAULT_NAME)) {
+            final int cores = Runtime.getRuntime().availableProcessors();
+            final RecognizerPool recognizerPool = new RecognizerPool(new FaironRecognizerAllocator(new DictionaryCompiler(stemCache).compile(dictionary), stemCache), cores, 10000L, 0);
+            final List<String> commands = loadCommands();
+
+            //Every request is admitted, the connection modes are compared without load shedding
+            run("platform", new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60L, TimeUnit.SECONDS, new SynchronousQueue<>()),
+                    new AdmissionController(cores, clients, 0, 1), recognizerPool, commands, clients, requests);
+            if (VirtualThreads.available()) {
+                run("virtual", VirtualThreads.newThreadPerTaskExecutor(), new AdmissionController(cores, clients, 0, 1), recognizerPool, commands, clients, requests);
+            } else {
+                logger.warn("Virtual threads need Java 21 or later, running {}: only the platform mode was measured", System.getProperty("java.version"));
+            }
+            recognizerPool.shutdown();
+        }
+    }
+
+    private static void run(final String mode, final ExecutorService connections, final AdmissionController admissionController, final RecognizerPool recognizerPool,
+                            final List<String> commands, final int clients, final int requests) throws IOException, InterruptedException {
+        try (ServerSocket listenSocket = new ServerSocket(0, clients)) {
+            final Thread acceptor = new Thread(() -> {
+                try {
+                    while (true) {
+                        connections.execute(new RecognizerClientHandler(listenSocket.accept(), recognizerPool, admissionController));
+                    }
+                } catch (final SocketException e) {
+                    //The listen socket was closed, the run is over
+                } catch (final IOException e) {
+                    e.printStackTrace();
+                }
+            });
+            acceptor.start();
+
+            final long[][] latencies = new long[clients][];
+            final ExecutorService clientThreads = Executors.newFixedThreadPool(clients);
+            final CountDownLatch ready = new CountDownLatch(clients);
+            final CountDownLatch start = new CountDownLatch(1);
+            final List<Future<?>> results = new ArrayList<>();
+            for (int client = 0; client < clients; client++) {
+                final int clientIndex = client;
+                results.add(clientThreads.submit(() -> {
+                    latencies[clientIndex] = converse(listenSocket.getLocalPort(), commands, clientIndex, requests, ready, start);
+                    return null;
+                }));
+            }
+            ready.await();
+            final long runStart = System.nanoTime();
+            start.countDown();
+            for (final Future<?> result : results) {
+                try {
+                    result.get();
+                } catch (final ExecutionException e) {
+                    throw new IllegalStateException(e.getCause());
+                }
+            }
+            final long elapsed = System.nanoTime() - runStart;
+            clientThreads.shutdown();
+            listenSocket.close();
+            acceptor.join();
+            connections.shutdown();
+
+            final long[] allLatencies = Arrays.stream(latencies).flatMapToLong(Arrays::stream).sorted().toArray();
+            logger.info(String.format(Locale.ROOT, "%s threads, %d clients: %.0f requests/s, p50 %.2f ms, p99 %.2f ms, max %.2f ms",
+                    mode, clients, (allLatencies.length * 1.0e9) / elapsed, percentileMillis(allLatencies, 0.5),
+                    percentileMillis(allLatencies, 0.99), percentileMillis(allLatencies, 1.0)));
+        }
+    }
+
+    /**
+     * Send the requests of one client one at a time, each after the reply to the previous one
+     *
+     * @return The latency of each request in nanoseconds
+     */
+    private static long[] converse(final int port, final List<String> commands, final int client, final int requests,
+                                   final CountDownLatch ready, final CountDownLatch start) throws IOException, InterruptedException {
+        final long[] latencies = new long[requests];
+        try (Socket socket = new Socket("localhost", port);
+             BufferedReader input = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+             Writer output = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8)) {
+            input.readLine();
+            input.readLine();
+            ready.countDown();
+            start.await();
+            for (int request = 0; request < requests; request++) {
+                final long requestStart = System.nanoTime();
+                output.write(commands.get((client + request) % commands.size()));
+                output.write('\n');
+                output.flush();
+                String line = input.readLine();
+                while ((line != null) && !line.isEmpty()) {
+                    line = input.readLine();
+                }
+                latencies[request] = System.nanoTime() - requestStart;
+            }
+            output.write('\n');
+        }
+        return latencies;
+    }
+
+    private static List<String> loadCommands() throws IOException {
+        final List<String> commands = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                ConnectionModeLoadBenchmark.class.getClassLoader().getResourceAsStream(REFERENCE_CORPUS), StandardCharsets.UTF_8))) {
+            String line = reader.readLine();
+            while (line != null) {
+                if (!line.trim().isEmpty()) {
+                    commands.add("NN " + line);
+                }
+                line = reader.readLine();
+            }
+        }
+        return commands;
+    }
+
+    private static double percentileMillis(final long[] sortedLatencies, final double percentile) {
+        final int index = Math.min(sortedLatencies.length - 1, (int) Math.ceil(percentile * sortedLatencies.length) - 1);
+        return sortedLatencies[Math.max(0, index)] / 1.0e6;
+    }
+}
@@ -0,0 +1,177 @@
+package org.sifrproject.server;
+
+import junit.framework.TestCase;
+import org.sifrproject.recognizer.AnnotationToken;
+import org.sifrproject.recognizer.DictionaryCompiler;
+import org.sifrproject.recognizer.pool.FaironRecognizerAllocator;
+import org.sifrproject.recognizer.pool.RecognizerPool;
+import org.sifrproject.stemming.StemCache;
+
+import java.io.*;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+@SuppressWarnings("PublicMethodNotExposedInInterface")
+public class HttpRecognizerServerTest extends TestCase {
+
+    private static final int POOL_SIZE = 2;
+    private static final int WINDOW = 4;
+    private static final int REPEATS = 10;
+    private static final int MAX_BATCH_BYTES = 1 << 16;
+    private static final String[] TEXTS = {"Désamorçage cardio-circulatoire",
+            "traiter la sclérose en plaques ( SEP ) et une insuffisance rénale aiguë",
+            "Le patient présente une maladie rénale chronique", "troubles de la marche", ""};
+
+    private RecognizerPool recognizerPool;
+    private ExecutorService recognitionWorkers;
+    private ExecutorService exchanges;
+    private HttpRecognizerServer httpServer;
+
+    @Override
+    protected void setUp() throws Exception {
+        final StemCache stemCache = new StemCache(StemCache.DEFAULT_CAPACITY, StemCache.EvictionPolicy.LRU);
+        final InputStream dictionary = HttpRecognizerServerTest.class.getClassLoader().getResourceAsStream(ClinicalRecognizerServer.DICTIONARY_DEFAULT_NAME);
+        recognizerPool = new RecognizerPool(new FaironRecognizerAllocator(new DictionaryCompiler(stemCache).compile(dictionary), stemCache), POOL_SIZE, 1000L, 0);
+        final AdmissionController admissionController = new AdmissionController(POOL_SIZE, 100, 0, 1);
+        recognitionWorkers = admissionController.newExecutor();
+        exchanges = Executors.newCachedThreadPool();
+        httpServer = new HttpRecognizerServer(0, recognizerPool, admissionController, recognitionWorkers, WINDOW, MAX_BATCH_BYTES, exchanges);
+        httpServer.start();
+    }
+
+    @Override
+    protected void tearDown() {
+        httpServer.stop();
+        exchanges.shutdown();
+        recognitionWorkers.shutdown();
+        recognizerPool.shutdown();
+    }
+
+    public void testBatch_streamsOneResultPerDocument() throws IOException {
+        final StringBuilder batch = new StringBuilder();
+        final Map<Integer, String> expected = new HashMap<>();
+        int index = 0;
+        for (int repeat = 0; repeat < REPEATS; repeat++) {
+            for (final String text : TEXTS) {
+                //Ids may be strings or numbers, other members are ignored even when they hold brackets
+                final String id = ((index % 2) == 0) ? Json.appendString(new StringBuilder(), "doc \"" + index + '"').toString() : String.valueOf(index);
+                final boolean longestOnly = (index % 3) == 0;
+                batch.append("{\"id\": ").append(id).append(", \"meta\": {\"tags\": [\"}]\"]}, \"longestOnly\": ").append(longestOnly)
+                        .append(", \"text\": ");
+                Json.appendString(batch, text).append("}\n");
+                expected.put(index, expectedResult(index, id, text, longestOnly));
+                index++;
+            }
+            //Blank lines are skipped
+            batch.append('\n');
+        }
+        batch.append("{\"id\": \"no text\"}\n");
+        expected.put(index, "{\"index\":" + index + ",\"id\":\"no text\",\"error\":\"Missing text\"}");
+        index++;
+        batch.append("not json\n");
+        expected.put(index, "{\"index\":" + index + ",\"error\":\"Expected '{' at offset 0\"}");
+
+        final HttpURLConnection connection = post(batch.toString().getBytes(StandardCharsets.UTF_8), false);
+        assertEquals(200, connection.getResponseCode());
+        assertEquals("chunked", connection.getHeaderField("Transfer-Encoding"));
+        assertEquals(expected, results(connection.getInputStream()));
+    }
+
+    public void testBatch_gzipBothWays() throws IOException {
+        final StringBuilder batch = new StringBuilder();
+        final Map<Integer, String> expected = new HashMap<>();
+        for (int index = 0; index < TEXTS.length; index++) {
+            Json.appendString(batch.append("{\"text\": "), TEXTS[index]).append("}\n");
+            expected.put(index, expectedResult(index, null, TEXTS[index], true));
+        }
+        final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (OutputStream gzip = new GZIPOutputStream(compressed)) {
+            gzip.write(batch.toString().getBytes(StandardCharsets.UTF_8));
+        }
+        final HttpURLConnection connection = post(compressed.toByteArray(), true);
+        assertEquals("gzip", connection.getHeaderField("Content-Encoding"));
+        assertEquals(expected, results(new GZIPInputStream(connection.getInputStream())));
+    }
+
+    public void testBatch_tooLargeOnceDecompressed() throws IOException {
+        final byte[] document = "{\"text\": \"sclérose en plaques\"}\n".getBytes(StandardCharsets.UTF_8);
+        //A batch of exactly the maximum size is annotated, one more byte is too many
+        final byte[] batch = new byte[MAX_BATCH_BYTES];
+        Arrays.fill(batch, (byte) '\n');
+        System.arraycopy(document, 0, batch, 0, document.length);
+        final HttpURLConnection accepted = post(batch, false);
+        assertEquals(200, accepted.getResponseCode());
+        assertEquals(1, results(accepted.getInputStream()).size());
+        assertEquals(413, post(Arrays.copyOf(batch, MAX_BATCH_BYTES + 1), false).getResponseCode());
+        //Compressed, the same blank lines weigh next to nothing
+        final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (OutputStream gzip = new GZIPOutputStream(compressed)) {
+            gzip.write(batch);
+            gzip.write(batch);
+        }
+        assertTrue(compressed.size() < MAX_BATCH_BYTES);
+        assertEquals(413, post(compressed.toByteArray(), true).getResponseCode());
+    }
+
+    public void testGet_isNotAllowed() throws IOException {
+        final HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" + httpServer.localPort() + HttpRecognizerServer.CONTEXT).openConnection();
+        assertEquals(405, connection.getResponseCode());
+        assertEquals("POST", connection.getHeaderField("Allow"));
+    }
+
+    private String expectedResult(final int index, final String id, final String text, final boolean longestOnly) {
+        final StringBuilder result = new StringBuilder("{\"index\":").append(index);
+        if (id != null) {
+            result.append(",\"id\":").append(id);
+        }
+        result.append(",\"annotations\":[");
+        final List<AnnotationToken> annotations = MgrepProtocol.annotate(recognizerPool, text, longestOnly);
+        for (final AnnotationToken annotation : annotations) {
+            result.append("{\"conceptId\":").append(annotation.getConceptId()).append(",\"start\":").append(annotation.getStart())
+                    .append(",\"end\":").append(annotation.getEnd()).append(",\"text\":");
+            Json.appendString(result, annotation.getText()).append("},");
+        }
+        if (!annotations.isEmpty()) {
+            result.setLength(result.length() - 1);
+        }
+        return result.append("]}").toString();
+    }
+
+    private HttpURLConnection post(final byte[] body, final boolean gzip) throws IOException {
+        final HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" + httpServer.localPort()
+                + HttpRecognizerServer.CONTEXT + "?longestOnly=true").openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setRequestProperty("Content-Type", "application/x-ndjson");
+        if (gzip) {
+            connection.setRequestProperty("Content-Encoding", "gzip");
+            connection.setRequestProperty("Accept-Encoding", "gzip");
+        }
+        try (OutputStream output = connection.getOutputStream()) {
+            output.write(body);
+        }
+        return connection;
+    }
+
+    /**
+     * @return The result lines by the index they hold, which must be unique
+     */
+    private static Map<Integer, String> results(final InputStream response) throws IOException {
+        final Map<Integer, String> results = new HashMap<>();
+        try (BufferedReader input = new BufferedReader(new InputStreamReader(response, StandardCharsets.UTF_8))) {
+            String line = input.readLine();
+            while (line != null) {
+                final int index = Integer.parseInt(Json.parseObject(line).get("index"));
+                assertNull(line, results.put(index, line));
+                line = input.readLine();
+            }
+        }
+        return results;
+    }
+}
@@ -0,0 +1,68 @@
+package org.sifrproject.server;
+
+import junit.framework.TestCase;
+import org.sifrproject.recognizer.AnnotationToken;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+@SuppressWarnings("PublicMethodNotExposedInInterface")
+public class MgrepReplyEncoderTest extends TestCase {
+
+    private static final int RANDOM_ROUNDS = 300;
+    private static final String[] TEXTS = {"sclérose en plaques", "Désamorçage cardio-circulatoire", "insuffisance rénale aiguë",
+            "œdème", "β-bloquant", "naïve", "patient 😷", "unpaired \uD83D surrogate", "\uDE37", "", null};
+
+    public void testEncode_sameBytesAsPrintWriter() throws IOException {
+        final MgrepReplyEncoder encoder = new MgrepReplyEncoder();
+        final Random random = new Random(42);
+        for (int round = 0; round < RANDOM_ROUNDS; round++) {
+            final List<AnnotationToken> annotations = new ArrayList<>();
+            final int count = random.nextInt(round < 10 ? 2 : 200);
+            for (int i = 0; i < count; i++) {
+                final int start = random.nextInt(100000);
+                final Long conceptId = (i == 7) ? null : ((i == 8) ? Long.MIN_VALUE : ((i == 9) ? Long.MAX_VALUE : random.nextInt(Integer.MAX_VALUE)));
+                annotations.add(AnnotationToken.create(start, start + random.nextInt(100), TEXTS[random.nextInt(TEXTS.length)], conceptId, 1));
+            }
+            final byte[] expected = printWriterReply(annotations);
+            //The buffer is reused, a reply must not keep bytes of the previous one
+            assertTrue(Arrays.equals(expected, encoder.encode(annotations).toByteArray()));
+            assertEquals(expected.length, encoder.size());
+            final ByteArrayOutputStream output = new ByteArrayOutputStream();
+            encoder.writeTo(output);
+            assertTrue(Arrays.equals(expected, output.toByteArray()));
+            assertTrue(Arrays.equals(expected, MgrepProtocol.reply(annotations)));
+        }
+    }
+
+    public void testEncode_followsFormatLocaleDigits() throws IOException {
+        final Locale defaultLocale = Locale.getDefault(Locale.Category.FORMAT);
+        try {
+            for (final Locale locale : new Locale[]{Locale.forLanguageTag("th-TH-u-nu-thai"), Locale.forLanguageTag("ar-EG"), Locale.FRANCE}) {
+                Locale.setDefault(Locale.Category.FORMAT, locale);
+                final List<AnnotationToken> annotations = Collections.singletonList(AnnotationToken.create(1234, 1252, "sclérose en plaques", 9876543210L, 3));
+                assertTrue(locale.toString(), Arrays.equals(printWriterReply(annotations), new MgrepReplyEncoder().encode(annotations).toByteArray()));
+            }
+        } finally {
+            Locale.setDefault(Locale.Category.FORMAT, defaultLocale);
+        }
+    }
+
+    /**
+     * The reply as the handler wrote it before the encoder
+     */
+    private static byte[] printWriterReply(final List<AnnotationToken> annotations) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (PrintWriter outputWriter = new PrintWriter(new OutputStreamWriter(bytes, StandardCharsets.UTF_8))) {
+            for (final AnnotationToken token : annotations) {
+                outputWriter.println(token);
+            }
+            outputWriter.println();
+        }
+        return bytes.toByteArray();
+    }
+}
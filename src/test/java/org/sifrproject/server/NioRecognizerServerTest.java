@@ -0,0 +1,391 @@
+package org.sifrproject.server;
+
+import junit.framework.TestCase;
+import org.sifrproject.recognizer.AnnotationToken;
+import org.sifrproject.recognizer.ConceptRecognizer;
+import org.sifrproject.recognizer.DictionaryCompiler;
+import org.sifrproject.recognizer.pool.FaironRecognizerAllocator;
+import org.sifrproject.recognizer.pool.RecognizerPool;
+import org.sifrproject.stemming.StemCache;
+import stormpot.Allocator;
+import stormpot.Slot;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+
+@SuppressWarnings("PublicMethodNotExposedInInterface")
+public class NioRecognizerServerTest extends TestCase {
+
+    private static final int POOL_SIZE = 2;
+    private static final int IDLE_CONNECTIONS = 500;
+    private static final int PIPELINE_WINDOW = 8;
+    private static final int PIPELINED_SESSION_REPEATS = 50;
+    private static final int LONG_TEXT_REPEATS = 40;
+    //A session that stops being answered fails instead of hanging the build
+    private static final int REPLY_TIMEOUT_MILLIS = 30000;
+    private static final int HANDSHAKE_LENGTH = MgrepProtocol.handshake().length;
+    //Commands with and without text, both flags, CR, LF and CRLF line terminators, an empty line ending the session
+    //and a command after it that must be ignored
+    private static final String SESSION = "NN Désamorçage cardio-circulatoire\n"
+            + "YN traiter la sclérose en plaques ( SEP ) et une insuffisance rénale aiguë\r\n"
+            + "NN \n"
+            + "NN\r"
+            + "NN Le patient présente une maladie rénale chronique\r"
+            + "\n"
+            + "YY troubles de la marche\n"
+            + "\n"
+            + "NN sclérose en plaques\n";
+
+    private RecognizerPool recognizerPool;
+    private ExecutorService recognitionWorkers;
+
+    @Override
+    protected void setUp() throws Exception {
+        final StemCache stemCache = new StemCache(StemCache.DEFAULT_CAPACITY, StemCache.EvictionPolicy.LRU);
+        final InputStream dictionary = NioRecognizerServerTest.class.getClassLoader().getResourceAsStream(ClinicalRecognizerServer.DICTIONARY_DEFAULT_NAME);
+        recognizerPool = new RecognizerPool(new FaironRecognizerAllocator(new DictionaryCompiler(stemCache).compile(dictionary), stemCache), POOL_SIZE, 1000L, 0);
+        recognitionWorkers = admissionController().newExecutor();
+    }
+
+    @Override
+    protected void tearDown() {
+        recognitionWorkers.shutdown();
+        recognizerPool.shutdown();
+    }
+
+    public void testSession_sameBytesAsBlockingHandler() throws IOException, InterruptedException {
+        final byte[] blockingReply;
+        try (ServerSocket listenSocket = new ServerSocket(0)) {
+            final Thread acceptor = new Thread(() -> {
+                try {
+                    new RecognizerClientHandler(listenSocket.accept(), recognizerPool, admissionController()).run();
+                } catch (final IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            acceptor.start();
+            blockingReply = converse(listenSocket.getLocalPort(), SESSION.getBytes(StandardCharsets.UTF_8));
+            acceptor.join();
+        }
+
+        final NioRecognizerServer nioServer = new NioRecognizerServer(0, recognizerPool, 2, admissionController(), recognitionWorkers, 1);
+        final Thread serverThread = new Thread(nioServer::run);
+        serverThread.start();
+        try {
+            final byte[] nioReply = converse(nioServer.localPort(), SESSION.getBytes(StandardCharsets.UTF_8));
+            assertTrue(new String(blockingReply, StandardCharsets.UTF_8), blockingReply.length > (HANDSHAKE_LENGTH + 10));
+            assertEquals(new String(blockingReply, StandardCharsets.UTF_8), new String(nioReply, StandardCharsets.UTF_8));
+            assertTrue(Arrays.equals(blockingReply, nioReply));
+
+            //A session ending with the input, the last command without line terminator
+            final byte[] unterminated = converse(nioServer.localPort(), "NN sclérose en plaques".getBytes(StandardCharsets.UTF_8));
+            assertTrue(unterminated.length > (HANDSHAKE_LENGTH + 1));
+        } finally {
+            nioServer.stop();
+            serverThread.join();
+        }
+    }
+
+    public void testOverload_busyReplyInBothModes() throws IOException, InterruptedException {
+        //Whatever the heap occupancy, every request is shed
+        final AdmissionController sheddingController = new AdmissionController(POOL_SIZE, POOL_SIZE, 0, -1);
+        final byte[] expected = (new String(MgrepProtocol.handshake(), StandardCharsets.UTF_8)
+                + new String(MgrepProtocol.busyReply(), StandardCharsets.UTF_8)).getBytes(StandardCharsets.UTF_8);
+        final byte[] command = "NN sclérose en plaques\n".getBytes(StandardCharsets.UTF_8);
+        try (ServerSocket listenSocket = new ServerSocket(0)) {
+            final Thread acceptor = new Thread(() -> {
+                try {
+                    new RecognizerClientHandler(listenSocket.accept(), recognizerPool, sheddingController).run();
+                } catch (final IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            acceptor.start();
+            assertTrue(Arrays.equals(expected, converse(listenSocket.getLocalPort(), command)));
+            acceptor.join();
+        }
+        final NioRecognizerServer nioServer = new NioRecognizerServer(0, recognizerPool, 1, sheddingController, recognitionWorkers, 1);
+        final Thread serverThread = new Thread(nioServer::run);
+        serverThread.start();
+        try {
+            assertTrue(Arrays.equals(expected, converse(nioServer.localPort(), command)));
+        } finally {
+            nioServer.stop();
+            serverThread.join();
+        }
+        assertEquals(2, sheddingController.rejectionCount(AdmissionController.Rejection.HEAP_OCCUPANCY));
+    }
+
+    public void testFailedReply_keepsSessionInSync() throws IOException, InterruptedException {
+        //Annotations without text cannot be encoded in a reply asking for the matched text
+        final RecognizerPool failingPool = new RecognizerPool(new Allocator<ConceptRecognizer>() {
+            @Override
+            public ConceptRecognizer allocate(final Slot slot) {
+                return new ConceptRecognizer() {
+                    @Override
+                    public List<AnnotationToken> recognize(final String inputText, final boolean longestOnly) {
+                        return Collections.singletonList(AnnotationToken.create(1, 1, null, 42L, 1));
+                    }
+
+                    @Override
+                    public int lookahead() {
+                        return 0;
+                    }
+
+                    @Override
+                    public void release() {
+                        slot.release(this);
+                    }
+                };
+            }
+
+            @Override
+            public void deallocate(final ConceptRecognizer poolable) {
+                //Nothing to free
+            }
+        }, 1, 1000L, 0);
+        final ByteArrayOutputStream session = new ByteArrayOutputStream();
+        session.write((BinaryProtocol.UPGRADE + '\n').getBytes(StandardCharsets.UTF_8));
+        session.write(BinaryProtocol.requestFrame("sclérose en plaques", false, true));
+        session.write(BinaryProtocol.requestFrame("sclérose en plaques", false, false));
+        session.write(0);
+        final NioRecognizerServer nioServer = new NioRecognizerServer(0, failingPool, 1, admissionController(), recognitionWorkers, PIPELINE_WINDOW);
+        final Thread serverThread = new Thread(nioServer::run);
+        serverThread.start();
+        try {
+            final byte[] replies = converse(nioServer.localPort(), session.toByteArray());
+            final List<byte[]> frames = BinaryProtocolTest.frames(replies, HANDSHAKE_LENGTH + BinaryProtocol.acknowledgement().length);
+            //The failed reply is empty and the next command is still answered
+            assertEquals(2, frames.size());
+            assertTrue(BinaryProtocolTest.decode(frames.get(0), true).isEmpty());
+            assertEquals(42L, (long) BinaryProtocolTest.decode(frames.get(1), false).get(0).getConceptId());
+        } finally {
+            nioServer.stop();
+            serverThread.join();
+            failingPool.shutdown();
+        }
+    }
+
+    public void testSequentialHandler_boundedBySharedWorkers() throws IOException, InterruptedException {
+        //A single worker and no queue, kept busy by another front end
+        final AdmissionController saturatedController = new AdmissionController(1, 0, 0, 1);
+        final ExecutorService sharedWorkers = saturatedController.newExecutor();
+        final CountDownLatch otherRecognition = new CountDownLatch(1);
+        sharedWorkers.execute(() -> {
+            try {
+                otherRecognition.await();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        final byte[] expected = (new String(MgrepProtocol.handshake(), StandardCharsets.UTF_8)
+                + new String(MgrepProtocol.busyReply(), StandardCharsets.UTF_8)).getBytes(StandardCharsets.UTF_8);
+        try (ServerSocket listenSocket = new ServerSocket(0)) {
+            final Thread acceptor = new Thread(() -> {
+                try {
+                    new RecognizerClientHandler(listenSocket.accept(), recognizerPool, saturatedController, sharedWorkers, 1).run();
+                } catch (final IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            acceptor.start();
+            assertTrue(Arrays.equals(expected, converse(listenSocket.getLocalPort(), "NN sclérose en plaques\n".getBytes(StandardCharsets.UTF_8))));
+            acceptor.join();
+        } finally {
+            otherRecognition.countDown();
+            sharedWorkers.shutdown();
+        }
+        assertEquals(1, saturatedController.rejectionCount(AdmissionController.Rejection.QUEUE_FULL));
+    }
+
+    public void testPipeline_sameBytesInCommandOrder() throws IOException, InterruptedException {
+        //Many commands sent at once, most of them with annotations of their own
+        final StringBuilder longSession = new StringBuilder();
+        for (int i = 0; i < PIPELINED_SESSION_REPEATS; i++) {
+            longSession.append(SESSION, 0, SESSION.indexOf("\n\n") + 1);
+        }
+        final byte[] session = longSession.append('\n').toString().getBytes(StandardCharsets.UTF_8);
+        final byte[] sequentialReply = converseWithHandler(session, null, 1);
+
+        final byte[] pipelinedReply = converseWithHandler(session, recognitionWorkers, PIPELINE_WINDOW);
+        assertEquals(new String(sequentialReply, StandardCharsets.UTF_8), new String(pipelinedReply, StandardCharsets.UTF_8));
+        assertTrue(Arrays.equals(sequentialReply, pipelinedReply));
+
+        final NioRecognizerServer nioServer = new NioRecognizerServer(0, recognizerPool, 2, admissionController(), recognitionWorkers, PIPELINE_WINDOW);
+        final Thread serverThread = new Thread(nioServer::run);
+        serverThread.start();
+        try {
+            assertTrue(Arrays.equals(sequentialReply, converse(nioServer.localPort(), session)));
+        } finally {
+            nioServer.stop();
+            serverThread.join();
+        }
+    }
+
+    public void testPipeline_answersClientsWaitingForEachReply() throws IOException, InterruptedException {
+        try (ServerSocket listenSocket = new ServerSocket(0)) {
+            final Thread acceptor = new Thread(() -> {
+                try {
+                    new RecognizerClientHandler(listenSocket.accept(), recognizerPool, admissionController(), recognitionWorkers, PIPELINE_WINDOW).run();
+                } catch (final IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            acceptor.start();
+            try (Socket socket = new Socket("localhost", listenSocket.getLocalPort())) {
+                final BufferedReader input = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+                final OutputStream output = socket.getOutputStream();
+                assertEquals(MgrepProtocol.NAME, input.readLine());
+                assertEquals(MgrepProtocol.VERSION, input.readLine());
+                for (int i = 0; i < 3; i++) {
+                    output.write("NN sclérose en plaques\n".getBytes(StandardCharsets.UTF_8));
+                    output.flush();
+                    String line = input.readLine();
+                    assertTrue(line, line.endsWith("sclérose en plaques"));
+                    while (!line.isEmpty()) {
+                        line = input.readLine();
+                    }
+                }
+                output.write('\n');
+                output.flush();
+                assertNull(input.readLine());
+            }
+            acceptor.join();
+        }
+    }
+
+    public void testBinaryProtocol_sameAnnotationsInEveryMode() throws IOException, InterruptedException {
+        //The last text takes a frame longer than the initial frame buffer
+        final StringBuilder longText = new StringBuilder();
+        for (int i = 0; i < LONG_TEXT_REPEATS; i++) {
+            longText.append("traiter la sclérose en plaques et une insuffisance rénale aiguë ");
+        }
+        final String[] texts = {"Désamorçage cardio-circulatoire",
+                "traiter la sclérose en plaques ( SEP ) et une insuffisance rénale aiguë", "",
+                "Le patient présente une maladie rénale chronique", longText.toString()};
+        final ByteArrayOutputStream textSession = new ByteArrayOutputStream();
+        //The frames may follow the upgrade line at once, ended by a carriage return and a line feed
+        final ByteArrayOutputStream binarySession = new ByteArrayOutputStream();
+        binarySession.write((BinaryProtocol.UPGRADE + "\r\n").getBytes(StandardCharsets.UTF_8));
+        for (final String text : texts) {
+            textSession.write(("NN " + text + '\n').getBytes(StandardCharsets.UTF_8));
+            binarySession.write(BinaryProtocol.requestFrame(text, false, true));
+        }
+        binarySession.write(0);
+        final byte[] textReply = converseWithHandler(textSession.toByteArray(), null, 1);
+        final byte[] binaryReply = converseWithHandler(binarySession.toByteArray(), null, 1);
+
+        //Every frame is answered, in order, with the annotations of the text protocol
+        final StringBuilder binaryAsText = new StringBuilder(new String(MgrepProtocol.handshake(), StandardCharsets.UTF_8));
+        final List<byte[]> frames = BinaryProtocolTest.frames(binaryReply, HANDSHAKE_LENGTH + BinaryProtocol.acknowledgement().length);
+        assertEquals(texts.length, frames.size());
+        for (int i = 0; i < texts.length; i++) {
+            for (final AnnotationToken annotation : BinaryProtocolTest.decode(frames.get(i), true)) {
+                binaryAsText.append(annotation).append(System.lineSeparator());
+            }
+            //The text protocol does not answer commands without text
+            if (!texts[i].isEmpty()) {
+                binaryAsText.append(System.lineSeparator());
+            }
+        }
+        assertEquals(new String(textReply, StandardCharsets.UTF_8), binaryAsText.toString());
+        assertTrue(binaryReply.length < textReply.length);
+
+        assertTrue(Arrays.equals(binaryReply, converseWithHandler(binarySession.toByteArray(), recognitionWorkers, PIPELINE_WINDOW)));
+        final NioRecognizerServer nioServer = new NioRecognizerServer(0, recognizerPool, 1, admissionController(), recognitionWorkers, PIPELINE_WINDOW);
+        final Thread serverThread = new Thread(nioServer::run);
+        serverThread.start();
+        try {
+            assertTrue(Arrays.equals(binaryReply, converse(nioServer.localPort(), binarySession.toByteArray())));
+        } finally {
+            nioServer.stop();
+            serverThread.join();
+        }
+    }
+
+    public void testIdleConnections_doNotCostThreads() throws IOException, InterruptedException {
+        final NioRecognizerServer nioServer = new NioRecognizerServer(0, recognizerPool, 2, admissionController(), recognitionWorkers, 1);
+        final Thread serverThread = new Thread(nioServer::run);
+        serverThread.start();
+        final List<Socket> clients = new ArrayList<>();
+        try {
+            final int threadsBefore = Thread.activeCount();
+            for (int i = 0; i < IDLE_CONNECTIONS; i++) {
+                final Socket client = new Socket("localhost", nioServer.localPort());
+                clients.add(client);
+                final byte[] handshake = new byte[HANDSHAKE_LENGTH];
+                int read = 0;
+                while (read < handshake.length) {
+                    read += client.getInputStream().read(handshake, read, handshake.length - read);
+                }
+            }
+            assertTrue(Thread.activeCount() < (threadsBefore + 10));
+            //Idle connections are still served
+            final OutputStream output = clients.get(0).getOutputStream();
+            output.write("NN sclérose en plaques\n".getBytes(StandardCharsets.UTF_8));
+            output.flush();
+            assertTrue(clients.get(0).getInputStream().read() > 0);
+        } finally {
+            for (final Socket client : clients) {
+                client.close();
+            }
+            nioServer.stop();
+            serverThread.join();
+        }
+    }
+
+    private byte[] converseWithHandler(final byte[] session, final ExecutorService pipelineWorkers, final int pipelineWindow) throws IOException, InterruptedException {
+        try (ServerSocket listenSocket = new ServerSocket(0)) {
+            final Thread acceptor = new Thread(() -> {
+                try {
+                    new RecognizerClientHandler(listenSocket.accept(), recognizerPool, admissionController(), pipelineWorkers, pipelineWindow).run();
+                } catch (final IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            acceptor.start();
+            final byte[] reply = converse(listenSocket.getLocalPort(), session);
+            acceptor.join();
+            return reply;
+        }
+    }
+
+    private static AdmissionController admissionController() {
+        return new AdmissionController(POOL_SIZE, IDLE_CONNECTIONS, 0, 1);
+    }
+
+    /**
+     * Send the whole session, then read the replies until the server closes the connection
+     */
+    private static byte[] converse(final int port, final byte[] session) throws IOException {
+        try (Socket socket = new Socket("localhost", port)) {
+            socket.setSoTimeout(REPLY_TIMEOUT_MILLIS);
+            final OutputStream output = socket.getOutputStream();
+            output.write(session);
+            output.flush();
+            socket.shutdownOutput();
+            final ByteArrayOutputStream replies = new ByteArrayOutputStream();
+            final InputStream input = socket.getInputStream();
+            final byte[] buffer = new byte[4096];
+            int read = input.read(buffer);
+            while (read >= 0) {
+                replies.write(buffer, 0, read);
+                read = input.read(buffer);
+            }
+            return replies.toByteArray();
+        }
+    }
+}
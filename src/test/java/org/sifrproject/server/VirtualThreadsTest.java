@@ -0,0 +1,30 @@
+package org.sifrproject.server;
+
+import junit.framework.TestCase;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+
+@SuppressWarnings("PublicMethodNotExposedInInterface")
+public class VirtualThreadsTest extends TestCase {
+
+    public void testNewThreadPerTaskExecutor_onlyWhereAvailable() throws ExecutionException, InterruptedException {
+        final boolean javaWithVirtualThreads = System.getProperty("java.specification.version").matches("2[1-9]|[3-9][0-9]");
+        assertEquals(javaWithVirtualThreads, VirtualThreads.available());
+        if (VirtualThreads.available()) {
+            final ExecutorService executor = VirtualThreads.newThreadPerTaskExecutor();
+            try {
+                assertEquals(Boolean.TRUE, executor.submit(() -> Thread.class.getMethod("isVirtual").invoke(Thread.currentThread())).get());
+            } finally {
+                executor.shutdown();
+            }
+        } else {
+            try {
+                VirtualThreads.newThreadPerTaskExecutor();
+                fail("Virtual threads are not available before Java 21");
+            } catch (final UnsupportedOperationException e) {
+                assertTrue(e.getMessage().contains("Java 21"));
+            }
+        }
+    }
+}
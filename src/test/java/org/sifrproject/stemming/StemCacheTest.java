@@ -0,0 +1,107 @@
+package org.sifrproject.stemming;
+
+import junit.framework.TestCase;
+import org.tartarus.snowball.SnowballStemmer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+@SuppressWarnings("PublicMethodNotExposedInInterface")
+public class StemCacheTest extends TestCase {
+
+    private static final int CAPACITY = 64;
+    private static final int THREADS = 4;
+    private static final String[] WORDS = {"maladies", "cardiaques", "syndromes", "troubles", "marche", "instable", "douleurs", "thoraciques"};
+
+    public void testGet_countsHitsAndMisses() {
+        final StemCache cache = new StemCache(CAPACITY, StemCache.EvictionPolicy.SEGMENTED_LRU);
+        final AtomicInteger calls = new AtomicInteger();
+        final Function<String, String> stemFunction = word -> {
+            calls.incrementAndGet();
+            return word.substring(0, 3);
+        };
+        assertEquals("mal", cache.get("maladies", stemFunction));
+        assertEquals("mal", cache.get("maladies", stemFunction));
+        assertEquals("mal", cache.get("maladies", stemFunction));
+        assertEquals(1, calls.get());
+        assertEquals(2, cache.hitCount());
+        assertEquals(1, cache.missCount());
+        assertEquals(1, cache.size());
+    }
+
+    public void testGet_sharesEntriesBetweenStringsAndCharRanges() {
+        final StemCache cache = new StemCache(CAPACITY, StemCache.EvictionPolicy.LRU);
+        final char[] text = "les maladies cardiaques".toCharArray();
+        assertEquals("mal", cache.get(text, 4, 8, word -> word.substring(0, 3)));
+        assertEquals("mal", cache.get("maladies", word -> "other"));
+        assertEquals("mal", cache.get(text, 4, 8, word -> "other"));
+        assertEquals(2, cache.hitCount());
+        assertEquals(1, cache.missCount());
+    }
+
+    public void testGet_staysBounded() {
+        for (final StemCache.EvictionPolicy policy : StemCache.EvictionPolicy.values()) {
+            final StemCache cache = new StemCache(CAPACITY, policy);
+            for (int i = 0; i < (CAPACITY * 10); i++) {
+                cache.get("word" + i, Function.identity());
+                cache.get("word" + (i / 2), Function.identity());
+            }
+            assertTrue(policy + " " + cache.size(), cache.size() <= CAPACITY);
+        }
+    }
+
+    public void testSegmentedLru_frequentEntriesSurviveScan() {
+        final StemCache cache = new StemCache(CAPACITY, StemCache.EvictionPolicy.SEGMENTED_LRU);
+        //Frequent words are hit twice and get promoted to the protected area...
+        for (final String word : WORDS) {
+            cache.get(word, Function.identity());
+            cache.get(word, Function.identity());
+        }
+        //...so that a long scan of words seen only once does not evict them
+        for (int i = 0; i < (CAPACITY * 10); i++) {
+            cache.get("scan" + i, Function.identity());
+        }
+        final long misses = cache.missCount();
+        for (final String word : WORDS) {
+            cache.get(word, Function.identity());
+        }
+        assertEquals(misses, cache.missCount());
+    }
+
+    public void testGet_concurrentCallersSeeStemmerResults() throws InterruptedException, ExecutionException {
+        final StemCache cache = new StemCache(CAPACITY, StemCache.EvictionPolicy.SEGMENTED_LRU);
+        final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            final List<Future<Boolean>> results = new ArrayList<>();
+            for (int thread = 0; thread < THREADS; thread++) {
+                results.add(executor.submit(() -> {
+                    //The stemmer is not thread safe, each caller brings its own
+                    final SnowballStemmer stemmer = new FrenchClinicalStemmer();
+                    final Function<String, String> stemFunction = word -> {
+                        stemmer.setCurrent(word);
+                        stemmer.stem();
+                        return stemmer.getCurrent();
+                    };
+                    final SnowballStemmer reference = new FrenchClinicalStemmer();
+                    for (int round = 0; round < 1000; round++) {
+                        final String word = WORDS[round % WORDS.length] + ((round % 3 == 0) ? "" : "s");
+                        reference.setCurrent(word);
+                        reference.stem();
+                        if (!reference.getCurrent().equals(cache.get(word, stemFunction))) {
+                            return false;
+                        }
+                    }
+                    return true;
+                }));
+            }
+            for (final Future<Boolean> result : results) {
+                assertTrue(result.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}